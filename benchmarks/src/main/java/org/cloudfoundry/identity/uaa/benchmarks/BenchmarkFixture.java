@@ -0,0 +1,287 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.cloudfoundry.identity.uaa.approval.JdbcApprovalStore;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.oauth.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.oauth.token.JdbcRevocableTokenProvisioning;
+import org.cloudfoundry.identity.uaa.resources.jdbc.DefaultLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimGroupMembershipManager;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.user.JdbcUaaUserDatabase;
+import org.cloudfoundry.identity.uaa.user.UaaAuthority;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.JdbcIdentityZoneProvisioning;
+import org.cloudfoundry.identity.uaa.zone.MultitenantJdbcClientDetailsService;
+import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.oauth2.provider.AuthorizationRequest;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Seeds an in-memory HSQLDB, migrated with the same scripts as the server, with a reproducible
+ * data set: a number of identity zones, each with its own signing key, a client, a chain of nested
+ * groups and a number of users that are members of a random group of the chain.
+ *
+ * The random choices are made with a fixed seed, so two fixtures with the same parameters hold the
+ * same data and benchmark results can be compared between runs and commits.
+ */
+public class BenchmarkFixture implements AutoCloseable {
+
+    public static final long SEED = 20171018L;
+    public static final String ISSUER = "http://localhost:8080/uaa";
+    public static final String CLIENT_ID = "benchmark";
+    public static final String CLIENT_SECRET = "benchmarksecret";
+    public static final String PASSWORD = "benchmarkpassword";
+    public static final String GROUP_PREFIX = "benchmark.group.";
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcIdentityZoneProvisioning zoneProvisioning;
+    private final JdbcScimUserProvisioning userProvisioning;
+    private final JdbcScimGroupProvisioning groupProvisioning;
+    private final JdbcScimGroupMembershipManager membershipManager;
+    private final MultitenantJdbcClientDetailsService clientDetailsService;
+    private final JdbcUaaUserDatabase userDatabase;
+    private final List<IdentityZone> zones = new ArrayList<>();
+    private final List<List<String>> userIds = new ArrayList<>();
+    private final List<String> scopes = new ArrayList<>();
+
+    /**
+     * @param zoneCount the number of identity zones to create
+     * @param usersPerZone the number of users to create in each zone
+     * @param groupDepth the length of the chain of nested groups in each zone
+     */
+    public BenchmarkFixture(int zoneCount, int usersPerZone, int groupDepth) {
+        dataSource = new DataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        dataSource.setUrl("jdbc:hsqldb:mem:uaa-benchmarks-" + databases.incrementAndGet());
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setLocations("classpath:org/cloudfoundry/identity/uaa/db/hsqldb/");
+        flyway.migrate();
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        JdbcPagingListFactory pagingListFactory = new JdbcPagingListFactory(jdbcTemplate, new DefaultLimitSqlAdapter());
+        zoneProvisioning = new JdbcIdentityZoneProvisioning(jdbcTemplate);
+        IdentityZoneHolder.setProvisioning(zoneProvisioning);
+        userProvisioning = new JdbcScimUserProvisioning(jdbcTemplate, pagingListFactory);
+        // the users only need a valid hash, the cost of the real one is measured separately
+        userProvisioning.setPasswordEncoder(new BCryptPasswordEncoder(4));
+        groupProvisioning = new JdbcScimGroupProvisioning(jdbcTemplate, pagingListFactory);
+        membershipManager = new JdbcScimGroupMembershipManager(jdbcTemplate);
+        membershipManager.setScimUserProvisioning(userProvisioning);
+        membershipManager.setScimGroupProvisioning(groupProvisioning);
+        membershipManager.setZoneProvisioning(zoneProvisioning);
+        clientDetailsService = new MultitenantJdbcClientDetailsService(jdbcTemplate);
+        userDatabase = new JdbcUaaUserDatabase(jdbcTemplate, new TimeServiceImpl());
+
+        scopes.add("openid");
+        for (int depth = 0; depth < groupDepth; depth++) {
+            scopes.add(GROUP_PREFIX + depth);
+        }
+
+        Random random = new Random(SEED);
+        try {
+            for (int i = 0; i < zoneCount; i++) {
+                createZone(i, usersPerZone, groupDepth, random);
+            }
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+
+    private void createZone(int index, int usersPerZone, int groupDepth, Random random) {
+        String zoneId = "benchmark-zone-" + index;
+        String keyId = "key-" + index;
+        TokenPolicy tokenPolicy = new TokenPolicy();
+        tokenPolicy.setKeys(Collections.singletonMap(keyId, signingKey("RSA", random)));
+        tokenPolicy.setActiveKeyId(keyId);
+        IdentityZoneConfiguration config = new IdentityZoneConfiguration();
+        config.setTokenPolicy(tokenPolicy);
+        IdentityZone zone = new IdentityZone()
+            .setId(zoneId)
+            .setSubdomain(zoneId)
+            .setName(zoneId)
+            .setConfig(config);
+        zone = zoneProvisioning.create(zone);
+        IdentityZoneHolder.set(zone);
+        zones.add(zone);
+
+        List<String> groupIds = new ArrayList<>();
+        for (int depth = 0; depth < groupDepth; depth++) {
+            ScimGroup group = groupProvisioning.create(new ScimGroup(null, GROUP_PREFIX + depth, zoneId), zoneId);
+            if (depth > 0) {
+                // each group is a member of the next one, a user of the first group has all of them
+                ScimGroupMember member = new ScimGroupMember(groupIds.get(depth - 1), ScimGroupMember.Type.GROUP);
+                membershipManager.addMember(group.getId(), member, zoneId);
+            }
+            groupIds.add(group.getId());
+        }
+
+        List<String> users = new ArrayList<>();
+        for (int u = 0; u < usersPerZone; u++) {
+            String username = String.format("user-%06d-%08x", u, random.nextInt());
+            ScimUser user = new ScimUser(null, username, "Given" + u, "Family" + u);
+            user.setPrimaryEmail(username + "@" + zoneId + ".example.com");
+            user.setOrigin("uaa");
+            user.setZoneId(zoneId);
+            user = userProvisioning.createUser(user, PASSWORD, zoneId);
+            if (groupDepth > 0) {
+                String groupId = groupIds.get(random.nextInt(groupDepth));
+                membershipManager.addMember(groupId, new ScimGroupMember(user.getId(), ScimGroupMember.Type.USER), zoneId);
+            }
+            users.add(user.getId());
+        }
+        userIds.add(users);
+
+        BaseClientDetails client = new BaseClientDetails(
+            CLIENT_ID,
+            null,
+            String.join(",", scopes),
+            "password,refresh_token",
+            "uaa.resource");
+        client.setClientSecret(CLIENT_SECRET);
+        clientDetailsService.addClientDetails(client, zoneId);
+    }
+
+    /**
+     * @return token services reading clients, users and revocable tokens from the fixture's database
+     */
+    public UaaTokenServices newTokenServices() throws Exception {
+        UaaTokenServices tokenServices = new UaaTokenServices();
+        tokenServices.setClientDetailsService(clientDetailsService);
+        tokenServices.setUserDatabase(userDatabase);
+        tokenServices.setApprovalStore(new JdbcApprovalStore(jdbcTemplate));
+        tokenServices.setTokenProvisioning(new JdbcRevocableTokenProvisioning(jdbcTemplate));
+        tokenServices.setTokenPolicy(new TokenPolicy(43200, 2592000));
+        tokenServices.setIssuer(ISSUER);
+        tokenServices.afterPropertiesSet();
+        return tokenServices;
+    }
+
+    /**
+     * @return the authentication of a password grant by the given user, the user's zone must be the current one
+     */
+    public OAuth2Authentication passwordGrant(String userId) {
+        UaaUser user = userDatabase.retrieveUserById(userId);
+        long now = System.currentTimeMillis();
+        UaaAuthentication userAuthentication = new UaaAuthentication(
+            new UaaPrincipal(user), null, UaaAuthority.USER_AUTHORITIES, null, true, now, now + 3600 * 1000);
+        userAuthentication.setAuthenticationMethods(Collections.singleton("pwd"));
+        // the user only holds the groups from its own one to the end of the chain
+        List<String> userScopes = user.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .filter(scopes::contains)
+            .collect(Collectors.toList());
+        AuthorizationRequest authorizationRequest = new AuthorizationRequest(CLIENT_ID, userScopes);
+        authorizationRequest.setRequestParameters(Collections.singletonMap("grant_type", "password"));
+        authorizationRequest.setResourceIds(Collections.singleton("uaa.resource"));
+        return new OAuth2Authentication(authorizationRequest.createOAuth2Request(), userAuthentication);
+    }
+
+    /**
+     * @param type RSA for a PEM encoded 2048 bit RSA private key, otherwise a random HMAC key
+     * @return a signing key derived from the given random, the same for the same sequence of calls
+     */
+    public static String signingKey(String type, Random random) {
+        if (!"RSA".equals(type)) {
+            return Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+        }
+        try {
+            SecureRandom seeded = SecureRandom.getInstance("SHA1PRNG");
+            seeded.setSeed(random.nextLong());
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048, seeded);
+            StringWriter pem = new StringWriter();
+            try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+                writer.writeObject(generator.generateKeyPair());
+            }
+            return pem.toString();
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<IdentityZone> getZones() {
+        return zones;
+    }
+
+    public List<String> getUserIds(int zoneIndex) {
+        return userIds.get(zoneIndex);
+    }
+
+    public List<String> getScopes() {
+        return scopes;
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public JdbcScimUserProvisioning getUserProvisioning() {
+        return userProvisioning;
+    }
+
+    public JdbcScimGroupProvisioning getGroupProvisioning() {
+        return groupProvisioning;
+    }
+
+    public JdbcUaaUserDatabase getUserDatabase() {
+        return userDatabase;
+    }
+
+    @Override
+    public void close() {
+        IdentityZoneHolder.clear();
+        jdbcTemplate.execute("SHUTDOWN");
+        dataSource.close(true);
+    }
+}
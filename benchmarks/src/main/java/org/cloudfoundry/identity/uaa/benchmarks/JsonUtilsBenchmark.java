@@ -0,0 +1,101 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and parses the JSON documents the server handles most often: token claims, SCIM users and zones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class JsonUtilsBenchmark {
+
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<Map<String, Object>>() {};
+
+    private Map<String, Object> claims;
+    private String claimsJson;
+    private ScimUser user;
+    private String userJson;
+    private IdentityZone zone;
+    private String zoneJson;
+
+    @Setup
+    public void setUp() {
+        claims = JwtBenchmark.accessTokenClaims();
+        claimsJson = JsonUtils.writeValueAsString(claims);
+
+        user = new ScimUser("0b7c2f4e-3a1d-4e5f-9c8b-7a6d5e4f3c2b", "marissa@example.com", "Marissa", "Bloggs");
+        user.setPrimaryEmail("marissa@example.com");
+        user.setOrigin("uaa");
+        user.setZoneId("uaa");
+        user.addPhoneNumber("+1 555 0100");
+        userJson = JsonUtils.writeValueAsString(user);
+
+        zone = IdentityZone.getUaa();
+        zoneJson = JsonUtils.writeValueAsString(zone);
+    }
+
+    @Benchmark
+    public Map<String, Object> claimsRoundTrip() {
+        return JsonUtils.readValue(JsonUtils.writeValueAsString(claims), MAP);
+    }
+
+    @Benchmark
+    public Map<String, Object> readClaims() {
+        return JsonUtils.readValue(claimsJson, MAP);
+    }
+
+    @Benchmark
+    public ScimUser userRoundTrip() {
+        return JsonUtils.readValue(JsonUtils.writeValueAsString(user), ScimUser.class);
+    }
+
+    @Benchmark
+    public ScimUser readUser() {
+        return JsonUtils.readValue(userJson, ScimUser.class);
+    }
+
+    @Benchmark
+    public IdentityZone zoneRoundTrip() {
+        return JsonUtils.readValue(JsonUtils.writeValueAsString(zone), IdentityZone.class);
+    }
+
+    @Benchmark
+    public IdentityZone readZone() {
+        return JsonUtils.readValue(zoneJson, IdentityZone.class);
+    }
+}
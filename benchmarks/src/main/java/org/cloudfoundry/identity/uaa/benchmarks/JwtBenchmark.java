@@ -0,0 +1,143 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.KeyInfo;
+import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes, decodes and verifies access tokens, and looks up the signing keys of a number of zones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class JwtBenchmark {
+
+    @Param({"RSA", "MAC"})
+    public String keyType;
+
+    @Param("16")
+    public int zones;
+
+    private final List<IdentityZone> zoneList = new ArrayList<>();
+    private final List<String> keyIds = new ArrayList<>();
+    private KeyInfo key;
+    private String claims;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkFixture.SEED);
+        for (int z = 0; z < zones; z++) {
+            String keyId = "key-" + z;
+            TokenPolicy tokenPolicy = new TokenPolicy();
+            tokenPolicy.setKeys(Collections.singletonMap(keyId, BenchmarkFixture.signingKey(keyType, random)));
+            tokenPolicy.setActiveKeyId(keyId);
+            IdentityZoneConfiguration config = new IdentityZoneConfiguration();
+            config.setTokenPolicy(tokenPolicy);
+            zoneList.add(new IdentityZone().setId("benchmark-zone-" + z).setSubdomain("benchmark-zone-" + z).setConfig(config));
+            keyIds.add(keyId);
+        }
+        IdentityZoneHolder.set(zoneList.get(0));
+        key = KeyInfo.getKey(keyIds.get(0));
+        IdentityZoneHolder.clear();
+
+        claims = JsonUtils.writeValueAsString(accessTokenClaims());
+        token = JwtHelper.encode(claims, key.getSigner()).getEncoded();
+    }
+
+    /**
+     * @return the claims of a typical user access token
+     */
+    static Map<String, Object> accessTokenClaims() {
+        long now = 1508284800L;
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("jti", "6a1c8e5b2f9e4d0c8a7b3e2d1f0a9b8c");
+        claims.put("sub", "0b7c2f4e-3a1d-4e5f-9c8b-7a6d5e4f3c2b");
+        claims.put("scope", Arrays.asList("openid", "scim.read", "scim.write", "cloud_controller.read", "cloud_controller.write", "password.write"));
+        claims.put("client_id", "cf");
+        claims.put("cid", "cf");
+        claims.put("azp", "cf");
+        claims.put("grant_type", "password");
+        claims.put("user_id", "0b7c2f4e-3a1d-4e5f-9c8b-7a6d5e4f3c2b");
+        claims.put("origin", "uaa");
+        claims.put("user_name", "marissa@example.com");
+        claims.put("email", "marissa@example.com");
+        claims.put("auth_time", now);
+        claims.put("rev_sig", "b3c4a1f2");
+        claims.put("iat", now);
+        claims.put("exp", now + 43200);
+        claims.put("iss", BenchmarkFixture.ISSUER + "/oauth/token");
+        claims.put("zid", "uaa");
+        claims.put("aud", Arrays.asList("scim", "cloud_controller", "password", "cf", "openid"));
+        return claims;
+    }
+
+    @Benchmark
+    public String encode() {
+        return JwtHelper.encode(claims, key.getSigner()).getEncoded();
+    }
+
+    @Benchmark
+    public Jwt decode() {
+        return JwtHelper.decode(token);
+    }
+
+    @Benchmark
+    public Jwt decodeAndVerify() {
+        return JwtHelper.decodeAndVerify(token, key.getVerifier());
+    }
+
+    @Benchmark
+    public KeyInfo keyLookup(RoundRobin roundRobin) {
+        int zone = roundRobin.next(zoneList.size());
+        IdentityZoneHolder.set(zoneList.get(zone));
+        try {
+            return KeyInfo.getKey(keyIds.get(zone));
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+}
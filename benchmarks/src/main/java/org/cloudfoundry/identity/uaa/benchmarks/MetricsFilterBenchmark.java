@@ -0,0 +1,95 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests through the metrics filter, which matches each path against the URL groups and records
+ * the request. With more distinct paths than the filter caches, most requests are matched again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MetricsFilterBenchmark {
+
+    private static final String[] TEMPLATES = {
+        "/oauth/token",
+        "/check_token",
+        "/login",
+        "/login.do",
+        "/userinfo",
+        "/token_keys",
+        "/Users/%s",
+        "/Users/%s/verify",
+        "/Groups/%s/members",
+        "/oauth/clients/%s/secret",
+        "/oauth/token/revoke/%s",
+        "/identity-zones/%s",
+        "/resources/oss/images/%s.png",
+        "/unknown/%s",
+    };
+
+    @Param({"100", "100000"})
+    public int distinctPaths;
+
+    private UaaMetricsFilter filter;
+    private final List<MockHttpServletRequest> requests = new ArrayList<>();
+    private final FilterChain chain = (request, response) -> ((MockHttpServletResponse) response).setStatus(200);
+
+    @Setup
+    public void setUp() throws Exception {
+        filter = new UaaMetricsFilter();
+        Random random = new Random(BenchmarkFixture.SEED);
+        for (int i = 0; i < distinctPaths; i++) {
+            String template = TEMPLATES[i % TEMPLATES.length];
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uaa" + String.format(template, Long.toHexString(random.nextLong())));
+            request.setContextPath("/uaa");
+            request.setServletPath("");
+            request.setPathInfo(request.getRequestURI().substring("/uaa".length()));
+            requests.add(request);
+        }
+    }
+
+    @Benchmark
+    public MockHttpServletResponse doFilter(RoundRobin roundRobin) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(requests.get(roundRobin.next(requests.size())), response, chain);
+        return response;
+    }
+}
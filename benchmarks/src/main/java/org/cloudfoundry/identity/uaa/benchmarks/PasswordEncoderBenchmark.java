@@ -0,0 +1,65 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.util.CachingPasswordEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks a password against its BCrypt hash, with the cache of the {@link CachingPasswordEncoder} enabled
+ * and disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PasswordEncoderBenchmark {
+
+    @Param({"true", "false"})
+    public boolean cacheEnabled;
+
+    private CachingPasswordEncoder passwordEncoder;
+    private String encodedPassword;
+
+    @Setup
+    public void setUp() throws Exception {
+        passwordEncoder = new CachingPasswordEncoder();
+        passwordEncoder.setPasswordEncoder(new BCryptPasswordEncoder());
+        passwordEncoder.setEnabled(cacheEnabled);
+        encodedPassword = passwordEncoder.encode(BenchmarkFixture.PASSWORD);
+        passwordEncoder.matches(BenchmarkFixture.PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return passwordEncoder.matches(BenchmarkFixture.PASSWORD, encodedPassword);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Hands out the indexes of the prepared inputs of a benchmark in turn, separately for each benchmark thread.
+ */
+@State(Scope.Thread)
+public class RoundRobin {
+
+    private int next = 0;
+
+    public int next(int size) {
+        int index = next < size ? next : 0;
+        next = index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.SearchResults;
+import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
+import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
+import org.cloudfoundry.identity.uaa.scim.ScimCore;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts SCIM filters to SQL, runs user queries with them against the fixture's database,
+ * and projects a page of users to the attributes a sync job typically requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ScimQueryBenchmark {
+
+    @Param("2")
+    public int zones;
+
+    @Param("1000")
+    public int usersPerZone;
+
+    @Param("5")
+    public int groupDepth;
+
+    private BenchmarkFixture fixture;
+    private final SimpleSearchQueryConverter queryConverter = new SimpleSearchQueryConverter();
+    private final List<String> filters = new ArrayList<>();
+    private IdentityZone zone;
+    private List<ScimUser> page;
+    private final AttributeNameMapper attributeNameMapper = new SimpleAttributeNameMapper(Collections.singletonMap("^emails\\.", "emails[*]."));
+
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(zones, usersPerZone, groupDepth);
+        zone = fixture.getZones().get(0);
+        IdentityZoneHolder.set(zone);
+        List<String> userIds = fixture.getUserIds(0);
+        ScimUser first = fixture.getUserProvisioning().retrieve(userIds.get(0), zone.getId());
+        ScimUser last = fixture.getUserProvisioning().retrieve(userIds.get(userIds.size() - 1), zone.getId());
+        page = new ArrayList<>(fixture.getUserProvisioning().query("origin eq \"uaa\"", "userName", true, zone.getId()).subList(0, Math.min(100, userIds.size())));
+        IdentityZoneHolder.clear();
+
+        filters.add("userName eq \"" + first.getUserName() + "\"");
+        filters.add("id eq \"" + last.getId() + "\" and origin eq \"uaa\"");
+        filters.add("userName sw \"user-00001\" or email co \"" + last.getUserName() + "\"");
+        filters.add("(givenName eq \"Given1\" or familyName eq \"Family2\") and active eq true and verified eq true");
+        filters.add("meta.lastModified gt \"2017-01-01T00:00:00.000Z\" and userName pr");
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public ProcessedFilter convert(RoundRobin roundRobin) {
+        return queryConverter.convert(filters.get(roundRobin.next(filters.size())), "userName", true);
+    }
+
+    @Benchmark
+    public void query(RoundRobin roundRobin, Blackhole blackhole) {
+        IdentityZoneHolder.set(zone);
+        try {
+            // iterate, so that every page of the results is read
+            for (ScimUser user : fixture.getUserProvisioning().query(filters.get(roundRobin.next(filters.size())), "userName", true, zone.getId())) {
+                blackhole.consume(user);
+            }
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+
+    @Benchmark
+    public SearchResults<Map<String, Object>> project() {
+        return SearchResultsFactory.buildSearchResultFrom(page, 1, page.size(), page.size(),
+            new String[] {"id", "userName", "emails"}, attributeNameMapper, Arrays.asList(ScimCore.SCHEMAS));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import org.cloudfoundry.identity.uaa.oauth.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and validates access tokens for password grants of users spread over several zones,
+ * with clients, users and nested groups read from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class TokenServicesBenchmark {
+
+    @Param("4")
+    public int zones;
+
+    @Param("1000")
+    public int usersPerZone;
+
+    @Param("5")
+    public int groupDepth;
+
+    @Param("16")
+    public int usersPerZoneSampled;
+
+    private BenchmarkFixture fixture;
+    private UaaTokenServices tokenServices;
+    private final List<IdentityZone> sampleZones = new ArrayList<>();
+    private final List<OAuth2Authentication> sampleAuthentications = new ArrayList<>();
+    private final List<String> sampleTokens = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new BenchmarkFixture(zones, usersPerZone, groupDepth);
+        tokenServices = fixture.newTokenServices();
+        for (int z = 0; z < zones; z++) {
+            IdentityZone zone = fixture.getZones().get(z);
+            IdentityZoneHolder.set(zone);
+            List<String> userIds = fixture.getUserIds(z);
+            for (int u = 0; u < Math.min(usersPerZoneSampled, userIds.size()); u++) {
+                OAuth2Authentication authentication = fixture.passwordGrant(userIds.get(u));
+                sampleZones.add(zone);
+                sampleAuthentications.add(authentication);
+                sampleTokens.add(tokenServices.createAccessToken(authentication).getValue());
+            }
+        }
+        IdentityZoneHolder.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public OAuth2AccessToken createAccessToken(RoundRobin roundRobin) {
+        int sample = roundRobin.next(sampleZones.size());
+        IdentityZoneHolder.set(sampleZones.get(sample));
+        try {
+            return tokenServices.createAccessToken(sampleAuthentications.get(sample));
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+
+    @Benchmark
+    public OAuth2Authentication loadAuthentication(RoundRobin roundRobin) {
+        int sample = roundRobin.next(sampleZones.size());
+        IdentityZoneHolder.set(sampleZones.get(sample));
+        try {
+            return tokenServices.loadAuthentication(sampleTokens.get(sample));
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+}
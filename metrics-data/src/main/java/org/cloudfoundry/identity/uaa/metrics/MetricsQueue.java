@@ -19,16 +19,15 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.cloudfoundry.identity.uaa.metrics.MetricsUtil.MutableDouble;
-import org.cloudfoundry.identity.uaa.metrics.MetricsUtil.MutableLong;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 import static java.util.Optional.ofNullable;
-import static org.cloudfoundry.identity.uaa.metrics.MetricsUtil.addAverages;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(NON_NULL)
@@ -36,7 +35,11 @@ public class MetricsQueue  {
 
     public static final int MAX_ENTRIES = 5;
 
-    private ConcurrentLinkedDeque<RequestMetric> queue;
+    /**
+     * The last {@link #MAX_ENTRIES} requests, written round robin at position {@code next % MAX_ENTRIES}
+     */
+    private final AtomicReferenceArray<RequestMetric> lastRequests = new AtomicReferenceArray<>(MAX_ENTRIES);
+    private final AtomicLong next = new AtomicLong();
     private Map<StatusCodeGroup, RequestMetricSummary> statistics;
 
     public MetricsQueue() {
@@ -46,93 +49,70 @@ public class MetricsQueue  {
     @JsonCreator
     public MetricsQueue(@JsonProperty("lastRequests") ConcurrentLinkedDeque<RequestMetric> queue,
                         @JsonProperty("detailed") Map<StatusCodeGroup, RequestMetricSummary> statistics) {
-        this.queue = ofNullable(queue).orElse(new ConcurrentLinkedDeque<>());
+        if (queue != null) {
+            queue.forEach(this::addLastRequest);
+        }
         this.statistics = ofNullable(statistics).orElse(new ConcurrentHashMap<>());
     }
 
     public boolean offer(RequestMetric metric) {
-        queue.offer(metric);
-        //remove earliest entries
-        while (queue.size() > MAX_ENTRIES) {
-            queue.removeFirst();
-        }
+        addLastRequest(metric);
 
         StatusCodeGroup statusCode = StatusCodeGroup.valueOf(metric.getStatusCode());
-        if (!statistics.containsKey(statusCode)) {
-            statistics.putIfAbsent(statusCode, new RequestMetricSummary());
-        }
         RequestMetricSummary totals = statistics.get(statusCode);
+        if (totals == null) {
+            totals = statistics.computeIfAbsent(statusCode, k -> new RequestMetricSummary());
+        }
+        long queryTime = 0;
+        long intolerableQueries = 0;
+        long intolerableQueryTime = 0;
+        for (QueryMetric query : metric.getQueries()) {
+            long elapsed = query.getRequestCompleteTime() - query.getRequestStartTime();
+            queryTime += elapsed;
+            if (query.isIntolerable()) {
+                intolerableQueries++;
+                intolerableQueryTime += elapsed;
+            }
+        }
         long time = metric.getRequestCompleteTime() - metric.getRequestStartTime();
         totals.add(time,
                    time < metric.getUriGroup().getLimit(),
                    metric.getNrOfDatabaseQueries(),
-                   metric.getDatabaseQueryTime(),
-                   metric.getQueries().stream().filter(q -> q.isIntolerable()).count(),
-                   metric.getQueries().stream().filter(q -> q.isIntolerable()).mapToLong(q -> q.getRequestCompleteTime()-q.getRequestStartTime()).sum()
+                   queryTime,
+                   intolerableQueries,
+                   intolerableQueryTime
         );
         return true;
     }
 
+    private void addLastRequest(RequestMetric metric) {
+        lastRequests.set((int) (next.getAndIncrement() % MAX_ENTRIES), metric);
+    }
+
     public Map<StatusCodeGroup, RequestMetricSummary> getDetailed() {
         return statistics;
     }
 
-
+    /**
+     * @return a copy of the last requests, oldest first
+     */
     public ConcurrentLinkedDeque<RequestMetric> getLastRequests() {
-        return queue;
+        ConcurrentLinkedDeque<RequestMetric> result = new ConcurrentLinkedDeque<>();
+        long end = next.get();
+        for (long i = Math.max(0, end - MAX_ENTRIES); i < end; i++) {
+            RequestMetric metric = lastRequests.get((int) (i % MAX_ENTRIES));
+            if (metric != null) {
+                result.add(metric);
+            }
+        }
+        return result;
     }
 
     @JsonProperty("summary")
     public RequestMetricSummary getTotals() {
-        MutableLong count = new MutableLong(0);
-        MutableDouble averageTime = new MutableDouble(0);
-        MutableLong intolerableCount = new MutableLong(0);
-        MutableDouble averageIntolerableTime = new MutableDouble(0);
-        MutableLong databaseQueryCount = new MutableLong(0);
-        MutableDouble averageDatabaseQueryTime = new MutableDouble(0);
-        MutableLong databaseIntolerableQueryCount = new MutableLong(0);
-        MutableDouble averageDatabaseIntolerableQueryTime = new MutableDouble(0);
-        statistics.entrySet().stream().forEach( s -> {
-            RequestMetricSummary summary = s.getValue();
-            averageTime.set(addAverages(count.get(),
-                                        averageTime.get(),
-                                        summary.getCount(),
-                                        summary.getAverageTime())
-            );
-            count.add(summary.getCount());
-
-            averageIntolerableTime.set(addAverages(intolerableCount.get(),
-                                                   averageIntolerableTime.get(),
-                                                   summary.getIntolerableCount(),
-                                                   summary.getAverageIntolerableTime())
-            );
-            intolerableCount.add(summary.getIntolerableCount());
-
-            averageDatabaseQueryTime.set(addAverages(databaseQueryCount.get(),
-                                                     averageDatabaseQueryTime.get(),
-                                                     summary.getDatabaseQueryCount(),
-                                                     summary.getAverageDatabaseQueryTime()
-                                                     )
-            );
-            databaseQueryCount.add(summary.getDatabaseQueryCount());
-
-            averageDatabaseIntolerableQueryTime.set(addAverages(databaseIntolerableQueryCount.get(),
-                                                           averageDatabaseIntolerableQueryTime.get(),
-                                                     summary.getDatabaseIntolerableQueryCount(),
-                                                     summary.getAverageDatabaseIntolerableQueryTime()
-                                         )
-            );
-            databaseIntolerableQueryCount.add(summary.getDatabaseIntolerableQueryCount());
-
-        });
-        return new RequestMetricSummary(count.get(),
-                                        averageTime.get(),
-                                        intolerableCount.get(),
-                                        averageIntolerableTime.get(),
-                                        databaseQueryCount.get(),
-                                        averageDatabaseQueryTime.get(),
-                                        databaseIntolerableQueryCount.get(),
-                                        averageDatabaseIntolerableQueryTime.get());
+        RequestMetricSummary totals = new RequestMetricSummary();
+        statistics.values().forEach(totals::add);
+        return totals;
     }
 
 }
@@ -18,18 +18,24 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import static org.cloudfoundry.identity.uaa.metrics.MetricsUtil.addToAverage;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Request counts and times are accumulated as sums in striped adders, so that concurrent
+ * requests never wait for each other. The averages are calculated when they are read, and
+ * a read that runs concurrently with {@link #add} may see some sums updated before others.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class RequestMetricSummary {
-    long count = 0;
-    double averageTime = 0;
-    long intolerableCount = 0;
-    double averageIntolerableTime = 0;
-    long databaseQueryCount = 0;
-    double averageDatabaseQueryTime = 0;
-    long databaseIntolerableQueryCount = 0;
-    double averageDatabaseIntolerableQueryTime = 0;
+    final LongAdder count = new LongAdder();
+    final DoubleAdder totalTime = new DoubleAdder();
+    final LongAdder intolerableCount = new LongAdder();
+    final DoubleAdder totalIntolerableTime = new DoubleAdder();
+    final LongAdder databaseQueryCount = new LongAdder();
+    final DoubleAdder totalDatabaseQueryTime = new DoubleAdder();
+    final LongAdder databaseIntolerableQueryCount = new LongAdder();
+    final DoubleAdder totalDatabaseIntolerableQueryTime = new DoubleAdder();
 
     public RequestMetricSummary() {
     }
@@ -43,59 +49,81 @@ public class RequestMetricSummary {
                                 @JsonProperty("averageDatabaseQueryTime") double averageDatabaseQueryTime,
                                 @JsonProperty("databaseIntolerableQueryCount") long databaseIntolerableQueryCount,
                                 @JsonProperty("averageDatabaseIntolerableQueryTime") double averageDatabaseIntolerableQueryTime) {
-        this.count = count;
-        this.averageTime = averageTime;
-        this.intolerableCount = intolerableCount;
-        this.averageIntolerableTime = averageIntolerableTime;
-        this.databaseQueryCount = databaseQueryCount;
-        this.averageDatabaseQueryTime = averageDatabaseQueryTime;
-        this.databaseIntolerableQueryCount = databaseIntolerableQueryCount;
-        this.averageDatabaseIntolerableQueryTime = averageDatabaseIntolerableQueryTime;
+        this.count.add(count);
+        this.totalTime.add(averageTime * count);
+        this.intolerableCount.add(intolerableCount);
+        this.totalIntolerableTime.add(averageIntolerableTime * intolerableCount);
+        this.databaseQueryCount.add(databaseQueryCount);
+        this.totalDatabaseQueryTime.add(averageDatabaseQueryTime * databaseQueryCount);
+        this.databaseIntolerableQueryCount.add(databaseIntolerableQueryCount);
+        this.totalDatabaseIntolerableQueryTime.add(averageDatabaseIntolerableQueryTime * databaseIntolerableQueryCount);
     }
 
-    public synchronized void add(long time, boolean tolerable, long dbQueries, long dbTime, long failedDbQueries, long failedDbQueryTime) {
-        averageTime = addToAverage(count, averageTime, 1, time);
-        count++;
+    public void add(long time, boolean tolerable, long dbQueries, long dbTime, long failedDbQueries, long failedDbQueryTime) {
+        count.increment();
+        totalTime.add(time);
         if (!tolerable) {
-            averageIntolerableTime = addToAverage(intolerableCount, averageIntolerableTime, 1, time);
-            ++intolerableCount;
+            intolerableCount.increment();
+            totalIntolerableTime.add(time);
+        }
+        if (dbQueries != 0) {
+            databaseQueryCount.add(dbQueries);
+            totalDatabaseQueryTime.add(dbTime);
+        }
+        if (failedDbQueries != 0) {
+            databaseIntolerableQueryCount.add(failedDbQueries);
+            totalDatabaseIntolerableQueryTime.add(failedDbQueryTime);
         }
-        averageDatabaseQueryTime = addToAverage(databaseQueryCount, averageDatabaseQueryTime, dbQueries, dbTime);
-        databaseQueryCount += dbQueries;
+    }
 
-        averageDatabaseIntolerableQueryTime = addToAverage(databaseIntolerableQueryCount, averageDatabaseIntolerableQueryTime, failedDbQueries, failedDbQueryTime);
-        databaseIntolerableQueryCount += failedDbQueries;
+    /**
+     * Adds the sums of another summary to this one.
+     */
+    void add(RequestMetricSummary other) {
+        count.add(other.count.sum());
+        totalTime.add(other.totalTime.sum());
+        intolerableCount.add(other.intolerableCount.sum());
+        totalIntolerableTime.add(other.totalIntolerableTime.sum());
+        databaseQueryCount.add(other.databaseQueryCount.sum());
+        totalDatabaseQueryTime.add(other.totalDatabaseQueryTime.sum());
+        databaseIntolerableQueryCount.add(other.databaseIntolerableQueryCount.sum());
+        totalDatabaseIntolerableQueryTime.add(other.totalDatabaseIntolerableQueryTime.sum());
     }
 
     public long getCount() {
-        return count;
+        return count.sum();
     }
 
     public double getAverageTime() {
-        return averageTime;
+        return average(totalTime, count);
     }
 
     public long getIntolerableCount() {
-        return intolerableCount;
+        return intolerableCount.sum();
     }
 
     public double getAverageIntolerableTime() {
-        return averageIntolerableTime;
+        return average(totalIntolerableTime, intolerableCount);
     }
 
     public long getDatabaseQueryCount() {
-        return databaseQueryCount;
+        return databaseQueryCount.sum();
     }
 
     public double getAverageDatabaseQueryTime() {
-        return averageDatabaseQueryTime;
+        return average(totalDatabaseQueryTime, databaseQueryCount);
     }
 
     public long getDatabaseIntolerableQueryCount() {
-        return databaseIntolerableQueryCount;
+        return databaseIntolerableQueryCount.sum();
     }
 
     public double getAverageDatabaseIntolerableQueryTime() {
-        return averageDatabaseIntolerableQueryTime;
+        return average(totalDatabaseIntolerableQueryTime, databaseIntolerableQueryCount);
+    }
+
+    private static double average(DoubleAdder total, LongAdder count) {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
     }
 }
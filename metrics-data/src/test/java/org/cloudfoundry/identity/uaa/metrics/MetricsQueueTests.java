@@ -21,6 +21,8 @@ import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -137,6 +139,22 @@ public class MetricsQueueTests {
 
     }
 
+    @Test
+    public void last_requests_are_newest_in_order() throws Exception {
+        queue = new MetricsQueue();
+        for (int i=0; i<MetricsQueue.MAX_ENTRIES + 3; i++) {
+            RequestMetric metric = RequestMetric.start("uri" + i, uriGroup, 0);
+            metric.stop(200, 2);
+            queue.offer(metric);
+        }
+        List<RequestMetric> lastRequests = new ArrayList<>(queue.getLastRequests());
+        assertEquals(MetricsQueue.MAX_ENTRIES, lastRequests.size());
+        for (int i=0; i<MetricsQueue.MAX_ENTRIES; i++) {
+            assertEquals("uri" + (i + 3), lastRequests.get(i).getUri());
+        }
+        assertEquals(MetricsQueue.MAX_ENTRIES + 3, queue.getTotals().getCount());
+    }
+
     @Test
     public void offer() throws Exception {
         queue = new MetricsQueue();
@@ -14,12 +14,14 @@ package org.cloudfoundry.identity.uaa.provider;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
@@ -43,6 +45,8 @@ public class ExternalIdentityProviderDefinition extends AbstractIdentityProvider
     private Map<String, Object> attributeMappings = new HashMap<>();
     private boolean addShadowUserOnLogin = true;
     private boolean storeCustomAttributes = true;
+    private Integer connectTimeout;
+    private Integer readTimeout;
 
     public List<String> getExternalGroupsWhitelist() {
         return Collections.unmodifiableList(externalGroupsWhitelist);
@@ -94,6 +98,8 @@ public class ExternalIdentityProviderDefinition extends AbstractIdentityProvider
 
         if (addShadowUserOnLogin != that.addShadowUserOnLogin) return false;
         if(this.isStoreCustomAttributes() != that.isStoreCustomAttributes()) return false;
+        if (!Objects.equals(connectTimeout, that.connectTimeout)) return false;
+        if (!Objects.equals(readTimeout, that.readTimeout)) return false;
         if (getExternalGroupsWhitelist() != null ? !getExternalGroupsWhitelist().equals(that.getExternalGroupsWhitelist()) : that.getExternalGroupsWhitelist() != null)
             return false;
         return attributeMappings != null ? attributeMappings.equals(that.attributeMappings) : that.attributeMappings == null;
@@ -105,6 +111,8 @@ public class ExternalIdentityProviderDefinition extends AbstractIdentityProvider
         result = 31 * result + (externalGroupsWhitelist != null ? externalGroupsWhitelist.hashCode() : 0);
         result = 31 * result + (attributeMappings != null ? attributeMappings.hashCode() : 0);
         result = 31 * result + (addShadowUserOnLogin ? 1 : 0);
+        result = 31 * result + Objects.hashCode(connectTimeout);
+        result = 31 * result + Objects.hashCode(readTimeout);
         return result;
     }
 
@@ -115,4 +123,30 @@ public class ExternalIdentityProviderDefinition extends AbstractIdentityProvider
     public void setStoreCustomAttributes(boolean storeCustomAttributes) {
         this.storeCustomAttributes = storeCustomAttributes;
     }
+
+    /**
+     * @return the connect timeout in milliseconds for requests to this provider,
+     * or null to use the default of the UAA
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the read timeout in milliseconds for requests to this provider,
+     * or null to use the default of the UAA
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
 }
@@ -56,6 +56,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     public static final String LDAP_GROUP_FILE_GROUPS_MAP_TO_SCOPES = "ldap/ldap-groups-map-to-scopes.xml";
     public static final String LDAP_GROUP_FILE_GROUPS_NULL_XML = "ldap/ldap-groups-null.xml";
     public static final String LDAP_GROUPS_AUTO_ADD = LDAP_PREFIX + "groups.autoAdd";
+    public static final String LDAP_GROUPS_CACHE_TTL_MILLIS = LDAP_PREFIX + "groups.cacheTtlMillis";
     public static final String LDAP_GROUPS_FILE = LDAP_PREFIX + "groups.file";
     public static final String LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE = LDAP_PREFIX + "groups.groupRoleAttribute";
     public static final String LDAP_GROUPS_GROUP_SEARCH_FILTER = LDAP_PREFIX + "groups.groupSearchFilter";
@@ -63,6 +64,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     public static final String LDAP_GROUPS_MAX_SEARCH_DEPTH = LDAP_PREFIX + "groups.maxSearchDepth";
     public static final String LDAP_GROUPS_SEARCH_BASE = LDAP_PREFIX + "groups.searchBase";
     public static final String LDAP_GROUPS_SEARCH_SUBTREE = LDAP_PREFIX + "groups.searchSubtree";
+    public static final String LDAP_POOL_MAX_IDLE = LDAP_PREFIX + "pool.maxIdle";
     public static final String LDAP_PROFILE_FILE = LDAP_PREFIX + "profile.file";
     public static final String LDAP_PROFILE_FILE_SEARCH_AND_BIND = "ldap/ldap-search-and-bind.xml";
     public static final String LDAP_PROFILE_FILE_SEARCH_AND_COMPARE = "ldap/ldap-search-and-compare.xml";
@@ -111,6 +113,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             LDAP_EMAIL_DOMAIN,
             LDAP_EXTERNAL_GROUPS_WHITELIST,
             LDAP_GROUPS_AUTO_ADD,
+            LDAP_GROUPS_CACHE_TTL_MILLIS,
             LDAP_GROUPS_FILE,
             LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE,
             LDAP_GROUPS_GROUP_SEARCH_FILTER,
@@ -118,6 +121,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             LDAP_GROUPS_MAX_SEARCH_DEPTH,
             LDAP_GROUPS_SEARCH_BASE,
             LDAP_GROUPS_SEARCH_SUBTREE,
+            LDAP_POOL_MAX_IDLE,
             LDAP_PROFILE_FILE,
             LDAP_SSL_SKIPVERIFICATION,
             LDAP_SSL_TLS
@@ -145,6 +149,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         LDAP_PROPERTY_TYPES.put(LDAP_EMAIL_DOMAIN, List.class);
         LDAP_PROPERTY_TYPES.put(LDAP_EXTERNAL_GROUPS_WHITELIST, List.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_AUTO_ADD, Boolean.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_CACHE_TTL_MILLIS, Integer.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_FILE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_GROUP_ROLE_ATTRIBUTE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_GROUP_SEARCH_FILTER, String.class);
@@ -152,6 +157,7 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_MAX_SEARCH_DEPTH, Integer.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_SEARCH_BASE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_GROUPS_SEARCH_SUBTREE, Boolean.class);
+        LDAP_PROPERTY_TYPES.put(LDAP_POOL_MAX_IDLE, Integer.class);
         LDAP_PROPERTY_TYPES.put(LDAP_PROFILE_FILE, String.class);
         LDAP_PROPERTY_TYPES.put(LDAP_SSL_SKIPVERIFICATION, Boolean.class);
         LDAP_PROPERTY_TYPES.put(LDAP_SSL_TLS, String.class);
@@ -185,6 +191,8 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
     private Boolean groupSearchSubTree = true;
     private int maxGroupSearchDepth = 10;
     private String groupRoleAttribute;
+    private Integer groupSearchCacheTtlMillis;
+    private Integer connectionPoolMaxIdle;
 
     private String tlsConfiguration = LDAP_TLS_NONE;
 
@@ -293,6 +301,16 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         return maxGroupSearchDepth;
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getGroupSearchCacheTtlMillis() {
+        return groupSearchCacheTtlMillis;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getConnectionPoolMaxIdle() {
+        return connectionPoolMaxIdle;
+    }
+
     public Boolean isSkipSSLVerification() {
         return skipSSLVerification == null ? false : skipSSLVerification;
     }
@@ -355,6 +373,14 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
         this.maxGroupSearchDepth = maxGroupSearchDepth;
     }
 
+    public void setGroupSearchCacheTtlMillis(Integer groupSearchCacheTtlMillis) {
+        this.groupSearchCacheTtlMillis = groupSearchCacheTtlMillis;
+    }
+
+    public void setConnectionPoolMaxIdle(Integer connectionPoolMaxIdle) {
+        this.connectionPoolMaxIdle = connectionPoolMaxIdle;
+    }
+
     public void setSkipSSLVerification(Boolean skipSSLVerification) {
         this.skipSSLVerification = skipSSLVerification;
     }
@@ -499,6 +525,10 @@ public class LdapIdentityProviderDefinition extends ExternalIdentityProviderDefi
             return false;
         if (groupSearchSubTree != null ? !groupSearchSubTree.equals(that.groupSearchSubTree) : that.groupSearchSubTree != null)
             return false;
+        if (groupSearchCacheTtlMillis != null ? !groupSearchCacheTtlMillis.equals(that.groupSearchCacheTtlMillis) : that.groupSearchCacheTtlMillis != null)
+            return false;
+        if (connectionPoolMaxIdle != null ? !connectionPoolMaxIdle.equals(that.connectionPoolMaxIdle) : that.connectionPoolMaxIdle != null)
+            return false;
         return !(groupRoleAttribute != null ? !groupRoleAttribute.equals(that.groupRoleAttribute) : that.groupRoleAttribute != null);
 
     }
@@ -85,6 +85,8 @@ public class SamlIdentityProviderDefinition extends ExternalIdentityProviderDefi
         def.setSkipSslValidation(isSkipSslValidation());
         def.setStoreCustomAttributes(isStoreCustomAttributes());
         def.setAuthnContext(authnContext);
+        def.setConnectTimeout(getConnectTimeout());
+        def.setReadTimeout(getReadTimeout());
         return def;
     }
 
@@ -27,6 +27,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -45,16 +46,21 @@ public class SamlServiceProviderDefinition {
     private boolean skipSslValidation = false;
     private Map<String, Object> attributeMappings = new HashMap<>();
     private boolean enableIdpInitiatedSso = false;
+    private Integer connectTimeout;
+    private Integer readTimeout;
 
 
     public SamlServiceProviderDefinition clone() {
-        return new SamlServiceProviderDefinition(metaDataLocation,
-                                                 nameID,
-                                                 singleSignOnServiceIndex,
-                                                 metadataTrustCheck,
-                                                 skipSslValidation,
-                                                 attributeMappings,
-                                                 enableIdpInitiatedSso);
+        SamlServiceProviderDefinition def = new SamlServiceProviderDefinition(metaDataLocation,
+                                                                              nameID,
+                                                                              singleSignOnServiceIndex,
+                                                                              metadataTrustCheck,
+                                                                              skipSslValidation,
+                                                                              attributeMappings,
+                                                                              enableIdpInitiatedSso);
+        def.setConnectTimeout(connectTimeout);
+        def.setReadTimeout(readTimeout);
+        return def;
     }
 
     public SamlServiceProviderDefinition() {}
@@ -158,6 +164,8 @@ public class SamlServiceProviderDefinition {
         result = 31 * result + (metadataTrustCheck ? 1 : 0);
         result = 31 * result + (skipSslValidation ? 1 : 0);
         result = 31 * result + (attributeMappings != null ? attributeMappings.hashCode() : 0);
+        result = 31 * result + Objects.hashCode(connectTimeout);
+        result = 31 * result + Objects.hashCode(readTimeout);
         return result;
     }
 
@@ -185,6 +193,30 @@ public class SamlServiceProviderDefinition {
         this.enableIdpInitiatedSso = enableIdpInitiatedSso;
     }
 
+    /**
+     * @return the connect timeout in milliseconds for fetching the metadata of this provider,
+     * or null to use the default of the UAA
+     */
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the read timeout in milliseconds for fetching the metadata of this provider,
+     * or null to use the default of the UAA
+     */
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -198,6 +230,8 @@ public class SamlServiceProviderDefinition {
         if (metaDataLocation != null ? !metaDataLocation.equals(that.metaDataLocation) : that.metaDataLocation != null)
             return false;
         if (nameID != null ? !nameID.equals(that.nameID) : that.nameID != null) return false;
+        if (!Objects.equals(connectTimeout, that.connectTimeout)) return false;
+        if (!Objects.equals(readTimeout, that.readTimeout)) return false;
         return attributeMappings != null ? attributeMappings.equals(that.attributeMappings) : that.attributeMappings == null;
     }
 
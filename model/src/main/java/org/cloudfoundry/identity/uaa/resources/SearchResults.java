@@ -12,6 +12,8 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.resources;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -27,6 +29,8 @@ public class SearchResults<T> {
     private int itemsPerPage;
     private int totalResults;
     private Collection<String> schemas;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String continuationToken;
 
     public SearchResults() {}
     public SearchResults(Collection<String> schemas, Collection<T> resources, int startIndex, int itemsPerPage,
@@ -58,6 +62,17 @@ public class SearchResults<T> {
         return resources;
     }
 
+    /**
+     * @return when keyset pagination was requested, the token to request the next page with
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder("SearchResults[schemas:");
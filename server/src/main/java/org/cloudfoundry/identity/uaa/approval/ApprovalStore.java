@@ -12,7 +12,10 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.approval;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface ApprovalStore {
 
@@ -31,4 +34,17 @@ public interface ApprovalStore {
     public List<Approval> getApprovalsForUser(String userId, final String zoneId);
 
     public List<Approval> getApprovalsForClient(String clientId, final String zoneId);
+
+    /**
+     * Retrieve the approvals of several users at once
+     *
+     * @return map of user id to the user's approvals, every requested user id is present
+     */
+    public default Map<String, List<Approval>> getApprovalsForUsers(Collection<String> userIds, final String zoneId) {
+        Map<String, List<Approval>> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            result.put(userId, getApprovalsForUser(userId, zoneId));
+        }
+        return result;
+    }
 }
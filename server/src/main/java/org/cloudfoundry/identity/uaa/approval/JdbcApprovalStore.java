@@ -35,8 +35,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.APPROVED;
 
@@ -76,6 +82,8 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
     public static final String DELETE_OF_USER_APPROVALS_BY_PROVIDER = "delete from authz_approvals where user_id in (select id from users where identity_zone_id = ? and origin = ?)";
 
 
+    private static final int MAX_USER_IDS_PER_QUERY = 100;
+
     private boolean handleRevocationsAsExpiry = false;
     private ApplicationEventPublisher applicationEventPublisher;
 
@@ -229,6 +237,34 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         );
     }
 
+    @Override
+    public Map<String, List<Approval>> getApprovalsForUsers(Collection<String> userIds, final String zoneId) {
+        Map<String, List<Approval>> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            result.put(userId, new ArrayList<>());
+        }
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        for (int from = 0; from < ids.size(); from += MAX_USER_IDS_PER_QUERY) {
+            List<String> batch = ids.subList(from, Math.min(ids.size(), from + MAX_USER_IDS_PER_QUERY));
+            String sql = GET_AUTHZ_SQL + " WHERE identity_zone_id = ? AND user_id IN (" + String.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+            jdbcTemplate.query(
+                sql,
+                ps -> {
+                    int pos = 1;
+                    ps.setString(pos++, zoneId);
+                    for (String userId : batch) {
+                        ps.setString(pos++, userId);
+                    }
+                },
+                rs -> {
+                    Approval approval = rowMapper.mapRow(rs, rs.getRow());
+                    result.computeIfAbsent(approval.getUserId(), k -> new ArrayList<>()).add(approval);
+                }
+            );
+        }
+        return result;
+    }
+
     @Override
     public List<Approval> getApprovalsForClient(String clientId, final String zoneId) {
         String sql = GET_AUTHZ_SQL + " WHERE client_id = ? AND identity_zone_id = ?";
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates another {@link UaaAuditService} so that {@link #log(AuditEvent, String)} only
+ * puts the event into a bounded buffer. A single writer thread takes the events off the
+ * buffer and passes them to {@link UaaAuditService#logAll(List)} of the delegate whenever
+ * {@link #getBatchSize()} events are waiting or {@link #getFlushIntervalMillis()} has passed.
+ *
+ * {@link #find(String, long, String)} first writes the buffered events if any of them belong
+ * to the principal being looked up, so that lockout policies always see every event that
+ * was logged before.
+ *
+ * What happens to an event when the buffer is full is decided by the {@link OverflowPolicy}, except
+ * for the failures and resets that lockout policies count. Those are never dropped or spilled: when
+ * there is no room for one, the buffer is flushed and the event is written on the calling thread.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=AsyncAudit",
+    description = "Asynchronous audit writer"
+)
+public class AsyncAuditService implements UaaAuditService, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(AsyncAuditService.class);
+
+    public enum OverflowPolicy {
+        /**
+         * Wait up to {@link #setBlockTimeoutMillis(long)} for room in the buffer, then drop the event.
+         * This is the default.
+         */
+        BLOCK,
+        /**
+         * Drop the event and count it.
+         */
+        DROP,
+        /**
+         * Append the event as a line of JSON to {@link #setSpillFile(String)}.
+         * Batches that the delegate fails to write are spilled as well.
+         */
+        SPILL
+    }
+
+    private final UaaAuditService delegate;
+    private final Object writeLock = new Object();
+    private final Object signal = new Object();
+    private final ConcurrentMap<String, Integer> pendingByPrincipal = new ConcurrentHashMap<>();
+
+    private final AtomicLong loggedEvents = new AtomicLong();
+    private final AtomicLong writtenEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong synchronousEvents = new AtomicLong();
+    private final AtomicLong spilledEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeNanos = new AtomicLong();
+    private final AtomicLong maxFlushTimeNanos = new AtomicLong();
+
+    private boolean enabled = false;
+    private int bufferSize = 10000;
+    private int batchSize = 100;
+    private long flushIntervalMillis = 200;
+    private long blockTimeoutMillis = 1000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private String spillFile;
+
+    private volatile BlockingQueue<AuditEvent> buffer;
+    private volatile Thread writer;
+    private volatile boolean running;
+
+    public AsyncAuditService(UaaAuditService delegate) {
+        Assert.notNull(delegate);
+        this.delegate = delegate;
+    }
+
+    public UaaAuditService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public List<AuditEvent> find(String principal, long after, String zoneId) {
+        if (pendingByPrincipal.containsKey(key(principal, zoneId))) {
+            flush();
+        }
+        return delegate.find(principal, after, zoneId);
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent, String zoneId) {
+        if (!enabled) {
+            delegate.log(auditEvent, zoneId);
+            return;
+        }
+        if (zoneId != null && !zoneId.equals(auditEvent.getIdentityZoneId())) {
+            auditEvent = new AuditEvent(auditEvent.getType(), auditEvent.getPrincipalId(), auditEvent.getOrigin(), auditEvent.getData(), auditEvent.getTime(), zoneId);
+        }
+        loggedEvents.incrementAndGet();
+        BlockingQueue<AuditEvent> queue = start();
+        String key = key(auditEvent.getPrincipalId(), auditEvent.getIdentityZoneId());
+        pendingByPrincipal.merge(key, 1, Integer::sum);
+        if (offer(queue, auditEvent)) {
+            if (queue.size() >= batchSize) {
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+        } else {
+            removePending(key, 1);
+            overflow(auditEvent);
+        }
+    }
+
+    /**
+     * Writes every buffered event to the delegate on the calling thread.
+     */
+    public void flush() {
+        BlockingQueue<AuditEvent> queue = buffer;
+        if (queue == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            List<AuditEvent> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        Thread thread = writer;
+        if (thread != null) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+            try {
+                thread.join(flushIntervalMillis * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    protected boolean offer(BlockingQueue<AuditEvent> queue, AuditEvent auditEvent) {
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                return queue.offer(auditEvent, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return queue.offer(auditEvent);
+    }
+
+    protected void overflow(AuditEvent auditEvent) {
+        if (isLockoutEvent(auditEvent)) {
+            flush();
+            writeSynchronously(auditEvent);
+        } else if (overflowPolicy == OverflowPolicy.SPILL) {
+            List<AuditEvent> events = new ArrayList<>(1);
+            events.add(auditEvent);
+            spill(events);
+        } else {
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    protected void write(List<AuditEvent> batch) {
+        long start = System.nanoTime();
+        try {
+            delegate.logAll(batch);
+            writtenEvents.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failedEvents.addAndGet(batch.size());
+            logger.error("Unable to write " + batch.size() + " audit events", e);
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(batch);
+            }
+        } finally {
+            for (AuditEvent event : batch) {
+                removePending(key(event.getPrincipalId(), event.getIdentityZoneId()), 1);
+            }
+            long elapsed = System.nanoTime() - start;
+            flushCount.incrementAndGet();
+            flushTimeNanos.addAndGet(elapsed);
+            maxFlushTimeNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    protected void writeSynchronously(AuditEvent auditEvent) {
+        List<AuditEvent> events = Collections.singletonList(auditEvent);
+        try {
+            delegate.logAll(events);
+            writtenEvents.incrementAndGet();
+            synchronousEvents.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedEvents.incrementAndGet();
+            logger.error("Unable to write audit event", e);
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(events);
+            }
+        }
+    }
+
+    protected static boolean isLockoutEvent(AuditEvent auditEvent) {
+        return JdbcFailedLoginCountingAuditService.isFailure(auditEvent) || JdbcFailedLoginCountingAuditService.isReset(auditEvent);
+    }
+
+    protected void spill(List<AuditEvent> events) {
+        if (spillFile == null) {
+            droppedEvents.addAndGet(events.size());
+            return;
+        }
+        synchronized (this) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(spillFile), true), StandardCharsets.UTF_8)) {
+                for (AuditEvent event : events) {
+                    out.write(JsonUtils.writeValueAsString(event));
+                    out.write('\n');
+                }
+                spilledEvents.addAndGet(events.size());
+            } catch (IOException | RuntimeException e) {
+                droppedEvents.addAndGet(events.size());
+                logger.error("Unable to spill " + events.size() + " audit events to " + spillFile, e);
+            }
+        }
+    }
+
+    private BlockingQueue<AuditEvent> start() {
+        if (buffer == null) {
+            synchronized (this) {
+                if (buffer == null) {
+                    running = true;
+                    Thread thread = new Thread(this::writeLoop, "uaa-audit-writer");
+                    thread.setDaemon(true);
+                    buffer = new ArrayBlockingQueue<>(bufferSize);
+                    writer = thread;
+                    thread.start();
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private void writeLoop() {
+        while (running) {
+            synchronized (signal) {
+                if (running && buffer.size() < batchSize) {
+                    try {
+                        signal.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Audit writer failed", e);
+            }
+        }
+    }
+
+    private void removePending(String key, int count) {
+        pendingByPrincipal.computeIfPresent(key, (k, v) -> v <= count ? null : v - count);
+    }
+
+    private static String key(String principalId, String zoneId) {
+        return zoneId + ":" + principalId;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queue Depth")
+    public int getQueueDepth() {
+        BlockingQueue<AuditEvent> queue = buffer;
+        return queue == null ? 0 : queue.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Logged Event Count")
+    public long getLoggedEventCount() {
+        return loggedEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Written Event Count")
+    public long getWrittenEventCount() {
+        return writtenEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Dropped Event Count")
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Synchronous Event Count")
+    public long getSynchronousEventCount() {
+        return synchronousEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Spilled Event Count")
+    public long getSpilledEventCount() {
+        return spilledEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed Event Count")
+    public long getFailedEventCount() {
+        return failedEvents.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Flush Count")
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Flush Time (ms)")
+    public double getAverageFlushTimeMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushTimeNanos.get() / 1000000.0 / count;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max Flush Time (ms)")
+    public double getMaxFlushTimeMillis() {
+        return maxFlushTimeNanos.get() / 1000000.0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public String getSpillFile() {
+        return spillFile;
+    }
+
+    public void setSpillFile(String spillFile) {
+        this.spillFile = spillFile;
+    }
+}
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.JdbcFailedLoginCountingAuditService.isFailure;
+import static org.cloudfoundry.identity.uaa.audit.JdbcFailedLoginCountingAuditService.isReset;
+
+/**
+ * Keeps the same data as {@link JdbcFailedLoginCountingAuditService}, the failed logins of each
+ * principal since its last successful login, in memory so that logins and lockout checks
+ * don't touch the sec_audit table.
+ *
+ * Without a persister the counters are local to this node. With a persister the events are
+ * also written to the database in batches by a background thread, and the failures of a
+ * principal are re-read from the database at most every {@link #setRefreshIntervalMillis(long)}
+ * so that failures and successful logins on other nodes are taken into account.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=FailedLoginCounter",
+    description = "In memory failed login counters"
+)
+public class InMemoryFailedLoginCountingAuditService implements UaaAuditService, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(InMemoryFailedLoginCountingAuditService.class);
+
+    private final ConcurrentMap<Key, Failures> failures = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<AuditEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong lastCleanup = new AtomicLong();
+
+    private int saveDataPeriodMillis = 24 * 3600 * 1000; // 24hr
+    private long timeBetweenCleanupMillis = 1000 * 30;
+    private int maxFailuresPerPrincipal = 100;
+    private TimeService timeService = new TimeServiceImpl();
+
+    private JdbcFailedLoginCountingAuditService persister;
+    private long flushIntervalMillis = 1000;
+    private long refreshIntervalMillis = 10000;
+    private int maxPendingEvents = 10000;
+    private volatile ScheduledExecutorService flusher;
+
+    @Override
+    public List<AuditEvent> find(String principalId, long after, String zoneId) {
+        Key key = new Key(principalId, zoneId);
+        Failures current = failures.get(key);
+        if (persister != null && (current == null || current.loadedAt + refreshIntervalMillis <= timeService.getCurrentTimeMillis())) {
+            current = reload(key);
+        }
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        List<AuditEvent> result = new ArrayList<>();
+        for (int i = current.times.length - 1; i >= 0 && current.times[i] > after; i--) {
+            result.add(new AuditEvent(UserAuthenticationFailure, principalId, "", "", current.times[i], zoneId));
+        }
+        return result;
+    }
+
+    @Override
+    public void log(AuditEvent auditEvent, String zoneId) {
+        Key key = new Key(auditEvent.getPrincipalId(), zoneId);
+        long now = timeService.getCurrentTimeMillis();
+        if (isReset(auditEvent)) {
+            failures.remove(key);
+        } else if (isFailure(auditEvent)) {
+            failures.compute(key, (k, current) -> (current == null ? Failures.NONE : current).add(now, now - saveDataPeriodMillis, maxFailuresPerPrincipal));
+            periodicCleanup(now);
+        } else {
+            return;
+        }
+        if (persister != null) {
+            enqueue(new AuditEvent(auditEvent.getType(), auditEvent.getPrincipalId(), auditEvent.getOrigin(), auditEvent.getData(), now, zoneId));
+        }
+    }
+
+    /**
+     * Replaces the local failures of a principal with the ones stored in the database,
+     * followed by the events of this node that haven't been written yet.
+     */
+    protected Failures reload(Key key) {
+        long now = timeService.getCurrentTimeMillis();
+        List<AuditEvent> stored = persister.find(key.principalId, now - saveDataPeriodMillis, key.zoneId);
+        Failures loaded = Failures.NONE;
+        for (int i = stored.size() - 1; i >= 0; i--) {
+            loaded = loaded.add(stored.get(i).getTime(), now - saveDataPeriodMillis, maxFailuresPerPrincipal);
+        }
+        for (AuditEvent event : pending) {
+            if (key.principalId.equals(event.getPrincipalId()) && key.zoneId.equals(event.getIdentityZoneId())) {
+                loaded = isReset(event) ? Failures.NONE : loaded.add(event.getTime(), now - saveDataPeriodMillis, maxFailuresPerPrincipal);
+            }
+        }
+        loaded = loaded.loadedAt(now);
+        failures.put(key, loaded);
+        return loaded;
+    }
+
+    protected void enqueue(AuditEvent event) {
+        if (pendingCount.incrementAndGet() > maxPendingEvents) {
+            pendingCount.decrementAndGet();
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        pending.add(event);
+        startFlusher();
+    }
+
+    /**
+     * Writes the queued events to the persister, called by the background thread.
+     */
+    public void flush() {
+        List<AuditEvent> batch = new ArrayList<>();
+        AuditEvent event;
+        while ((event = pending.peek()) != null) {
+            batch.add(event);
+            pending.poll();
+            pendingCount.decrementAndGet();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            persister.logAll(batch);
+        } catch (RuntimeException e) {
+            droppedEvents.addAndGet(batch.size());
+            logger.error("Unable to persist " + batch.size() + " failed login events", e);
+        }
+    }
+
+    private void startFlusher() {
+        if (flusher == null) {
+            synchronized (this) {
+                if (flusher == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "failed-login-counter-flusher");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    flusher = executor;
+                }
+            }
+        }
+    }
+
+    protected void periodicCleanup(long now) {
+        long lastCheck = lastCleanup.get();
+        if (now - lastCheck > timeBetweenCleanupMillis && lastCleanup.compareAndSet(lastCheck, now)) {
+            long cutoff = now - saveDataPeriodMillis;
+            failures.entrySet().removeIf(entry -> entry.getValue().lastFailure() <= cutoff);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        ScheduledExecutorService executor = flusher;
+        if (executor != null) {
+            executor.shutdown();
+            flush();
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Principals with failed logins")
+    public int getPrincipalCount() {
+        return failures.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Events waiting to be persisted")
+    public int getPendingEventCount() {
+        return pendingCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Events that could not be persisted")
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    public void setSaveDataPeriodMillis(int saveDataPeriodMillis) {
+        this.saveDataPeriodMillis = saveDataPeriodMillis;
+    }
+
+    public void setTimeBetweenCleanupMillis(long timeBetweenCleanupMillis) {
+        this.timeBetweenCleanupMillis = timeBetweenCleanupMillis;
+    }
+
+    public void setMaxFailuresPerPrincipal(int maxFailuresPerPrincipal) {
+        this.maxFailuresPerPrincipal = maxFailuresPerPrincipal;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public JdbcFailedLoginCountingAuditService getPersister() {
+        return persister;
+    }
+
+    /**
+     * @param persister when set, events are also written to the database in the background
+     */
+    public void setPersister(JdbcFailedLoginCountingAuditService persister) {
+        this.persister = persister;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    public int getMaxPendingEvents() {
+        return maxPendingEvents;
+    }
+
+    public void setMaxPendingEvents(int maxPendingEvents) {
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * Immutable, ascending failure times of one principal. Updates replace the whole value
+     * through {@link ConcurrentMap#compute}, so readers never need a lock.
+     */
+    protected static final class Failures {
+        static final Failures NONE = new Failures(new long[0], 0);
+
+        private final long[] times;
+        private final long loadedAt;
+
+        private Failures(long[] times, long loadedAt) {
+            this.times = times;
+            this.loadedAt = loadedAt;
+        }
+
+        Failures add(long time, long cutoff, int max) {
+            int from = 0;
+            while (from < times.length && times[from] <= cutoff) {
+                from++;
+            }
+            from = Math.max(from, times.length + 1 - max);
+            long[] result = Arrays.copyOfRange(times, from, times.length + 1);
+            result[result.length - 1] = time;
+            Arrays.sort(result);
+            return new Failures(result, loadedAt);
+        }
+
+        Failures loadedAt(long time) {
+            return new Failures(times, time);
+        }
+
+        long lastFailure() {
+            return times.length == 0 ? 0 : times[times.length - 1];
+        }
+    }
+
+    protected static final class Key {
+        private final String principalId;
+        private final String zoneId;
+
+        Key(String principalId, String zoneId) {
+            this.principalId = principalId;
+            this.zoneId = zoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(principalId, key.principalId) && Objects.equals(zoneId, key.zoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(principalId, zoneId);
+        }
+    }
+}
@@ -18,11 +18,14 @@ import org.springframework.jdbc.core.RowMapper;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 
 public class JdbcAuditService implements UaaAuditService {
 
+    protected static final String INSERT_WITH_TIME_SQL = "insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id, created) values (?,?,?,?,?,?)";
+
     private final JdbcTemplate template;
 
     public JdbcAuditService(JdbcTemplate template) {
@@ -42,15 +45,33 @@ public class JdbcAuditService implements UaaAuditService {
 
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
-        String origin = auditEvent.getOrigin();
-        String data = auditEvent.getData();
-        origin = origin == null ? "" : origin;
-        origin = origin.length() > 255 ? origin.substring(0, 255) : origin;
-        data = data == null ? "" : data;
-        data = data.length() > 255 ? data.substring(0, 255) : data;
         template.update("insert into sec_audit (principal_id, event_type, origin, event_data, identity_zone_id) values (?,?,?,?,?)",
-                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), origin,
-                        data, zoneId);
+                        auditEvent.getPrincipalId(), auditEvent.getType().getCode(), truncate(auditEvent.getOrigin()),
+                        truncate(auditEvent.getData()), zoneId);
+    }
+
+    /**
+     * Inserts the events with a single batch, keeping the time each event was recorded at.
+     */
+    @Override
+    public void logAll(List<AuditEvent> auditEvents) {
+        List<Object[]> inserts = new ArrayList<>(auditEvents.size());
+        for (AuditEvent auditEvent : auditEvents) {
+            inserts.add(insertValues(auditEvent));
+        }
+        if (!inserts.isEmpty()) {
+            template.batchUpdate(INSERT_WITH_TIME_SQL, inserts);
+        }
+    }
+
+    protected static Object[] insertValues(AuditEvent auditEvent) {
+        return new Object[] {auditEvent.getPrincipalId(), auditEvent.getType().getCode(), truncate(auditEvent.getOrigin()),
+                             truncate(auditEvent.getData()), auditEvent.getIdentityZoneId(), new Timestamp(auditEvent.getTime())};
+    }
+
+    private static String truncate(String value) {
+        value = value == null ? "" : value;
+        return value.length() > 255 ? value.substring(0, 255) : value;
     }
 
     private class AuditEventRowMapper implements RowMapper<AuditEvent> {
@@ -17,6 +17,10 @@ import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -26,6 +30,8 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
 
+    private static final String DELETE_PRINCIPAL_SQL = "delete from sec_audit where principal_id=? and identity_zone_id=?";
+
     private int saveDataPeriodMillis = 24 * 3600 * 1000; // 24hr
     private long timeBetweenDeleteMillis = 1000*30;
 
@@ -49,21 +55,67 @@ public class JdbcFailedLoginCountingAuditService extends JdbcAuditService {
 
     @Override
     public void log(AuditEvent auditEvent, String zoneId) {
+        if (isReset(auditEvent)) {
+            getJdbcTemplate().update(DELETE_PRINCIPAL_SQL, auditEvent.getPrincipalId(), zoneId);
+        } else if (isFailure(auditEvent)) {
+            periodicDelete();
+            super.log(auditEvent, zoneId);
+        }
+    }
+
+    /**
+     * Stores a batch of events, each carrying its own zone id, with one batched delete and
+     * one batched insert. A reset of a principal discards the failures logged before it,
+     * so only the failures after the last reset of each principal are inserted.
+     * Failures keep the time they were recorded at rather than the time of the insert.
+     */
+    @Override
+    public void logAll(List<AuditEvent> events) {
+        Map<String, Integer> lastReset = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (isReset(events.get(i))) {
+                lastReset.put(key(events.get(i)), i);
+            }
+        }
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            AuditEvent event = events.get(i);
+            Integer reset = lastReset.get(key(event));
+            if (isReset(event) && reset == i) {
+                deletes.add(new Object[] {event.getPrincipalId(), event.getIdentityZoneId()});
+            } else if (isFailure(event) && (reset == null || reset < i)) {
+                inserts.add(insertValues(event));
+            }
+        }
+        if (!deletes.isEmpty()) {
+            getJdbcTemplate().batchUpdate(DELETE_PRINCIPAL_SQL, deletes);
+        }
+        if (!inserts.isEmpty()) {
+            periodicDelete();
+            getJdbcTemplate().batchUpdate(INSERT_WITH_TIME_SQL, inserts);
+        }
+    }
+
+    protected static boolean isReset(AuditEvent auditEvent) {
         switch (auditEvent.getType()) {
             case UserAuthenticationSuccess:
             case PasswordChangeSuccess:
             case UserAccountUnlockedEvent:
-                getJdbcTemplate().update("delete from sec_audit where principal_id=? and identity_zone_id=?", auditEvent.getPrincipalId(), zoneId);
-                break;
-            case UserAuthenticationFailure:
-                periodicDelete();
-                super.log(auditEvent, zoneId);
-                break;
+                return true;
             default:
-                break;
+                return false;
         }
     }
 
+    protected static boolean isFailure(AuditEvent auditEvent) {
+        return auditEvent.getType() == AuditEventType.UserAuthenticationFailure;
+    }
+
+    private static String key(AuditEvent event) {
+        return event.getIdentityZoneId() + ":" + event.getPrincipalId();
+    }
+
     protected void periodicDelete() {
         long now = timeService.getCurrentTimeMillis();
         long lastCheck = lastDelete.get();
@@ -42,4 +42,17 @@ public interface UaaAuditService {
      */
     void log(AuditEvent auditEvent, String zoneId);
 
+    /**
+     * Log several events at once, each in the zone given by
+     * {@link AuditEvent#getIdentityZoneId()}. Implementations backed by a
+     * database should override this to write the events in one batch.
+     *
+     * @param auditEvents the audit events to log, in the order they occurred
+     */
+    default void logAll(List<AuditEvent> auditEvents) {
+        for (AuditEvent auditEvent : auditEvents) {
+            log(auditEvent, auditEvent.getIdentityZoneId());
+        }
+    }
+
 }
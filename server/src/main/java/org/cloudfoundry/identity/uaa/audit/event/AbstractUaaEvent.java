@@ -17,6 +17,7 @@ import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.oauth.UaaOauth2Authentication;
+import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
 import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
 import org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
@@ -26,7 +27,6 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.jwt.Jwt;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.authentication.OAuth2AuthenticationDetails;
 
@@ -137,8 +137,7 @@ public abstract class AbstractUaaEvent extends ApplicationEvent {
             if (isJwtToken(tokenValue)) {
                 try {
                     Jwt token = JwtHelper.decode(tokenValue);
-                    Map<String, Object> claims = JsonUtils.readValue(token.getClaims(), new TypeReference<Map<String, Object>>() {
-                    });
+                    Map<String, Object> claims = token.getClaimSet().asMap();
                     String issuer = claims.get(ClaimConstants.ISS).toString();
                     String subject = claims.get(ClaimConstants.SUB).toString();
                     builder.append(", sub=").append(subject).append(", ").append("iss=").append(issuer);
@@ -12,16 +12,15 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.audit.event;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.audit.AuditEvent;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtClaims;
 import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.jwt.Jwt;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 
-import java.util.Map;
 
 public class TokenIssuedEvent extends AbstractUaaEvent {
 
@@ -47,7 +46,7 @@ public class TokenIssuedEvent extends AbstractUaaEvent {
     private String getPrincipalId() {
         OAuth2AccessToken token = getSource();
         Jwt jwt = JwtHelper.decode(token.getValue());
-        Map<String, Object> claims = JsonUtils.readValue(jwt.getClaims(), new TypeReference<Map<String, Object>>() {});
-        return (claims.get("user_id") != null ? claims.get("user_id") : claims.get("client_id")).toString();
+        JwtClaims claims = jwt.getClaimSet();
+        return claims.getUserId() != null ? claims.getUserId() : claims.get("client_id").toString();
     }
 }
@@ -16,6 +16,7 @@ package org.cloudfoundry.identity.uaa.authentication;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -135,6 +136,8 @@ public abstract class AbstractClientParametersAuthenticationFilter implements Fi
             return result;
         } catch (AuthenticationException e) {
             throw new BadCredentialsException(e.getMessage(), e);
+        } catch (PasswordHashingRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.debug("Unable to authenticate client: " + clientId, e);
             throw new BadCredentialsException(e.getMessage(), e);
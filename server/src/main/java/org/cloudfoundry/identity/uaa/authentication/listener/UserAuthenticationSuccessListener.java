@@ -3,6 +3,7 @@ package org.cloudfoundry.identity.uaa.authentication.listener;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationSuccessEvent;
 import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.jdbc.AsyncLastLogonTimeUpdater;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.context.ApplicationListener;
@@ -22,11 +23,16 @@ import org.springframework.context.ApplicationListener;
 public class UserAuthenticationSuccessListener implements ApplicationListener<UserAuthenticationSuccessEvent> {
 
     private final ScimUserProvisioning scimUserProvisioning;
+    private AsyncLastLogonTimeUpdater lastLogonTimeUpdater;
 
     public UserAuthenticationSuccessListener(ScimUserProvisioning scimUserProvisioning) {
         this.scimUserProvisioning = scimUserProvisioning;
     }
 
+    public void setLastLogonTimeUpdater(AsyncLastLogonTimeUpdater lastLogonTimeUpdater) {
+        this.lastLogonTimeUpdater = lastLogonTimeUpdater;
+    }
+
     @Override
     public void onApplicationEvent(UserAuthenticationSuccessEvent event) {
         UaaUser user = event.getUser();
@@ -34,7 +40,15 @@ public class UserAuthenticationSuccessListener implements ApplicationListener<Us
             scimUserProvisioning.verifyUser(user.getId(), -1, IdentityZoneHolder.get().getId());
         }
         UaaAuthentication authentication = (UaaAuthentication) event.getAuthentication();
-        authentication.setLastLoginSuccessTime(user.getLastLogonTime());
-        scimUserProvisioning.updateLastLogonTime(user.getId(), IdentityZoneHolder.get().getId());
+        String zoneId = IdentityZoneHolder.get().getId();
+        if (lastLogonTimeUpdater != null && lastLogonTimeUpdater.isEnabled()) {
+            // the user was read before the previous logon may have been written
+            Long pending = lastLogonTimeUpdater.getPendingLastLogonTime(user.getId(), zoneId);
+            authentication.setLastLoginSuccessTime(pending != null ? pending : user.getLastLogonTime());
+            lastLogonTimeUpdater.updateLastLogonTime(user.getId(), zoneId);
+        } else {
+            authentication.setLastLoginSuccessTime(user.getLastLogonTime());
+            scimUserProvisioning.updateLastLogonTime(user.getId(), zoneId);
+        }
     }
 }
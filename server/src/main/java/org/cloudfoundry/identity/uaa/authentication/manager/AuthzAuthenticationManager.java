@@ -33,6 +33,7 @@ import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.cloudfoundry.identity.uaa.util.ObjectUtils;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingExecutor;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
@@ -68,6 +69,7 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
 
     private String origin;
     private boolean allowUnverifiedUsers = true;
+    private PasswordHashingExecutor hashingExecutor;
 
     public AuthzAuthenticationManager(UaaUserDatabase cfusers, IdentityProviderProvisioning providerProvisioning) {
         this(cfusers, new BCryptPasswordEncoder(), providerProvisioning);
@@ -103,7 +105,7 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
                 throw e;
             }
 
-            boolean passwordMatches = ((CharSequence) req.getCredentials()).length() != 0 && encoder.matches((CharSequence) req.getCredentials(), user.getPassword());
+            boolean passwordMatches = ((CharSequence) req.getCredentials()).length() != 0 && passwordMatches((CharSequence) req.getCredentials(), user.getPassword());
 
             if (!passwordMatches) {
                 logger.debug("Password did not match for user " + req.getName());
@@ -186,6 +188,10 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
         return null;
     }
 
+    private boolean passwordMatches(CharSequence rawPassword, String encodedPassword) {
+        return hashingExecutor == null ? encoder.matches(rawPassword, encodedPassword) : hashingExecutor.matches(encoder, rawPassword, encodedPassword);
+    }
+
     private void publish(ApplicationEvent event) {
         if (eventPublisher != null) {
             eventPublisher.publishEvent(event);
@@ -217,6 +223,14 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
         this.allowUnverifiedUsers = allowUnverifiedUsers;
     }
 
+    public PasswordHashingExecutor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    public void setHashingExecutor(PasswordHashingExecutor hashingExecutor) {
+        this.hashingExecutor = hashingExecutor;
+    }
+
     private void checkPasswordExpired(Date passwordLastModified) {
         int expiringPassword = getPasswordExpiresInMonths();
         if (expiringPassword>0) {
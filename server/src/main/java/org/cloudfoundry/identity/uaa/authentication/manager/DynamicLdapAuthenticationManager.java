@@ -19,12 +19,12 @@ import java.nio.file.ProviderNotFoundException;
 
 public class DynamicLdapAuthenticationManager implements AuthenticationManager {
     private final LdapIdentityProviderDefinition definition;
-    private ClassPathXmlApplicationContext context = null;
+    private volatile ClassPathXmlApplicationContext context = null;
     private ScimGroupExternalMembershipManager scimGroupExternalMembershipManager;
     private ScimGroupProvisioning scimGroupProvisioning;
     private LdapLoginAuthenticationManager ldapLoginAuthenticationManager;
-    private AuthenticationManager manager;
-    private AuthenticationManager ldapManagerActual;
+    private volatile AuthenticationManager manager;
+    private volatile AuthenticationManager ldapManagerActual;
 
 
     public DynamicLdapAuthenticationManager(LdapIdentityProviderDefinition definition,
@@ -41,10 +41,19 @@ public class DynamicLdapAuthenticationManager implements AuthenticationManager {
         return context;
     }
 
-    public synchronized AuthenticationManager getLdapAuthenticationManager() throws BeansException {
+    public AuthenticationManager getLdapAuthenticationManager() throws BeansException {
         if (definition==null) {
             return null;
         }
+        //the manager is only created once, every following authentication reads it without locking
+        AuthenticationManager result = manager;
+        if (result!=null) {
+            return result;
+        }
+        return createLdapAuthenticationManager();
+    }
+
+    protected synchronized AuthenticationManager createLdapAuthenticationManager() throws BeansException {
         if (manager!=null) {
             return manager;
         }
@@ -102,7 +111,7 @@ public class DynamicLdapAuthenticationManager implements AuthenticationManager {
         throw new ProviderNotFoundException("LDAP provider not configured");
     }
 
-    public void destroy() {
+    public synchronized void destroy() {
         ClassPathXmlApplicationContext applicationContext = context;
         if (applicationContext != null) {
             context = null;
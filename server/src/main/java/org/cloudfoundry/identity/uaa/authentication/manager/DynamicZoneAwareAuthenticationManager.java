@@ -79,8 +79,7 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
         if (ldapProvider.isActive()) {
             //has LDAP IDP config changed since last time?
             DynamicLdapAuthenticationManager existing = getLdapAuthenticationManager(zone, ldapProvider);
-            if (!existing.getDefinition().equals(ldapProvider.getConfig())) {
-                ldapAuthManagers.remove(zone);
+            if (!existing.getDefinition().equals(ldapProvider.getConfig()) && ldapAuthManagers.remove(zone, existing)) {
                 existing.destroy();
             }
             DynamicLdapAuthenticationManager ldapAuthenticationManager = getLdapAuthenticationManager(zone, ldapProvider);
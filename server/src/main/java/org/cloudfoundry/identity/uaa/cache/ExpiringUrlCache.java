@@ -15,20 +15,54 @@
 
 package org.cloudfoundry.identity.uaa.cache;
 
-import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class ExpiringUrlCache implements UrlContentCache {
+/**
+ * Caches the content of metadata and discovery URLs for {@code expiringTimeMillis}.
+ *
+ * Concurrent requests for a missing URL share a single fetch. Entries that are about to expire
+ * are refreshed in the background ({@link #setRefreshAheadMillis(long)}). Expired content is
+ * served straight away for up to {@link #setMaxStaleMillis(long)} after it expired while a single
+ * background refresh per URL fetches it again, so that requests don't wait for an unreachable
+ * URL. Refreshes use the ETag and Last-Modified validators of the previous response so that
+ * unchanged content isn't downloaded again.
+ *
+ * After a failed fetch a URL isn't fetched again for {@link #setFailureBackoffMillis(long)},
+ * doubled after every further failure up to {@link #setMaxFailureBackoffMillis(long)}.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=UrlContentCache",
+    description = "Cached content of metadata URLs"
+)
+public class ExpiringUrlCache implements UrlContentCache, DisposableBean {
 
     private static Log logger = LogFactory.getLog(ExpiringUrlCache.class);
 
@@ -37,43 +71,185 @@ public class ExpiringUrlCache implements UrlContentCache {
     private final TimeService ticker;
     protected Cache<String, CacheEntry> cache = null;
 
+    private long maxStaleMillis = 24 * 3600 * 1000;
+    private long refreshAheadMillis = 60 * 1000;
+    private long failureBackoffMillis = 10 * 1000;
+    private long maxFailureBackoffMillis = 10 * 60 * 1000;
+
+    private final ConcurrentMap<String, CompletableFuture<CacheEntry>> fetching = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Backoff> backoffs = new ConcurrentHashMap<>();
+    private volatile ExecutorService refresher;
+
+    private final LongAdder fetchCount = new LongAdder();
+    private final LongAdder fetchFailureCount = new LongAdder();
+    private final LongAdder notModifiedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder backedOffCount = new LongAdder();
+    private final LongAdder fetchTime = new LongAdder();
+    private final AtomicLong maxFetchTime = new AtomicLong();
+
     public ExpiringUrlCache(long expiringTimeMillis, TimeService ticker, int maxEntries) {
         this.expiringTimeMillis = expiringTimeMillis;
         this.ticker = ticker;
         this.maxEntries = maxEntries;
+        // entries outlive expiringTimeMillis so that they can be revalidated or served stale
         cache = CacheBuilder
             .newBuilder()
-            .expireAfterWrite(expiringTimeMillis, TimeUnit.MILLISECONDS)
             .maximumSize(maxEntries)
-            .ticker(Ticker.systemTicker())
             .build();
     }
 
 
     @Override
     public byte[] getUrlContent(String uri, final RestTemplate template) {
+        final URI netUri;
         try {
-            final URI netUri = new URI(uri);
-            CacheEntry entry = cache.getIfPresent(uri);
-            byte[] metadata = entry != null ? entry.getData() : null;
-            long now = ticker.getCurrentTimeMillis();
-            if (metadata == null || (now - entry.getTimeEntered()) > this.expiringTimeMillis) {
-                logger.debug("Fetching metadata for "+uri);
-                metadata = template.getForObject(netUri, byte[].class);
-                cache.put(uri, new CacheEntry(now, metadata));
+            netUri = new URI(uri);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        CacheEntry entry = cache.getIfPresent(uri);
+        long now = ticker.getCurrentTimeMillis();
+        if (entry != null && entry.getData() != null) {
+            long age = now - entry.getTimeEntered();
+            if (age <= expiringTimeMillis) {
+                if (refreshAheadMillis > 0 && age > expiringTimeMillis - refreshAheadMillis) {
+                    refreshInBackground(uri, netUri, template, entry);
+                }
+                return entry.getData();
+            }
+            if (age <= expiringTimeMillis + maxStaleMillis) {
+                refreshInBackground(uri, netUri, template, entry);
+                staleCount.increment();
+                logger.debug("Serving stale metadata for "+uri);
+                return entry.getData();
+            }
+        }
+        if (isBackingOff(uri, now)) {
+            backedOffCount.increment();
+            logger.debug("Not fetching metadata for "+uri+" after a recent failure");
+            return null;
+        }
+        CacheEntry fetched = fetch(uri, netUri, template, entry, now);
+        return fetched == null ? null : fetched.getData();
+    }
+
+    /**
+     * Fetches the content of the URI, or waits for the fetch another thread already started.
+     * @return the new entry, or null if the content could not be retrieved
+     */
+    protected CacheEntry fetch(String uri, URI netUri, RestTemplate template, CacheEntry previous, long now) {
+        CompletableFuture<CacheEntry> flight = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> existing = fetching.putIfAbsent(uri, flight);
+        if (existing != null) {
+            coalescedCount.increment();
+            return existing.join();
+        }
+        CacheEntry result = null;
+        try {
+            result = load(uri, netUri, template, previous, now);
+        } finally {
+            fetching.remove(uri, flight);
+            flight.complete(result);
+        }
+        return result;
+    }
+
+    protected CacheEntry load(String uri, URI netUri, RestTemplate template, CacheEntry previous, long now) {
+        logger.debug("Fetching metadata for "+uri);
+        fetchCount.increment();
+        long start = System.nanoTime();
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            boolean conditional = previous != null && previous.getData() != null;
+            if (conditional && StringUtils.hasText(previous.getEtag())) {
+                headers.setIfNoneMatch(previous.getEtag());
+            }
+            if (conditional && previous.getLastModified() > 0) {
+                headers.setIfModifiedSince(previous.getLastModified());
             }
-            return metadata;
+            ResponseEntity<byte[]> response = template.exchange(new RequestEntity<Void>(headers, HttpMethod.GET, netUri), byte[].class);
+            CacheEntry entry;
+            if (conditional && response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                notModifiedCount.increment();
+                entry = new CacheEntry(now, previous.getData(), previous.getEtag(), previous.getLastModified());
+            } else {
+                HttpHeaders responseHeaders = response.getHeaders();
+                entry = new CacheEntry(now, response.getBody(), responseHeaders.getETag(), responseHeaders.getLastModified());
+            }
+            cache.put(uri, entry);
+            backoffs.remove(uri);
+            return entry;
         } catch (RestClientException x) {
+            fetchFailureCount.increment();
+            backoffs.compute(uri, (k, v) -> failed(v));
             logger.warn("Unable to fetch metadata for "+uri, x);
             return null;
-        } catch (URISyntaxException e) {
-            throw new IllegalArgumentException(e);
+        } finally {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            fetchTime.add(elapsed);
+            maxFetchTime.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    protected void refreshInBackground(String uri, URI netUri, RestTemplate template, CacheEntry previous) {
+        if (isBackingOff(uri, ticker.getCurrentTimeMillis()) || !refreshing.add(uri)) {
+            return;
+        }
+        try {
+            getRefresher().execute(() -> {
+                try {
+                    fetch(uri, netUri, template, previous, ticker.getCurrentTimeMillis());
+                } finally {
+                    refreshing.remove(uri);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(uri);
+            logger.debug("Unable to schedule refresh of "+uri, e);
+        }
+    }
+
+    private boolean isBackingOff(String uri, long now) {
+        Backoff backoff = backoffs.get(uri);
+        return backoff != null && now < backoff.retryAt;
+    }
+
+    private Backoff failed(Backoff previous) {
+        int failures = previous == null ? 1 : previous.failures + 1;
+        long delay = Math.min(failureBackoffMillis << Math.min(failures - 1, 20), maxFailureBackoffMillis);
+        return new Backoff(failures, ticker.getCurrentTimeMillis() + delay);
+    }
+
+    private ExecutorService getRefresher() {
+        if (refresher == null) {
+            synchronized (this) {
+                if (refresher == null) {
+                    refresher = Executors.newFixedThreadPool(2, r -> {
+                        Thread thread = new Thread(r, "url-cache-refresher");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return refresher;
+    }
+
+    @Override
+    public void destroy() {
+        ExecutorService executor = refresher;
+        if (executor != null) {
+            executor.shutdownNow();
         }
     }
 
     @Override
     public void clear() {
         cache.invalidateAll();
+        backoffs.clear();
     }
 
     @Override
@@ -81,13 +257,134 @@ public class ExpiringUrlCache implements UrlContentCache {
         return cache.size();
     }
 
+    public long getExpiringTimeMillis() {
+        return expiringTimeMillis;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxStaleMillis() {
+        return maxStaleMillis;
+    }
+
+    /**
+     * @param maxStaleMillis how long after it expired content keeps being served while it can't be refreshed
+     */
+    public void setMaxStaleMillis(long maxStaleMillis) {
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    public long getRefreshAheadMillis() {
+        return refreshAheadMillis;
+    }
+
+    /**
+     * @param refreshAheadMillis how long before it expires content is refreshed in the background, 0 to disable
+     */
+    public void setRefreshAheadMillis(long refreshAheadMillis) {
+        this.refreshAheadMillis = refreshAheadMillis;
+    }
+
+    public long getFailureBackoffMillis() {
+        return failureBackoffMillis;
+    }
+
+    /**
+     * @param failureBackoffMillis how long a URL isn't fetched again after its first failed fetch
+     */
+    public void setFailureBackoffMillis(long failureBackoffMillis) {
+        this.failureBackoffMillis = failureBackoffMillis;
+    }
+
+    public long getMaxFailureBackoffMillis() {
+        return maxFailureBackoffMillis;
+    }
+
+    /**
+     * @param maxFailureBackoffMillis the longest a URL isn't fetched again after repeated failed fetches
+     */
+    public void setMaxFailureBackoffMillis(long maxFailureBackoffMillis) {
+        this.maxFailureBackoffMillis = maxFailureBackoffMillis;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "URL fetches")
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed URL fetches")
+    public long getFetchFailureCount() {
+        return fetchFailureCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "URL fetches answered with 304 Not Modified")
+    public long getNotModifiedCount() {
+        return notModifiedCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Requests that waited for a fetch in progress")
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Requests served expired content")
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Requests not fetched after a recent failure")
+    public long getBackedOffCount() {
+        return backedOffCount.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average URL fetch time (ms)")
+    public double getAverageFetchTime() {
+        long count = fetchCount.sum();
+        return count == 0 ? 0 : (double) fetchTime.sum() / count;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max URL fetch time (ms)")
+    public long getMaxFetchTime() {
+        return maxFetchTime.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Longest time an entry is past its expiry (ms)")
+    public long getMaxStaleness() {
+        long now = ticker.getCurrentTimeMillis();
+        long result = 0;
+        for (CacheEntry entry : cache.asMap().values()) {
+            result = Math.max(result, now - entry.getTimeEntered() - expiringTimeMillis);
+        }
+        return result;
+    }
+
+    private static class Backoff {
+        private final int failures;
+        private final long retryAt;
+
+        Backoff(int failures, long retryAt) {
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+
     static class CacheEntry {
         private final long timeEntered;
         private final byte[] data;
+        private final String etag;
+        private final long lastModified;
 
         public CacheEntry(long timeEntered, byte[] data) {
+            this(timeEntered, data, null, -1);
+        }
+
+        public CacheEntry(long timeEntered, byte[] data, String etag, long lastModified) {
             this.timeEntered = timeEntered;
             this.data = data;
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
 
         public long getTimeEntered() {
@@ -98,5 +395,12 @@ public class ExpiringUrlCache implements UrlContentCache {
             return data;
         }
 
+        public String getEtag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
     }
 }
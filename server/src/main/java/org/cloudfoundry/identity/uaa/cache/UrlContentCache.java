@@ -20,8 +20,8 @@ import java.net.URI;
 public interface UrlContentCache {
 
     /**
-     * Retrieves and caches the content for a given URI by invoking
-     * {@link org.springframework.web.client.RestTemplate#getForObject(URI, Class)} method.
+     * Retrieves and caches the content for a given URI with a GET request through
+     * {@link org.springframework.web.client.RestTemplate#exchange(org.springframework.http.RequestEntity, Class)}.
      * The template may throw {@link org.springframework.web.client.RestClientException} to indicate content not available
      * @param uri - must be a valid URI
      * @param template - RestTemplate used for content retrieval
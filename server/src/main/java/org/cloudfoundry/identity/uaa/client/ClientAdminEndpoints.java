@@ -23,6 +23,8 @@ import org.cloudfoundry.identity.uaa.oauth.client.ClientDetailsModification;
 import org.cloudfoundry.identity.uaa.oauth.client.SecretChangeRequest;
 import org.cloudfoundry.identity.uaa.resources.ActionResult;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
+import org.cloudfoundry.identity.uaa.resources.KeysetQueryable;
 import org.cloudfoundry.identity.uaa.resources.QueryableResourceManager;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
@@ -460,6 +462,15 @@ public class ClientAdminEndpoints implements InitializingBean, ApplicationEventP
     }
 
 
+    public SearchResults<?> listClientDetails(String attributesCommaSeparated,
+                                              String filter,
+                                              String sortBy,
+                                              String sortOrder,
+                                              int startIndex,
+                                              int count) throws Exception {
+        return listClientDetails(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, false, null);
+    }
+
     @RequestMapping(value = "/oauth/clients", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> listClientDetails(
@@ -468,34 +479,58 @@ public class ClientAdminEndpoints implements InitializingBean, ApplicationEventP
                     @RequestParam(required = false, defaultValue = "client_id") String sortBy,
                     @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
                     @RequestParam(required = false, defaultValue = "1") int startIndex,
-                    @RequestParam(required = false, defaultValue = "100") int count) throws Exception {
+                    @RequestParam(required = false, defaultValue = "100") int count,
+                    @RequestParam(required = false, defaultValue = "false") boolean keyset,
+                    @RequestParam(required = false) String continuationToken) throws Exception {
+        boolean keysetPagination = keyset || StringUtils.hasText(continuationToken);
+        if (keysetPagination && !(clientDetailsService instanceof KeysetQueryable)) {
+            throw new UaaException("Keyset pagination is not supported", HttpStatus.BAD_REQUEST.value());
+        }
         List<ClientDetails> result = new ArrayList<ClientDetails>();
         List<ClientDetails> clients;
+        int totalResults;
+        String nextToken = null;
         try {
-            clients = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
-            if (count > clients.size()) {
-                count = clients.size();
+            if (keysetPagination) {
+                KeysetPage<ClientDetails> page = ((KeysetQueryable<ClientDetails>) clientDetailsService).query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId(), continuationToken, count);
+                clients = page.getResources();
+                totalResults = page.getTotalResults();
+                nextToken = page.getContinuationToken();
+            } else {
+                List<ClientDetails> all = clientDetailsService.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+                totalResults = all.size();
+                if (count > totalResults) {
+                    count = totalResults;
+                }
+                clients = UaaPagingUtils.subList(all, startIndex, count);
             }
         } catch (IllegalArgumentException e) {
             String msg = "Invalid filter expression: [" + filter + "]";
             if (StringUtils.hasText(sortBy)) {
                 msg += " [" +sortBy+"]";
             }
+            if (StringUtils.hasText(continuationToken)) {
+                msg += " [" + continuationToken + "]";
+            }
             throw new UaaException(msg, HttpStatus.BAD_REQUEST.value());
         }
-        for (ClientDetails client : UaaPagingUtils.subList(clients, startIndex, count)) {
+        for (ClientDetails client : clients) {
             result.add(removeSecret(client));
         }
 
         if (!StringUtils.hasLength(attributesCommaSeparated)) {
-            return new SearchResults<ClientDetails>(Arrays.asList(SCIM_CLIENTS_SCHEMA_URI), result, startIndex, count,
-                            clients.size());
+            SearchResults<ClientDetails> results = new SearchResults<ClientDetails>(Arrays.asList(SCIM_CLIENTS_SCHEMA_URI), result, startIndex, count,
+                            totalResults);
+            results.setContinuationToken(nextToken);
+            return results;
         }
 
         String[] attributes = attributesCommaSeparated.split(",");
         try {
-            return SearchResultsFactory.buildSearchResultFrom(result, startIndex, count, clients.size(), attributes,
+            SearchResults<?> results = SearchResultsFactory.buildSearchResultFrom(result, startIndex, count, totalResults, attributes,
                             attributeNameMapper, Arrays.asList(SCIM_CLIENTS_SCHEMA_URI));
+            results.setContinuationToken(nextToken);
+            return results;
         } catch (SpelParseException e) {
             throw new UaaException("Invalid attributes: [" + attributesCommaSeparated + "]",
                             HttpStatus.BAD_REQUEST.value());
@@ -96,6 +96,11 @@ public class JdbcQueryableClientDetailsService extends AbstractQueryable<ClientD
         super.validateOrderBy(orderBy, CLIENT_FIELDS);
     }
 
+    @Override
+    protected String getKeyColumn() {
+        return "client_id";
+    }
+
     private static class ClientDetailsRowMapper implements RowMapper<ClientDetails> {
 
         @Override
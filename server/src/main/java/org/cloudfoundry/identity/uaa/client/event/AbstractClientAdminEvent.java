@@ -38,7 +38,7 @@ public abstract class AbstractClientAdminEvent extends AbstractUaaEvent {
         this.client = client;
     }
 
-    ClientDetails getClient() {
+    public ClientDetails getClient() {
         return client;
     }
 
@@ -30,6 +30,7 @@ public class LdapGroupsConfig {
     nestedLdapAuthoritiesPopulator.setConvertToUpperCase(false);
     nestedLdapAuthoritiesPopulator.setGroupSearchFilter(groupSearchFilter);
     nestedLdapAuthoritiesPopulator.setMaxSearchDepth(ofNullable(Integer.parseInt(environment.getProperty("ldap.groups.maxSearchDepth"))).orElse(10));
+    nestedLdapAuthoritiesPopulator.setCacheTtlMillis(ofNullable(environment.getProperty("ldap.groups.cacheTtlMillis")).map(Long::parseLong).orElse(10000L));
     nestedLdapAuthoritiesPopulator.setAttributeNames(new HashSet<>(Arrays.asList("cn")));
     nestedLdapAuthoritiesPopulator.setIgnorePartialResultException(ofNullable(environment.getProperty("ldap.groups.ignorePartialResultException")).map(Boolean::parseBoolean).orElse(true));
     return nestedLdapAuthoritiesPopulator;
@@ -1,10 +1,13 @@
 package org.cloudfoundry.identity.uaa.impl.config;
 
 import org.cloudfoundry.identity.uaa.provider.ldap.ExtendedLdapUserMapper;
+import org.cloudfoundry.identity.uaa.provider.ldap.PooledLdapContextSource;
 import org.cloudfoundry.identity.uaa.provider.ldap.ProcessLdapProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.env.Environment;
+import org.springframework.security.ldap.DefaultSpringSecurityContextSource;
 
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -34,6 +37,14 @@ public class LdapIntegrationConfig {
     return ldapPropertyProcessor(environment).process(initialLdapProperties);
   }
 
+  @Bean
+  @Primary
+  public PooledLdapContextSource pooledLdapContextSource(DefaultSpringSecurityContextSource defaultSpringSecurityContextSource, Environment environment) {
+    PooledLdapContextSource contextSource = new PooledLdapContextSource(defaultSpringSecurityContextSource);
+    contextSource.setMaxIdle(ofNullable(environment.getProperty("ldap.pool.maxIdle")).map(Integer::parseInt).orElse(8));
+    return contextSource;
+  }
+
   @Bean
   public ExtendedLdapUserMapper extendedLdapUserDetailsMapper(Environment environment) {
     String mailAttributeName = ofNullable(environment.getProperty("ldap.base.mailAttributeName")).orElse("mail");
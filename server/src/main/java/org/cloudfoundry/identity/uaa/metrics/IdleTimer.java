@@ -18,57 +18,65 @@ package org.cloudfoundry.identity.uaa.metrics;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Calculates the time that a server is idle (no requests processing)
  * The idle time calculator starts as soon as this object is created.
+ *
+ * The number of requests in flight and the start of the current idle period share one
+ * atomic value, so that both change together without a lock: a positive value is the
+ * number of requests in flight, zero or a negative value is minus the time the server
+ * became idle.
  */
 public class IdleTimer {
 
     TimeService timeService = new TimeServiceImpl();
 
-    private long inflightRequests = 0;
-    private long idleTime = 0;
+    private final AtomicLong state = new AtomicLong(-timeService.getCurrentTimeMillis());
+    private final AtomicLong idleTime = new AtomicLong();
 
-    private long lastIdleStart = timeService.getCurrentTimeMillis();
     private final long startTime = timeService.getCurrentTimeMillis();
-    private long requestCount = 0;
+    private final LongAdder requestCount = new LongAdder();
 
-    public synchronized void endRequest() {
-        switch ((int) --inflightRequests) {
-            case 0:
-                lastIdleStart = timeService.getCurrentTimeMillis();
-                break;
-            case -1:
+    public void endRequest() {
+        while (true) {
+            long current = state.get();
+            if (current <= 0) {
                 throw new IllegalStateException("Illegal end request invocation, no request in flight");
-            default:
+            }
+            long next = current == 1 ? -timeService.getCurrentTimeMillis() : current - 1;
+            if (state.compareAndSet(current, next)) {
                 break;
+            }
         }
-        requestCount++;
+        requestCount.increment();
     }
 
-    public synchronized void startRequest() {
-        switch ((int) ++inflightRequests) {
-            case 1:
-                idleTime += (timeService.getCurrentTimeMillis() - lastIdleStart);
-                break;
-            default:
+    public void startRequest() {
+        while (true) {
+            long current = state.get();
+            if (state.compareAndSet(current, current <= 0 ? 1 : current + 1)) {
+                if (current <= 0) {
+                    idleTime.addAndGet(timeService.getCurrentTimeMillis() + current);
+                }
                 break;
+            }
         }
-
-
-
     }
 
 
     public long getInflightRequests() {
-        return inflightRequests;
+        return Math.max(0, state.get());
     }
 
-    public synchronized long getIdleTime() {
-        if (inflightRequests == 0) {
-            return (timeService.getCurrentTimeMillis() - lastIdleStart) + idleTime;
+    public long getIdleTime() {
+        long current = state.get();
+        if (current <= 0) {
+            return (timeService.getCurrentTimeMillis() + current) + idleTime.get();
         } else {
-            return idleTime;
+            return idleTime.get();
         }
     }
 
@@ -77,7 +85,7 @@ public class IdleTimer {
     }
 
     protected long getRequestCount() {
-        return requestCount;
+        return requestCount.sum();
     }
 
     public void setTimeService(TimeService timeService) {
@@ -16,9 +16,7 @@
 package org.cloudfoundry.identity.uaa.metrics;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,15 +26,19 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.yaml.snakeyaml.Yaml;
 
@@ -57,16 +59,15 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     private TimeService timeService = new TimeServiceImpl();
     private IdleTimer inflight = new IdleTimer();
     private Map<String,MetricsQueue> perUriMetrics = new ConcurrentHashMap<>();
-    private LinkedHashMap<AntPathRequestMatcher, UrlGroup> urlGroups;
+    private Resource urlGroupsResource = new ClassPathResource("performance-url-groups.yml");
+    private volatile UrlGroupMatcher urlGroups;
+    private volatile Cache<String, UrlGroup> uriGroupCache;
+    private int maxCachedUris = 10000;
     private boolean enabled = true;
 
     public UaaMetricsFilter() throws IOException {
         perUriMetrics.put(MetricsUtil.GLOBAL_GROUP, new MetricsQueue());
-        urlGroups = new LinkedHashMap<>();
-        List<UrlGroup> groups = getUrlGroups();
-        groups.stream().forEach(
-            group -> urlGroups.put(new AntPathRequestMatcher(group.getPattern()), group)
-        );
+        reloadUrlGroups();
     }
 
     @Override
@@ -82,10 +83,8 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
                 MetricsAccessor.clear();
                 inflight.endRequest();
                 metric.stop(response.getStatus(), timeService.getCurrentTimeMillis());
-                for (String group : Arrays.asList(uriGroup.getGroup(), MetricsUtil.GLOBAL_GROUP)) {
-                    MetricsQueue queue = getMetricsQueue(group);
-                    queue.offer(metric);
-                }
+                getMetricsQueue(uriGroup.getGroup()).offer(metric);
+                getMetricsQueue(MetricsUtil.GLOBAL_GROUP).offer(metric);
             }
         } else {
             filterChain.doFilter(request, response);
@@ -101,10 +100,11 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     }
 
     protected MetricsQueue getMetricsQueue(String uri) {
-        if (!perUriMetrics.containsKey(uri)) {
-            perUriMetrics.putIfAbsent(uri, new MetricsQueue());
+        MetricsQueue queue = perUriMetrics.get(uri);
+        if (queue == null) {
+            queue = perUriMetrics.computeIfAbsent(uri, k -> new MetricsQueue());
         }
-        return perUriMetrics.get(uri);
+        return queue;
     }
 
     /**
@@ -113,19 +113,51 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
      * @return null if this request should not be measured.
      */
     protected UrlGroup getUriGroup(HttpServletRequest request) {
-        if (urlGroups!=null) {
-            String uri = request.getRequestURI();
-            for (Map.Entry<AntPathRequestMatcher, UrlGroup> entry : urlGroups.entrySet()) {
-                if (entry.getKey().matches(request)) {
-                    UrlGroup group = entry.getValue();
-                    logger.debug(String.format("Successfully matched URI: %s to a group: %s", uri, group.getGroup()));
-                    return group;
-                }
-            }
-            return FALLBACK;
-        } else {
+        UrlGroupMatcher matcher = urlGroups;
+        if (matcher==null) {
             return FALLBACK;
         }
+        String path = getRequestPath(request);
+        Cache<String, UrlGroup> cache = uriGroupCache;
+        UrlGroup group = cache.getIfPresent(path);
+        if (group == null) {
+            group = matcher.match(path);
+            if (group == null) {
+                group = FALLBACK;
+            }
+            // a reload may have replaced the matcher and cache in the meantime
+            if (matcher == urlGroups) {
+                cache.put(path, group);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Successfully matched URI: %s to a group: %s", path, group.getGroup()));
+            }
+        }
+        return group;
+    }
+
+    /**
+     * @return the path within the application, the same path that an AntPathRequestMatcher matches
+     */
+    private static String getRequestPath(HttpServletRequest request) {
+        String url = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null) {
+            url = StringUtils.hasLength(url) ? url + pathInfo : pathInfo;
+        }
+        return url;
+    }
+
+    /**
+     * Reads the URL groups again, e.g. after the YAML file they are loaded from has been changed.
+     * The groups in use are kept if the file can't be read.
+     */
+    @ManagedOperation(description = "Reload the URL groups")
+    public synchronized void reloadUrlGroups() throws IOException {
+        UrlGroupMatcher matcher = new UrlGroupMatcher(getUrlGroups());
+        uriGroupCache = CacheBuilder.newBuilder().maximumSize(maxCachedUris).build();
+        urlGroups = matcher;
+        logger.debug("Loaded " + matcher.getGroups().size() + " URL groups from " + urlGroupsResource);
     }
 
     @Override
@@ -169,9 +201,26 @@ public class UaaMetricsFilter extends OncePerRequestFilter implements UaaMetrics
     }
 
     public List<UrlGroup> getUrlGroups() throws IOException {
-        ClassPathResource resource = new ClassPathResource("performance-url-groups.yml");
         Yaml yaml = new Yaml();
-        List<Map<String,Object>> load = (List<Map<String, Object>>) yaml.load(resource.getInputStream());
+        List<Map<String,Object>> load = (List<Map<String, Object>>) yaml.load(urlGroupsResource.getInputStream());
         return load.stream().map(map -> UrlGroup.from(map)).collect(Collectors.toList());
     }
+
+    public Resource getUrlGroupsResource() {
+        return urlGroupsResource;
+    }
+
+    public void setUrlGroupsResource(Resource urlGroupsResource) throws IOException {
+        this.urlGroupsResource = urlGroupsResource;
+        reloadUrlGroups();
+    }
+
+    public int getMaxCachedUris() {
+        return maxCachedUris;
+    }
+
+    public synchronized void setMaxCachedUris(int maxCachedUris) {
+        this.maxCachedUris = maxCachedUris;
+        uriGroupCache = CacheBuilder.newBuilder().maximumSize(maxCachedUris).build();
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.AntPathMatcher;
+
+/**
+ * Finds the first {@link UrlGroup} whose ant pattern matches a request path, with the same result as
+ * trying an {@link org.springframework.security.web.util.matcher.AntPathRequestMatcher} per group in order.
+ *
+ * The patterns are compiled into a trie of path segments, so a lookup walks the segments of the path once
+ * instead of evaluating every pattern. Literal segments are looked up in a map; segments with wildcards
+ * are matched one by one, and patterns the trie can't represent, e.g. a {@code **} in the middle, are
+ * evaluated with an {@link AntPathMatcher} after the trie.
+ */
+public class UrlGroupMatcher {
+
+    private static final String MATCH_ALL = "/**";
+
+    private final List<UrlGroup> groups;
+    private final Node root = new Node();
+    private final List<Integer> uncompiled = new ArrayList<>();
+    private int matchAll = Integer.MAX_VALUE;
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    public UrlGroupMatcher(List<UrlGroup> groups) {
+        this.groups = new ArrayList<>(groups);
+        antPathMatcher.setTrimTokens(false);
+        for (int i = 0; i < this.groups.size(); i++) {
+            if (!compile(this.groups.get(i).getPattern(), i)) {
+                uncompiled.add(i);
+            }
+        }
+    }
+
+    private boolean compile(String pattern, int index) {
+        if (MATCH_ALL.equals(pattern) || "**".equals(pattern)) {
+            matchAll = Math.min(matchAll, index);
+            return true;
+        }
+        if (pattern == null || !pattern.startsWith("/") || pattern.indexOf('{') >= 0) {
+            return false;
+        }
+        boolean subpath = pattern.endsWith(MATCH_ALL);
+        String path = subpath ? pattern.substring(0, pattern.length() - MATCH_ALL.length()) : pattern;
+        if (path.contains("**") || path.contains("//") || (path.length() > 1 && path.endsWith("/"))) {
+            return false;
+        }
+        Node node = root;
+        for (String segment : segments(path)) {
+            node = node.child(segment);
+        }
+        if (subpath) {
+            node.subpath(index);
+        } else {
+            node.exact(index);
+        }
+        return true;
+    }
+
+    /**
+     * @return the first group that matches the path, or null if none does
+     */
+    public UrlGroup match(String path) {
+        if (path == null) {
+            return null;
+        }
+        int best = matchAll;
+        if (path.startsWith("/")) {
+            String[] segments = segments(path);
+            best = root.match(segments, 0, path.endsWith("/"), best);
+        }
+        for (int index : uncompiled) {
+            if (index >= best) {
+                break;
+            }
+            if (antPathMatcher.match(groups.get(index).getPattern(), path)) {
+                best = index;
+                break;
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : groups.get(best);
+    }
+
+    public List<UrlGroup> getGroups() {
+        return groups;
+    }
+
+    private static boolean hasWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+
+    private static String[] segments(String path) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                if (i > start) {
+                    result.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private class Node {
+        private Map<String, Node> literals;
+        private List<String> wildcardSegments;
+        private List<Node> wildcards;
+        private int exact = Integer.MAX_VALUE;
+        private int subpath = Integer.MAX_VALUE;
+
+        Node child(String segment) {
+            if (hasWildcard(segment)) {
+                if (wildcards == null) {
+                    wildcardSegments = new ArrayList<>();
+                    wildcards = new ArrayList<>();
+                }
+                int existing = wildcardSegments.indexOf(segment);
+                if (existing >= 0) {
+                    return wildcards.get(existing);
+                }
+                Node child = new Node();
+                wildcardSegments.add(segment);
+                wildcards.add(child);
+                return child;
+            }
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            return literals.computeIfAbsent(segment, k -> new Node());
+        }
+
+        void exact(int index) {
+            exact = Math.min(exact, index);
+        }
+
+        void subpath(int index) {
+            subpath = Math.min(subpath, index);
+        }
+
+        int match(String[] segments, int position, boolean trailingSlash, int best) {
+            best = Math.min(best, subpath);
+            if (position == segments.length) {
+                // a pattern only matches a path with a trailing slash if it has one too, and only / does
+                return trailingSlash != (this == root) ? best : Math.min(best, exact);
+            }
+            String segment = segments[position];
+            if (literals != null) {
+                Node child = literals.get(segment);
+                if (child != null) {
+                    best = child.match(segments, position + 1, trailingSlash, best);
+                }
+            }
+            if (wildcards != null) {
+                for (int i = 0; i < wildcards.size(); i++) {
+                    if (antPathMatcher.match(wildcardSegments.get(i), segment)) {
+                        best = wildcards.get(i).match(segments, position + 1, trailingSlash, best);
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
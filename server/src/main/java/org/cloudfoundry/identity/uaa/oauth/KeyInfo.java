@@ -19,6 +19,7 @@ import org.cloudfoundry.identity.uaa.impl.config.LegacyTokenKey;
 import org.cloudfoundry.identity.uaa.oauth.jwt.CommonSignatureVerifier;
 import org.cloudfoundry.identity.uaa.oauth.jwt.CommonSigner;
 import org.cloudfoundry.identity.uaa.oauth.jwt.Signer;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.security.jwt.crypto.sign.MacSigner;
@@ -39,8 +40,13 @@ import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,14 +56,36 @@ import static org.springframework.security.jwt.codec.Codecs.utf8Encode;
 public class KeyInfo {
     private static Pattern PEM_DATA = Pattern.compile("-----BEGIN (.*)-----(.*)-----END (.*)-----", Pattern.DOTALL);
     private static final Base64.Encoder base64encoder = Base64.getMimeEncoder(64, "\n".getBytes());
+    private static final ConcurrentMap<String, ZoneKeys> zoneKeys = new ConcurrentHashMap<>();
+
     private String keyId;
-    private String verifierKey = new RandomValueStringGenerator().generate();
-    private String signingKey = verifierKey;
-    private Signer signer = new CommonSigner(null, verifierKey);
-    private SignatureVerifier verifier = new MacSigner(signingKey);
-    private String type = "MAC";
+    private String verifierKey;
+    private String signingKey;
+    private Signer signer;
+    private SignatureVerifier verifier;
+    private String type;
     private RSAPublicKey rsaPublicKey;
 
+    public KeyInfo() {
+        verifierKey = new RandomValueStringGenerator().generate();
+        signingKey = verifierKey;
+        signer = new CommonSigner(null, verifierKey);
+        verifier = new MacSigner(signingKey);
+        type = "MAC";
+    }
+
+    /**
+     * Builds the signer and verifier for the given key once, without the
+     * intermediate random MAC key created by the no-arg constructor.
+     */
+    public KeyInfo(String keyId, String signingKey) {
+        if (!StringUtils.hasText(keyId)) {
+            throw new IllegalArgumentException("KeyId should not be null or empty");
+        }
+        this.keyId = keyId;
+        setSigningKey(signingKey);
+    }
+
     public static Long getLastModified() {
         return IdentityZoneHolder.get().getLastModified().getTime();
     }
@@ -67,24 +95,31 @@ public class KeyInfo {
     }
 
     public static Map<String, KeyInfo> getKeys() {
-        IdentityZoneConfiguration config = IdentityZoneHolder.get().getConfig();
-        if (config == null || config.getTokenPolicy().getKeys() == null || config.getTokenPolicy().getKeys().isEmpty()) {
-            config = IdentityZoneHolder.getUaaZone().getConfig();
+        IdentityZone zone = IdentityZoneHolder.get();
+        IdentityZoneConfiguration config = zone.getConfig();
+        Map<String, String> tokenKeys = config == null ? null : config.getTokenPolicy().getKeys();
+        if (tokenKeys == null || tokenKeys.isEmpty()) {
+            zone = IdentityZoneHolder.getUaaZone();
+            tokenKeys = zone.getConfig().getTokenPolicy().getKeys();
         }
 
-        Map<String, KeyInfo> keys = new HashMap<>();
-        for (Map.Entry<String, String> entry : config.getTokenPolicy().getKeys().entrySet()) {
-            KeyInfo keyInfo = new KeyInfo();
-            keyInfo.setKeyId(entry.getKey());
-            keyInfo.setSigningKey(entry.getValue());
-            keys.put(entry.getKey(), keyInfo);
+        if (tokenKeys.isEmpty()) {
+            return Collections.singletonMap(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
         }
 
-        if(keys.isEmpty()) {
-            keys.put(LegacyTokenKey.LEGACY_TOKEN_KEY_ID, LegacyTokenKey.getLegacyTokenKeyInfo());
+        ZoneKeys cached = zoneKeys.get(zone.getId());
+        if (cached == null || !cached.isCurrent(zone.getLastModified(), tokenKeys)) {
+            cached = new ZoneKeys(zone.getLastModified(), tokenKeys);
+            zoneKeys.put(zone.getId(), cached);
         }
+        return cached.getKeys();
+    }
 
-        return keys;
+    /**
+     * Drops the parsed keys held for the given zone, e.g. after the zone has been deleted.
+     */
+    public static void evictKeys(String zoneId) {
+        zoneKeys.remove(zoneId);
     }
 
     public static KeyInfo getActiveKey() {
@@ -263,4 +298,32 @@ public class KeyInfo {
 
         return begin + base64encoded + end;
     }
+
+    /**
+     * The parsed token policy keys of a single zone. Entries are only reused while
+     * both the zone's last modified date and its configured keys are unchanged.
+     */
+    private static class ZoneKeys {
+        private final Date lastModified;
+        private final Map<String, String> tokenKeys;
+        private final Map<String, KeyInfo> keys;
+
+        private ZoneKeys(Date lastModified, Map<String, String> tokenKeys) {
+            this.lastModified = lastModified == null ? null : new Date(lastModified.getTime());
+            this.tokenKeys = tokenKeys;
+            Map<String, KeyInfo> keys = new HashMap<>();
+            for (Map.Entry<String, String> entry : tokenKeys.entrySet()) {
+                keys.put(entry.getKey(), new KeyInfo(entry.getKey(), entry.getValue()));
+            }
+            this.keys = Collections.unmodifiableMap(keys);
+        }
+
+        private boolean isCurrent(Date lastModified, Map<String, String> tokenKeys) {
+            return Objects.equals(this.lastModified, lastModified) && this.tokenKeys.equals(tokenKeys);
+        }
+
+        private Map<String, KeyInfo> getKeys() {
+            return keys;
+        }
+    }
 }
@@ -57,6 +57,7 @@ public class TokenRevocationEndpoint {
     private final MultitenantJdbcClientDetailsService clientDetailsService;
     private final RandomValueStringGenerator generator = new RandomValueStringGenerator(8);
     private final RevocableTokenProvisioning tokenProvisioning;
+    private ValidatedTokenCache validatedTokenCache;
 
     public TokenRevocationEndpoint(MultitenantJdbcClientDetailsService clientDetailsService, ScimUserProvisioning userProvisioning, RevocableTokenProvisioning tokenProvisioning) {
         this.clientDetailsService = clientDetailsService;
@@ -64,12 +65,19 @@ public class TokenRevocationEndpoint {
         this.tokenProvisioning = tokenProvisioning;
     }
 
+    public void setValidatedTokenCache(ValidatedTokenCache validatedTokenCache) {
+        this.validatedTokenCache = validatedTokenCache;
+    }
+
     @RequestMapping("/oauth/token/revoke/user/{userId}")
     public ResponseEntity<Void> revokeTokensForUser(@PathVariable String userId) {
         logger.debug("Revoking tokens for user: " + userId);
         ScimUser user = userProvisioning.retrieve(userId, IdentityZoneHolder.get().getId());
         user.setSalt(generator.generate());
         userProvisioning.update(userId, user, IdentityZoneHolder.get().getId());
+        if (validatedTokenCache != null) {
+            validatedTokenCache.evictUser(userId);
+        }
         logger.debug("Tokens revoked for user: " + userId);
         return new ResponseEntity<>(OK);
     }
@@ -93,6 +101,9 @@ public class TokenRevocationEndpoint {
         BaseClientDetails client = (BaseClientDetails)clientDetailsService.loadClientByClientId(clientId, zoneId);
         client.addAdditionalInformation(ClientConstants.TOKEN_SALT,generator.generate());
         clientDetailsService.updateClientDetails(client, zoneId);
+        if (validatedTokenCache != null) {
+            validatedTokenCache.evictClient(clientId);
+        }
         logger.debug("Tokens revoked for client: " + clientId);
         ((SystemDeletable)tokenProvisioning).deleteByClient(clientId, zoneId);
         return new ResponseEntity<>(OK);
@@ -169,6 +169,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
     private UaaTokenEnhancer uaaTokenEnhancer = null;
 
+    private ValidatedTokenCache validatedTokenCache = null;
+
     public Set<String> getExcludedClaims() {
         return excludedClaims;
     }
@@ -189,6 +191,14 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         this.tokenProvisioning = tokenProvisioning;
     }
 
+    public ValidatedTokenCache getValidatedTokenCache() {
+        return validatedTokenCache;
+    }
+
+    public void setValidatedTokenCache(ValidatedTokenCache validatedTokenCache) {
+        this.validatedTokenCache = validatedTokenCache;
+    }
+
     public void setUaaTokenEnhancer(UaaTokenEnhancer uaaTokenEnhancer) {
         this.uaaTokenEnhancer = uaaTokenEnhancer;
     }
@@ -1029,7 +1039,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
             throw new InvalidTokenException("Invalid access token value, must be at least 30 characters:"+accessToken);
         }
 
-        TokenValidation tokenValidation = validateToken(accessToken);
+        ValidatedTokenCache.ValidatedToken validatedToken = validateTokenAndUser(accessToken);
+        TokenValidation tokenValidation = validatedToken.getValidation();
         Map<String, Object> claims = tokenValidation.getClaims();
         accessToken = tokenValidation.getJwt().getEncoded();
 
@@ -1072,7 +1083,10 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         Authentication userAuthentication = null;
         // Is this a user token - minimum info is user_id
         if (claims.containsKey(USER_ID)) {
-            UaaUser user = userDatabase.retrieveUserById((String)claims.get(USER_ID));
+            UaaUser user = validatedToken.getUser();
+            if (user == null) {
+                user = userDatabase.retrieveUserById((String)claims.get(USER_ID));
+            }
             UaaPrincipal principal = new UaaPrincipal(user);
             userAuthentication = new UaaAuthentication(principal, UaaAuthority.USER_AUTHORITIES, null);
         } else {
@@ -1135,18 +1149,32 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
     }
 
     protected TokenValidation validateToken(String token) {
+        return validateTokenAndUser(token).getValidation();
+    }
+
+    private ValidatedTokenCache.ValidatedToken validateTokenAndUser(String token) {
         TokenValidation tokenValidation;
+        String zoneId = IdentityZoneHolder.get().getId();
 
         if (!UaaTokenUtils.isJwtToken(token)) {
             RevocableToken revocableToken;
             try {
-                 revocableToken = tokenProvisioning.retrieve(token, IdentityZoneHolder.get().getId());
+                 revocableToken = tokenProvisioning.retrieve(token, zoneId);
             } catch(EmptyResultDataAccessException ex) {
                 throw new TokenRevokedException("The token expired, was revoked, or the token ID is incorrect: " + token);
             }
             token = revocableToken.getValue();
         }
 
+        ValidatedTokenCache.ValidatedToken cached = validatedTokenCache == null ? null : validatedTokenCache.get(zoneId, token);
+        if (cached != null) {
+            // revocation through the token store must be honored on every call
+            cached.getValidation().clone()
+                .checkRevocableTokenStore(tokenProvisioning)
+                .throwIfInvalid();
+            return cached;
+        }
+
         tokenValidation = validate(token)
           .checkRevocableTokenStore(tokenProvisioning)
           .throwIfInvalid();
@@ -1180,7 +1208,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
         ClientDetails client;
         try {
-            client = clientDetailsService.loadClientByClientId(clientId, IdentityZoneHolder.get().getId());
+            client = clientDetailsService.loadClientByClientId(clientId, zoneId);
         } catch (NoSuchClientException x) {
             //happens if the client is deleted and token exist
             throw new InvalidTokenException("Invalid client ID "+clientId);
@@ -1210,7 +1238,10 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         tokenValidation = tokenValidation.checkRevocationSignature(revocationSignatureList);
 
         tokenValidation.throwIfInvalid();
-        return tokenValidation;
+        if (validatedTokenCache != null) {
+            validatedTokenCache.put(zoneId, token, tokenValidation, user);
+        }
+        return new ValidatedTokenCache.ValidatedToken(tokenValidation, user, Long.MAX_VALUE);
     }
 
     /**
@@ -16,6 +16,8 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
@@ -24,6 +26,8 @@ import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -37,6 +41,7 @@ import org.springframework.security.oauth2.common.util.SerializationUtils;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
 import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
+import org.springframework.util.Assert;
 
 import javax.sql.DataSource;
 import java.io.Serializable;
@@ -49,9 +54,21 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class UaaTokenStore implements AuthorizationCodeServices {
+/**
+ * Stores authorization codes until they are exchanged for a token, in the oauth_code table
+ * or, with {@link #setInMemory(boolean)}, in memory on this node only. The in memory store
+ * can only be used if the token request for a code is routed to the node that issued it.
+ * Both stores keep the authentication as versioned json, see {@link #setSerializationVersion(int)}.
+ *
+ * Expired codes are deleted from the oauth_code table every {@link #setCleanupIntervalMillis(long)}
+ * by a background thread, or on the request path if no interval is set.
+ */
+public class UaaTokenStore implements AuthorizationCodeServices, InitializingBean, DisposableBean {
     public static final long EXPIRATION_TIME = 5*60*1000;
     public static final long LEGACY_CODE_EXPIRATION_TIME = 3*24*60*60*1000;
     public static final String USER_AUTHENTICATION_UAA_AUTHENTICATION = "userAuthentication.uaaAuthentication";
@@ -65,6 +82,9 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     public static final String OAUTH2_REQUEST_RESOURCE_IDS = "oauth2Request.resourceIds";
     public static final String OAUTH2_REQUEST_REDIRECT_URI = "oauth2Request.redirectUri";
     public static final String OAUTH2_REQUEST_RESPONSE_TYPES = "oauth2Request.responseTypes";
+    //codes written before the version was added have no version and are read as version 1
+    public static final String SERIALIZATION_VERSION = "version";
+    public static final int CURRENT_SERIALIZATION_VERSION = 2;
 
     protected static Log logger = LogFactory.getLog(UaaTokenStore.class);
 
@@ -74,27 +94,64 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     private static final String SQL_EXPIRE_STATEMENT = "delete from oauth_code where expiresat > 0 AND expiresat < ?";
     private static final String SQL_CLEAN_STATEMENT = "delete from oauth_code where created < ? and expiresat = 0";
 
-    private final DataSource dataSource;
+    private final JdbcTemplate template;
     private final long expirationTime;
     private final RandomValueStringGenerator generator = new RandomValueStringGenerator(10);
     private final RowMapper rowMapper = new TokenCodeRowMapper();
 
     private final AtomicLong lastClean = new AtomicLong(0);
 
+    private boolean inMemory = false;
+    private int maxInMemoryCodes = 100000;
+    private long cleanupIntervalMillis = 0;
+    private int serializationVersion = CURRENT_SERIALIZATION_VERSION;
+    private volatile Cache<String, InMemoryCode> inMemoryCodes;
+    private volatile ScheduledExecutorService cleaner;
+
     public UaaTokenStore(DataSource dataSource) {
         this(dataSource, EXPIRATION_TIME);
     }
 
     public UaaTokenStore(DataSource dataSource, long expirationTime) {
-        this.dataSource = dataSource;
+        this.template = new JdbcTemplate(dataSource);
         this.expirationTime = expirationTime;
     }
 
+    @Override
+    public void afterPropertiesSet() {
+        if (!inMemory && cleanupIntervalMillis > 0) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "authorization-code-cleaner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    expireCodes();
+                } catch (RuntimeException e) {
+                    logger.warn("[oauth_code] Unable to remove expired entries.", e);
+                }
+            }, cleanupIntervalMillis, cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+            cleaner = executor;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        ScheduledExecutorService executor = cleaner;
+        if (executor != null) {
+            executor.shutdownNow();
+            cleaner = null;
+        }
+    }
+
     @Override
     public String createAuthorizationCode(OAuth2Authentication authentication) {
+        if (inMemory) {
+            return createInMemoryAuthorizationCode(authentication);
+        }
         final int max_tries = 3;
         performExpirationClean();
-        JdbcTemplate template = new JdbcTemplate(dataSource);
         int tries = 0;
         while ((tries++)<=max_tries) {
             try {
@@ -123,8 +180,10 @@ public class UaaTokenStore implements AuthorizationCodeServices {
 
     @Override
     public OAuth2Authentication consumeAuthorizationCode(String code) throws InvalidGrantException {
+        if (inMemory) {
+            return consumeInMemoryAuthorizationCode(code);
+        }
         performExpirationClean();
-        JdbcTemplate template = new JdbcTemplate(dataSource);
         try {
             TokenCode tokenCode = (TokenCode) template.queryForObject(SQL_SELECT_STATEMENT, rowMapper, code);
             if (tokenCode != null) {
@@ -146,25 +205,67 @@ public class UaaTokenStore implements AuthorizationCodeServices {
         throw new InvalidGrantException("Invalid authorization code: " + code);
     }
 
+    protected String createInMemoryAuthorizationCode(OAuth2Authentication authentication) {
+        Cache<String, InMemoryCode> codes = getInMemoryCodes();
+        InMemoryCode value = new InMemoryCode(serializeOauth2Authentication(authentication), System.currentTimeMillis() + getExpirationTime());
+        String code;
+        do {
+            code = generator.generate();
+        } while (codes.asMap().putIfAbsent(code, value) != null);
+        return code;
+    }
+
+    protected OAuth2Authentication consumeInMemoryAuthorizationCode(String code) {
+        InMemoryCode value = code == null ? null : getInMemoryCodes().asMap().remove(code);
+        if (value == null) {
+            throw new InvalidGrantException("Invalid authorization code: " + code);
+        }
+        if (value.expiresAt < System.currentTimeMillis()) {
+            logger.debug("[oauth_code] Found in memory code, but it expired.");
+            throw new InvalidGrantException("Authorization code expired: " + code);
+        }
+        return deserializeOauth2Authentication(value.data);
+    }
+
+    private Cache<String, InMemoryCode> getInMemoryCodes() {
+        Cache<String, InMemoryCode> result = inMemoryCodes;
+        if (result == null) {
+            synchronized (this) {
+                if (inMemoryCodes == null) {
+                    inMemoryCodes = CacheBuilder.newBuilder()
+                        .maximumSize(maxInMemoryCodes)
+                        .expireAfterWrite(getExpirationTime(), TimeUnit.MILLISECONDS)
+                        .build();
+                }
+                result = inMemoryCodes;
+            }
+        }
+        return result;
+    }
+
     protected byte[] serializeOauth2Authentication(OAuth2Authentication auth2Authentication) {
         Authentication userAuthentication = auth2Authentication.getUserAuthentication();
+        boolean compact = serializationVersion > 1;
         HashMap<String, Object> data = new HashMap<>();
+        if (compact) {
+            data.put(SERIALIZATION_VERSION, serializationVersion);
+        }
         if (userAuthentication!=null) {
             if (userAuthentication instanceof UaaAuthentication) {
-                data.put(USER_AUTHENTICATION_UAA_AUTHENTICATION, JsonUtils.writeValueAsString(userAuthentication));
+                data.put(USER_AUTHENTICATION_UAA_AUTHENTICATION, writeNested(userAuthentication, compact));
             } else {
-                data.put(USER_AUTHENTICATION_UAA_PRINCIPAL, JsonUtils.writeValueAsString(userAuthentication.getPrincipal()));
-                data.put(USER_AUTHENTICATION_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
+                data.put(USER_AUTHENTICATION_UAA_PRINCIPAL, writeNested(userAuthentication.getPrincipal(), compact));
+                put(data, compact, USER_AUTHENTICATION_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
             }
         }
-        data.put(OAUTH2_REQUEST_PARAMETERS, auth2Authentication.getOAuth2Request().getRequestParameters());
+        put(data, compact, OAUTH2_REQUEST_PARAMETERS, auth2Authentication.getOAuth2Request().getRequestParameters());
         data.put(OAUTH2_REQUEST_CLIENT_ID, auth2Authentication.getOAuth2Request().getClientId());
-        data.put(OAUTH2_REQUEST_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(auth2Authentication.getOAuth2Request().getAuthorities()));
+        put(data, compact, OAUTH2_REQUEST_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(auth2Authentication.getOAuth2Request().getAuthorities()));
         data.put(OAUTH2_REQUEST_APPROVED, auth2Authentication.getOAuth2Request().isApproved());
-        data.put(OAUTH2_REQUEST_SCOPE, auth2Authentication.getOAuth2Request().getScope());
-        data.put(OAUTH2_REQUEST_RESOURCE_IDS, auth2Authentication.getOAuth2Request().getResourceIds());
-        data.put(OAUTH2_REQUEST_REDIRECT_URI, auth2Authentication.getOAuth2Request().getRedirectUri());
-        data.put(OAUTH2_REQUEST_RESPONSE_TYPES, auth2Authentication.getOAuth2Request().getResponseTypes());
+        put(data, compact, OAUTH2_REQUEST_SCOPE, auth2Authentication.getOAuth2Request().getScope());
+        put(data, compact, OAUTH2_REQUEST_RESOURCE_IDS, auth2Authentication.getOAuth2Request().getResourceIds());
+        put(data, compact, OAUTH2_REQUEST_REDIRECT_URI, auth2Authentication.getOAuth2Request().getRedirectUri());
+        put(data, compact, OAUTH2_REQUEST_RESPONSE_TYPES, auth2Authentication.getOAuth2Request().getResponseTypes());
 
         //currently not serializing any of the
         //Map<String, Serializable > extensionProperties
@@ -174,19 +275,46 @@ public class UaaTokenStore implements AuthorizationCodeServices {
         return JsonUtils.writeValueAsBytes(data);
     }
 
+    //version 1 nests the user as a string of json, version 2 as an object
+    private static Object writeNested(Object value, boolean compact) {
+        return compact ? value : JsonUtils.writeValueAsString(value);
+    }
+
+    private static <T> T readNested(Object value, Class<T> type, int version) {
+        return version == 1 ? JsonUtils.readValue((String) value, type) : JsonUtils.convertValue(value, type);
+    }
+
+    //version 2 leaves out empty values, they are restored as empty when the code is consumed
+    private static void put(Map<String, Object> data, boolean compact, String key, Object value) {
+        boolean empty = value == null ||
+            (value instanceof Collection && ((Collection<?>) value).isEmpty()) ||
+            (value instanceof Map && ((Map<?, ?>) value).isEmpty());
+        if (!compact || !empty) {
+            data.put(key, value);
+        }
+    }
+
+    private static <T> HashSet<T> toSet(Collection<T> value) {
+        return value == null ? new HashSet<>() : new HashSet<>(value);
+    }
+
     protected OAuth2Authentication deserializeOauth2Authentication(byte[] data) {
         Map<String,Object> map = JsonUtils.readValue(data, new TypeReference<Map<String,Object>>() {});
+        int version = map.get(SERIALIZATION_VERSION) == null ? 1 : ((Number) map.get(SERIALIZATION_VERSION)).intValue();
+        if (version > CURRENT_SERIALIZATION_VERSION) {
+            throw new InvalidGrantException("Unsupported authorization code version: " + version);
+        }
         Authentication userAuthentication = null;
         if (map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION) != null) {
-            userAuthentication = JsonUtils.readValue((String)map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION), UaaAuthentication.class);
+            userAuthentication = readNested(map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION), UaaAuthentication.class, version);
         }
         else if (map.get(USER_AUTHENTICATION_UAA_PRINCIPAL)!=null) {
-            UaaPrincipal principal = JsonUtils.readValue((String)map.get(USER_AUTHENTICATION_UAA_PRINCIPAL), UaaPrincipal.class);
+            UaaPrincipal principal = readNested(map.get(USER_AUTHENTICATION_UAA_PRINCIPAL), UaaPrincipal.class, version);
             Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings((Collection<String>) map.get(USER_AUTHENTICATION_AUTHORITIES));
             userAuthentication = new UaaAuthentication(principal, (List<? extends GrantedAuthority>) authorities, UaaAuthenticationDetails.UNKNOWN);
         }
 
-        Map<String,String> requestParameters = (Map<String, String>) map.get(OAUTH2_REQUEST_PARAMETERS);
+        Map<String,String> requestParameters = map.get(OAUTH2_REQUEST_PARAMETERS) == null ? new HashMap<>() : (Map<String, String>) map.get(OAUTH2_REQUEST_PARAMETERS);
         String clientId = (String) map.get(OAUTH2_REQUEST_CLIENT_ID);
         Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings((Collection<String>) map.get(OAUTH2_REQUEST_AUTHORITIES));
         boolean approved = (boolean) map.get(OAUTH2_REQUEST_APPROVED);
@@ -200,10 +328,10 @@ public class UaaTokenStore implements AuthorizationCodeServices {
             clientId,
             authorities,
             approved,
-            new HashSet<>(scope),
-            new HashSet<>(resourceIds),
+            toSet(scope),
+            toSet(resourceIds),
             redirectUri,
-            new HashSet<>(responseTypes),
+            toSet(responseTypes),
             new HashMap<String,Serializable>()
         );
 
@@ -211,26 +339,83 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     }
 
     protected void performExpirationClean() {
+        if (cleaner != null) {
+            return;
+        }
         long last = lastClean.get();
         //check if we should expire again
         if ((System.currentTimeMillis()-last) > getExpirationTime()) {
             //avoid concurrent deletes from the same UAA - performance improvement
             if (lastClean.compareAndSet(last, last+getExpirationTime())) {
-                JdbcTemplate template = new JdbcTemplate(dataSource);
-                int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
-                logger.debug("[oauth_code] Removed "+expired+" expired entries.");
-                expired = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
-                logger.debug("[oauth_code] Removed "+expired+" old entries.");
+                expireCodes();
             }
         }
+    }
 
-
+    protected void expireCodes() {
+        int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
+        logger.debug("[oauth_code] Removed "+expired+" expired entries.");
+        expired = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
+        logger.debug("[oauth_code] Removed "+expired+" old entries.");
     }
 
     public long getExpirationTime() {
         return expirationTime;
     }
 
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    public int getMaxInMemoryCodes() {
+        return maxInMemoryCodes;
+    }
+
+    /**
+     * @param maxInMemoryCodes the number of in memory codes after which the oldest codes are dropped
+     */
+    public void setMaxInMemoryCodes(int maxInMemoryCodes) {
+        this.maxInMemoryCodes = maxInMemoryCodes;
+    }
+
+    public long getCleanupIntervalMillis() {
+        return cleanupIntervalMillis;
+    }
+
+    public void setCleanupIntervalMillis(long cleanupIntervalMillis) {
+        this.cleanupIntervalMillis = cleanupIntervalMillis;
+    }
+
+    public int getSerializationVersion() {
+        return serializationVersion;
+    }
+
+    /**
+     * @param serializationVersion the version new codes are written in. Version 2 leaves out empty values
+     *                             and nests the user as json; nodes older than version 2 can only read
+     *                             version 1, so use 1 until every node is upgraded.
+     */
+    public void setSerializationVersion(int serializationVersion) {
+        Assert.isTrue(serializationVersion >= 1 && serializationVersion <= CURRENT_SERIALIZATION_VERSION,
+                      "Unsupported authorization code version: " + serializationVersion);
+        this.serializationVersion = serializationVersion;
+    }
+
+    //kept serialized, so a code consumed from memory is the same as one read from oauth_code
+    private static class InMemoryCode {
+        private final byte[] data;
+        private final long expiresAt;
+
+        InMemoryCode(byte[] data, long expiresAt) {
+            this.data = data;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     protected class TokenCodeRowMapper implements RowMapper<TokenCode> {
 
         @Override
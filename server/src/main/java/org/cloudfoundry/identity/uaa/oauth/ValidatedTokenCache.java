@@ -0,0 +1,257 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.cloudfoundry.identity.uaa.account.event.PasswordChangeEvent;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.client.event.AbstractClientAdminEvent;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.oauth2.provider.ClientDetails;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.USER_ID;
+
+/**
+ * Holds the result of a successful {@link UaaTokenServices#validateToken(String)} so that
+ * resource servers repeatedly calling check_token with the same token don't pay for
+ * signature verification, client and user lookups and revocation hashing on every call.
+ *
+ * An entry never outlives the token's own expiry. Client, secret, user and zone changes
+ * published on this node evict the affected entries. Since a user's scopes can come from
+ * nested groups, group changes and changes to group memberships through the group membership
+ * manager evict every entry of the zone. Changes made on other nodes become visible once the
+ * entry expires after {@link #getExpiryInSeconds()}.
+ */
+public class ValidatedTokenCache implements ApplicationListener<AbstractUaaEvent> {
+
+    private boolean enabled = false;
+    private int maxEntries = 10000;
+    private int expiryInSeconds = 30;
+    private TimeService timeService = new TimeServiceImpl();
+
+    private volatile Cache<Key, ValidatedToken> cache;
+
+    public ValidatedTokenCache() {
+        buildCache();
+    }
+
+    public ValidatedToken get(String zoneId, String token) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Key key = new Key(zoneId, token);
+        ValidatedToken result = cache.getIfPresent(key);
+        if (result != null && result.getExpiresAt() <= timeService.getCurrentTimeMillis()) {
+            cache.invalidate(key);
+            return null;
+        }
+        return result;
+    }
+
+    public void put(String zoneId, String token, TokenValidation validation, UaaUser user) {
+        if (!isEnabled()) {
+            return;
+        }
+        long expiresAt = timeService.getCurrentTimeMillis() + TimeUnit.SECONDS.toMillis(expiryInSeconds);
+        Object exp = validation.getClaims().get(EXP);
+        if (exp instanceof Number) {
+            expiresAt = Math.min(expiresAt, ((Number) exp).longValue() * 1000l);
+        }
+        cache.put(new Key(zoneId, token), new ValidatedToken(validation, user, expiresAt));
+    }
+
+    public void evictClient(String clientId) {
+        evictMatching(CID, clientId);
+    }
+
+    public void evictUser(String userId) {
+        evictMatching(USER_ID, userId);
+    }
+
+    public void evictZone(String zoneId) {
+        cache.asMap().keySet().removeIf(key -> key.zoneId.equals(zoneId));
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Called after the group membership manager changed the memberships of the zone.
+     */
+    public void membershipChanged(String zoneId) {
+        if (isEnabled()) {
+            evictZone(zoneId);
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private void evictMatching(String claim, String value) {
+        if (value == null) {
+            return;
+        }
+        cache.asMap().values().removeIf(entry -> value.equals(entry.getValidation().getClaims().get(claim)));
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (event instanceof AbstractClientAdminEvent) {
+            ClientDetails client = ((AbstractClientAdminEvent) event).getClient();
+            if (client != null) {
+                evictClient(client.getClientId());
+            }
+        } else if (event instanceof UserModifiedEvent) {
+            evictUser(((UserModifiedEvent) event).getUserId());
+        } else if (event instanceof PasswordChangeEvent) {
+            UaaUser user = ((PasswordChangeEvent) event).getUser();
+            if (user != null) {
+                evictUser(user.getId());
+            }
+        } else if (event instanceof GroupModifiedEvent) {
+            IdentityZone zone = event.getIdentityZone();
+            if (zone != null) {
+                evictZone(zone.getId());
+            } else {
+                clear();
+            }
+        } else if (event instanceof IdentityZoneModifiedEvent) {
+            clear();
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                evictZone(((IdentityZone) deleted).getId());
+            } else if (deleted instanceof ClientDetails) {
+                evictClient(((ClientDetails) deleted).getClientId());
+            } else if (deleted instanceof ScimUser) {
+                evictUser(((ScimUser) deleted).getId());
+            } else if (deleted instanceof ScimGroup) {
+                evictZone(((ScimGroup) deleted).getZoneId());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        buildCache();
+    }
+
+    public int getExpiryInSeconds() {
+        return expiryInSeconds;
+    }
+
+    public void setExpiryInSeconds(int expiryInSeconds) {
+        this.expiryInSeconds = expiryInSeconds;
+        buildCache();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    protected void buildCache() {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(expiryInSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    public static class ValidatedToken {
+        private final TokenValidation validation;
+        private final UaaUser user;
+        private final long expiresAt;
+
+        ValidatedToken(TokenValidation validation, UaaUser user, long expiresAt) {
+            this.validation = validation;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        public TokenValidation getValidation() {
+            return validation;
+        }
+
+        public Map<String, Object> getClaims() {
+            return validation.getClaims();
+        }
+
+        public UaaUser getUser() {
+            return user;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    private static class Key {
+        private final String zoneId;
+        private final String token;
+
+        private Key(String zoneId, String token) {
+            this.zoneId = zoneId;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(zoneId, key.zoneId) && Objects.equals(token, key.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, token);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.oauth.jwt;
+
+import java.util.Arrays;
+
+/**
+ * Base64url without padding, as used by the segments of a JWT. Unlike the codecs of
+ * spring-security-jwt, it decodes straight from a range of the token and encodes into a range
+ * of a buffer the caller has sized, so no intermediate arrays are created.
+ */
+final class Base64Url {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    static int encodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    /**
+     * @return the offset in the destination after the encoded bytes
+     */
+    static int encode(byte[] source, byte[] destination, int offset) {
+        int i = 0;
+        for (int end = source.length - source.length % 3; i < end; i += 3) {
+            int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+            destination[offset++] = ALPHABET[bits >>> 18];
+            destination[offset++] = ALPHABET[bits >>> 12 & 0x3f];
+            destination[offset++] = ALPHABET[bits >>> 6 & 0x3f];
+            destination[offset++] = ALPHABET[bits & 0x3f];
+        }
+        int remaining = source.length - i;
+        if (remaining > 0) {
+            int bits = (source[i] & 0xff) << 16 | (remaining == 2 ? (source[i + 1] & 0xff) << 8 : 0);
+            destination[offset++] = ALPHABET[bits >>> 18];
+            destination[offset++] = ALPHABET[bits >>> 12 & 0x3f];
+            if (remaining == 2) {
+                destination[offset++] = ALPHABET[bits >>> 6 & 0x3f];
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes the characters from {@code start} to {@code end} of the value. Padding is accepted but not required.
+     */
+    static byte[] decode(CharSequence value, int start, int end) {
+        while (end > start && value.charAt(end - 1) == '=') {
+            end--;
+        }
+        int length = end - start;
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid base64url length");
+        }
+        byte[] result = new byte[length / 4 * 3 + Math.max(length % 4 - 1, 0)];
+        int position = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            bits = bits << 6 | valueOf(value.charAt(i));
+            if (++count == 4) {
+                result[position++] = (byte) (bits >> 16);
+                result[position++] = (byte) (bits >> 8);
+                result[position++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            result[position++] = (byte) (bits >> 10);
+            result[position] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            result[position] = (byte) (bits >> 4);
+        }
+        return result;
+    }
+
+    private static int valueOf(char c) {
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid base64url character '" + c + "'");
+        }
+        return value;
+    }
+}
@@ -16,4 +16,9 @@ import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
 
 public interface Jwt extends org.springframework.security.jwt.Jwt {
     HeaderParameters getHeader();
+
+    /**
+     * @return a typed view of the claims, parsed when they are first read
+     */
+    JwtClaims getClaimSet();
 }
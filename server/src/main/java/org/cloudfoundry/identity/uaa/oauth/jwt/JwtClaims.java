@@ -0,0 +1,115 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.oauth.jwt;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.AUD;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.SCOPE;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.USER_ID;
+
+/**
+ * The claims of a JWT. The decoded claims segment is only parsed when a claim is first read,
+ * and it is parsed from its bytes, without decoding it to a string first.
+ */
+public class JwtClaims {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<Map<String, Object>>() {};
+
+    private final byte[] content;
+    private volatile Map<String, Object> claims;
+
+    JwtClaims(byte[] content) {
+        this.content = content;
+    }
+
+    /**
+     * @return all claims
+     * @throws JsonUtils.JsonUtilException if the claims segment is not a JSON object
+     */
+    public Map<String, Object> asMap() {
+        Map<String, Object> result = claims;
+        if (result == null) {
+            result = isBlank(content) ? new LinkedHashMap<>() : JsonUtils.readValue(content, MAP_TYPE);
+            if (result == null) {
+                throw new JsonUtils.JsonUtilException(new IllegalArgumentException("Claims are not a JSON object"));
+            }
+            claims = result;
+        }
+        return result;
+    }
+
+    public Object get(String claim) {
+        return asMap().get(claim);
+    }
+
+    public List<String> getScope() {
+        return asList(get(SCOPE));
+    }
+
+    public List<String> getAud() {
+        return asList(get(AUD));
+    }
+
+    /**
+     * @return the expiry in seconds since the epoch, or null if the token doesn't expire
+     */
+    public Long getExp() {
+        Object exp = get(EXP);
+        return exp instanceof Number ? ((Number) exp).longValue() : null;
+    }
+
+    public String getCid() {
+        return asString(get(CID));
+    }
+
+    public String getUserId() {
+        return asString(get(USER_ID));
+    }
+
+    private static boolean isBlank(byte[] content) {
+        for (byte b : content) {
+            if (!Character.isWhitespace(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static List<String> asList(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).stream().map(String::valueOf).collect(Collectors.toList());
+        }
+        return Collections.singletonList(value.toString());
+    }
+}
@@ -15,13 +15,10 @@ package org.cloudfoundry.identity.uaa.oauth.jwt;
 import org.springframework.security.jwt.BinaryFormat;
 import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
 
-import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static org.springframework.security.jwt.codec.Codecs.b64UrlDecode;
-import static org.springframework.security.jwt.codec.Codecs.b64UrlEncode;
-import static org.springframework.security.jwt.codec.Codecs.concat;
 import static org.springframework.security.jwt.codec.Codecs.utf8Decode;
 import static org.springframework.security.jwt.codec.Codecs.utf8Encode;
 
@@ -30,11 +27,14 @@ import static org.springframework.security.jwt.codec.Codecs.utf8Encode;
  * @author Dave Syer
  */
 public class JwtHelper {
-    static byte[] PERIOD = utf8Encode(".");
+    static final byte PERIOD = '.';
 
     /**
      * Creates a token from an encoded token string.
      *
+     * The segments are decoded straight from the token, and the token itself is kept as the
+     * encoded form and the signing input, rather than encoding the decoded segments again.
+     *
      * @param token the (non-null) encoded token (three Base-64 encoded strings separated
      * by "." characters)
      */
@@ -45,12 +45,8 @@ public class JwtHelper {
         if (firstPeriod <= 0 || lastPeriod <= firstPeriod) {
             throw new IllegalArgumentException("JWT must have 3 tokens");
         }
-        CharBuffer buffer = CharBuffer.wrap(token, 0, firstPeriod);
-        // TODO: Use a Reader which supports CharBuffer
-        JwtHeader header = JwtHeaderHelper.create(buffer.toString());
-
-        buffer.limit(lastPeriod).position(firstPeriod + 1);
-        byte[] claims = b64UrlDecode(buffer);
+        JwtHeader header = JwtHeaderHelper.create(Base64Url.decode(token, 0, firstPeriod));
+        byte[] claims = Base64Url.decode(token, firstPeriod + 1, lastPeriod);
         boolean emptyCrypto = lastPeriod == token.length() - 1;
 
         byte[] crypto;
@@ -63,10 +59,9 @@ public class JwtHelper {
             crypto = new byte[0];
         }
         else {
-            buffer.limit(token.length()).position(lastPeriod + 1);
-            crypto = b64UrlDecode(buffer);
+            crypto = Base64Url.decode(token, lastPeriod + 1, token.length());
         }
-        return new JwtImpl(header, claims, crypto);
+        return new JwtImpl(header, claims, crypto, token, lastPeriod);
     }
 
     public static Jwt decodeAndVerify(String token, SignatureVerifier verifier) {
@@ -79,9 +74,12 @@ public class JwtHelper {
     public static Jwt encode(CharSequence content, Signer signer) {
         JwtHeader header = JwtHeaderHelper.create(signer);
         byte[] claims = utf8Encode(content);
-        byte[] crypto = signer
-                .sign(concat(b64UrlEncode(header.bytes()), PERIOD, b64UrlEncode(claims)));
-        return new JwtImpl(header, claims, crypto);
+        byte[] signingInput = new byte[Base64Url.encodedLength(header.bytes().length) + 1 + Base64Url.encodedLength(claims.length)];
+        int offset = Base64Url.encode(header.bytes(), signingInput, 0);
+        signingInput[offset++] = PERIOD;
+        Base64Url.encode(claims, signingInput, offset);
+        byte[] crypto = signer.sign(signingInput);
+        return new JwtImpl(header, claims, crypto, signingInput);
     }
 }
 
@@ -92,8 +90,7 @@ public class JwtHelper {
  */
 class JwtHeaderHelper {
 
-    static JwtHeader create(String header) {
-        byte[] bytes = b64UrlDecode(header);
+    static JwtHeader create(byte[] bytes) {
         return new JwtHeader(bytes, parseParams(bytes));
     }
 
@@ -103,7 +100,7 @@ class JwtHeaderHelper {
     }
 
     static HeaderParametersImpl parseParams(byte[] header) {
-        Map<String, String> map = parseMap(utf8Decode(header));
+        Map<String, String> map = new HeaderParser(utf8Decode(header)).parse();
         String alg = map.get("alg"), enc = map.get("enc"), iv = map.get("iv"),
                 typ = map.get("typ");
         if (typ != null && !"JWT".equalsIgnoreCase(typ)) {
@@ -113,55 +110,6 @@ class JwtHeaderHelper {
         return new HeaderParametersImpl(alg, enc, iv, kid);
     }
 
-    private static Map<String, String> parseMap(String json) {
-        if (json != null) {
-            json = json.trim();
-            if (json.startsWith("{")) {
-                return parseMapInternal(json);
-            }
-            else if (json.equals("")) {
-                return new LinkedHashMap<String, String>();
-            }
-        }
-        throw new IllegalArgumentException("Invalid JSON (null)");
-    }
-
-    private static Map<String, String> parseMapInternal(String json) {
-        Map<String, String> map = new LinkedHashMap<String, String>();
-        json = trimLeadingCharacter(trimTrailingCharacter(json, '}'), '{');
-        for (String pair : json.split(",")) {
-            String[] values = pair.split(":");
-            String key = strip(values[0], '"');
-            String value = null;
-            if (values.length > 0) {
-                value = strip(values[1], '"');
-            }
-            if (map.containsKey(key)) {
-                throw new IllegalArgumentException("Duplicate '" + key + "' field");
-            }
-            map.put(key, value);
-        }
-        return map;
-    }
-
-    private static String strip(String string, char c) {
-        return trimLeadingCharacter(trimTrailingCharacter(string.trim(), c), c);
-    }
-
-    private static String trimTrailingCharacter(String string, char c) {
-        if (string.length() >= 0 && string.charAt(string.length() - 1) == c) {
-            return string.substring(0, string.length() - 1);
-        }
-        return string;
-    }
-
-    private static String trimLeadingCharacter(String string, char c) {
-        if (string.length() >= 0 && string.charAt(0) == c) {
-            return string.substring(1);
-        }
-        return string;
-    }
-
     private static byte[] serializeParams(HeaderParametersImpl params) {
         StringBuilder builder = new StringBuilder("{");
 
@@ -191,6 +139,153 @@ class JwtHeaderHelper {
     }
 }
 
+/**
+ * Reads the members of the header's JSON object in a single pass. String values are unescaped,
+ * other values are kept as they are written, and nested objects and arrays are skipped.
+ */
+class HeaderParser {
+    private final String json;
+    private int position = 0;
+
+    HeaderParser(String json) {
+        this.json = json;
+    }
+
+    Map<String, String> parse() {
+        Map<String, String> map = new LinkedHashMap<>();
+        skipWhitespace();
+        if (position == json.length()) {
+            return map;
+        }
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                String value = peek() == '"' ? readString() : readValue();
+                if (map.containsKey(key)) {
+                    throw new IllegalArgumentException("Duplicate '" + key + "' field");
+                }
+                map.put(key, value);
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    break;
+                }
+            }
+        }
+        skipWhitespace();
+        if (position != json.length()) {
+            throw invalid();
+        }
+        return map;
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = null;
+        int start = position;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return value == null ? json.substring(start, position - 1) : value.toString();
+            }
+            if (c == '\\') {
+                if (value == null) {
+                    value = new StringBuilder(json.substring(start, position - 1));
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > json.length()) {
+                            throw invalid();
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw invalid();
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            } else if (value != null) {
+                value.append(c);
+            }
+        }
+    }
+
+    private String readValue() {
+        int start = position;
+        int depth = 0;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '"') {
+                readString();
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                break;
+            }
+            position++;
+        }
+        String value = json.substring(start, position).trim();
+        if (value.isEmpty()) {
+            throw invalid();
+        }
+        return "null".equals(value) ? null : value;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        if (position >= json.length()) {
+            throw invalid();
+        }
+        return json.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw invalid();
+        }
+    }
+
+    private IllegalArgumentException invalid() {
+        return new IllegalArgumentException("Invalid JSON in JWT header");
+    }
+}
+
 /**
  * Header part of JWT
  *
@@ -279,19 +374,41 @@ class JwtImpl implements Jwt {
 
     private final byte[] crypto;
 
-    private String claims;
+    private final JwtClaims claimSet;
+
+    private byte[] signingInput;
+
+    private String encoded;
+
+    private final int signingInputLength;
 
     /**
      * @param header the header, containing the JWS/JWE algorithm information.
      * @param content the base64-decoded "claims" segment (may be encrypted, depending on
      * header information).
      * @param crypto the base64-decoded "crypto" segment.
+     * @param signingInput the encoded header and claims segments, separated by a "."
+     */
+    JwtImpl(JwtHeader header, byte[] content, byte[] crypto, byte[] signingInput) {
+        this.header = header;
+        this.content = content;
+        this.crypto = crypto;
+        this.claimSet = new JwtClaims(content);
+        this.signingInput = signingInput;
+        this.signingInputLength = signingInput.length;
+    }
+
+    /**
+     * @param encoded the token the segments were decoded from
+     * @param signingInputLength the length of the header and claims segments in the token
      */
-    JwtImpl(JwtHeader header, byte[] content, byte[] crypto) {
+    JwtImpl(JwtHeader header, byte[] content, byte[] crypto, String encoded, int signingInputLength) {
         this.header = header;
         this.content = content;
         this.crypto = crypto;
-        claims = utf8Decode(content);
+        this.claimSet = new JwtClaims(content);
+        this.encoded = encoded;
+        this.signingInputLength = signingInputLength;
     }
 
     /**
@@ -305,8 +422,16 @@ class JwtImpl implements Jwt {
     }
 
     private byte[] signingInput() {
-        return concat(b64UrlEncode(header.bytes()), JwtHelper.PERIOD,
-                b64UrlEncode(content));
+        byte[] result = signingInput;
+        if (result == null) {
+            // the token has been decoded, so it only holds base64url characters and periods
+            result = new byte[signingInputLength];
+            for (int i = 0; i < signingInputLength; i++) {
+                result[i] = (byte) encoded.charAt(i);
+            }
+            signingInput = result;
+        }
+        return result;
     }
 
     /**
@@ -317,8 +442,15 @@ class JwtImpl implements Jwt {
      */
     @Override
     public byte[] bytes() {
-        return concat(b64UrlEncode(header.bytes()), JwtHelper.PERIOD,
-                b64UrlEncode(content), JwtHelper.PERIOD, b64UrlEncode(crypto));
+        if (encoded != null) {
+            return encoded.getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] input = signingInput();
+        byte[] result = new byte[input.length + 1 + Base64Url.encodedLength(crypto.length)];
+        System.arraycopy(input, 0, result, 0, input.length);
+        result[input.length] = JwtHelper.PERIOD;
+        Base64Url.encode(crypto, result, input.length + 1);
+        return result;
     }
 
     @Override
@@ -326,14 +458,27 @@ class JwtImpl implements Jwt {
         return utf8Decode(content);
     }
 
+    /**
+     * @return the claims, parsed when they are first read
+     */
+    @Override
+    public JwtClaims getClaimSet() {
+        return claimSet;
+    }
+
     @Override
     public String getEncoded() {
-        return utf8Decode(bytes());
+        String result = encoded;
+        if (result == null) {
+            result = new String(bytes(), StandardCharsets.US_ASCII);
+            encoded = result;
+        }
+        return result;
     }
 
     @Override
     public String toString() {
-        return header + " " + claims + " [" + crypto.length + " crypto bytes]";
+        return header + " " + getClaims() + " [" + crypto.length + " crypto bytes]";
     }
 
     @Override
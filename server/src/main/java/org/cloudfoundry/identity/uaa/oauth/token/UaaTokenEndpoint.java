@@ -15,7 +15,10 @@
 
 package org.cloudfoundry.identity.uaa.oauth.token;
 
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
@@ -106,6 +109,25 @@ public class UaaTokenEndpoint extends TokenEndpoint {
         return result;
     }
 
+    @ExceptionHandler(PasswordHashingRejectedException.class)
+    public ResponseEntity<OAuth2Exception> handlePasswordHashingRejectedException(PasswordHashingRejectedException e) {
+        logger.debug("Password hashing rejected: " + e.getMessage());
+        OAuth2Exception cause = new OAuth2Exception(e.getMessage()) {
+            public String getOAuth2ErrorCode() {
+                return "temporarily_unavailable";
+            }
+
+            public int getHttpErrorCode() {
+                return e.getStatus();
+            }
+        };
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        headers.set(HttpHeaders.CACHE_CONTROL, "no-store");
+        headers.set(HttpHeaders.PRAGMA, "no-cache");
+        return new ResponseEntity<>(cause, headers, HttpStatus.valueOf(e.getStatus()));
+    }
+
     @ExceptionHandler(Exception.class)
     @Override
     public ResponseEntity<OAuth2Exception> handleException(Exception e) throws Exception {
@@ -12,17 +12,26 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.provider;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.ObjectUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -32,8 +41,22 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * When the provider cache is enabled, the rows of a zone's providers are read with one query and
+ * kept per zone, and all retrieve methods are served from them. The definition of a cached row is
+ * decoded for each provider that is returned, so every caller gets its own provider. Every write through this class
+ * evicts the zone on this node, again after the surrounding transaction completes, and - when version
+ * checking is enabled - bumps the {@code identity_provider} row of the {@code cache_versions} table
+ * so other nodes drop their cached providers the next time they poll it.
+ */
 public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisioning, SystemDeletable {
 
     private static Log logger = LogFactory.getLog(JdbcIdentityProviderProvisioning.class);
@@ -58,24 +81,50 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     public static final String IDENTITY_PROVIDER_BY_ORIGIN_QUERY = "select " + ID_PROVIDER_FIELDS + " from identity_provider " + "where origin_key=? and identity_zone_id=? ";
 
+    static final String CACHE_VERSION_NAME = "identity_provider";
+
+    private static final String SELECT_CACHE_VERSION =
+        "select version_number from cache_versions where name = ?";
+
+    private static final String INCREMENT_CACHE_VERSION =
+        "update cache_versions set version_number = version_number + 1 where name = ?";
+
     protected final JdbcTemplate jdbcTemplate;
 
 
-    private final RowMapper<IdentityProvider> mapper = new IdentityProviderRowMapper();
+    private final RowMapper<IdentityProviderRow> rowMapper = new IdentityProviderRowMapper();
+
+    private final RowMapper<IdentityProvider> mapper = (rs, rowNum) -> rowMapper.mapRow(rs, rowNum).toIdentityProvider();
+
+    private boolean cacheEnabled = false;
+    private int cacheExpiryInSeconds = 60;
+    private int cacheMaxEntries = 1000;
+    private long versionCheckIntervalInMillis = -1;
+    private TimeService timeService = new TimeServiceImpl();
+    private volatile Cache<String, List<IdentityProviderRow>> providerCache;
+    private final AtomicLong lastVersionCheck = new AtomicLong(Long.MIN_VALUE);
+    private volatile Long cacheVersion;
 
     public JdbcIdentityProviderProvisioning(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
+        buildCache();
     }
 
     @Override
     public IdentityProvider retrieve(String id, String zoneId) {
+        if (cacheEnabled) {
+            return single(cachedProviders(zoneId).stream().filter(p -> p.id.equals(id)));
+        }
         IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ID_QUERY, mapper, id, zoneId);
         return identityProvider;
     }
 
     @Override
     public List<IdentityProvider> retrieveActive(String zoneId) {
+        if (cacheEnabled) {
+            return decode(cachedProviders(zoneId).stream().filter(p -> p.active));
+        }
         return jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId, true);
     }
 
@@ -83,6 +132,8 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
     public List<IdentityProvider> retrieveAll(boolean activeOnly, String zoneId) {
         if (activeOnly) {
             return retrieveActive(zoneId);
+        } else if (cacheEnabled) {
+            return decode(cachedProviders(zoneId).stream());
         } else {
             return jdbcTemplate.query(IDENTITY_PROVIDERS_QUERY, mapper, zoneId);
         }
@@ -90,10 +141,42 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public IdentityProvider retrieveByOrigin(String origin, String zoneId) {
+        if (cacheEnabled) {
+            return single(cachedProviders(zoneId).stream().filter(p -> p.originKey.equals(origin)));
+        }
         IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ORIGIN_QUERY, mapper, origin, zoneId);
         return identityProvider;
     }
 
+    /**
+     * @return the provider rows of the zone, loaded with one query when the zone isn't cached
+     */
+    private List<IdentityProviderRow> cachedProviders(String zoneId) {
+        checkCacheVersion();
+        try {
+            return providerCache.get(zoneId, () -> jdbcTemplate.query(IDENTITY_PROVIDERS_QUERY, rowMapper, zoneId));
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static IdentityProvider single(Stream<IdentityProviderRow> providers) {
+        List<IdentityProvider> result = decode(providers);
+        // the same exceptions as queryForObject
+        if (result.isEmpty()) {
+            throw new EmptyResultDataAccessException(1);
+        } else if (result.size() > 1) {
+            throw new IncorrectResultSizeDataAccessException(1, result.size());
+        }
+        return result.get(0);
+    }
+
+    private static List<IdentityProvider> decode(Stream<IdentityProviderRow> providers) {
+        return providers.map(IdentityProviderRow::toIdentityProvider).collect(Collectors.toList());
+    }
+
     @Override
     public IdentityProvider create(final IdentityProvider identityProvider, String zoneId) {
         validate(identityProvider);
@@ -118,6 +201,7 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
         } catch (DuplicateKeyException e) {
             throw new IdpAlreadyExistsException(e.getMostSpecificCause().getMessage());
         }
+        providersModified(zoneId);
         return retrieve(id, zoneId);
     }
 
@@ -138,6 +222,7 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
             ps.setString(pos++, zoneId);
             }
         });
+        providersModified(zoneId);
         return retrieve(identityProvider.getId(), zoneId);
     }
 
@@ -159,12 +244,16 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        int deleted = jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        providersModified(zoneId);
+        return deleted;
     }
 
     @Override
     public int deleteByOrigin(String origin, String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        int deleted = jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        providersModified(zoneId);
+        return deleted;
     }
 
     @Override
@@ -185,22 +274,140 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
         return logger;
     }
 
-    private static final class IdentityProviderRowMapper implements RowMapper<IdentityProvider> {
-        @Override
-        public IdentityProvider mapRow(ResultSet rs, int rowNum) throws SQLException {
+    /**
+     * Evicts the zone's providers now and once the current transaction completes, so that a
+     * rolled back or concurrently re-read value doesn't stay cached, and publishes the change
+     * to other nodes.
+     */
+    protected void providersModified(String zoneId) {
+        if (versionCheckIntervalInMillis >= 0) {
+            jdbcTemplate.update(INCREMENT_CACHE_VERSION, CACHE_VERSION_NAME);
+        }
+        providerCache.invalidate(zoneId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    providerCache.invalidate(zoneId);
+                }
+            });
+        }
+    }
+
+    protected void checkCacheVersion() {
+        if (versionCheckIntervalInMillis < 0) {
+            return;
+        }
+        long now = timeService.getCurrentTimeMillis();
+        long lastCheck = lastVersionCheck.get();
+        if (lastCheck != Long.MIN_VALUE && now - lastCheck < versionCheckIntervalInMillis) {
+            return;
+        }
+        if (!lastVersionCheck.compareAndSet(lastCheck, now)) {
+            return;
+        }
+        Long version;
+        try {
+            version = jdbcTemplate.queryForObject(SELECT_CACHE_VERSION, Long.class, CACHE_VERSION_NAME);
+        } catch (EmptyResultDataAccessException e) {
+            version = null;
+        }
+        if (!Objects.equals(version, cacheVersion)) {
+            providerCache.invalidateAll();
+            cacheVersion = version;
+        }
+    }
+
+    public void clearCache() {
+        providerCache.invalidateAll();
+    }
+
+    public long getCacheSize() {
+        return providerCache.size();
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        clearCache();
+    }
+
+    public int getCacheExpiryInSeconds() {
+        return cacheExpiryInSeconds;
+    }
+
+    public void setCacheExpiryInSeconds(int cacheExpiryInSeconds) {
+        this.cacheExpiryInSeconds = cacheExpiryInSeconds;
+        buildCache();
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    /**
+     * @param cacheMaxEntries the maximum number of zones whose providers are cached
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        buildCache();
+    }
+
+    public long getVersionCheckIntervalInMillis() {
+        return versionCheckIntervalInMillis;
+    }
+
+    /**
+     * @param versionCheckIntervalInMillis how often the cache_versions table is polled for changes
+     *                                     made on other nodes. 0 checks on every lookup, a negative
+     *                                     value disables version checking.
+     */
+    public void setVersionCheckIntervalInMillis(long versionCheckIntervalInMillis) {
+        this.versionCheckIntervalInMillis = versionCheckIntervalInMillis;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    protected void buildCache() {
+        providerCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .expireAfterWrite(cacheExpiryInSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    /**
+     * A provider as it is stored. Callers modify the providers they get, e.g. to redact secrets,
+     * so cached rows keep the definition as JSON and each provider gets a freshly decoded one.
+     */
+    private static final class IdentityProviderRow {
+        private String id;
+        private int version;
+        private Timestamp created;
+        private Timestamp lastModified;
+        private String name;
+        private String originKey;
+        private String type;
+        private String config;
+        private String identityZoneId;
+        private boolean active;
+
+        private IdentityProvider toIdentityProvider() {
             IdentityProvider identityProvider = new IdentityProvider();
-            int pos = 1;
-            identityProvider.setId(rs.getString(pos++).trim());
-            identityProvider.setVersion(rs.getInt(pos++));
-            identityProvider.setCreated(rs.getTimestamp(pos++));
-            identityProvider.setLastModified(rs.getTimestamp(pos++));
-            identityProvider.setName(rs.getString(pos++));
-            identityProvider.setOriginKey(rs.getString(pos++));
-            identityProvider.setType(rs.getString(pos++));
-            String config = rs.getString(pos++);
+            identityProvider.setId(id);
+            identityProvider.setVersion(version);
+            identityProvider.setCreated(created == null ? null : (Timestamp) created.clone());
+            identityProvider.setLastModified(lastModified == null ? null : (Timestamp) lastModified.clone());
+            identityProvider.setName(name);
+            identityProvider.setOriginKey(originKey);
+            identityProvider.setType(type);
             if (StringUtils.hasText(config)) {
                 AbstractIdentityProviderDefinition definition;
-                switch (identityProvider.getType()) {
+                switch (type) {
                     case OriginKeys.SAML :
                         definition = JsonUtils.readValue(config, SamlIdentityProviderDefinition.class);
                         break;
@@ -227,12 +434,31 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
                     identityProvider.setConfig(definition);
                 }
             }
-            identityProvider.setIdentityZoneId(rs.getString(pos++));
-            identityProvider.setActive(rs.getBoolean(pos++));
+            identityProvider.setIdentityZoneId(identityZoneId);
+            identityProvider.setActive(active);
             return identityProvider;
         }
     }
 
+    private static final class IdentityProviderRowMapper implements RowMapper<IdentityProviderRow> {
+        @Override
+        public IdentityProviderRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+            IdentityProviderRow row = new IdentityProviderRow();
+            int pos = 1;
+            row.id = rs.getString(pos++).trim();
+            row.version = rs.getInt(pos++);
+            row.created = rs.getTimestamp(pos++);
+            row.lastModified = rs.getTimestamp(pos++);
+            row.name = rs.getString(pos++);
+            row.originKey = rs.getString(pos++);
+            row.type = rs.getString(pos++);
+            row.config = rs.getString(pos++);
+            row.identityZoneId = rs.getString(pos++);
+            row.active = rs.getBoolean(pos++);
+            return row;
+        }
+    }
+
 
 
 }
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.ldap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.support.BaseLdapPathContextSource;
+import org.springframework.util.ClassUtils;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the read-only contexts of an LDAP provider open between requests, so that user and
+ * group searches don't open a new connection and bind as the search user every time.
+ *
+ * Contexts handed out are proxies that return the underlying context to the pool when closed.
+ * At most {@link #setMaxIdle(int)} contexts are kept, contexts idle for longer than
+ * {@link #setMaxIdleTimeMillis(long)} are closed, and contexts idle for longer than
+ * {@link #setValidationIntervalMillis(long)} are validated with a base object search before they are reused.
+ * Contexts bound as a user, i.e. {@link #getContext(String, String)}, are never pooled.
+ */
+public class PooledLdapContextSource implements BaseLdapPathContextSource, DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(PooledLdapContextSource.class);
+
+    private final BaseLdapPathContextSource target;
+    private int maxIdle = 8;
+    private long maxIdleTimeMillis = 5 * 60 * 1000;
+    private long validationIntervalMillis = 30 * 1000;
+    private TimeService timeService = new TimeServiceImpl();
+
+    private final Deque<IdleContext> idle = new ArrayDeque<>();
+    private boolean destroyed = false;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public PooledLdapContextSource(BaseLdapPathContextSource target) {
+        this.target = target;
+    }
+
+    @Override
+    public DirContext getReadOnlyContext() {
+        DirContext context = borrow();
+        if (context == null) {
+            context = target.getReadOnlyContext();
+            created.increment();
+        } else {
+            reused.increment();
+        }
+        return wrap(context);
+    }
+
+    @Override
+    public DirContext getReadWriteContext() {
+        return target.getReadWriteContext();
+    }
+
+    @Override
+    public DirContext getContext(String principal, String credentials) {
+        return target.getContext(principal, credentials);
+    }
+
+    @Override
+    public DistinguishedName getBaseLdapPath() {
+        return target.getBaseLdapPath();
+    }
+
+    @Override
+    public LdapName getBaseLdapName() {
+        return target.getBaseLdapName();
+    }
+
+    @Override
+    public String getBaseLdapPathAsString() {
+        return target.getBaseLdapPathAsString();
+    }
+
+    private DirContext borrow() {
+        while (true) {
+            IdleContext candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            long idleMillis = timeService.getCurrentTimeMillis() - candidate.returnedAt;
+            if (idleMillis >= maxIdleTimeMillis || (idleMillis >= validationIntervalMillis && !isValid(candidate.context))) {
+                discard(candidate.context);
+            } else {
+                return candidate.context;
+            }
+        }
+    }
+
+    protected void release(DirContext context, boolean reusable) {
+        if (reusable) {
+            long now = timeService.getCurrentTimeMillis();
+            IdleContext expired = null;
+            synchronized (idle) {
+                if (!destroyed && idle.size() < maxIdle) {
+                    idle.addFirst(new IdleContext(context, now));
+                    context = null;
+                    IdleContext oldest = idle.peekLast();
+                    if (now - oldest.returnedAt >= maxIdleTimeMillis) {
+                        expired = idle.pollLast();
+                    }
+                }
+            }
+            if (expired != null) {
+                discard(expired.context);
+            }
+        }
+        if (context != null) {
+            discard(context);
+        }
+    }
+
+    protected boolean isValid(DirContext context) {
+        SearchControls controls = new SearchControls(SearchControls.OBJECT_SCOPE, 1, 0, new String[] {"objectclass"}, false, false);
+        try {
+            NamingEnumeration<SearchResult> results = context.search("", "objectclass=*", controls);
+            try {
+                results.hasMore();
+            } finally {
+                results.close();
+            }
+            return true;
+        } catch (NamingException e) {
+            logger.debug("Discarding pooled LDAP context that failed validation", e);
+            return false;
+        }
+    }
+
+    private void discard(DirContext context) {
+        discarded.increment();
+        try {
+            context.close();
+        } catch (NamingException e) {
+            logger.debug("Unable to close LDAP context", e);
+        }
+    }
+
+    private DirContext wrap(DirContext context) {
+        Class<?>[] interfaces = ClassUtils.getAllInterfaces(context);
+        return (DirContext) Proxy.newProxyInstance(context.getClass().getClassLoader(), interfaces, new PooledContextHandler(context));
+    }
+
+    @Override
+    public void destroy() {
+        Deque<IdleContext> contexts;
+        synchronized (idle) {
+            destroyed = true;
+            contexts = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (IdleContext context : contexts) {
+            discard(context.context);
+        }
+    }
+
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getReusedCount() {
+        return reused.sum();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    public BaseLdapPathContextSource getTarget() {
+        return target;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public long getMaxIdleTimeMillis() {
+        return maxIdleTimeMillis;
+    }
+
+    public void setMaxIdleTimeMillis(long maxIdleTimeMillis) {
+        this.maxIdleTimeMillis = maxIdleTimeMillis;
+    }
+
+    public long getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    public void setValidationIntervalMillis(long validationIntervalMillis) {
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    private static class IdleContext {
+        private final DirContext context;
+        private final long returnedAt;
+
+        IdleContext(DirContext context, long returnedAt) {
+            this.context = context;
+            this.returnedAt = returnedAt;
+        }
+    }
+
+    private class PooledContextHandler implements InvocationHandler {
+        private final DirContext context;
+        private boolean closed = false;
+        private boolean reusable = true;
+
+        PooledContextHandler(DirContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!closed) {
+                            closed = true;
+                            release(context, reusable);
+                        }
+                    }
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + context;
+                case "addToEnvironment":
+                case "removeFromEnvironment":
+                case "setRequestControls":
+                case "reconnect":
+                    // the context no longer matches the ones created by the target
+                    reusable = false;
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new IllegalStateException("LDAP context has already been closed");
+            }
+            try {
+                return method.invoke(context, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getTargetException();
+                if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+                    reusable = false;
+                }
+                throw cause;
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.cloudfoundry.identity.uaa.provider.ldap.extension;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.ldap.core.ContextSource;
@@ -22,11 +24,20 @@ import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.util.StringUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.EMPTY_LIST;
@@ -59,7 +70,8 @@ import static java.util.Collections.EMPTY_LIST;
  * ou: java-developer
  * </pre>
  * <p>
- * During an authentication
+ * During an authentication the groups of the user are searched level by level, with the searches of
+ * one level running in parallel, and the result is reused for the same user for {@link #setCacheTtlMillis(long)}.
  */
 
 public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopulator {
@@ -69,6 +81,21 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
     private Set<String> attributeNames;
 
     private int maxSearchDepth = 10;
+    private long cacheTtlMillis = 10 * 1000;
+    private int maxCacheEntries = 10000;
+    private volatile Cache<List<String>, Set<GrantedAuthority>> cache;
+
+    private static final ExecutorService SEARCH_EXECUTOR = new ThreadPoolExecutor(
+        0, 8, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<>(),
+        r -> {
+            Thread thread = new Thread(r, "ldap-nested-group-search");
+            thread.setDaemon(true);
+            return thread;
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy()
+    );
+
     /**
      * Constructor for group search scenarios. <tt>userRoleAttributes</tt> may still be
      * set as a property.
@@ -100,60 +127,124 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
             return new HashSet<GrantedAuthority>();
         }
 
-        Set<GrantedAuthority> authorities = new HashSet<GrantedAuthority>();
-
-        performNestedSearch(userDn, username, authorities, getMaxSearchDepth());
+        Cache<List<String>, Set<GrantedAuthority>> cache = getCache();
+        List<String> key = Arrays.asList(userDn, username);
+        Set<GrantedAuthority> authorities = cache != null ? cache.getIfPresent(key) : null;
+        if (authorities == null) {
+            authorities = Collections.unmodifiableSet(performNestedSearch(userDn, username));
+            if (cache != null) {
+                cache.put(key, authorities);
+            }
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Using cached roles for user '" + username + "', DN = '" + userDn + "'");
+        }
 
-        return authorities;
+        return new HashSet<GrantedAuthority>(authorities);
     }
 
-    protected void performNestedSearch(String userDn, String username, Set<GrantedAuthority> authorities, int depth) {
-        if (depth==0) {
-            //back out of recursion
+    /**
+     * Searches the groups of a user level by level. The searches for the groups found on one level
+     * are independent of each other and run in parallel.
+     */
+    protected Set<GrantedAuthority> performNestedSearch(String userDn, String username) {
+        Set<GrantedAuthority> authorities = new HashSet<GrantedAuthority>();
+        String[] attributes = getSearchAttributes();
+        List<String[]> level = Collections.singletonList(new String[] {userDn, username});
+
+        for (int depth = getMaxSearchDepth(); depth > 0 && !level.isEmpty(); depth--) {
+            List<String[]> nextLevel = new ArrayList<String[]>();
+            for (Set<Map<String,String[]>> userRoles : searchLevel(level, attributes)) {
+                if (logger.isDebugEnabled()) {
+                    logRoles(userRoles);
+                }
+                for (Map<String,String[]> record : userRoles) {
+                    boolean circular = false;
+                    String dn = record.get(SpringSecurityLdapTemplate.DN_KEY)[0];
+                    String[] roleValues = record.get(getGroupRoleAttribute());
+                    Set<String> roles = new HashSet<String>();
+                    roles.addAll(Arrays.asList(roleValues!=null?roleValues:new String[0]));
+                    for (String role : roles) {
+                        if (isConvertToUpperCase()) {
+                            role = role.toUpperCase();
+                        }
+                        role = getRolePrefix() + role;
+                        circular = circular | (!authorities.add(new LdapAuthority(role,dn,record)));
+                    }
+                    String roleName = roles.size()>0 ? roles.iterator().next() : dn;
+                    if (!circular) {
+                        nextLevel.add(new String[] {dn, roleName});
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+
+        if (!level.isEmpty()) {
             logger.debug("Search aborted, max depth reached,"+
                 " for roles for user '" + username + "', DN = " + "'" + userDn + "', with filter "
                 + getGroupSearchFilter() + " in search base '" + getGroupSearchBase() + "'");
-            return;
         }
+        return authorities;
+    }
 
-        if (logger.isDebugEnabled()) {
-            logger.debug("Searching for roles for user '" + username + "', DN = " + "'" + userDn + "', with filter "
-                + getGroupSearchFilter() + " in search base '" + getGroupSearchBase() + "'");
+    protected List<Set<Map<String,String[]>>> searchLevel(List<String[]> members, String[] attributes) {
+        List<Future<Set<Map<String,String[]>>>> futures = new ArrayList<>(members.size());
+        for (int i = 1; i < members.size(); i++) {
+            String[] member = members.get(i);
+            futures.add(SEARCH_EXECUTOR.submit(() -> search(member, attributes)));
         }
 
-        if (StringUtils.hasText(getGroupRoleAttribute()) && !getAttributeNames().contains(getGroupRoleAttribute())) {
-            getAttributeNames().add(getGroupRoleAttribute());
+        List<Set<Map<String,String[]>>> results = new ArrayList<>(members.size());
+        results.add(search(members.get(0), attributes));
+        for (Future<Set<Map<String,String[]>>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while searching for nested groups", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
         }
+        return results;
+    }
 
-        Set<Map<String,String[]>> userRoles = getLdapTemplate().searchForMultipleAttributeValues(
-            getGroupSearchBase(),
-            getGroupSearchFilter(),
-            new String[]{userDn, username},
-            getAttributeNames().toArray(new String[getAttributeNames().size()]));
-
+    private Set<Map<String,String[]>> search(String[] member, String[] attributes) {
         if (logger.isDebugEnabled()) {
-            logRoles(userRoles);
+            logger.debug("Searching for roles for user '" + member[1] + "', DN = " + "'" + member[0] + "', with filter "
+                + getGroupSearchFilter() + " in search base '" + getGroupSearchBase() + "'");
         }
+        return getLdapTemplate().searchForMultipleAttributeValues(getGroupSearchBase(), getGroupSearchFilter(), member, attributes);
+    }
 
-        for (Map<String,String[]> record : userRoles) {
-            boolean circular = false;
-            String dn = record.get(SpringSecurityLdapTemplate.DN_KEY)[0];
-            String[] roleValues = record.get(getGroupRoleAttribute());
-            Set<String> roles = new HashSet<String>();
-            roles.addAll(Arrays.asList(roleValues!=null?roleValues:new String[0]));
-            for (String role : roles) {
-                if (isConvertToUpperCase()) {
-                    role = role.toUpperCase();
+    private String[] getSearchAttributes() {
+        Set<String> attributes = new HashSet<String>(getAttributeNames());
+        if (StringUtils.hasText(getGroupRoleAttribute())) {
+            attributes.add(getGroupRoleAttribute());
+        }
+        return attributes.toArray(new String[attributes.size()]);
+    }
+
+    private Cache<List<String>, Set<GrantedAuthority>> getCache() {
+        if (cacheTtlMillis <= 0) {
+            return null;
+        }
+        Cache<List<String>, Set<GrantedAuthority>> result = cache;
+        if (result == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                        .expireAfterWrite(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                        .maximumSize(maxCacheEntries)
+                        .build();
                 }
-                role = getRolePrefix() + role;
-                circular = circular | (!authorities.add(new LdapAuthority(role,dn,record)));
+                result = cache;
             }
-            String roleName = roles.size()>0 ? roles.iterator().next() : dn;
-            if (!circular) {
-                performNestedSearch(dn, roleName, authorities, (depth - 1));
-            }
-
         }
+        return result;
     }
 
     protected void logRoles(Set<Map<String, String[]>> userRoles) {
@@ -196,6 +287,25 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
         this.maxSearchDepth = maxSearchDepth;
     }
 
+    public long getCacheTtlMillis() {
+        return cacheTtlMillis;
+    }
+
+    /**
+     * @param cacheTtlMillis how long the groups of a user are reused before they are searched again, 0 disables caching
+     */
+    public void setCacheTtlMillis(long cacheTtlMillis) {
+        this.cacheTtlMillis = cacheTtlMillis;
+    }
+
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+
+    public void setMaxCacheEntries(int maxCacheEntries) {
+        this.maxCacheEntries = maxCacheEntries;
+    }
+
 
 
 }
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
+import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeySet;
+import org.cloudfoundry.identity.uaa.oauth.jwt.ChainedSignatureVerifier;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.util.StringUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the parsed verification keys of external OAuth/OIDC providers so that validating an
+ * id_token doesn't require a request to the provider's token key URL on every login.
+ *
+ * Keys are kept for the max-age of the token key response, or {@link #setDefaultTtlMillis(long)}
+ * if the response has none. They are fetched again early when a token is signed with an unknown
+ * key id or its signature doesn't verify, but at most once per {@link #setMinRefreshIntervalMillis(long)}.
+ * Concurrent fetches of the same keys are coalesced into one request.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=TokenKeyCache",
+    description = "Verification keys of external OAuth providers"
+)
+public class TokenKeyCache {
+
+    private static final Log logger = LogFactory.getLog(TokenKeyCache.class);
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+
+    private long defaultTtlMillis = 5 * 60 * 1000;
+    private long maxTtlMillis = 24 * 3600 * 1000;
+    private long minRefreshIntervalMillis = 10 * 1000;
+    private int maxEntries = 1000;
+    private TimeService timeService = new TimeServiceImpl();
+
+    private volatile Cache<String, Keys> keys;
+    private final Cache<Object, SignatureVerifier> verifiers = CacheBuilder.newBuilder().weakKeys().build();
+    private final ConcurrentMap<String, CompletableFuture<Keys>> fetching = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Returns the keys stored for {@code cacheKey}, fetching them when they are missing, expired
+     * or don't contain {@code kid}.
+     * @param kid the key id of the token to verify, may be null
+     * @param loader fetches and parses the keys
+     */
+    public Keys getKeys(String cacheKey, String kid, Supplier<TokenKeys> loader) {
+        Keys cached = getCache().getIfPresent(cacheKey);
+        long now = timeService.getCurrentTimeMillis();
+        if (cached != null && now < cached.expiresAt && (cached.hasKey(kid) || !canRefresh(cached, now))) {
+            hits.increment();
+            return cached;
+        }
+        return fetch(cacheKey, cached, loader);
+    }
+
+    /**
+     * Fetches the keys again after a signature could not be verified with them.
+     * @return the new keys, or null if the keys were fetched too recently to try again
+     */
+    public Keys refreshKeys(String cacheKey, Supplier<TokenKeys> loader) {
+        Keys cached = getCache().getIfPresent(cacheKey);
+        if (cached != null && !canRefresh(cached, timeService.getCurrentTimeMillis())) {
+            return null;
+        }
+        return fetch(cacheKey, cached, loader);
+    }
+
+    /**
+     * Returns a verifier for a key set that is itself cached by the caller, e.g. the keys of a zone.
+     * The verifier is kept for as long as the {@code owner} instance is in use.
+     */
+    public SignatureVerifier getVerifier(Object owner, Supplier<JsonWebKeySet<JsonWebKey>> keySet) {
+        SignatureVerifier verifier = verifiers.getIfPresent(owner);
+        if (verifier == null) {
+            verifier = new ChainedSignatureVerifier(keySet.get());
+            verifiers.put(owner, verifier);
+        }
+        return verifier;
+    }
+
+    private boolean canRefresh(Keys cached, long now) {
+        return now - cached.fetchedAt >= minRefreshIntervalMillis;
+    }
+
+    protected Keys fetch(String cacheKey, Keys cached, Supplier<TokenKeys> loader) {
+        CompletableFuture<Keys> flight = new CompletableFuture<>();
+        CompletableFuture<Keys> existing = fetching.putIfAbsent(cacheKey, flight);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            Keys result = load(cacheKey, cached, loader);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            fetching.remove(cacheKey, flight);
+        }
+    }
+
+    private Keys load(String cacheKey, Keys cached, Supplier<TokenKeys> loader) {
+        fetches.increment();
+        long now = timeService.getCurrentTimeMillis();
+        TokenKeys loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            failures.increment();
+            if (cached == null) {
+                throw e;
+            }
+            logger.warn("Unable to refresh token keys for " + cacheKey + ", using the previous keys", e);
+            // don't retry on every login while the provider is unavailable
+            Keys previous = new Keys(cached.verifier, cached.kids, now, Math.max(cached.expiresAt, now + minRefreshIntervalMillis));
+            getCache().put(cacheKey, previous);
+            return previous;
+        }
+        Set<String> kids = new HashSet<>();
+        for (JsonWebKey key : loaded.getKeySet().getKeys()) {
+            if (StringUtils.hasText(key.getKid())) {
+                kids.add(key.getKid());
+            }
+        }
+        long ttl = loaded.getMaxAgeMillis() < 0 ? defaultTtlMillis : Math.min(loaded.getMaxAgeMillis(), maxTtlMillis);
+        Keys result = new Keys(new ChainedSignatureVerifier(loaded.getKeySet()), kids, now, now + ttl);
+        getCache().put(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * @return the max-age of a Cache-Control header value in milliseconds, or -1 if it has none
+     */
+    public static long getMaxAgeMillis(String cacheControl) {
+        if (!StringUtils.hasText(cacheControl)) {
+            return -1;
+        }
+        String value = cacheControl.toLowerCase();
+        if (value.contains("no-cache") || value.contains("no-store")) {
+            return 0;
+        }
+        Matcher matcher = MAX_AGE.matcher(value);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) * 1000 : -1;
+    }
+
+    public void clear() {
+        getCache().invalidateAll();
+        verifiers.invalidateAll();
+    }
+
+    private Cache<String, Keys> getCache() {
+        Cache<String, Keys> result = keys;
+        if (result == null) {
+            synchronized (this) {
+                if (keys == null) {
+                    keys = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+                }
+                result = keys;
+            }
+        }
+        return result;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Token key lookups served from cache")
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Token key fetches")
+    public long getFetchCount() {
+        return fetches.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed token key fetches")
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Cached token key sets")
+    public long getSize() {
+        return getCache().size();
+    }
+
+    public long getDefaultTtlMillis() {
+        return defaultTtlMillis;
+    }
+
+    public void setDefaultTtlMillis(long defaultTtlMillis) {
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    public long getMaxTtlMillis() {
+        return maxTtlMillis;
+    }
+
+    public void setMaxTtlMillis(long maxTtlMillis) {
+        this.maxTtlMillis = maxTtlMillis;
+    }
+
+    public long getMinRefreshIntervalMillis() {
+        return minRefreshIntervalMillis;
+    }
+
+    public void setMinRefreshIntervalMillis(long minRefreshIntervalMillis) {
+        this.minRefreshIntervalMillis = minRefreshIntervalMillis;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    /**
+     * A key set as returned by a provider's token key URL.
+     */
+    public static class TokenKeys {
+        private final JsonWebKeySet<JsonWebKey> keySet;
+        private final long maxAgeMillis;
+
+        public TokenKeys(JsonWebKeySet<JsonWebKey> keySet, long maxAgeMillis) {
+            this.keySet = keySet;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        public JsonWebKeySet<JsonWebKey> getKeySet() {
+            return keySet;
+        }
+
+        public long getMaxAgeMillis() {
+            return maxAgeMillis;
+        }
+    }
+
+    /**
+     * The parsed keys of one provider.
+     */
+    public static class Keys {
+        private final SignatureVerifier verifier;
+        private final Set<String> kids;
+        private final long fetchedAt;
+        private final long expiresAt;
+
+        Keys(SignatureVerifier verifier, Set<String> kids, long fetchedAt, long expiresAt) {
+            this.verifier = verifier;
+            this.kids = kids;
+            this.fetchedAt = fetchedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public SignatureVerifier getVerifier() {
+            return verifier;
+        }
+
+        /**
+         * @return true if the key id is null, one of the keys has that id, or the keys have no ids
+         */
+        public boolean hasKey(String kid) {
+            return kid == null || kids.isEmpty() || kids.contains(kid);
+        }
+    }
+}
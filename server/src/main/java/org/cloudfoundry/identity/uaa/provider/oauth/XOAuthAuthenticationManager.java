@@ -15,6 +15,7 @@ package org.cloudfoundry.identity.uaa.provider.oauth;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
@@ -28,7 +29,6 @@ import org.cloudfoundry.identity.uaa.oauth.UaaTokenServices;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeyHelper;
 import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeySet;
-import org.cloudfoundry.identity.uaa.oauth.jwt.ChainedSignatureVerifier;
 import org.cloudfoundry.identity.uaa.oauth.jwt.CommonSigner;
 import org.cloudfoundry.identity.uaa.oauth.jwt.Jwt;
 import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
@@ -85,6 +85,7 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
     private final RestTemplateFactory restTemplateFactory;
 
     private UaaTokenServices tokenServices;
+    private TokenKeyCache tokenKeyCache = new TokenKeyCache();
 
     //origin is per thread during execution
     private final ThreadLocal<String> origin = ThreadLocal.withInitial(() -> "unknown");
@@ -383,7 +384,7 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
     }
 
     public RestTemplate getRestTemplate(AbstractXOAuthIdentityProviderDefinition config) {
-        return restTemplateFactory.getRestTemplate(config.isSkipSslValidation());
+        return restTemplateFactory.getRestTemplate(config.isSkipSslValidation(), config.getConnectTimeout(), config.getReadTimeout());
     }
 
     protected String getResponseType(AbstractXOAuthIdentityProviderDefinition config) {
@@ -464,22 +465,42 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
     private TokenValidation validateToken(String idToken, AbstractXOAuthIdentityProviderDefinition config) {
         logger.debug("Validating id_token");
 
-        JsonWebKeySet tokenKey;
         TokenValidation validation;
         if (tokenServices.getTokenEndpoint().equals(config.getIssuer())) {
-            tokenKey = getTokenKeyForUaaOrigin();
             validation = validate(idToken)
-                .checkSignature(new ChainedSignatureVerifier(tokenKey));
+                .checkSignature(tokenKeyCache.getVerifier(KeyInfo.getKeys(), this::getTokenKeyForUaaOrigin));
         } else {
-            tokenKey = getTokenKeyFromOAuth(config);
-            validation = validate(idToken)
-                .checkSignature(new ChainedSignatureVerifier(tokenKey))
+            validation = validate(idToken);
+            String cacheKey = getTokenKeyCacheKey(config);
+            TokenKeyCache.Keys keys = tokenKeyCache.getKeys(cacheKey, getKeyId(validation), () -> getTokenKeyFromOAuth(config));
+            validation.checkSignature(keys.getVerifier());
+            if (!validation.isValid() && validation.getJwt() != null) {
+                // the provider may have rotated its keys since they were cached
+                keys = tokenKeyCache.refreshKeys(cacheKey, () -> getTokenKeyFromOAuth(config));
+                if (keys != null) {
+                    validation = validate(idToken).checkSignature(keys.getVerifier());
+                }
+            }
+            validation
                 .checkIssuer((isEmpty(config.getIssuer()) ? config.getTokenUrl().toString() : config.getIssuer()))
                 .checkAudience(config.getRelyingPartyId());
         }
         return validation.checkExpiry().throwIfInvalid();
     }
 
+    private String getKeyId(TokenValidation validation) {
+        Jwt jwt = validation.getJwt();
+        return jwt == null || jwt.getHeader() == null ? null : jwt.getHeader().getKid();
+    }
+
+    private String getTokenKeyCacheKey(AbstractXOAuthIdentityProviderDefinition config) {
+        String tokenKey = config.getTokenKey();
+        if (StringUtils.hasText(tokenKey)) {
+            return "key:" + DigestUtils.sha256Hex(tokenKey);
+        }
+        return "url:" + config.getTokenKeyUrl() + ":" + config.getRelyingPartyId() + ":" + config.isSkipSslValidation();
+    }
+
     protected JsonWebKeySet<JsonWebKey> getTokenKeyForUaaOrigin() {
         Map<String, KeyInfo> keys = KeyInfo.getKeys();
         List<Map<String, Object>> resultMaps = keys.values().stream()
@@ -488,18 +509,18 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         return JsonWebKeyHelper.fromResultMaps(resultMaps);
     }
 
-    private JsonWebKeySet<JsonWebKey> getTokenKeyFromOAuth(AbstractXOAuthIdentityProviderDefinition config) {
+    private TokenKeyCache.TokenKeys getTokenKeyFromOAuth(AbstractXOAuthIdentityProviderDefinition config) {
         String tokenKey = config.getTokenKey();
         if (StringUtils.hasText(tokenKey)) {
             Map<String, Object> p = new HashMap<>();
             p.put("value", tokenKey);
             p.put("kty", KeyInfo.isAssymetricKey(tokenKey) ? RSA.name() : MAC.name());
             logger.debug("Key configured, returning.");
-            return new JsonWebKeySet<>(Arrays.asList(new JsonWebKey(p)));
+            return new TokenKeyCache.TokenKeys(new JsonWebKeySet<>(Arrays.asList(new JsonWebKey(p))), Long.MAX_VALUE);
         }
         URL tokenKeyUrl = config.getTokenKeyUrl();
         if (tokenKeyUrl == null || !StringUtils.hasText(tokenKeyUrl.toString())) {
-            return new JsonWebKeySet<>(Collections.emptyList());
+            return new TokenKeyCache.TokenKeys(new JsonWebKeySet<>(Collections.emptyList()), -1);
         }
 
         MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
@@ -510,7 +531,10 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         ResponseEntity<String> responseEntity = getRestTemplate(config).exchange(tokenKeyUrl.toString(), HttpMethod.GET, tokenKeyRequest, String.class);
         logger.debug("Token key response:"+responseEntity.getStatusCode());
         if (responseEntity.getStatusCode() == HttpStatus.OK) {
-            return JsonWebKeyHelper.deserialize(responseEntity.getBody());
+            return new TokenKeyCache.TokenKeys(
+                JsonWebKeyHelper.deserialize(responseEntity.getBody()),
+                TokenKeyCache.getMaxAgeMillis(responseEntity.getHeaders().getCacheControl())
+            );
         } else {
             throw new InvalidTokenException("Unable to fetch verification keys, status:" + responseEntity.getStatusCode());
         }
@@ -577,6 +601,14 @@ public class XOAuthAuthenticationManager extends ExternalLoginAuthenticationMana
         return "Basic " + clientAuth;
     }
 
+    public TokenKeyCache getTokenKeyCache() {
+        return tokenKeyCache;
+    }
+
+    public void setTokenKeyCache(TokenKeyCache tokenKeyCache) {
+        this.tokenKeyCache = tokenKeyCache;
+    }
+
     public void setUaaTokenServices(UaaTokenServices tokenServices) {
         this.tokenServices = tokenServices;
     }
@@ -64,7 +64,7 @@ public class XOAuthProviderConfigurator implements IdentityProviderProvisioning
             return definition;
         }
 
-        byte[] oidcJson = contentCache.getUrlContent(definition.getDiscoveryUrl().toString(), restTemplateFactory.getRestTemplate(definition.isSkipSslValidation()));
+        byte[] oidcJson = contentCache.getUrlContent(definition.getDiscoveryUrl().toString(), restTemplateFactory.getRestTemplate(definition.isSkipSslValidation(), definition.getConnectTimeout(), definition.getReadTimeout()));
         Map<String,Object> oidcConfig = JsonUtils.readValue(oidcJson, new TypeReference<Map<String, Object>>() {});
 
         OIDCIdentityProviderDefinition overlayedDefinition = null;
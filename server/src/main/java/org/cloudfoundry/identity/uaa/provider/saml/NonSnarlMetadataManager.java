@@ -15,9 +15,13 @@
 
 package org.cloudfoundry.identity.uaa.provider.saml;
 
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
 import org.joda.time.DateTime;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.common.Extensions;
@@ -55,6 +59,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.saml.key.KeyManager;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
@@ -71,14 +76,21 @@ import javax.xml.namespace.QName;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
-public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean {
+public class NonSnarlMetadataManager extends MetadataManager implements ExtendedMetadataProvider, InitializingBean, DisposableBean, ApplicationListener<AbstractUaaEvent> {
 
     // Class logger
     protected final Logger log = LoggerFactory.getLogger(NonSnarlMetadataManager.class);
@@ -90,6 +102,7 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     private final SamlIdentityProviderConfigurator configurator;
     private ZoneAwareMetadataGenerator generator;
+    private final ConcurrentMap<String, ZoneProviders> zoneProviders = new ConcurrentHashMap<>();
 
     public NonSnarlMetadataManager(SamlIdentityProviderConfigurator configurator) throws MetadataProviderException {
         super(Collections.EMPTY_LIST);
@@ -139,28 +152,111 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     }
 
     public List<ExtendedMetadataDelegate> getAvailableProviders() {
-        IdentityZone zone = IdentityZoneHolder.get();
         List<ExtendedMetadataDelegate> result = new ArrayList<>();
+        result.add(getLocalServiceProviderUnchecked());
+        result.addAll(getZoneProviders(IdentityZoneHolder.get()).getDelegates());
+        return result;
+    }
+
+    /**
+     * @return the local service provider followed by the identity provider that declares the entity, if any
+     */
+    protected List<ExtendedMetadataDelegate> getAvailableProviders(String entityID) {
+        List<ExtendedMetadataDelegate> result = new ArrayList<>(2);
+        result.add(getLocalServiceProviderUnchecked());
+        ExtendedMetadataDelegate delegate = getZoneProviders(IdentityZoneHolder.get()).getDelegate(entityID);
+        if (delegate != null) {
+            result.add(delegate);
+        }
+        return result;
+    }
+
+    private ExtendedMetadataDelegate getLocalServiceProviderUnchecked() {
         try {
-            result.add(getLocalServiceProvider());
+            return getLocalServiceProvider();
         } catch (MetadataProviderException e) {
             throw new IllegalStateException(e);
         }
-        for (SamlIdentityProviderDefinition definition : configurator.getIdentityProviderDefinitions()) {
-            log.info("Adding SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]");
+    }
+
+    /**
+     * Returns the initialized metadata of the zone's SAML identity providers. A provider's metadata
+     * is only parsed again when the provider's version or last modified date changes, or, for
+     * metadata loaded from a URL, when the content cache returns different content.
+     */
+    protected ZoneProviders getZoneProviders(IdentityZone zone) {
+        ZoneProviders current = zoneProviders.get(zone.getId());
+        Map<String, CachedProvider> providers = new LinkedHashMap<>();
+        boolean changed = current == null;
+        for (IdentityProvider provider : configurator.getIdentityProvidersForZone(zone)) {
+            SamlIdentityProviderDefinition definition = (SamlIdentityProviderDefinition) provider.getConfig();
             try {
-                ExtendedMetadataDelegate delegate = configurator.getExtendedMetadataDelegate(definition);
-                initializeProvider(delegate);
-                initializeProviderData(delegate);
-                initializeProviderFilters(delegate);
-                result.add(delegate);
+                CachedProvider cached = current == null ? null : current.providers.get(provider.getId());
+                String metadata = null;
+                if (cached != null && cached.isFor(provider, definition)) {
+                    if (cached.metadata != null) {
+                        metadata = configurator.fetchMetadata(definition);
+                    }
+                    if (cached.metadata == null || cached.metadata.equals(metadata)) {
+                        providers.put(provider.getId(), cached);
+                        continue;
+                    }
+                }
+                changed = true;
+                providers.put(provider.getId(), loadProvider(zone, provider, definition, metadata));
             } catch (MetadataProviderException e) {
+                changed = true;
                 log.error("Invalid SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]", e);
             }
         }
+        if (!changed && providers.size() == current.providers.size()) {
+            return current;
+        }
+        ZoneProviders result = new ZoneProviders(providers);
+        zoneProviders.put(zone.getId(), result);
         return result;
     }
 
+    protected CachedProvider loadProvider(IdentityZone zone, IdentityProvider provider, SamlIdentityProviderDefinition definition, String metadata) throws MetadataProviderException {
+        log.info("Adding SAML IDP zone[" + zone.getId() + "] alias[" + definition.getIdpEntityAlias() + "]");
+        ExtendedMetadataDelegate delegate;
+        if (metadata == null && definition.getType() == SamlIdentityProviderDefinition.MetadataLocation.URL) {
+            metadata = configurator.fetchMetadata(definition);
+        }
+        if (metadata != null) {
+            SamlIdentityProviderDefinition resolved = definition.clone();
+            resolved.setMetaDataLocation(metadata);
+            delegate = configurator.configureXMLMetadata(resolved);
+        } else {
+            delegate = configurator.getExtendedMetadataDelegate(definition);
+        }
+        initializeProvider(delegate);
+        initializeProviderData(delegate);
+        initializeProviderFilters(delegate);
+
+        List<String> entityIDs = parseProvider(delegate);
+        String idpEntityID = getProviderIdpAlias(delegate);
+        return new CachedProvider(provider, definition, metadata, delegate, entityIDs, idpEntityID);
+    }
+
+    public void evictZone(String zoneId) {
+        if (zoneId != null) {
+            zoneProviders.remove(zoneId);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        Object source = event instanceof EntityDeletedEvent ? ((EntityDeletedEvent) event).getDeleted() : event.getSource();
+        if (event instanceof IdentityProviderModifiedEvent || event instanceof EntityDeletedEvent) {
+            if (source instanceof IdentityProvider) {
+                evictZone(((IdentityProvider) source).getIdentityZoneId());
+            } else if (source instanceof IdentityZone) {
+                evictZone(((IdentityZone) source).getId());
+            }
+        }
+    }
+
     @Override
     protected void initializeProvider(ExtendedMetadataDelegate provider) throws MetadataProviderException {
         // Initialize provider and perform signature verification
@@ -391,16 +487,16 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     @Override
     public Set<String> getIDPEntityNames() {
         Set<String> result = new HashSet<>();
-        for (ExtendedMetadataDelegate delegate : getAvailableProviders()) {
-            try {
-                String idp = getProviderIdpAlias(delegate);
-                if (StringUtils.hasText(idp)) {
-                    result.add(idp);
-                }
-            } catch (MetadataProviderException e) {
-                log.error("Unable to get IDP alias for:"+delegate, e);
+        ExtendedMetadataDelegate local = getLocalServiceProviderUnchecked();
+        try {
+            String idp = getProviderIdpAlias(local);
+            if (StringUtils.hasText(idp)) {
+                result.add(idp);
             }
+        } catch (MetadataProviderException e) {
+            log.error("Unable to get IDP alias for:"+local, e);
         }
+        result.addAll(getZoneProviders(IdentityZoneHolder.get()).getIdpEntityIDs());
         return result;
     }
 
@@ -467,7 +563,7 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
 
     @Override
     public ExtendedMetadata getExtendedMetadata(String entityID) throws MetadataProviderException {
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getAvailableProviders(entityID)) {
             ExtendedMetadata extendedMetadata = getExtendedMetadata(entityID, provider);
             if (extendedMetadata != null) {
                 return extendedMetadata;
@@ -594,7 +690,7 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     /** {@inheritDoc} */
     public EntityDescriptor getEntityDescriptor(String entityID) throws MetadataProviderException {
         EntityDescriptor descriptor = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getAvailableProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 descriptor = provider.getEntityDescriptor(entityID);
@@ -613,7 +709,7 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     /** {@inheritDoc} */
     public List<RoleDescriptor> getRole(String entityID, QName roleName) throws MetadataProviderException {
         List<RoleDescriptor> roleDescriptors = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getAvailableProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 roleDescriptors = provider.getRole(entityID, roleName);
@@ -633,7 +729,7 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
     public RoleDescriptor getRole(String entityID, QName roleName, String supportedProtocol)
         throws MetadataProviderException {
         RoleDescriptor roleDescriptor = null;
-        for (MetadataProvider provider : getProviders()) {
+        for (MetadataProvider provider : getAvailableProviders(entityID)) {
             log.debug("Checking child metadata provider for entity descriptor with entity ID: {}", entityID);
             try {
                 roleDescriptor = provider.getRole(entityID, roleName, supportedProtocol);
@@ -658,6 +754,84 @@ public class NonSnarlMetadataManager extends MetadataManager implements Extended
         this.generator = generator;
     }
 
+    /**
+     * The initialized metadata of one identity provider and what it was created from.
+     */
+    protected static class CachedProvider {
+        private final int version;
+        private final Date lastModified;
+        private final String metaDataLocation;
+        private final String alias;
+        private final boolean metadataTrustCheck;
+        private final boolean skipSslValidation;
+        private final String metadata;
+        private final ExtendedMetadataDelegate delegate;
+        private final List<String> entityIDs;
+        private final String idpEntityID;
+
+        CachedProvider(IdentityProvider provider,
+                       SamlIdentityProviderDefinition definition,
+                       String metadata,
+                       ExtendedMetadataDelegate delegate,
+                       List<String> entityIDs,
+                       String idpEntityID) {
+            this.version = provider.getVersion();
+            this.lastModified = provider.getLastModified();
+            this.metaDataLocation = definition.getMetaDataLocation();
+            this.alias = definition.getIdpEntityAlias();
+            this.metadataTrustCheck = definition.isMetadataTrustCheck();
+            this.skipSslValidation = definition.isSkipSslValidation();
+            this.metadata = metadata;
+            this.delegate = delegate;
+            this.entityIDs = entityIDs;
+            this.idpEntityID = idpEntityID;
+        }
+
+        boolean isFor(IdentityProvider provider, SamlIdentityProviderDefinition definition) {
+            return version == provider.getVersion() &&
+                Objects.equals(lastModified, provider.getLastModified()) &&
+                Objects.equals(metaDataLocation, definition.getMetaDataLocation()) &&
+                Objects.equals(alias, definition.getIdpEntityAlias()) &&
+                metadataTrustCheck == definition.isMetadataTrustCheck() &&
+                skipSslValidation == definition.isSkipSslValidation();
+        }
+    }
+
+    /**
+     * The identity providers of one zone, indexed by the entity IDs their metadata declares.
+     */
+    protected static class ZoneProviders {
+        private final Map<String, CachedProvider> providers;
+        private final List<ExtendedMetadataDelegate> delegates = new ArrayList<>();
+        private final Map<String, ExtendedMetadataDelegate> byEntityID = new HashMap<>();
+        private final Set<String> idpEntityIDs = new HashSet<>();
+
+        ZoneProviders(Map<String, CachedProvider> providers) {
+            this.providers = providers;
+            for (CachedProvider provider : providers.values()) {
+                delegates.add(provider.delegate);
+                for (String entityID : provider.entityIDs) {
+                    byEntityID.putIfAbsent(entityID, provider.delegate);
+                }
+                if (StringUtils.hasText(provider.idpEntityID)) {
+                    idpEntityIDs.add(provider.idpEntityID);
+                }
+            }
+        }
+
+        public List<ExtendedMetadataDelegate> getDelegates() {
+            return Collections.unmodifiableList(delegates);
+        }
+
+        public ExtendedMetadataDelegate getDelegate(String entityID) {
+            return entityID == null ? null : byEntityID.get(entityID);
+        }
+
+        public Set<String> getIdpEntityIDs() {
+            return Collections.unmodifiableSet(idpEntityIDs);
+        }
+    }
+
     public class ChainingEntitiesDescriptor implements EntitiesDescriptor {
 
         /** Metadata from the child metadata providers. */
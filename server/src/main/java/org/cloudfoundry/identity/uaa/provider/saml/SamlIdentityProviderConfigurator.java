@@ -21,7 +21,7 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
-import org.cloudfoundry.identity.uaa.util.UaaHttpRequestUtils;
+import org.cloudfoundry.identity.uaa.util.RestTemplateFactory;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
@@ -49,6 +49,7 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
     private BasicParserPool parserPool;
     private IdentityProviderProvisioning providerProvisioning;
     private UrlContentCache contentCache;
+    private RestTemplateFactory restTemplateFactory = new RestTemplateFactory();
 
     private Timer dummyTimer = new Timer() {
         @Override public void cancel() { super.cancel(); }
@@ -74,15 +75,36 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
         return this;
     }
 
+    public RestTemplateFactory getRestTemplateFactory() {
+        return restTemplateFactory;
+    }
+
+    public SamlIdentityProviderConfigurator setRestTemplateFactory(RestTemplateFactory restTemplateFactory) {
+        this.restTemplateFactory = restTemplateFactory;
+        return this;
+    }
+
     public List<SamlIdentityProviderDefinition> getIdentityProviderDefinitions() {
         return getIdentityProviderDefinitionsForZone(IdentityZoneHolder.get());
     }
 
     public List<SamlIdentityProviderDefinition> getIdentityProviderDefinitionsForZone(IdentityZone zone) {
         List<SamlIdentityProviderDefinition> result = new LinkedList<>();
+        for (IdentityProvider provider: getIdentityProvidersForZone(zone)) {
+            result.add((SamlIdentityProviderDefinition) provider.getConfig());
+        }
+        return result;
+    }
+
+    /**
+     * @return the active SAML identity providers of the zone, with the id, version and last modified
+     * date that callers caching the metadata need
+     */
+    public List<IdentityProvider> getIdentityProvidersForZone(IdentityZone zone) {
+        List<IdentityProvider> result = new LinkedList<>();
         for (IdentityProvider provider: providerProvisioning.retrieveActive(zone.getId())) {
             if (OriginKeys.SAML.equals(provider.getType())) {
-                result.add((SamlIdentityProviderDefinition) provider.getConfig());
+                result.add(provider);
             }
         }
         return result;
@@ -200,7 +222,7 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
                                                                      HttpClientParams params) throws ClassNotFoundException, MetadataProviderException, URISyntaxException, InstantiationException, IllegalAccessException {
         ExtendedMetadata extendedMetadata = new ExtendedMetadata();
         extendedMetadata.setAlias(def.getIdpEntityAlias());
-        RestTemplate template = new RestTemplate(UaaHttpRequestUtils.createRequestFactory(def.isSkipSslValidation()));
+        RestTemplate template = restTemplateFactory.getRestTemplate(def.isSkipSslValidation(), def.getConnectTimeout(), def.getReadTimeout());
         FixedHttpMetaDataProvider fixedHttpMetaDataProvider =
             FixedHttpMetaDataProvider.buildProvider(dummyTimer, getClientParams(),
                                                     adjustURIForPort(def.getMetaDataLocation()),
@@ -225,14 +247,21 @@ public class SamlIdentityProviderConfigurator implements InitializingBean {
     }
 
     protected ExtendedMetadataDelegate configureURLMetadata(SamlIdentityProviderDefinition def) throws MetadataProviderException {
+        String metadata = fetchMetadata(def);
+        def = def.clone();
+        def.setMetaDataLocation(metadata);
+        return configureXMLMetadata(def);
+    }
+
+    /**
+     * Retrieves the metadata XML of a provider whose metadata location is a URL,
+     * through the {@link #getContentCache() content cache}.
+     */
+    public String fetchMetadata(SamlIdentityProviderDefinition def) throws MetadataProviderException {
         try {
-            def = def.clone();
-            ExtendedMetadata extendedMetadata = new ExtendedMetadata();
-            extendedMetadata.setAlias(def.getIdpEntityAlias());
             FixedHttpMetaDataProvider fixedHttpMetaDataProvider = getFixedHttpMetaDataProvider(def, dummyTimer, getClientParams());
             byte[] metadata = fixedHttpMetaDataProvider.fetchMetadata();
-            def.setMetaDataLocation(new String(metadata, StandardCharsets.UTF_8));
-            return configureXMLMetadata(def);
+            return new String(metadata, StandardCharsets.UTF_8);
         } catch (URISyntaxException e) {
             throw new MetadataProviderException("Invalid socket factory(invalid URI):"+def.getMetaDataLocation(), e);
         } catch (ClassNotFoundException e) {
@@ -24,7 +24,7 @@ import org.apache.http.client.utils.URIBuilder;
 import org.cloudfoundry.identity.uaa.cache.UrlContentCache;
 import org.cloudfoundry.identity.uaa.provider.saml.ConfigMetadataProvider;
 import org.cloudfoundry.identity.uaa.provider.saml.FixedHttpMetaDataProvider;
-import org.cloudfoundry.identity.uaa.util.UaaHttpRequestUtils;
+import org.cloudfoundry.identity.uaa.util.RestTemplateFactory;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.opensaml.common.xml.SAMLConstants;
@@ -35,7 +35,6 @@ import org.opensaml.xml.parse.BasicParserPool;
 import org.springframework.security.saml.metadata.ExtendedMetadata;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
 import java.net.URI;
@@ -59,6 +58,7 @@ public class SamlServiceProviderConfigurator {
     private Set<String> supportedNameIDs = new HashSet<>(Arrays.asList(NameIDType.EMAIL, NameIDType.PERSISTENT,
             NameIDType.UNSPECIFIED));
     private UrlContentCache contentCache;
+    private RestTemplateFactory restTemplateFactory = new RestTemplateFactory();
 
     private Timer dummyTimer = new Timer() {
 
@@ -112,6 +112,15 @@ public class SamlServiceProviderConfigurator {
         return this;
     }
 
+    public RestTemplateFactory getRestTemplateFactory() {
+        return restTemplateFactory;
+    }
+
+    public SamlServiceProviderConfigurator setRestTemplateFactory(RestTemplateFactory restTemplateFactory) {
+        this.restTemplateFactory = restTemplateFactory;
+        return this;
+    }
+
     public SamlServiceProviderConfigurator() {
         dummyTimer.cancel();
     }
@@ -242,7 +251,7 @@ public class SamlServiceProviderConfigurator {
             fixedHttpMetaDataProvider = FixedHttpMetaDataProvider.buildProvider(
                 dummyTimer, getClientParams(),
                 adjustURIForPort(def.getMetaDataLocation()),
-                new RestTemplate(UaaHttpRequestUtils.createRequestFactory(def.isSkipSslValidation())),
+                restTemplateFactory.getRestTemplate(def.isSkipSslValidation(), def.getConnectTimeout(), def.getReadTimeout()),
                 this.contentCache
 
             );
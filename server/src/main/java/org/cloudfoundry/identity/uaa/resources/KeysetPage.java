@@ -0,0 +1,55 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.resources;
+
+import java.util.List;
+
+/**
+ * One page of a keyset paginated query.
+ */
+public class KeysetPage<T> {
+
+    /**
+     * The total of a page that was requested with a continuation token, which isn't counted.
+     */
+    public static final int UNKNOWN_TOTAL_RESULTS = -1;
+
+    private final List<T> resources;
+    private final int totalResults;
+    private final String continuationToken;
+
+    public KeysetPage(List<T> resources, int totalResults, String continuationToken) {
+        this.resources = resources;
+        this.totalResults = totalResults;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> getResources() {
+        return resources;
+    }
+
+    /**
+     * @return the number of matching results on the first page, {@link #UNKNOWN_TOTAL_RESULTS} on
+     * the pages that follow it
+     */
+    public int getTotalResults() {
+        return totalResults;
+    }
+
+    /**
+     * @return the token to request the next page with, or null when this is the last page
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.resources;
+
+/**
+ * Implemented by {@link Queryable}s that support keyset pagination.
+ */
+public interface KeysetQueryable<T> {
+
+    /**
+     * Keyset pagination: returns up to <code>count</code> results that sort after the
+     * position encoded in <code>continuationToken</code>, or the first results when it is null.
+     * Deep pages don't skip rows with an offset. Only the first page counts the matching results,
+     * the following pages return {@link KeysetPage#UNKNOWN_TOTAL_RESULTS}.
+     *
+     * @throws IllegalArgumentException for an invalid filter, sort order or continuation token
+     */
+    KeysetPage<T> query(String filter, String sortBy, boolean ascending, String zoneId, String continuationToken, int count);
+
+}
@@ -103,10 +103,11 @@ public class SearchResultsFactory {
         Collection<Map<String, Object>> results = new ArrayList<>();
         for (T object : input) {
             Map<String, Object> map = new LinkedHashMap<>();
-            String serializedObject = JsonUtils.writeValueAsString(object);
+            // the object is converted to a tree once, without writing and re-parsing JSON for each attribute
+            Map<String, Object> tree = JsonUtils.convertValue(object, Map.class);
             for (Map.Entry<String, JsonPath> attribute : jsonPaths.entrySet()) {
                 try {
-                    Object value = attribute.getValue().read(serializedObject);
+                    Object value = attribute.getValue().read(tree);
                     map.put(attribute.getKey(), value);
                 } catch (PathNotFoundException e) {
                     map.put(attribute.getKey(), null);
@@ -14,6 +14,8 @@ package org.cloudfoundry.identity.uaa.resources.jdbc;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
+import org.cloudfoundry.identity.uaa.resources.KeysetQueryable;
 import org.cloudfoundry.identity.uaa.resources.Queryable;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -21,11 +23,17 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.StringUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-public abstract class AbstractQueryable<T> implements Queryable<T> {
+import static org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter.ProcessedFilter.ORDER_BY;
+
+public abstract class AbstractQueryable<T> implements Queryable<T>, KeysetQueryable<T> {
 
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -98,6 +106,88 @@ public abstract class AbstractQueryable<T> implements Queryable<T> {
         }
     }
 
+    @Override
+    public KeysetPage<T> query(String filter, String sortBy, boolean ascending, String zoneId, String continuationToken, int count) {
+        count = Math.max(count, 1);
+        String keyColumn = getKeyColumn();
+        String sortColumn = StringUtils.hasText(sortBy) ? queryConverter.map(sortBy) : keyColumn;
+        validateOrderBy(sortColumn);
+        if (!getKeysetSortColumns().contains(sortColumn.toLowerCase())) {
+            throw new IllegalArgumentException("Invalid sort field for keyset pagination:" + sortBy);
+        }
+        ContinuationToken after = StringUtils.hasText(continuationToken) ? ContinuationToken.decode(continuationToken) : null;
+        if (after != null && (!sortColumn.equalsIgnoreCase(after.getSortColumn()) || ascending != after.isAscending())) {
+            throw new IllegalArgumentException("Continuation token does not match the sort order");
+        }
+
+        if (StringUtils.hasText(filter)) {
+            filter = "("+ filter+ ") and";
+        } else {
+            filter = "";
+        }
+        filter += " identity_zone_id eq \""+ zoneId +"\"";
+        SearchQueryConverter.ProcessedFilter where = queryConverter.convert(filter, null, ascending);
+        Map<String, Object> params = new HashMap<>(where.getParams());
+        String whereSql = getBaseSqlQuery() + " where (" + where.getSql() + ")";
+
+        try {
+            // only the first page is counted, counting every page would scan the whole result again
+            int totalResults = after != null ? KeysetPage.UNKNOWN_TOTAL_RESULTS :
+                jdbcTemplate.queryForObject("select count(*) from " + getTableName() + " where (" + where.getSql() + ")", params, Integer.class);
+            StringBuilder sql = new StringBuilder(whereSql);
+            if (after != null) {
+                String compare = ascending ? " > " : " < ";
+                if (sortColumn.equalsIgnoreCase(keyColumn)) {
+                    sql.append(" and ").append(keyColumn).append(compare).append(":__keyset_id");
+                } else {
+                    sql.append(" and (").append(sortColumn).append(compare).append(":__keyset_value or (")
+                        .append(sortColumn).append(" = :__keyset_value and ").append(keyColumn).append(compare).append(":__keyset_id))");
+                    params.put("__keyset_value", after.getValue());
+                }
+                params.put("__keyset_id", after.getId());
+            }
+            String direction = ascending ? " ASC" : " DESC";
+            sql.append(ORDER_BY).append(sortColumn).append(direction);
+            if (!sortColumn.equalsIgnoreCase(keyColumn)) {
+                sql.append(", ").append(keyColumn).append(direction);
+            }
+
+            // one extra row tells us whether there is a next page
+            List<Object[]> keys = new ArrayList<>();
+            List<T> resources = jdbcTemplate.query(
+                pagingListFactory.getLimitSqlAdapter().getLimitSql(sql.toString(), count + 1),
+                params,
+                (rs, rowNum) -> {
+                    keys.add(new Object[] {rs.getObject(sortColumn), rs.getString(keyColumn)});
+                    return rowMapper.mapRow(rs, rowNum);
+                });
+            String next = null;
+            if (resources.size() > count) {
+                resources = resources.subList(0, count);
+                Object[] last = keys.get(count - 1);
+                next = new ContinuationToken(sortColumn, ascending, last[0], (String) last[1]).encode();
+            }
+            return new KeysetPage<>(resources, totalResults, next);
+        } catch (DataAccessException e) {
+            logger.debug("Filter '" + filter + "' generated invalid SQL", e);
+            throw new IllegalArgumentException("Invalid filter: " + filter);
+        }
+    }
+
+    /**
+     * @return the unique column used to break ties between rows with the same sort key
+     */
+    protected String getKeyColumn() {
+        return "id";
+    }
+
+    /**
+     * @return lower case names of the non null columns keyset pagination can sort on
+     */
+    protected Set<String> getKeysetSortColumns() {
+        return Collections.singleton(getKeyColumn());
+    }
+
     protected String getQuerySQL(String filter, SearchQueryConverter.ProcessedFilter where) {
         if (filter == null || filter.trim().length()==0) {
             return getBaseSqlQuery();
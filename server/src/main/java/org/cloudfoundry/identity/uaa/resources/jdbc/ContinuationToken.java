@@ -0,0 +1,118 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Opaque position in a keyset paginated result: the sort key and id of the last
+ * row that was returned. The token isn't signed, so it only selects where the next
+ * page starts and the query still applies the caller's filter and zone.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE, isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public class ContinuationToken {
+
+    private static final String STRING = "s";
+    private static final String NUMBER = "n";
+    private static final String BOOLEAN = "b";
+    private static final String TIMESTAMP = "t";
+
+    @JsonProperty("c")
+    private String sortColumn;
+
+    @JsonProperty("a")
+    private boolean ascending;
+
+    @JsonProperty("t")
+    private String type;
+
+    @JsonProperty("v")
+    private String value;
+
+    @JsonProperty("id")
+    private String id;
+
+    public ContinuationToken() {
+    }
+
+    public ContinuationToken(String sortColumn, boolean ascending, Object value, String id) {
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+        this.id = id;
+        if (value instanceof Timestamp) {
+            this.type = TIMESTAMP;
+        } else if (value instanceof Number) {
+            this.type = NUMBER;
+        } else if (value instanceof Boolean) {
+            this.type = BOOLEAN;
+        } else if (value == null || value instanceof String) {
+            this.type = STRING;
+        } else {
+            throw new IllegalArgumentException("Unsupported sort key type:" + value.getClass().getName());
+        }
+        this.value = value == null ? null : value.toString();
+    }
+
+    public String getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Object getValue() {
+        if (value == null) {
+            return null;
+        }
+        switch (type) {
+            case TIMESTAMP:
+                return Timestamp.valueOf(value);
+            case NUMBER:
+                return Long.valueOf(value);
+            case BOOLEAN:
+                return Boolean.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(JsonUtils.writeValueAsBytes(this));
+    }
+
+    public static ContinuationToken decode(String token) {
+        try {
+            ContinuationToken result = JsonUtils.readValue(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8), ContinuationToken.class);
+            if (result == null || result.id == null || result.sortColumn == null) {
+                throw new IllegalArgumentException("Invalid continuation token");
+            }
+            result.getValue();
+            return result;
+        } catch (IllegalArgumentException | JsonUtils.JsonUtilException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+    }
+}
@@ -19,4 +19,9 @@ public class DefaultLimitSqlAdapter implements LimitSqlAdapter {
         return sql + " limit " + size + " offset " + index;
     }
 
+    @Override
+    public String getLimitSql(String sql, int size) {
+        return sql + " limit " + size;
+    }
+
 }
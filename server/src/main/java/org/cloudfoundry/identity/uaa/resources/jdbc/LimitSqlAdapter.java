@@ -15,4 +15,10 @@ package org.cloudfoundry.identity.uaa.resources.jdbc;
 public interface LimitSqlAdapter {
 
     public String getLimitSql(String sql, int index, int size);
+
+    /**
+     * Restrict an ordered query to its first rows, used by keyset pagination
+     * where the position is part of the where clause rather than an offset.
+     */
+    public String getLimitSql(String sql, int size);
 }
@@ -21,4 +21,9 @@ public class OracleLimitSqlAdapter implements LimitSqlAdapter {
                         + ") where rnum >= " + index;
     }
 
+    @Override
+    public String getLimitSql(String sql, int size) {
+        return "select * from (" + sql + ") where rownum <= " + size;
+    }
+
 }
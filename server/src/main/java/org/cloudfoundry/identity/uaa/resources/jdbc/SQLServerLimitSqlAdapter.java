@@ -28,4 +28,10 @@ public class SQLServerLimitSqlAdapter implements LimitSqlAdapter {
         }
     }
 
+    @Override
+    public String getLimitSql(String sql, int size) {
+        // TOP needs no ORDER BY rewriting and doesn't turn the query into an offset scan
+        return sql.replaceFirst("(?i)^\\s*select\\s+(distinct\\s+)?", "select $1TOP " + size + " ");
+    }
+
 }
@@ -13,6 +13,8 @@
 
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.unboundid.scim.sdk.InvalidResourceException;
 import com.unboundid.scim.sdk.SCIMException;
 import com.unboundid.scim.sdk.SCIMFilter;
@@ -20,7 +22,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
-import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StringUtils;
@@ -28,6 +29,7 @@ import org.springframework.util.StringUtils;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -97,6 +99,15 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         )
     );
 
+    public static final String PARAMETER_PREFIX = "__value_";
+
+    private static final List<String> VALUE_OPERATORS = Arrays.asList("eq", "co", "sw", "gt", "ge", "lt", "le");
+
+    // parsed filters by shape, see cachedScimFilter, shared as they only depend on the filter text
+    private static final Cache<String, SCIMFilter> filterTemplates = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build();
+
     private static Log logger = LogFactory.getLog(SimpleSearchQueryConverter.class);
     private AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.<String, String> emptyMap());
 
@@ -132,19 +143,19 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         return pf;
     }
 
+    /**
+     * The same prefix is used for every filter, so filters of the same shape produce the same SQL
+     * and the statements and query plans cached by the driver and the database can be reused.
+     * Filter values are always bound as parameters, so the prefix appearing in a filter is harmless.
+     */
     protected String generateParameterPrefix(String filter) {
-        while (true) {
-            String s = new RandomValueStringGenerator().generate().toLowerCase();
-            if (!filter.contains(s)) {
-                return "__"+s+"_";
-            }
-        }
+        return PARAMETER_PREFIX;
     }
 
     private String getWhereClause(String filter, String sortBy, boolean ascending, Map<String, Object> values, AttributeNameMapper mapper, String paramPrefix) {
 
         try {
-            SCIMFilter scimFilter = scimFilter(filter);
+            SCIMFilter scimFilter = cachedScimFilter(filter);
             String whereClause = createFilter(scimFilter, values, mapper, paramPrefix);
             if (sortBy != null) {
                 sortBy = mapper.mapToInternal(sortBy);
@@ -185,6 +196,113 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
         return scimFilter;
     }
 
+    /**
+     * Parses the filter like {@link #scimFilter(String)}, but reuses the parsed and validated filter of
+     * earlier filters of the same shape, i.e. that only differ in their quoted values. Filters with
+     * escaped or single quoted values are always parsed.
+     */
+    protected SCIMFilter cachedScimFilter(String filter) throws SCIMException {
+        List<String> values = new ArrayList<>();
+        String shape = filterShape(filter, values);
+        if (shape == null) {
+            return scimFilter(filter);
+        }
+        SCIMFilter template = filterTemplates.getIfPresent(shape);
+        if (template == null) {
+            try {
+                template = SCIMFilter.parse(shape);
+                validateFilterAttributes(template, VALID_ATTRIBUTE_NAMES);
+            } catch (SCIMException e) {
+                // parse the filter itself, so errors and the legacy conversion apply as usual
+                return scimFilter(filter);
+            }
+            filterTemplates.put(shape, template);
+        }
+        SCIMFilter result = bindValues(template, values);
+        return result == null ? scimFilter(filter) : result;
+    }
+
+    /**
+     * @return the filter with its quoted values replaced by their position, which are added to the
+     * values, or null if the filter has quotes the shape can't represent
+     */
+    static String filterShape(String filter, List<String> values) {
+        StringBuilder shape = new StringBuilder(filter.length());
+        String word = null;
+        int i = 0;
+        while (i < filter.length()) {
+            char c = filter.charAt(i);
+            if (c == '"') {
+                int end = filter.indexOf('"', i + 1);
+                if (end < 0 || word == null || !VALUE_OPERATORS.contains(word.toLowerCase())) {
+                    return null;
+                }
+                String value = filter.substring(i + 1, end);
+                if (value.indexOf('\\') >= 0) {
+                    return null;
+                }
+                shape.append('"').append(values.size()).append('"');
+                values.add(value);
+                word = null;
+                i = end + 1;
+            } else if (c == '\'') {
+                return null;
+            } else if (Character.isWhitespace(c) || c == '(' || c == ')') {
+                shape.append(c);
+                i++;
+            } else {
+                int end = i;
+                while (end < filter.length() && !isWordEnd(filter.charAt(end))) {
+                    end++;
+                }
+                word = filter.substring(i, end);
+                shape.append(word);
+                i = end;
+            }
+        }
+        return shape.toString();
+    }
+
+    private static boolean isWordEnd(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == '\'';
+    }
+
+    private static SCIMFilter bindValues(SCIMFilter template, List<String> values) {
+        List<SCIMFilter> components = null;
+        if (template.getFilterComponents() != null) {
+            components = new ArrayList<>(template.getFilterComponents().size());
+            for (SCIMFilter component : template.getFilterComponents()) {
+                SCIMFilter bound = bindValues(component, values);
+                if (bound == null) {
+                    return null;
+                }
+                components.add(bound);
+            }
+        }
+        String value = template.getFilterValue();
+        if (template.isQuoteFilterValue() && value != null) {
+            int index;
+            try {
+                index = Integer.parseInt(value);
+            } catch (NumberFormatException x) {
+                return null;
+            }
+            if (index < 0 || index >= values.size()) {
+                return null;
+            }
+            value = values.get(index);
+        }
+        return new SCIMFilter(template.getFilterType(), template.getFilterAttribute(), value, template.isQuoteFilterValue(), components);
+    }
+
+    public static void clearFilterTemplates() {
+        filterTemplates.invalidateAll();
+    }
+
+    public static long getFilterTemplateCount() {
+        return filterTemplates.size();
+    }
+
     private void validateFilterAttributes(SCIMFilter filter, List<String> validAttributeNames) throws SCIMException {
         List<String> invalidAttributes = new LinkedList<>();
         validateFilterAttributes(filter, invalidAttributes, validAttributeNames);
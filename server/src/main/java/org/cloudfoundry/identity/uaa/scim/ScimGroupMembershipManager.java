@@ -16,7 +16,10 @@ import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException
 import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface ScimGroupMembershipManager  {
@@ -58,6 +61,25 @@ public interface ScimGroupMembershipManager  {
      */
     Set<ScimGroup> getGroupsWithMember(String memberId, boolean transitive, String zoneId) throws ScimResourceNotFoundException;
 
+    /**
+     * Retrieve the groups of several members at once, equivalent to calling
+     * {@link #getGroupsWithMember(String, boolean, String)} for each of them
+     *
+     * @param memberIds
+     * @param transitive true means indirect/transitive membership is also
+     *                   processed (nested groups)
+     * @param zoneId
+     * @return map of member id to the groups of that member, every requested member id is present
+     * @throws ScimResourceNotFoundException
+     */
+    default Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive, String zoneId) throws ScimResourceNotFoundException {
+        Map<String, Set<ScimGroup>> result = new LinkedHashMap<>();
+        for (String memberId : memberIds) {
+            result.put(memberId, getGroupsWithMember(memberId, transitive, zoneId));
+        }
+        return result;
+    }
+
     /**
      * Retrieve a particular member's membership details
      *
@@ -16,6 +16,8 @@ import com.jayway.jsonpath.JsonPathException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
+import org.cloudfoundry.identity.uaa.resources.KeysetQueryable;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
@@ -146,6 +148,15 @@ public class ScimGroupEndpoints {
         return response;
     }
 
+    public SearchResults<?> listGroups(String attributesCommaSeparated,
+                                       String filter,
+                                       String sortBy,
+                                       String sortOrder,
+                                       int startIndex,
+                                       int count) {
+        return listGroups(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, false, null);
+    }
+
     @RequestMapping(value = { "/Groups" }, method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> listGroups(
@@ -154,28 +165,55 @@ public class ScimGroupEndpoints {
         @RequestParam(required = false, defaultValue = "created") String sortBy,
         @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
         @RequestParam(required = false, defaultValue = "1") int startIndex,
-        @RequestParam(required = false, defaultValue = "100") int count) {
-
-        List<ScimGroup> result;
-        try {
-            result = dao.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
-        } catch (IllegalArgumentException e) {
-            throw new ScimException("Invalid filter expression: [" + filter + "]", HttpStatus.BAD_REQUEST);
+        @RequestParam(required = false, defaultValue = "100") int count,
+        @RequestParam(required = false, defaultValue = "false") boolean keyset,
+        @RequestParam(required = false) String continuationToken) {
+
+        List<ScimGroup> input;
+        int totalResults;
+        String nextToken = null;
+        if (keyset || StringUtils.hasText(continuationToken)) {
+            if (!(dao instanceof KeysetQueryable)) {
+                throw new ScimException("Keyset pagination is not supported", HttpStatus.BAD_REQUEST);
+            }
+            KeysetPage<ScimGroup> page;
+            try {
+                page = ((KeysetQueryable<ScimGroup>) dao).query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId(), continuationToken, count);
+            } catch (IllegalArgumentException e) {
+                throw new ScimException("Invalid filter expression: [" + filter + "] [" + sortBy + "] [" + continuationToken + "]", HttpStatus.BAD_REQUEST);
+            }
+            input = page.getResources();
+            for (ScimGroup group : input) {
+                group.setMembers(membershipManager.getMembers(group.getId(), false, IdentityZoneHolder.get().getId()));
+            }
+            totalResults = page.getTotalResults();
+            nextToken = page.getContinuationToken();
+        } else {
+            List<ScimGroup> result;
+            try {
+                result = dao.query(filter, sortBy, "ascending".equalsIgnoreCase(sortOrder), IdentityZoneHolder.get().getId());
+            } catch (IllegalArgumentException e) {
+                throw new ScimException("Invalid filter expression: [" + filter + "]", HttpStatus.BAD_REQUEST);
+            }
+            input = filterForCurrentUser(result, startIndex, count);
+            totalResults = result.size();
         }
 
-        List<ScimGroup> input = filterForCurrentUser(result, startIndex, count);
-
         if (!StringUtils.hasLength(attributesCommaSeparated)) {
-            return new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count,
-                                       result.size());
+            SearchResults<ScimGroup> results = new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count,
+                                                                   totalResults);
+            results.setContinuationToken(nextToken);
+            return results;
         }
 
         AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.emptyMap());
 
         String[] attributes = attributesCommaSeparated.split(",");
         try {
-            return SearchResultsFactory.buildSearchResultFrom(input, startIndex, count, result.size(), attributes,
-                                                              mapper,Arrays.asList(ScimCore.SCHEMAS));
+            SearchResults<?> results = SearchResultsFactory.buildSearchResultFrom(input, startIndex, count, totalResults, attributes,
+                                                                                  mapper, Arrays.asList(ScimCore.SCHEMAS));
+            results.setContinuationToken(nextToken);
+            return results;
         } catch (JsonPathException e) {
             throw new ScimException("Invalid attributes: [" + attributesCommaSeparated + "]", HttpStatus.BAD_REQUEST);
         }
@@ -26,6 +26,8 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.resources.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
+import org.cloudfoundry.identity.uaa.resources.KeysetQueryable;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SearchResultsFactory;
@@ -85,6 +87,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -387,6 +390,15 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         }
     }
 
+    public SearchResults<?> findUsers(String attributesCommaSeparated,
+                                      String filter,
+                                      String sortBy,
+                                      String sortOrder,
+                                      int startIndex,
+                                      int count) {
+        return findUsers(attributesCommaSeparated, filter, sortBy, sortOrder, startIndex, count, false, null);
+    }
+
     @RequestMapping(value = "/Users", method = RequestMethod.GET)
     @ResponseBody
     public SearchResults<?> findUsers(
@@ -395,36 +407,55 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
                     @RequestParam(required = false, defaultValue = "created") String sortBy,
                     @RequestParam(required = false, defaultValue = "ascending") String sortOrder,
                     @RequestParam(required = false, defaultValue = "1") int startIndex,
-                    @RequestParam(required = false, defaultValue = "100") int count) {
+                    @RequestParam(required = false, defaultValue = "100") int count,
+                    @RequestParam(required = false, defaultValue = "false") boolean keyset,
+                    @RequestParam(required = false) String continuationToken) {
 
         if (startIndex < 1) {
             startIndex = 1;
         }
 
+        boolean keysetPagination = keyset || StringUtils.hasText(continuationToken);
+        if (keysetPagination && !(scimUserProvisioning instanceof KeysetQueryable)) {
+            throw new ScimException("Keyset pagination is not supported", HttpStatus.BAD_REQUEST);
+        }
+
         List<ScimUser> input = new ArrayList<ScimUser>();
-        List<ScimUser> result;
+        int totalResults;
+        String nextToken = null;
         try {
-            result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId());
-            for (ScimUser user : UaaPagingUtils.subList(result, startIndex, count)) {
-                if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)groups") || attributesCommaSeparated.isEmpty()) {
-                    syncGroups(user);
-                }
-                if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)approvals") || attributesCommaSeparated.isEmpty()) {
-                    syncApprovals(user);
-                }
-                input.add(user);
+            if (keysetPagination) {
+                KeysetPage<ScimUser> page = ((KeysetQueryable<ScimUser>) scimUserProvisioning).query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId(), continuationToken, count);
+                input.addAll(page.getResources());
+                totalResults = page.getTotalResults();
+                nextToken = page.getContinuationToken();
+            } else {
+                List<ScimUser> result = scimUserProvisioning.query(filter, sortBy, sortOrder.equals("ascending"), IdentityZoneHolder.get().getId());
+                input.addAll(UaaPagingUtils.subList(result, startIndex, count));
+                totalResults = result.size();
+            }
+            if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)groups") || attributesCommaSeparated.isEmpty()) {
+                syncGroups(input);
+            }
+            if(attributesCommaSeparated == null || attributesCommaSeparated.matches("(?i)approvals") || attributesCommaSeparated.isEmpty()) {
+                syncApprovals(input);
             }
         } catch (IllegalArgumentException e) {
             String msg = "Invalid filter expression: [" + filter + "]";
             if (StringUtils.hasText(sortBy)) {
                 msg += " [" +sortBy+"]";
             }
+            if (StringUtils.hasText(continuationToken)) {
+                msg += " [" + continuationToken + "]";
+            }
             throw new ScimException(msg, HttpStatus.BAD_REQUEST);
         }
 
         if (!StringUtils.hasLength(attributesCommaSeparated)) {
             // Return all user data
-            return new SearchResults<ScimUser>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count, result.size());
+            SearchResults<ScimUser> results = new SearchResults<ScimUser>(Arrays.asList(ScimCore.SCHEMAS), input, startIndex, count, totalResults);
+            results.setContinuationToken(nextToken);
+            return results;
         }
 
         Map<String, String> attributeMap = new HashMap<>();
@@ -435,8 +466,10 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
 
         String[] attributes = attributesCommaSeparated.split(",");
         try {
-            return SearchResultsFactory.buildSearchResultFrom(input, startIndex, count, result.size(), attributes,
-                                                              mapper, Arrays.asList(ScimCore.SCHEMAS));
+            SearchResults<?> results = SearchResultsFactory.buildSearchResultFrom(input, startIndex, count, totalResults, attributes,
+                                                                                  mapper, Arrays.asList(ScimCore.SCHEMAS));
+            results.setContinuationToken(nextToken);
+            return results;
         } catch (JsonPathException e) {
             throw new ScimException("Invalid attributes: [" + attributesCommaSeparated + "]", HttpStatus.BAD_REQUEST);
         }
@@ -474,6 +507,28 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
 
         Set<ScimGroup> directGroups = membershipManager.getGroupsWithMember(user.getId(), false, IdentityZoneHolder.get().getId());
         Set<ScimGroup> indirectGroups = membershipManager.getGroupsWithMember(user.getId(), true, IdentityZoneHolder.get().getId());
+        return syncGroups(user, directGroups, indirectGroups);
+    }
+
+    /**
+     * Loads the groups of a whole page of users with a fixed number of queries
+     * instead of two lookups per user
+     */
+    private void syncGroups(List<ScimUser> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        List<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toList());
+        Map<String, Set<ScimGroup>> directGroups = membershipManager.getGroupsWithMembers(userIds, false, IdentityZoneHolder.get().getId());
+        Map<String, Set<ScimGroup>> allGroups = membershipManager.getGroupsWithMembers(userIds, true, IdentityZoneHolder.get().getId());
+        for (ScimUser user : users) {
+            syncGroups(user,
+                       directGroups.getOrDefault(user.getId(), Collections.emptySet()),
+                       new HashSet<>(allGroups.getOrDefault(user.getId(), Collections.emptySet())));
+        }
+    }
+
+    private ScimUser syncGroups(ScimUser user, Set<ScimGroup> directGroups, Set<ScimGroup> indirectGroups) {
         indirectGroups.removeAll(directGroups);
         Set<ScimUser.Group> groups = new HashSet<ScimUser.Group>();
         for (ScimGroup group : directGroups) {
@@ -491,7 +546,22 @@ public class ScimUserEndpoints implements InitializingBean, ApplicationEventPubl
         if (user == null || approvalStore == null) {
             return user;
         }
-        Set<Approval> approvals = new HashSet<Approval>(approvalStore.getApprovalsForUser(user.getId(), IdentityZoneHolder.get().getId()));
+        return syncApprovals(user, approvalStore.getApprovalsForUser(user.getId(), IdentityZoneHolder.get().getId()));
+    }
+
+    private void syncApprovals(List<ScimUser> users) {
+        if (users.isEmpty() || approvalStore == null) {
+            return;
+        }
+        List<String> userIds = users.stream().map(ScimUser::getId).collect(Collectors.toList());
+        Map<String, List<Approval>> approvals = approvalStore.getApprovalsForUsers(userIds, IdentityZoneHolder.get().getId());
+        for (ScimUser user : users) {
+            syncApprovals(user, approvals.getOrDefault(user.getId(), Collections.emptyList()));
+        }
+    }
+
+    private ScimUser syncApprovals(ScimUser user, List<Approval> userApprovals) {
+        Set<Approval> approvals = new HashSet<Approval>(userApprovals);
         Set<Approval> active = new HashSet<Approval>(approvals);
         for (Approval approval : approvals) {
             if (!approval.isCurrentlyActive()) {
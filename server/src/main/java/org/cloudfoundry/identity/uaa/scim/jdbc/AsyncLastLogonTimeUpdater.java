@@ -0,0 +1,306 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.scim.jdbc;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records successful logons in memory and writes the last logon times of the users with JDBC batch
+ * updates from a background thread every {@link #getFlushIntervalMillis()}. A user who logs on several
+ * times between two flushes is written once, with the latest time, so the previous logon time stored
+ * for the user is the last one that was flushed.
+ *
+ * At most {@link #getMaxPendingUsers()} users are kept. When that many are waiting, the logon of any
+ * further user is written on the calling thread.
+ *
+ * A buffered time is only written if it is newer than the stored one, so a logon that was written in
+ * the meantime, e.g. on a password reset, is never replaced by an older time.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=LastLogonTimeUpdater",
+    description = "Write behind buffer for last logon times"
+)
+public class AsyncLastLogonTimeUpdater implements DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(AsyncLastLogonTimeUpdater.class);
+
+    public static final String UPDATE_NEWER_LAST_LOGON_TIME_SQL = "update users set previous_logon_success_time = last_logon_success_time, last_logon_success_time = ? where id = ? and identity_zone_id=? and (last_logon_success_time is null or last_logon_success_time < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Object writeLock = new Object();
+    private final Object signal = new Object();
+    private final ConcurrentMap<UserKey, Long> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong recordedLogons = new AtomicLong();
+    private final AtomicLong coalescedLogons = new AtomicLong();
+    private final AtomicLong overflowedLogons = new AtomicLong();
+    private final AtomicLong writtenUpdates = new AtomicLong();
+    private final AtomicLong failedUpdates = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeNanos = new AtomicLong();
+    private final AtomicLong maxFlushTimeNanos = new AtomicLong();
+
+    private TimeService timeService = new TimeServiceImpl();
+    private boolean enabled = false;
+    private int maxPendingUsers = 10000;
+    private int batchSize = 100;
+    private long flushIntervalMillis = 1000;
+
+    private volatile Thread writer;
+    private volatile boolean running;
+
+    public AsyncLastLogonTimeUpdater(JdbcTemplate jdbcTemplate) {
+        Assert.notNull(jdbcTemplate);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Records that the user logged on now.
+     */
+    public void updateLastLogonTime(String userId, String zoneId) {
+        long time = timeService.getCurrentTimeMillis();
+        recordedLogons.incrementAndGet();
+        UserKey key = new UserKey(userId, zoneId);
+        if (!pending.containsKey(key) && pending.size() >= maxPendingUsers) {
+            overflowedLogons.incrementAndGet();
+            jdbcTemplate.update(UPDATE_NEWER_LAST_LOGON_TIME_SQL, time, userId, zoneId, time);
+            return;
+        }
+        start();
+        if (pending.putIfAbsent(key, time) != null) {
+            coalescedLogons.incrementAndGet();
+            pending.merge(key, time, Math::max);
+        }
+    }
+
+    /**
+     * @return the logon time of the user that is waiting to be written, or null if there is none
+     */
+    public Long getPendingLastLogonTime(String userId, String zoneId) {
+        return pending.get(new UserKey(userId, zoneId));
+    }
+
+    /**
+     * Writes every pending logon time on the calling thread.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            Iterator<UserKey> keys = pending.keySet().iterator();
+            while (keys.hasNext()) {
+                UserKey key = keys.next();
+                Long time = pending.remove(key);
+                if (time != null) {
+                    batch.add(new Object[] {time, key.userId, key.zoneId, time});
+                }
+                if (batch.size() >= batchSize || (!keys.hasNext() && !batch.isEmpty())) {
+                    write(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        Thread thread = writer;
+        if (thread != null) {
+            signalWriter();
+            try {
+                thread.join(flushIntervalMillis * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    protected void write(List<Object[]> batch) {
+        long start = System.nanoTime();
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_NEWER_LAST_LOGON_TIME_SQL, batch);
+            writtenUpdates.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failedUpdates.addAndGet(batch.size());
+            logger.error("Unable to write " + batch.size() + " last logon times", e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            flushCount.incrementAndGet();
+            flushTimeNanos.addAndGet(elapsed);
+            maxFlushTimeNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private void start() {
+        if (writer == null) {
+            synchronized (this) {
+                if (writer == null) {
+                    running = true;
+                    Thread thread = new Thread(this::writeLoop, "uaa-last-logon-writer");
+                    thread.setDaemon(true);
+                    writer = thread;
+                    thread.start();
+                }
+            }
+        }
+    }
+
+    private void signalWriter() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            synchronized (signal) {
+                if (running) {
+                    try {
+                        signal.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Last logon writer failed", e);
+            }
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Pending User Count")
+    public int getPendingUserCount() {
+        return pending.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Recorded Logon Count")
+    public long getRecordedLogonCount() {
+        return recordedLogons.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Coalesced Logon Count")
+    public long getCoalescedLogonCount() {
+        return coalescedLogons.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Overflowed Logon Count")
+    public long getOverflowedLogonCount() {
+        return overflowedLogons.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Written Update Count")
+    public long getWrittenUpdateCount() {
+        return writtenUpdates.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed Update Count")
+    public long getFailedUpdateCount() {
+        return failedUpdates.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Flush Count")
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Flush Time (ms)")
+    public double getAverageFlushTimeMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : flushTimeNanos.get() / 1000000.0 / count;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max Flush Time (ms)")
+    public double getMaxFlushTimeMillis() {
+        return maxFlushTimeNanos.get() / 1000000.0;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxPendingUsers() {
+        return maxPendingUsers;
+    }
+
+    public void setMaxPendingUsers(int maxPendingUsers) {
+        this.maxPendingUsers = maxPendingUsers;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    private static final class UserKey {
+        private final String userId;
+        private final String zoneId;
+
+        UserKey(String userId, String zoneId) {
+            this.userId = userId;
+            this.zoneId = zoneId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UserKey)) {
+                return false;
+            }
+            UserKey other = (UserKey) o;
+            return userId.equals(other.userId) && zoneId.equals(other.zoneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * userId.hashCode() + zoneId.hashCode();
+        }
+    }
+}
@@ -46,11 +46,18 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Collections.emptySet;
@@ -95,6 +102,14 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
             " from %s m, %s g where m.group_id = g.id and g.identity_zone_id = ? and m.member_id = ? and m.origin = ?",
         MEMBERSHIP_TABLE, GROUP_TABLE);
 
+    public static final String GET_GROUPS_BY_MEMBERS_SQL = String.format("select g.id, g.displayName, g.description, g.created, g.lastModified, g.version, g.identity_zone_id, m.member_id" +
+            " from %s m, %s g where m.group_id = g.id and g.identity_zone_id = ? and m.identity_zone_id = ? and m.member_id in (%%s)",
+        MEMBERSHIP_TABLE, GROUP_TABLE);
+
+    public static final String GET_USERS_BY_IDS_SQL = "select id from users where identity_zone_id = ? and id in (%s)";
+
+    private static final int MAX_MEMBER_IDS_PER_QUERY = 100;
+
     private ScimUserProvisioning userProvisioning;
 
     private ScimGroupProvisioning groupProvisioning;
@@ -266,6 +281,103 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 
     }
 
+    @Override
+    public Map<String, Set<ScimGroup>> getGroupsWithMembers(Collection<String> memberIds, boolean transitive, String zoneId)
+                    throws ScimResourceNotFoundException {
+        Map<String, Set<ScimGroup>> result = new LinkedHashMap<>();
+        if (memberIds.isEmpty()) {
+            return result;
+        }
+        Map<String, Set<ScimGroup>> parents = getDirectGroups(memberIds, zoneId);
+        if (transitive) {
+            // one query per level of nesting for all members together
+            Set<String> pending = nextLevel(parents.values(), parents);
+            while (!pending.isEmpty()) {
+                Map<String, Set<ScimGroup>> level = getDirectGroups(pending, zoneId);
+                parents.putAll(level);
+                pending = nextLevel(level.values(), parents);
+            }
+        }
+        Set<String> userIds = getUserIds(memberIds, zoneId);
+        Set<ScimGroup> defaultGroups = userIds.isEmpty() ? emptySet() : getDefaultUserGroups(zoneId);
+        for (String memberId : memberIds) {
+            Set<ScimGroup> groups = new HashSet<>(parents.getOrDefault(memberId, emptySet()));
+            if (transitive) {
+                Deque<ScimGroup> expand = new ArrayDeque<>(groups);
+                while (!expand.isEmpty()) {
+                    for (ScimGroup parent : parents.getOrDefault(expand.pop().getId(), emptySet())) {
+                        if (groups.add(parent)) {
+                            expand.push(parent);
+                        }
+                    }
+                }
+            }
+            if (userIds.contains(memberId)) {
+                groups.addAll(defaultGroups);
+            }
+            result.put(memberId, groups);
+        }
+        return result;
+    }
+
+    private Set<String> nextLevel(Collection<Set<ScimGroup>> groups, Map<String, Set<ScimGroup>> expanded) {
+        Set<String> next = new HashSet<>();
+        for (Set<ScimGroup> set : groups) {
+            for (ScimGroup group : set) {
+                if (!expanded.containsKey(group.getId())) {
+                    next.add(group.getId());
+                }
+            }
+        }
+        return next;
+    }
+
+    private Map<String, Set<ScimGroup>> getDirectGroups(Collection<String> memberIds, String zoneId) {
+        Map<String, Set<ScimGroup>> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            result.put(memberId, new HashSet<>());
+        }
+        RowMapper<ScimGroup> groupMapper = new ScimGroupRowMapper();
+        for (List<String> batch : partition(memberIds)) {
+            List<Object> args = new ArrayList<>(batch.size() + 2);
+            args.add(zoneId);
+            args.add(zoneId);
+            args.addAll(batch);
+            jdbcTemplate.query(String.format(GET_GROUPS_BY_MEMBERS_SQL, placeholders(batch.size())), rs -> {
+                ScimGroup group = groupMapper.mapRow(rs, rs.getRow());
+                result.computeIfAbsent(rs.getString(8), k -> new HashSet<>()).add(group);
+            }, args.toArray());
+        }
+        return result;
+    }
+
+    private Set<String> getUserIds(Collection<String> ids, String zoneId) {
+        Set<String> result = new HashSet<>();
+        for (List<String> batch : partition(ids)) {
+            List<Object> args = new ArrayList<>(batch.size() + 1);
+            args.add(zoneId);
+            args.addAll(batch);
+            // users.id is a fixed width column, trim any padding before comparing with the requested ids
+            jdbcTemplate.query(String.format(GET_USERS_BY_IDS_SQL, placeholders(batch.size())), rs -> {
+                result.add(rs.getString(1).trim());
+            }, args.toArray());
+        }
+        return result;
+    }
+
+    private static List<List<String>> partition(Collection<String> ids) {
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<List<String>> result = new ArrayList<>();
+        for (int from = 0; from < unique.size(); from += MAX_MEMBER_IDS_PER_QUERY) {
+            result.add(unique.subList(from, Math.min(unique.size(), from + MAX_MEMBER_IDS_PER_QUERY)));
+        }
+        return result;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
     @Override
     public Set<ScimGroup> getGroupsWithExternalMember(final String memberId, final String origin) throws ScimResourceNotFoundException {
         List<ScimGroup> results;
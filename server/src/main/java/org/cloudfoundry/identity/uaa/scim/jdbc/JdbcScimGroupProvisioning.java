@@ -39,8 +39,11 @@ import org.springframework.util.Assert;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.cloudfoundry.identity.uaa.zone.ZoneManagementScopes.getSystemScopes;
@@ -62,6 +65,8 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
 
     public static final String GROUP_FIELDS = "id,displayName,description,created,lastModified,version,identity_zone_id";
 
+    private static final Set<String> KEYSET_SORT_COLUMNS = new HashSet<>(Arrays.asList("id", "displayname", "created", "lastmodified"));
+
     public static final String GROUP_TABLE = "groups";
     public static final String GROUP_MEMBERSHIP_TABLE = "group_membership";
     public static final String EXTERNAL_GROUP_TABLE = "external_group_mapping";
@@ -337,4 +342,9 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         super.validateOrderBy(orderBy, GROUP_FIELDS);
     }
 
+    @Override
+    protected Set<String> getKeysetSortColumns() {
+        return KEYSET_SORT_COLUMNS;
+    }
+
 }
@@ -50,12 +50,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
@@ -101,6 +104,8 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String ALL_USERS = "select " + USER_FIELDS + " from users";
 
+    private static final Set<String> KEYSET_SORT_COLUMNS = new HashSet<>(Arrays.asList("id", "created", "lastmodified", "username", "email"));
+
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_ZONE = "delete from group_membership where identity_zone_id = ?";
 
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_PROVIDER = "delete from group_membership where identity_zone_id = ? and origin = ?";
@@ -523,6 +528,11 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         super.validateOrderBy(orderBy, USER_FIELDS);
     }
 
+    @Override
+    protected Set<String> getKeysetSortColumns() {
+        return KEYSET_SORT_COLUMNS;
+    }
+
     @Override
     public void updateLastLogonTime(String id, String zoneId) {
         jdbcTemplate.update(UPDATE_LAST_LOGON_TIME_SQL, timeService.getCurrentTimeMillis(), id, zoneId);
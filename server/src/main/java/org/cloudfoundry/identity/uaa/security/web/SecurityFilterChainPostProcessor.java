@@ -15,8 +15,10 @@ package org.cloudfoundry.identity.uaa.security.web;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -254,6 +256,13 @@ public class SecurityFilterChainPostProcessor implements BeanPostProcessor {
             try {
                 chain.doFilter(request, response);
             }catch (Exception x) {
+                PasswordHashingRejectedException rejected = findRejection(x);
+                if (rejected != null) {
+                    logger.debug("Password hashing rejected: " + rejected.getMessage());
+                    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.getRetryAfterSeconds()));
+                    response.sendError(rejected.getStatus(), rejected.getMessage());
+                    return;
+                }
                 logger.error("Uncaught Exception:", x);
                 if (req.getAttribute("javax.servlet.error.exception") == null) {
                     req.setAttribute("javax.servlet.error.exception", x);
@@ -274,6 +283,15 @@ public class SecurityFilterChainPostProcessor implements BeanPostProcessor {
             }
         }
 
+        private PasswordHashingRejectedException findRejection(Throwable x) {
+            for (Throwable cause = x; cause != null; cause = cause.getCause()) {
+                if (cause instanceof PasswordHashingRejectedException) {
+                    return (PasswordHashingRejectedException) cause;
+                }
+            }
+            return null;
+        }
+
         @SuppressWarnings("unchecked")
         protected final String dumpRequest(HttpServletRequest r) {
             StringBuilder builder = new StringBuilder(256);
@@ -0,0 +1,185 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.user;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.springframework.context.ApplicationListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.cloudfoundry.identity.uaa.scim.ScimGroupMember.Type.GROUP;
+
+/**
+ * Per zone, in memory copy of the nested group graph (for each group, the groups it is a
+ * direct member of) that {@link JdbcUaaUserDatabase} uses to expand a user's direct groups
+ * into all of their authorities without going back to the database.
+ *
+ * A zone's graph is dropped when the membership of a group in another group changes through
+ * the group membership manager, when groups are modified or deleted, and after
+ * {@link #getExpiryInSeconds()} so that changes made on other nodes become visible.
+ */
+public class GroupClosureCache implements ApplicationListener<AbstractUaaEvent> {
+
+    private boolean enabled = false;
+    private int expiryInSeconds = 60;
+    private int maxZones = 1000;
+
+    private volatile Cache<String, Map<String, Map<String, String>>> graphs;
+
+    public GroupClosureCache() {
+        buildCache();
+    }
+
+    /**
+     * @return map of group id to the id and display name of every group it is a direct member of
+     */
+    public Map<String, Map<String, String>> getGroupGraph(String zoneId, Callable<Map<String, Map<String, String>>> loader) {
+        try {
+            return graphs.get(zoneId, loader);
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void evictZone(String zoneId) {
+        if (zoneId != null) {
+            graphs.invalidate(zoneId);
+        }
+    }
+
+    public void clear() {
+        graphs.invalidateAll();
+    }
+
+    public long size() {
+        return graphs.size();
+    }
+
+    public void memberAdded(String groupId, ScimGroupMember member, String zoneId) {
+        if (member != null && member.getType() == GROUP) {
+            evictZone(zoneId);
+        }
+    }
+
+    public void membersUpdated(String groupId, List<ScimGroupMember> members, String zoneId) {
+        if (hasGroupMembers(groupId, zoneId) || (members != null && members.stream().anyMatch(m -> m.getType() == GROUP))) {
+            evictZone(zoneId);
+        }
+    }
+
+    public void groupMemberRemoved(String groupId, String memberId, String zoneId) {
+        memberRemoved(memberId, zoneId);
+    }
+
+    public void memberRemoved(String memberId, String zoneId) {
+        Map<String, Map<String, String>> graph = graphs.getIfPresent(zoneId);
+        if (graph != null && graph.containsKey(memberId)) {
+            evictZone(zoneId);
+        }
+    }
+
+    public void memberRemovedForOrigin(String memberId, String origin, String zoneId) {
+        memberRemoved(memberId, zoneId);
+    }
+
+    public void groupMembersRemoved(String groupId, String zoneId) {
+        if (hasGroupMembers(groupId, zoneId)) {
+            evictZone(zoneId);
+        }
+    }
+
+    public void originMembersRemoved(String origin, String zoneId) {
+        evictZone(zoneId);
+    }
+
+    private boolean hasGroupMembers(String groupId, String zoneId) {
+        Map<String, Map<String, String>> graph = graphs.getIfPresent(zoneId);
+        return graph != null && graph.values().stream().anyMatch(parents -> parents.containsKey(groupId));
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof GroupModifiedEvent) {
+            IdentityZone zone = event.getIdentityZone();
+            if (zone != null) {
+                evictZone(zone.getId());
+            } else {
+                clear();
+            }
+        } else if (event instanceof EntityDeletedEvent) {
+            Object deleted = ((EntityDeletedEvent) event).getDeleted();
+            if (deleted instanceof IdentityZone) {
+                evictZone(((IdentityZone) deleted).getId());
+            } else if (deleted instanceof ScimGroup) {
+                evictZone(((ScimGroup) deleted).getZoneId());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        clear();
+    }
+
+    public int getExpiryInSeconds() {
+        return expiryInSeconds;
+    }
+
+    public void setExpiryInSeconds(int expiryInSeconds) {
+        this.expiryInSeconds = expiryInSeconds;
+        buildCache();
+    }
+
+    public int getMaxZones() {
+        return maxZones;
+    }
+
+    public void setMaxZones(int maxZones) {
+        this.maxZones = maxZones;
+        buildCache();
+    }
+
+    protected void buildCache() {
+        graphs = CacheBuilder.newBuilder()
+            .maximumSize(maxZones)
+            .expireAfterWrite(expiryInSeconds, TimeUnit.SECONDS)
+            .build();
+    }
+
+    static Map<String, Map<String, String>> unmodifiable(Map<String, Map<String, String>> graph) {
+        graph.replaceAll((k, v) -> Collections.unmodifiableMap(v));
+        return Collections.unmodifiableMap(graph);
+    }
+}
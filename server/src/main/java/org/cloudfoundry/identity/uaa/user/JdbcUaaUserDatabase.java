@@ -20,6 +20,7 @@ import org.cloudfoundry.identity.uaa.util.TimeService;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.core.GrantedAuthority;
@@ -30,8 +31,11 @@ import org.springframework.util.StringUtils;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -61,6 +65,42 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     public static final String DEFAULT_UPDATE_USER_LAST_LOGON = "update users set previous_logon_success_time = last_logon_success_time, last_logon_success_time = ? where id = ? and identity_zone_id=?";
 
     public static final String DEFAULT_USER_BY_ID_QUERY = "select " + USER_FIELDS + "from users where id = ? and active=? and identity_zone_id=?";
+
+    public static final String DIRECT_GROUPS_QUERY = "select g.id,g.displayName from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_id = ?";
+
+    public static final String NESTED_GROUPS_QUERY = "select m.member_id,g.id,g.displayName from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_type='GROUP'";
+
+    /**
+     * UNION drops the groups that were already found, so the recursion stops once no new group is
+     * found, cycles included. Used on PostgreSQL and MySQL 8.
+     */
+    public static final String RECURSIVE_GROUPS_QUERY =
+        "with recursive closure(id, displayName) as (" +
+            "select g.id,g.displayName from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_id = ? " +
+            "union " +
+            "select g.id,g.displayName from groups g, group_membership m, closure c where g.id = m.group_id and g.identity_zone_id=? and m.member_id = c.id" +
+        ") select id,displayName from closure";
+
+    /**
+     * SQL Server only allows UNION ALL in a recursive query, and HSQLDB fails on a recursive UNION
+     * over a cycle. On those every row carries the ids of the groups on its path, and a group that is
+     * already on the path isn't followed again. The query returns one row per path, so groups that
+     * are all members of each other multiply the rows before the distinct.
+     */
+    public static final String SQLSERVER_RECURSIVE_GROUPS_QUERY =
+        "with closure(id, displayName, path) as (" +
+            "select g.id,g.displayName,cast(',' + g.id + ',' as nvarchar(max)) from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_id = ? " +
+            "union all " +
+            "select g.id,g.displayName,cast(c.path + g.id + ',' as nvarchar(max)) from groups g, group_membership m, closure c where g.id = m.group_id and g.identity_zone_id=? and m.member_id = c.id and charindex(',' + g.id + ',', c.path) = 0" +
+        ") select distinct id,displayName from closure option (maxrecursion 0)";
+
+    public static final String HSQLDB_RECURSIVE_GROUPS_QUERY =
+        "with recursive closure(id, displayName, path) as (" +
+            "select g.id,g.displayName,cast(',' || g.id || ',' as varchar(65535)) from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_id = ? " +
+            "union all " +
+            "select g.id,g.displayName,cast(c.path || g.id || ',' as varchar(65535)) from groups g, group_membership m, closure c where g.id = m.group_id and g.identity_zone_id=? and m.member_id = c.id and position(',' || g.id || ',' in c.path) = 0" +
+        ") select distinct id,displayName from closure";
+
     private final TimeService timeService;
 
     private JdbcTemplate jdbcTemplate;
@@ -70,6 +110,12 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
     private boolean caseInsensitive = false;
 
+    private String platform;
+
+    private volatile Boolean recursiveQueries;
+
+    private GroupClosureCache groupClosureCache;
+
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
@@ -82,6 +128,28 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         this.caseInsensitive = caseInsensitive;
     }
 
+    public String getPlatform() {
+        return platform;
+    }
+
+    /**
+     * @param platform the database platform (hsqldb, postgresql, mysql or sqlserver). Nested groups are
+     *                 resolved with one recursive query, except on MySQL before 8.0, which has no recursive
+     *                 queries and falls back to one query per nesting level.
+     */
+    public void setPlatform(String platform) {
+        this.platform = platform;
+        this.recursiveQueries = null;
+    }
+
+    public GroupClosureCache getGroupClosureCache() {
+        return groupClosureCache;
+    }
+
+    public void setGroupClosureCache(GroupClosureCache groupClosureCache) {
+        this.groupClosureCache = groupClosureCache;
+    }
+
     public RowMapper<UaaUser> getMapper() {
         return mapper;
     }
@@ -159,6 +227,99 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         int update = jdbcTemplate.update(DEFAULT_UPDATE_USER_LAST_LOGON, timeService.getCurrentTimeMillis(), userId, IdentityZoneHolder.get().getId());
     }
 
+    /**
+     * @return id and display name of every group the member belongs to, directly or through nested groups
+     */
+    protected Map<String, String> getGroups(String memberId, String zoneId) {
+        if (groupClosureCache != null && groupClosureCache.isEnabled()) {
+            return getGroupsFromGraph(memberId, zoneId);
+        } else if ("sqlserver".equals(platform)) {
+            return queryGroups(SQLSERVER_RECURSIVE_GROUPS_QUERY, zoneId, memberId, zoneId);
+        } else if ("hsqldb".equals(platform)) {
+            return queryGroups(HSQLDB_RECURSIVE_GROUPS_QUERY, zoneId, memberId, zoneId);
+        } else if (supportsRecursiveQueries()) {
+            return queryGroups(RECURSIVE_GROUPS_QUERY, zoneId, memberId, zoneId);
+        } else {
+            return getGroupsByLevel(memberId, zoneId);
+        }
+    }
+
+    private boolean supportsRecursiveQueries() {
+        Boolean result = recursiveQueries;
+        if (result == null) {
+            if ("postgresql".equals(platform)) {
+                result = true;
+            } else if ("mysql".equals(platform)) {
+                result = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> connection.getMetaData().getDatabaseMajorVersion() >= 8);
+            } else {
+                result = false;
+            }
+            recursiveQueries = result;
+        }
+        return result;
+    }
+
+    private Map<String, String> queryGroups(String sql, Object... args) {
+        Map<String, String> groups = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            groups.put(rs.getString(1), rs.getString(2));
+        }, args);
+        return groups;
+    }
+
+    /**
+     * Queries one nesting level at a time and only expands groups that haven't been seen yet, so that
+     * every group is expanded once however the groups are nested, cycles included.
+     */
+    private Map<String, String> getGroupsByLevel(String memberId, String zoneId) {
+        Map<String, String> groups = new HashMap<>();
+        List<String> memberIds = Collections.singletonList(memberId);
+        while (!memberIds.isEmpty()) {
+            StringBuilder query = new StringBuilder("select g.id,g.displayName from groups g, group_membership m where g.id = m.group_id and g.identity_zone_id=? and m.member_id in (");
+            for (int i = 0; i < memberIds.size() - 1; i++) {
+                query.append("?,");
+            }
+            query.append("?)");
+            Object[] parameters = ArrayUtils.addAll(new Object[]{zoneId}, memberIds.toArray());
+
+            List<String> nextMemberIds = new ArrayList<>();
+            jdbcTemplate.query(query.toString(), rs -> {
+                String groupId = rs.getString(1);
+                if (!groups.containsKey(groupId)) {
+                    groups.put(groupId, rs.getString(2));
+                    nextMemberIds.add(groupId);
+                }
+            }, parameters);
+            memberIds = nextMemberIds;
+        }
+        return groups;
+    }
+
+    private Map<String, String> getGroupsFromGraph(String memberId, String zoneId) {
+        Map<String, Map<String, String>> graph = groupClosureCache.getGroupGraph(zoneId, () -> loadGroupGraph(zoneId));
+        Map<String, String> groups = queryGroups(DIRECT_GROUPS_QUERY, zoneId, memberId);
+        Deque<String> pending = new ArrayDeque<>(groups.keySet());
+        while (!pending.isEmpty()) {
+            Map<String, String> parents = graph.get(pending.pop());
+            if (parents != null) {
+                for (Map.Entry<String, String> parent : parents.entrySet()) {
+                    if (groups.putIfAbsent(parent.getKey(), parent.getValue()) == null) {
+                        pending.push(parent.getKey());
+                    }
+                }
+            }
+        }
+        return groups;
+    }
+
+    private Map<String, Map<String, String>> loadGroupGraph(String zoneId) {
+        Map<String, Map<String, String>> graph = new HashMap<>();
+        jdbcTemplate.query(NESTED_GROUPS_QUERY, rs -> {
+            graph.computeIfAbsent(rs.getString(1), k -> new HashMap<>()).put(rs.getString(2), rs.getString(3));
+        }, zoneId);
+        return GroupClosureCache.unmodifiable(graph);
+    }
+
     private final class UserInfoRowMapper implements RowMapper<UserInfo> {
         @Override
         public UserInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -211,38 +372,9 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         }
 
         private String getAuthorities(final String userId) {
-            Set<String> authorities = new HashSet<>();
-            getAuthorities(authorities, Arrays.asList(userId));
+            Set<String> authorities = new HashSet<>(getGroups(userId, IdentityZoneHolder.get().getId()).values());
             authorities.addAll(IdentityZoneHolder.get().getConfig().getUserConfig().getDefaultGroups());
-            return StringUtils.collectionToCommaDelimitedString(new HashSet<>(authorities));
-        }
-
-        protected void getAuthorities(Set<String> authorities, final List<String> memberIdList) {
-            List<Map<String, Object>> results;
-            if(memberIdList.size() == 0) {
-                return;
-            }
-            StringBuffer dynamicAuthoritiesQuery = new StringBuffer("select g.id,g.displayName from groups g, group_membership m where g.id = m.group_id  and g.identity_zone_id=? and m.member_id in (");
-            for (int i = 0; i < memberIdList.size() - 1; i++) {
-                dynamicAuthoritiesQuery.append("?,");
-            }
-            dynamicAuthoritiesQuery.append("?);");
-
-            Object[] parameterList = ArrayUtils.addAll(new Object[]{IdentityZoneHolder.get().getId()},memberIdList.toArray());
-
-            results = jdbcTemplate.queryForList(dynamicAuthoritiesQuery.toString(), parameterList);
-            List<String> newMemberIdList = new ArrayList<>();
-
-            for(int i=0;i<results.size();i++) {
-                Map<String, Object> record = results.get(i);
-                String displayName = (String) record.get("displayName");
-                String groupId = (String) record.get("id");
-                if (!authorities.contains(displayName)) {
-                    authorities.add(displayName);
-                    newMemberIdList.add(groupId);
-                }
-            }
-            getAuthorities(authorities,newMemberIdList);
+            return StringUtils.collectionToCommaDelimitedString(authorities);
         }
     }
 }
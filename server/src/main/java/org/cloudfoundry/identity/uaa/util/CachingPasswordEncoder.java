@@ -64,6 +64,8 @@ public class CachingPasswordEncoder implements PasswordEncoder {
 
     private BCryptPasswordEncoder passwordEncoder;
 
+    private PasswordHashingExecutor hashingExecutor;
+
     public CachingPasswordEncoder() throws NoSuchAlgorithmException {
         messageDigest = MessageDigest.getInstance("SHA-256");
         this.secret = Utf8.encode(new RandomValueStringGenerator().generate());
@@ -81,6 +83,17 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         this.passwordEncoder = passwordEncoder;
     }
 
+    public PasswordHashingExecutor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    /**
+     * Hashes that can't be answered from the cache run on the executor, if one is set.
+     */
+    public void setHashingExecutor(PasswordHashingExecutor hashingExecutor) {
+        this.hashingExecutor = hashingExecutor;
+    }
+
     @Override
     public String encode(CharSequence rawPassword) {
         //encode we always use the Bcrypt mechanism
@@ -92,6 +105,8 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         if (isEnabled()) {
             String cacheKey = cacheEncode(rawPassword);
             return internalMatches(cacheKey, rawPassword, encodedPassword);
+        } else if (hashingExecutor != null) {
+            return hashingExecutor.matches(getPasswordEncoder(), rawPassword, encodedPassword);
         } else {
             return getPasswordEncoder().matches(rawPassword, encodedPassword);
         }
@@ -119,7 +134,9 @@ public class CachingPasswordEncoder implements PasswordEncoder {
             }
         }
         if (!result) {
-            String encoded = BCrypt.hashpw(rawPassword.toString(), encodedPassword);
+            String encoded = hashingExecutor != null ?
+                hashingExecutor.execute(() -> BCrypt.hashpw(rawPassword.toString(), encodedPassword)) :
+                BCrypt.hashpw(rawPassword.toString(), encodedPassword);
             if (hashesEquals(encoded, encodedPassword)) {
                 result = true;
                 cacheValue = getOrCreateHashList(cacheKey);
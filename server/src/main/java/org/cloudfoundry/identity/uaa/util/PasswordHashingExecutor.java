@@ -0,0 +1,268 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+/**
+ * Runs password hashes on a fixed number of threads, so that a flood of logins can only take
+ * {@link #getThreads()} processors and leaves the servlet threads free for requests that don't hash.
+ * The calling thread waits for its hash.
+ *
+ * At most {@link #getQueueSize()} hashes wait for a thread. Any further hash is rejected straight away
+ * with a 503, and a zone that already has {@link #getMaxPendingPerZone()} hashes waiting or running is
+ * rejected with a 429, so that a single zone can't take every slot.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=PasswordHashing",
+    description = "Bounded executor for password hashes"
+)
+public class PasswordHashingExecutor implements DisposableBean {
+
+    private final ConcurrentMap<String, Integer> pendingByZone = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong completedHashes = new AtomicLong();
+    private final AtomicLong rejectedHashes = new AtomicLong();
+    private final AtomicLong zoneRejectedHashes = new AtomicLong();
+    private final AtomicLong hashTimeNanos = new AtomicLong();
+    private final AtomicLong maxHashTimeNanos = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+
+    private boolean enabled = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueSize = 100;
+    private int maxPendingPerZone = 50;
+    private int retryAfterSeconds = 1;
+
+    private volatile ThreadPoolExecutor executor;
+
+    public boolean matches(PasswordEncoder encoder, CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> encoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Runs the hash on one of the hashing threads and waits for its result, or on the calling thread
+     * when the executor isn't enabled.
+     *
+     * @throws PasswordHashingRejectedException if there is no room for the hash
+     */
+    public <T> T execute(Callable<T> hash) {
+        if (!enabled) {
+            return call(hash);
+        }
+        String zoneId = IdentityZoneHolder.get().getId();
+        admit(zoneId);
+        long submitted = System.nanoTime();
+        Future<T> result;
+        try {
+            result = start().submit(() -> {
+                long started = System.nanoTime();
+                try {
+                    return hash.call();
+                } finally {
+                    long elapsed = System.nanoTime() - started;
+                    waitTimeNanos.addAndGet(started - submitted);
+                    hashTimeNanos.addAndGet(elapsed);
+                    maxHashTimeNanos.accumulateAndGet(elapsed, Math::max);
+                    completedHashes.incrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            release(zoneId);
+            throw e;
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a password hash", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            release(zoneId);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        ThreadPoolExecutor current = executor;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    private void admit(String zoneId) {
+        if (pending.incrementAndGet() > threads + queueSize) {
+            pending.decrementAndGet();
+            rejectedHashes.incrementAndGet();
+            throw new PasswordHashingRejectedException("Too many concurrent logins. Retry later.", SERVICE_UNAVAILABLE.value(), retryAfterSeconds);
+        }
+        boolean[] admitted = new boolean[1];
+        pendingByZone.compute(zoneId, (k, v) -> {
+            int count = v == null ? 0 : v;
+            if (count >= maxPendingPerZone) {
+                return v;
+            }
+            admitted[0] = true;
+            return count + 1;
+        });
+        if (!admitted[0]) {
+            pending.decrementAndGet();
+            zoneRejectedHashes.incrementAndGet();
+            throw new PasswordHashingRejectedException("Too many concurrent logins for this zone. Retry later.", TOO_MANY_REQUESTS.value(), retryAfterSeconds);
+        }
+    }
+
+    private void release(String zoneId) {
+        pendingByZone.computeIfPresent(zoneId, (k, v) -> v <= 1 ? null : v - 1);
+        pending.decrementAndGet();
+    }
+
+    private ThreadPoolExecutor start() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    // admit() bounds the number of queued hashes
+                    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "uaa-password-hashing-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static <T> T call(Callable<T> hash) {
+        try {
+            return hash.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Queue Depth")
+    public int getQueueDepth() {
+        ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Pending Hash Count")
+    public int getPendingHashCount() {
+        return pending.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Completed Hash Count")
+    public long getCompletedHashCount() {
+        return completedHashes.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Rejected Hash Count")
+    public long getRejectedHashCount() {
+        return rejectedHashes.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, displayName = "Zone Rejected Hash Count")
+    public long getZoneRejectedHashCount() {
+        return zoneRejectedHashes.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Hash Time (ms)")
+    public double getAverageHashTimeMillis() {
+        long count = completedHashes.get();
+        return count == 0 ? 0 : hashTimeNanos.get() / 1000000.0 / count;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Max Hash Time (ms)")
+    public double getMaxHashTimeMillis() {
+        return maxHashTimeNanos.get() / 1000000.0;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Average Wait Time (ms)")
+    public double getAverageWaitTimeMillis() {
+        long count = completedHashes.get();
+        return count == 0 ? 0 : waitTimeNanos.get() / 1000000.0 / count;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of hashing threads, or 0 or less for the number of processors
+     */
+    public void setThreads(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxPendingPerZone() {
+        return maxPendingPerZone;
+    }
+
+    public void setMaxPendingPerZone(int maxPendingPerZone) {
+        this.maxPendingPerZone = maxPendingPerZone;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
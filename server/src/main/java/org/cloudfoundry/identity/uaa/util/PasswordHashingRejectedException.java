@@ -0,0 +1,38 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+/**
+ * Thrown when the {@link PasswordHashingExecutor} has no room for another password hash. It is not an
+ * authentication failure, so it isn't counted against the user, and it is sent to the client as
+ * {@link #getStatus()} with a Retry-After header.
+ */
+public class PasswordHashingRejectedException extends RuntimeException {
+
+    private final int status;
+    private final int retryAfterSeconds;
+
+    public PasswordHashingRejectedException(String message, int status, int retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
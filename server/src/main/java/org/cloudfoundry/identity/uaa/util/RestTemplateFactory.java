@@ -16,13 +16,207 @@
 package org.cloudfoundry.identity.uaa.util;
 
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.web.client.RestTemplate;
 
-public class RestTemplateFactory {
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides the rest templates used for outbound calls to identity providers.
+ *
+ * Rather than opening a new connection for every request, all templates share two connection pools,
+ * one validating SSL certificates and one that doesn't. Connections are pooled per target host and kept
+ * alive between requests, which saves the TCP and TLS handshakes on every federated login.
+ * Templates are cached per combination of SSL validation and timeouts, so they must not be modified by callers.
+ */
+@ManagedResource(
+    objectName = "cloudfoundry.identity:name=HttpClientPool",
+    description = "Outbound HTTP connections to identity providers"
+)
+public class RestTemplateFactory implements DisposableBean {
+
+    private static final Log logger = LogFactory.getLog(RestTemplateFactory.class);
+
+    private int maxConnections = 200;
+    private int maxConnectionsPerRoute = 20;
+    private long keepAliveMillis = 60 * 1000;
+    private int connectTimeoutMillis = 10 * 1000;
+    private int readTimeoutMillis = 30 * 1000;
+
+    private final Pool[] pools = new Pool[2];
+    private final ConcurrentMap<TemplateKey, RestTemplate> templates = new ConcurrentHashMap<>();
 
     public RestTemplate getRestTemplate(boolean skipSslValidation) {
-        return new RestTemplate(UaaHttpRequestUtils.createRequestFactory(skipSslValidation));
+        return getRestTemplate(skipSslValidation, null, null);
+    }
+
+    /**
+     * @param connectTimeout the connect timeout in milliseconds, or null for the default
+     * @param readTimeout the read timeout in milliseconds, or null for the default
+     */
+    public RestTemplate getRestTemplate(boolean skipSslValidation, Integer connectTimeout, Integer readTimeout) {
+        TemplateKey key = new TemplateKey(
+            skipSslValidation,
+            connectTimeout != null ? connectTimeout : connectTimeoutMillis,
+            readTimeout != null ? readTimeout : readTimeoutMillis
+        );
+        RestTemplate template = templates.get(key);
+        if (template == null) {
+            template = templates.computeIfAbsent(key, this::createRestTemplate);
+        }
+        return template;
+    }
+
+    protected RestTemplate createRestTemplate(TemplateKey key) {
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(getPool(key.skipSslValidation).client);
+        requestFactory.setConnectTimeout(key.connectTimeout);
+        requestFactory.setConnectionRequestTimeout(key.connectTimeout);
+        requestFactory.setReadTimeout(key.readTimeout);
+        return new RestTemplate(requestFactory);
+    }
+
+    private synchronized Pool getPool(boolean skipSslValidation) {
+        int index = skipSslValidation ? 1 : 0;
+        if (pools[index] == null) {
+            PoolingHttpClientConnectionManager manager = UaaHttpRequestUtils.createConnectionManager(skipSslValidation, maxConnections, maxConnectionsPerRoute);
+            CloseableHttpClient client = UaaHttpRequestUtils.getPooledClientBuilder(manager, keepAliveMillis).build();
+            pools[index] = new Pool(manager, client);
+        }
+        return pools[index];
+    }
+
+    @Override
+    public synchronized void destroy() {
+        templates.clear();
+        for (int i = 0; i < pools.length; i++) {
+            if (pools[i] != null) {
+                try {
+                    pools[i].client.close();
+                } catch (IOException e) {
+                    logger.debug("Unable to close HTTP client", e);
+                }
+                pools[i] = null;
+            }
+        }
+    }
+
+    private synchronized PoolStats getTotalStats() {
+        int leased = 0, pending = 0, available = 0, max = 0;
+        for (Pool pool : pools) {
+            if (pool != null) {
+                PoolStats stats = pool.manager.getTotalStats();
+                leased += stats.getLeased();
+                pending += stats.getPending();
+                available += stats.getAvailable();
+                max += stats.getMax();
+            }
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Connections in use")
+    public int getLeasedConnections() {
+        return getTotalStats().getLeased();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Requests waiting for a connection")
+    public int getPendingConnections() {
+        return getTotalStats().getPending();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, displayName = "Idle connections kept alive")
+    public int getAvailableConnections() {
+        return getTotalStats().getAvailable();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public void setKeepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    private static class Pool {
+        private final PoolingHttpClientConnectionManager manager;
+        private final CloseableHttpClient client;
 
+        Pool(PoolingHttpClientConnectionManager manager, CloseableHttpClient client) {
+            this.manager = manager;
+            this.client = client;
+        }
     }
 
+    protected static class TemplateKey {
+        private final boolean skipSslValidation;
+        private final int connectTimeout;
+        private final int readTimeout;
+
+        TemplateKey(boolean skipSslValidation, int connectTimeout, int readTimeout) {
+            this.skipSslValidation = skipSslValidation;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TemplateKey that = (TemplateKey) o;
+            return skipSslValidation == that.skipSslValidation &&
+                connectTimeout == that.connectTimeout &&
+                readTimeout == that.readTimeout;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = skipSslValidation ? 1 : 0;
+            result = 31 * result + connectTimeout;
+            result = 31 * result + readTimeout;
+            return result;
+        }
+    }
 }
@@ -12,7 +12,6 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.util;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.oauth.TokenRevokedException;
@@ -87,11 +86,10 @@ public class TokenValidation {
         }
         this.tokenJwt = tokenJwt;
 
-        String tokenJwtClaims;
-        if(tokenJwt != null && StringUtils.hasText(tokenJwtClaims = tokenJwt.getClaims())) {
+        if(tokenJwt != null) {
             Map<String, Object> claims;
             try {
-                claims = JsonUtils.readValue(tokenJwtClaims, new TypeReference<Map<String, Object>>() {});
+                claims = tokenJwt.getClaimSet().asMap();
             }
             catch (JsonUtils.JsonUtilException ex) {
                 claims = null;
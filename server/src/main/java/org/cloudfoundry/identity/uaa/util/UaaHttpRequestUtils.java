@@ -14,13 +14,21 @@ package org.cloudfoundry.identity.uaa.util;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.context.request.RequestAttributes;
@@ -33,6 +41,7 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.stream;
@@ -65,6 +74,44 @@ public abstract class UaaHttpRequestUtils {
         return builder;
     }
 
+    /**
+     * Creates a connection pool for clients built with {@link #getPooledClientBuilder(HttpClientConnectionManager, long)}.
+     * Connections are kept per route (scheme, host and port), and all TLS connections of the pool share
+     * one SSL context so that sessions are resumed instead of doing a full handshake for every new connection.
+     */
+    public static PoolingHttpClientConnectionManager createConnectionManager(boolean skipSslValidation, int maxTotal, int maxPerRoute) {
+        SSLConnectionSocketFactory sslSocketFactory = skipSslValidation ?
+            new SSLConnectionSocketFactory(getNonValidatingSslContext(), new NoopHostnameVerifier()) :
+            SSLConnectionSocketFactory.getSystemSocketFactory();
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", sslSocketFactory)
+            .build();
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(registry);
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        return manager;
+    }
+
+    /**
+     * Returns a client builder that keeps connections of the given pool alive for at most
+     * {@code keepAliveMillis}, or less if the server asks for it. Clients built with it are
+     * shared by every login, so they don't keep cookies.
+     */
+    public static HttpClientBuilder getPooledClientBuilder(HttpClientConnectionManager connectionManager, long keepAliveMillis) {
+        return HttpClients.custom()
+            .useSystemProperties()
+            .setRedirectStrategy(new DefaultRedirectStrategy())
+            .setConnectionManager(connectionManager)
+            .disableCookieManagement()
+            .setKeepAliveStrategy((response, context) -> {
+                long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAlive > 0 ? Math.min(keepAlive, keepAliveMillis) : keepAliveMillis;
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
     private static SSLContext getNonValidatingSslContext() {
         try {
             return new SSLContextBuilder().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
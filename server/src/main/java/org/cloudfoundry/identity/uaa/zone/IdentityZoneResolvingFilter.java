@@ -12,10 +12,21 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.FilterChain;
@@ -26,19 +37,41 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This filter ensures that all requests are targeting a specific identity zone
  * by hostname. If the hostname doesn't match an identity zone, a 404 error is
  * sent.
  *
+ * Resolved zones are cached by subdomain for {@link #getCacheExpiryInSeconds()},
+ * unknown subdomains for {@link #getNegativeCacheExpiryInSeconds()}. Zone updates
+ * and deletes published on this node evict the affected entries; changes made on
+ * other nodes become visible once the entry expires. An expiry of 0 disables caching.
  */
-public class IdentityZoneResolvingFilter extends OncePerRequestFilter implements InitializingBean {
+@ManagedResource(
+    objectName="cloudfoundry.identity:name=ZoneResolution",
+    description = "UAA Identity Zone Resolution Cache"
+)
+public class IdentityZoneResolvingFilter extends OncePerRequestFilter implements InitializingBean, ApplicationListener<AbstractUaaEvent> {
 
     private IdentityZoneProvisioning dao;
     private Set<String> defaultZoneHostnames = new HashSet<>();
     private Log logger = LogFactory.getLog(getClass());
 
+    private int cacheExpiryInSeconds = 5;
+    private int negativeCacheExpiryInSeconds = 5;
+    private int cacheMaxEntries = 10000;
+    private TimeService timeService = new TimeServiceImpl();
+    private volatile Cache<String, ResolvedZone> zoneCache;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public IdentityZoneResolvingFilter() {
+        buildCache();
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
@@ -47,7 +80,7 @@ public class IdentityZoneResolvingFilter extends OncePerRequestFilter implements
         String subdomain = getSubdomain(hostname);
         if (subdomain != null) {
             try {
-                identityZone = dao.retrieveBySubdomain(subdomain);
+                identityZone = resolveZone(subdomain);
             } catch (EmptyResultDataAccessException ex) {
                 logger.debug("Cannot find identity zone for subdomain " + subdomain);
             } catch (Exception ex) {
@@ -70,6 +103,72 @@ public class IdentityZoneResolvingFilter extends OncePerRequestFilter implements
         }
     }
 
+    protected IdentityZone resolveZone(String subdomain) {
+        long now = timeService.getCurrentTimeMillis();
+        ResolvedZone cached = zoneCache.getIfPresent(subdomain);
+        if (cached != null && cached.expiresAt > now) {
+            cacheHits.incrementAndGet();
+            if (cached.zone == null) {
+                throw new EmptyResultDataAccessException("Cannot find identity zone for subdomain " + subdomain, 1);
+            }
+            return cached.zone;
+        }
+        cacheMisses.incrementAndGet();
+        try {
+            IdentityZone zone = dao.retrieveBySubdomain(subdomain);
+            cache(subdomain, zone, now + TimeUnit.SECONDS.toMillis(cacheExpiryInSeconds), cacheExpiryInSeconds);
+            return zone;
+        } catch (EmptyResultDataAccessException ex) {
+            cache(subdomain, null, now + TimeUnit.SECONDS.toMillis(negativeCacheExpiryInSeconds), negativeCacheExpiryInSeconds);
+            throw ex;
+        }
+    }
+
+    private void cache(String subdomain, IdentityZone zone, long expiresAt, int expiryInSeconds) {
+        if (expiryInSeconds > 0) {
+            zoneCache.put(subdomain, new ResolvedZone(zone, expiresAt));
+        } else {
+            zoneCache.invalidate(subdomain);
+        }
+    }
+
+    public void evictZone(String zoneId, String subdomain) {
+        zoneCache.asMap().entrySet().removeIf(
+            entry -> (subdomain != null && subdomain.equalsIgnoreCase(entry.getKey())) ||
+                     (entry.getValue().zone != null && entry.getValue().zone.getId().equals(zoneId))
+        );
+    }
+
+    public void clearCache() {
+        zoneCache.invalidateAll();
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            IdentityZone zone = (IdentityZone) event.getSource();
+            evictZone(zone.getId(), zone.getSubdomain());
+        } else if (event instanceof EntityDeletedEvent && ((EntityDeletedEvent) event).getDeleted() instanceof IdentityZone) {
+            IdentityZone zone = (IdentityZone) ((EntityDeletedEvent) event).getDeleted();
+            evictZone(zone.getId(), zone.getSubdomain());
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, category = "performance", displayName = "Zone Resolution Cache Hits")
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER, category = "performance", displayName = "Zone Resolution Cache Misses")
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @ManagedMetric(category = "performance", displayName = "Zone Resolution Cache Size")
+    public long getCacheSize() {
+        return zoneCache.size();
+    }
+
     private String getSubdomain(String hostname) {
         if (defaultZoneHostnames.contains(hostname)) {
             return "";
@@ -111,9 +210,57 @@ public class IdentityZoneResolvingFilter extends OncePerRequestFilter implements
         return new HashSet<>(defaultZoneHostnames);
     }
 
+    public int getCacheExpiryInSeconds() {
+        return cacheExpiryInSeconds;
+    }
+
+    public void setCacheExpiryInSeconds(int cacheExpiryInSeconds) {
+        this.cacheExpiryInSeconds = cacheExpiryInSeconds;
+        buildCache();
+    }
+
+    public int getNegativeCacheExpiryInSeconds() {
+        return negativeCacheExpiryInSeconds;
+    }
+
+    public void setNegativeCacheExpiryInSeconds(int negativeCacheExpiryInSeconds) {
+        this.negativeCacheExpiryInSeconds = negativeCacheExpiryInSeconds;
+        buildCache();
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        buildCache();
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    protected void buildCache() {
+        zoneCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .expireAfterWrite(Math.max(cacheExpiryInSeconds, negativeCacheExpiryInSeconds), TimeUnit.SECONDS)
+            .build();
+    }
+
     @Override
     public void afterPropertiesSet() throws ServletException {
         super.afterPropertiesSet();
         logger.info("Zone Resolving Root domains are: "+ Arrays.toString(getDefaultZoneHostnames().toArray()));
     }
+
+    private static class ResolvedZone {
+        private final IdentityZone zone;
+        private final long expiresAt;
+
+        private ResolvedZone(IdentityZone zone, long expiresAt) {
+            this.zone = zone;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
@@ -12,6 +12,9 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
@@ -20,6 +23,8 @@ import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.security.ContextSensitiveOAuth2SecurityExpressionMethods;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
@@ -37,6 +42,8 @@ import org.springframework.security.oauth2.provider.ClientAlreadyExistsException
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -49,7 +56,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Collections.emptySet;
 import static org.cloudfoundry.identity.uaa.oauth.client.ClientConstants.REQUIRED_USER_GROUPS;
@@ -58,6 +69,13 @@ import static org.springframework.util.StringUtils.commaDelimitedListToSet;
 
 /**
  * A copy of JdbcClientDetailsService but with IdentityZone awareness
+ *
+ * When the client cache is enabled, {@link #loadClientByClientId(String, String)} is
+ * read-through cached by zone and client id. Every write through this service evicts the
+ * client on this node, again after the surrounding transaction completes, and - when
+ * version checking is enabled - bumps the {@code oauth_client_details} row of the
+ * {@code cache_versions} table so other nodes drop their cached clients the next time
+ * they poll it.
  */
 public class MultitenantJdbcClientDetailsService extends ClientServicesExtension implements
     ResourceMonitor<ClientDetails>,
@@ -102,6 +120,14 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
     private static final String DELETE_CLIENTS_BY_ZONE =
         "delete from oauth_client_details where identity_zone_id = ?";
 
+    static final String CACHE_VERSION_NAME = "oauth_client_details";
+
+    private static final String SELECT_CACHE_VERSION =
+        "select version_number from cache_versions where name = ?";
+
+    private static final String INCREMENT_CACHE_VERSION =
+        "update cache_versions set version_number = version_number + 1 where name = ?";
+
     private RowMapper<ClientDetails> rowMapper = new ClientDetailsRowMapper();
 
     private String selectClientDetailsSql = DEFAULT_SELECT_STATEMENT;
@@ -112,10 +138,20 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
 
     private JdbcListFactory listFactory;
 
+    private boolean cacheEnabled = false;
+    private int cacheExpiryInSeconds = 60;
+    private int cacheMaxEntries = 10000;
+    private long versionCheckIntervalInMillis = -1;
+    private TimeService timeService = new TimeServiceImpl();
+    private volatile Cache<ClientKey, ClientDetails> clientCache;
+    private final AtomicLong lastVersionCheck = new AtomicLong(Long.MIN_VALUE);
+    private volatile Long cacheVersion;
+
     public MultitenantJdbcClientDetailsService(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate, "JDbcTemplate required");
         this.jdbcTemplate = jdbcTemplate;
         this.listFactory = new DefaultJdbcListFactory(new NamedParameterJdbcTemplate(jdbcTemplate));
+        buildCache();
     }
 
     /**
@@ -128,6 +164,20 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
 
     @Override
     public ClientDetails loadClientByClientId(String clientId, String zoneId) throws InvalidClientException {
+        if (!cacheEnabled) {
+            return retrieveClientDetails(clientId, zoneId);
+        }
+        checkCacheVersion();
+        try {
+            return copyOf(clientCache.get(new ClientKey(zoneId, clientId), () -> retrieveClientDetails(clientId, zoneId)));
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private ClientDetails retrieveClientDetails(String clientId, String zoneId) throws InvalidClientException {
         ClientDetails details;
         try {
             details = jdbcTemplate.queryForObject(selectClientDetailsSql, new ClientDetailsRowMapper(), clientId, zoneId);
@@ -144,12 +194,15 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
             jdbcTemplate.update(DEFAULT_INSERT_STATEMENT, getInsertClientDetailsFields(clientDetails, zoneId));
         } catch (DuplicateKeyException e) {
             throw new ClientAlreadyExistsException("Client already exists: " + clientDetails.getClientId(), e);
+        } finally {
+            clientModified(clientDetails.getClientId(), zoneId);
         }
     }
 
     @Override
     public void updateClientDetails(ClientDetails clientDetails, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_STATEMENT, getFieldsForUpdate(clientDetails, zoneId));
+        clientModified(clientDetails.getClientId(), zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientDetails.getClientId() + " in identity zone "+IdentityZoneHolder.get().getName());
         }
@@ -158,6 +211,7 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
     @Override
     public void updateClientSecret(String clientId, String secret, String zoneId) throws NoSuchClientException {
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, passwordEncoder.encode(secret), clientId, zoneId);
+        clientModified(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -238,7 +292,9 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        int count = jdbcTemplate.update(DELETE_CLIENTS_BY_ZONE, zoneId);
+        clientModified(null, zoneId);
+        return count;
     }
 
     @Override
@@ -249,6 +305,7 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
     @Override
     public int deleteByClient(String clientId, String zoneId) {
         int count = jdbcTemplate.update(DEFAULT_DELETE_STATEMENT, clientId, zoneId);
+        clientModified(clientId, zoneId);
         if (count == 0) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -275,6 +332,7 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
             .append(clientDetails.getClientSecret()==null ? "" : clientDetails.getClientSecret() +" ")
             .append(encodedNewSecret);
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, newSecretBuilder.toString(), clientId, zoneId);
+        clientModified(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException("No client found with id = " + clientId);
         }
@@ -285,11 +343,131 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
         ClientDetails clientDetails = loadClientByClientId(clientId, zoneId);
         String clientSecret = clientDetails.getClientSecret().split(" ")[1];
         int count = jdbcTemplate.update(DEFAULT_UPDATE_SECRET_STATEMENT, clientSecret, clientId, zoneId);
+        clientModified(clientId, zoneId);
         if (count != 1) {
             throw new NoSuchClientException("Unable to update client with " + clientId);
         }
     }
 
+    /**
+     * Evicts the client (or all clients of the zone when clientId is null) now and once the
+     * current transaction completes, so that a rolled back or concurrently re-read value
+     * doesn't stay cached, and publishes the change to other nodes.
+     */
+    protected void clientModified(String clientId, String zoneId) {
+        if (versionCheckIntervalInMillis >= 0) {
+            jdbcTemplate.update(INCREMENT_CACHE_VERSION, CACHE_VERSION_NAME);
+        }
+        evict(clientId, zoneId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(clientId, zoneId);
+                }
+            });
+        }
+    }
+
+    private void evict(String clientId, String zoneId) {
+        if (clientId == null) {
+            clientCache.asMap().keySet().removeIf(key -> key.zoneId.equals(zoneId));
+        } else {
+            clientCache.invalidate(new ClientKey(zoneId, clientId));
+        }
+    }
+
+    protected void checkCacheVersion() {
+        if (versionCheckIntervalInMillis < 0) {
+            return;
+        }
+        long now = timeService.getCurrentTimeMillis();
+        long lastCheck = lastVersionCheck.get();
+        if (lastCheck != Long.MIN_VALUE && now - lastCheck < versionCheckIntervalInMillis) {
+            return;
+        }
+        if (!lastVersionCheck.compareAndSet(lastCheck, now)) {
+            return;
+        }
+        Long version;
+        try {
+            version = jdbcTemplate.queryForObject(SELECT_CACHE_VERSION, Long.class, CACHE_VERSION_NAME);
+        } catch (EmptyResultDataAccessException e) {
+            version = null;
+        }
+        if (!Objects.equals(version, cacheVersion)) {
+            clientCache.invalidateAll();
+            cacheVersion = version;
+        }
+    }
+
+    private static ClientDetails copyOf(ClientDetails client) {
+        BaseClientDetails copy = new BaseClientDetails(client);
+        if (client instanceof BaseClientDetails && ((BaseClientDetails) client).getAutoApproveScopes() != null) {
+            copy.setAutoApproveScopes(((BaseClientDetails) client).getAutoApproveScopes());
+        }
+        copy.setAdditionalInformation(client.getAdditionalInformation());
+        return copy;
+    }
+
+    public void clearCache() {
+        clientCache.invalidateAll();
+    }
+
+    public long getCacheSize() {
+        return clientCache.size();
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        clearCache();
+    }
+
+    public int getCacheExpiryInSeconds() {
+        return cacheExpiryInSeconds;
+    }
+
+    public void setCacheExpiryInSeconds(int cacheExpiryInSeconds) {
+        this.cacheExpiryInSeconds = cacheExpiryInSeconds;
+        buildCache();
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        buildCache();
+    }
+
+    public long getVersionCheckIntervalInMillis() {
+        return versionCheckIntervalInMillis;
+    }
+
+    /**
+     * @param versionCheckIntervalInMillis how often the cache_versions table is polled for changes
+     *                                     made on other nodes. 0 checks on every lookup, a negative
+     *                                     value disables version checking.
+     */
+    public void setVersionCheckIntervalInMillis(long versionCheckIntervalInMillis) {
+        this.versionCheckIntervalInMillis = versionCheckIntervalInMillis;
+    }
+
+    public void setTimeService(TimeService timeService) {
+        this.timeService = timeService;
+    }
+
+    protected void buildCache() {
+        clientCache = CacheBuilder.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .expireAfterWrite(cacheExpiryInSeconds, TimeUnit.SECONDS)
+            .build();
+    }
 
     /**
      * Row mapper for ClientDetails.
@@ -388,4 +566,27 @@ public class MultitenantJdbcClientDetailsService extends ClientServicesExtension
     String getCreatedByForClientAndZone(String clientId, String zoneId) {
         return jdbcTemplate.queryForObject(GET_CREATED_BY_SQL, new Object[]{clientId, zoneId}, String.class);
     }
+
+    private static class ClientKey {
+        private final String zoneId;
+        private final String clientId;
+
+        private ClientKey(String zoneId, String clientId) {
+            this.zoneId = zoneId;
+            this.clientId = clientId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            ClientKey key = (ClientKey) o;
+            return Objects.equals(zoneId, key.zoneId) && Objects.equals(clientId, key.clientId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(zoneId, clientId);
+        }
+    }
 }
@@ -0,0 +1,6 @@
+CREATE TABLE cache_versions (
+  name VARCHAR(64) NOT NULL PRIMARY KEY,
+  version_number BIGINT DEFAULT 0 NOT NULL
+);
+
+INSERT INTO cache_versions (name, version_number) VALUES ('oauth_client_details', 0);
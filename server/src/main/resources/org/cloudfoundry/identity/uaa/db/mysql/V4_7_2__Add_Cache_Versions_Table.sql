@@ -0,0 +1,7 @@
+CREATE TABLE `cache_versions` (
+  `name` varchar(64) NOT NULL,
+  `version_number` BIGINT default 0 NOT NULL,
+  PRIMARY KEY (`name`)
+);
+
+INSERT INTO cache_versions (name, version_number) VALUES ('oauth_client_details', 0);
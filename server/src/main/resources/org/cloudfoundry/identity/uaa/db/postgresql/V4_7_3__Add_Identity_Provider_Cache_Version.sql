@@ -0,0 +1 @@
+INSERT INTO cache_versions (name, version_number) VALUES ('identity_provider', 0);
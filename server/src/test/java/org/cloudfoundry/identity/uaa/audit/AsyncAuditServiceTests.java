@@ -0,0 +1,197 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.ClientAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationSuccess;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class AsyncAuditServiceTests {
+
+    private UaaAuditService delegate;
+    private AsyncAuditService auditService;
+    private String zoneId = IdentityZone.getUaa().getId();
+
+    @Before
+    public void setUp() {
+        delegate = mock(UaaAuditService.class);
+        auditService = new AsyncAuditService(delegate);
+        auditService.setEnabled(true);
+        auditService.setFlushIntervalMillis(60 * 1000);
+    }
+
+    @After
+    public void tearDown() {
+        auditService.destroy();
+    }
+
+    @Test
+    public void disabled_service_logs_synchronously() {
+        auditService.setEnabled(false);
+        AuditEvent event = event("1");
+        auditService.log(event, zoneId);
+        verify(delegate).log(event, zoneId);
+        assertEquals(0, auditService.getQueueDepth());
+    }
+
+    @Test
+    public void events_are_buffered_until_flushed() {
+        auditService.log(event("1"), zoneId);
+        auditService.log(event("2"), "other-zone");
+        assertEquals(2, auditService.getQueueDepth());
+        verify(delegate, never()).logAll(anyListOf(AuditEvent.class));
+
+        auditService.flush();
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(delegate, times(1)).logAll(batch.capture());
+        assertEquals(2, batch.getValue().size());
+        assertEquals("other-zone", ((AuditEvent) batch.getValue().get(1)).getIdentityZoneId());
+        assertEquals(0, auditService.getQueueDepth());
+        assertEquals(2, auditService.getWrittenEventCount());
+        assertEquals(1, auditService.getFlushCount());
+    }
+
+    @Test
+    public void writer_flushes_when_batch_is_full() {
+        auditService.setBatchSize(3);
+        for (int i = 0; i < 3; i++) {
+            auditService.log(event("1"), zoneId);
+        }
+        verify(delegate, timeout(5000).times(1)).logAll(anyListOf(AuditEvent.class));
+    }
+
+    @Test
+    public void writer_flushes_after_interval() {
+        auditService.setFlushIntervalMillis(50);
+        auditService.log(event("1"), zoneId);
+        verify(delegate, timeout(5000).times(1)).logAll(anyListOf(AuditEvent.class));
+    }
+
+    @Test
+    public void find_writes_pending_events_of_principal_first() {
+        auditService.log(event("1"), zoneId);
+        auditService.find("2", 0, zoneId);
+        verify(delegate, never()).logAll(anyListOf(AuditEvent.class));
+
+        auditService.find("1", 0, zoneId);
+        verify(delegate, times(1)).logAll(anyListOf(AuditEvent.class));
+        verify(delegate).find(eq("1"), anyLong(), eq(zoneId));
+    }
+
+    @Test
+    public void full_buffer_drops_events() {
+        auditService.setBufferSize(2);
+        auditService.setOverflowPolicy(AsyncAuditService.OverflowPolicy.DROP);
+        for (int i = 0; i < 5; i++) {
+            auditService.log(clientEvent("1"), zoneId);
+        }
+        assertEquals(2, auditService.getQueueDepth());
+        assertEquals(3, auditService.getDroppedEventCount());
+        assertEquals(5, auditService.getLoggedEventCount());
+    }
+
+    @Test
+    public void full_buffer_blocks_then_drops() {
+        auditService.setBufferSize(1);
+        auditService.setOverflowPolicy(AsyncAuditService.OverflowPolicy.BLOCK);
+        auditService.setBlockTimeoutMillis(10);
+        auditService.log(clientEvent("1"), zoneId);
+        auditService.log(clientEvent("1"), zoneId);
+        assertEquals(1, auditService.getDroppedEventCount());
+    }
+
+    @Test
+    public void lockout_events_are_never_dropped() {
+        auditService.setBufferSize(1);
+        auditService.setOverflowPolicy(AsyncAuditService.OverflowPolicy.DROP);
+        auditService.log(event("1"), zoneId);
+        auditService.log(event("2"), zoneId);
+        auditService.log(event("3"), zoneId);
+        auditService.log(new AuditEvent(UserAuthenticationSuccess, "3", "1.1.1.1", "joe", System.currentTimeMillis(), zoneId), zoneId);
+
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(delegate, times(4)).logAll(batches.capture());
+        assertEquals("1", ((AuditEvent) batches.getAllValues().get(0).get(0)).getPrincipalId());
+        assertEquals("2", ((AuditEvent) batches.getAllValues().get(1).get(0)).getPrincipalId());
+        assertEquals(UserAuthenticationSuccess, ((AuditEvent) batches.getAllValues().get(3).get(0)).getType());
+        assertEquals(0, auditService.getDroppedEventCount());
+        assertEquals(2, auditService.getSynchronousEventCount());
+        assertEquals(4, auditService.getWrittenEventCount());
+    }
+
+    @Test
+    public void overflow_and_failed_batches_are_spilled() throws Exception {
+        File spillFile = File.createTempFile("audit-spill", ".log");
+        try {
+            auditService.setBufferSize(1);
+            auditService.setOverflowPolicy(AsyncAuditService.OverflowPolicy.SPILL);
+            auditService.setSpillFile(spillFile.getAbsolutePath());
+            doThrow(new IllegalStateException()).when(delegate).logAll(anyListOf(AuditEvent.class));
+
+            auditService.log(clientEvent("1"), zoneId);
+            auditService.log(clientEvent("2"), zoneId);
+            auditService.flush();
+
+            assertEquals(2, auditService.getSpilledEventCount());
+            assertEquals(1, auditService.getFailedEventCount());
+            assertEquals(0, auditService.getDroppedEventCount());
+            List<String> lines = Files.readAllLines(spillFile.toPath(), StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            assertEquals("2", JsonUtils.readTree(lines.get(0)).get("principalId").asText());
+            assertEquals("1", JsonUtils.readTree(lines.get(1)).get("principalId").asText());
+        } finally {
+            assertTrue(spillFile.delete());
+        }
+    }
+
+    @Test
+    public void destroy_writes_remaining_events() {
+        auditService.log(event("1"), zoneId);
+        auditService.destroy();
+        verify(delegate, times(1)).logAll(anyListOf(AuditEvent.class));
+        verify(delegate, never()).find(anyString(), anyLong(), anyString());
+    }
+
+    private AuditEvent event(String principal) {
+        return new AuditEvent(UserAuthenticationFailure, principal, "1.1.1.1", "joe", System.currentTimeMillis(), zoneId);
+    }
+
+    private AuditEvent clientEvent(String principal) {
+        return new AuditEvent(ClientAuthenticationFailure, principal, "1.1.1.1", "client", System.currentTimeMillis(), zoneId);
+    }
+}
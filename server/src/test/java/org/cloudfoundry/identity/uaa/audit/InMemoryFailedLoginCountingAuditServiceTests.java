@@ -0,0 +1,200 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit;
+
+import org.cloudfoundry.identity.uaa.util.MockTimeService;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.ClientAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PasswordChangeSuccess;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationFailure;
+import static org.cloudfoundry.identity.uaa.audit.AuditEventType.UserAuthenticationSuccess;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InMemoryFailedLoginCountingAuditServiceTests {
+
+    private InMemoryFailedLoginCountingAuditService auditService;
+    private MockTimeService timeService;
+    private String zoneId = IdentityZone.getUaa().getId();
+
+    @Before
+    public void setUp() {
+        timeService = new MockTimeService();
+        auditService = new InMemoryFailedLoginCountingAuditService();
+        auditService.setTimeService(timeService);
+    }
+
+    @After
+    public void tearDown() {
+        auditService.destroy();
+    }
+
+    @Test
+    public void failures_are_returned_newest_first() {
+        long first = timeService.getCurrentTimeMillis();
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        timeService.addAndGet(100);
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        List<AuditEvent> events = auditService.find("1", 0, zoneId);
+        assertEquals(2, events.size());
+        assertEquals(first + 100, events.get(0).getTime());
+        assertEquals(first, events.get(1).getTime());
+        assertEquals(UserAuthenticationFailure, events.get(0).getType());
+        assertEquals("1", events.get(0).getPrincipalId());
+    }
+
+    @Test
+    public void find_only_returns_failures_after_requested_time() {
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        timeService.addAndGet(3600 * 1000);
+        long now = timeService.getCurrentTimeMillis();
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        assertEquals(1, auditService.find("1", now - 120 * 1000, zoneId).size());
+        assertEquals(0, auditService.find("2", 0, zoneId).size());
+    }
+
+    @Test
+    public void failures_are_scoped_to_zone() {
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        assertEquals(0, auditService.find("1", 0, "other-zone").size());
+    }
+
+    @Test
+    public void success_and_password_change_reset_failures() {
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        auditService.log(event(UserAuthenticationSuccess, "1"), zoneId);
+        assertEquals(0, auditService.find("1", 0, zoneId).size());
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        auditService.log(event(PasswordChangeSuccess, "1"), zoneId);
+        assertEquals(0, auditService.find("1", 0, zoneId).size());
+        assertEquals(0, auditService.getPrincipalCount());
+    }
+
+    @Test
+    public void other_events_are_ignored() {
+        auditService.log(event(ClientAuthenticationFailure, "client"), zoneId);
+        assertEquals(0, auditService.find("client", 0, zoneId).size());
+        assertEquals(0, auditService.getPrincipalCount());
+    }
+
+    @Test
+    public void failures_per_principal_are_bounded() {
+        auditService.setMaxFailuresPerPrincipal(3);
+        for (int i = 0; i < 5; i++) {
+            timeService.addAndGet(1);
+            auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        }
+        List<AuditEvent> events = auditService.find("1", 0, zoneId);
+        assertEquals(3, events.size());
+        assertEquals(timeService.getCurrentTimeMillis(), events.get(0).getTime());
+    }
+
+    @Test
+    public void old_principals_are_cleaned_up() {
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        timeService.addAndGet(25 * 3600 * 1000L);
+        auditService.log(event(UserAuthenticationFailure, "2"), zoneId);
+        assertEquals(1, auditService.getPrincipalCount());
+        assertEquals(1, auditService.find("2", 0, zoneId).size());
+    }
+
+    @Test
+    public void write_behind_batches_events_to_persister() {
+        JdbcFailedLoginCountingAuditService persister = mock(JdbcFailedLoginCountingAuditService.class);
+        auditService.setPersister(persister);
+        auditService.setFlushIntervalMillis(60 * 1000);
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        auditService.log(event(UserAuthenticationSuccess, "1"), zoneId);
+        auditService.log(event(ClientAuthenticationFailure, "client"), zoneId);
+        assertEquals(2, auditService.getPendingEventCount());
+        verify(persister, never()).logAll(anyListOf(AuditEvent.class));
+
+        auditService.flush();
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(persister, times(1)).logAll(batch.capture());
+        assertEquals(2, batch.getValue().size());
+        assertEquals(UserAuthenticationFailure, ((AuditEvent) batch.getValue().get(0)).getType());
+        assertEquals(zoneId, ((AuditEvent) batch.getValue().get(0)).getIdentityZoneId());
+        assertEquals(0, auditService.getPendingEventCount());
+    }
+
+    @Test
+    public void pending_events_beyond_limit_are_dropped() {
+        auditService.setPersister(mock(JdbcFailedLoginCountingAuditService.class));
+        auditService.setFlushIntervalMillis(60 * 1000);
+        auditService.setMaxPendingEvents(2);
+        for (int i = 0; i < 5; i++) {
+            auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        }
+        assertEquals(2, auditService.getPendingEventCount());
+        assertEquals(3, auditService.getDroppedEventCount());
+        // the first lookup reads through to the (empty) database and replays the events still pending
+        assertEquals(2, auditService.find("1", 0, zoneId).size());
+    }
+
+    @Test
+    public void failures_are_read_through_from_persister_and_refreshed() {
+        JdbcFailedLoginCountingAuditService persister = mock(JdbcFailedLoginCountingAuditService.class);
+        long stored = timeService.getCurrentTimeMillis() - 1000;
+        when(persister.find(eq("1"), anyLong(), eq(zoneId))).thenReturn(
+            Arrays.asList(new AuditEvent(UserAuthenticationFailure, "1", "", "", stored, zoneId)),
+            Collections.<AuditEvent>emptyList());
+        auditService.setPersister(persister);
+        auditService.setFlushIntervalMillis(60 * 1000);
+
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        assertEquals(2, auditService.find("1", 0, zoneId).size());
+        assertEquals(2, auditService.find("1", 0, zoneId).size());
+        verify(persister, times(1)).find(anyString(), anyLong(), anyString());
+
+        auditService.flush();
+        timeService.addAndGet(auditService.getRefreshIntervalMillis());
+        assertEquals(0, auditService.find("1", 0, zoneId).size());
+        verify(persister, times(2)).find(anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    public void persister_errors_count_as_dropped() {
+        JdbcFailedLoginCountingAuditService persister = mock(JdbcFailedLoginCountingAuditService.class);
+        doThrow(new IllegalStateException()).when(persister).logAll(anyListOf(AuditEvent.class));
+        auditService.setPersister(persister);
+        auditService.setFlushIntervalMillis(60 * 1000);
+        auditService.log(event(UserAuthenticationFailure, "1"), zoneId);
+        auditService.flush();
+        assertEquals(1, auditService.getDroppedEventCount());
+        assertEquals(0, auditService.getPendingEventCount());
+    }
+
+    private AuditEvent event(AuditEventType type, String principal) {
+        return new AuditEvent(type, principal, "1.1.1.1", "joe", timeService.getCurrentTimeMillis(), zoneId);
+    }
+}
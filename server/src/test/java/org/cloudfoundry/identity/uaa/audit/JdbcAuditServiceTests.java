@@ -19,6 +19,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.cloudfoundry.identity.uaa.audit.AuditEventType.PrincipalAuthenticationFailure;
@@ -73,6 +74,19 @@ public class JdbcAuditServiceTests extends JdbcTestBase {
         assertEquals(1, events.size());
     }
 
+    @Test
+    public void logAllInsertsEventsWithTheirTime() throws Exception {
+        long past = System.currentTimeMillis() - 3600 * 1000;
+        auditService.logAll(Arrays.asList(
+            new AuditEvent(PrincipalAuthenticationFailure, "clientA", authDetails, null, past, IdentityZone.getUaa().getId()),
+            new AuditEvent(PrincipalAuthenticationFailure, "clientA", authDetails, null, past + 1000, IdentityZone.getUaa().getId())
+        ));
+        List<AuditEvent> events = auditService.find("clientA", 0, IdentityZone.getUaa().getId());
+        assertEquals(2, events.size());
+        assertEquals(past + 1000, events.get(0).getTime());
+        assertEquals(past, events.get(1).getTime());
+    }
+
     private AuditEvent getAuditEvent(AuditEventType type, String principal) {
         return getAuditEvent(type, principal, null);
     }
@@ -23,6 +23,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.cloudfoundry.identity.uaa.audit.AuditEventType.ClientAuthenticationFailure;
@@ -133,6 +134,25 @@ public class JdbcFailedLoginCountingAuditServiceTests extends JdbcTestBase {
         assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='1'", Integer.class), is(0));
     }
 
+    @Test
+    public void logAllOnlyKeepsFailuresAfterLastReset() throws Exception {
+        auditService.log(getAuditEvent(UserAuthenticationFailure, "1", "joe"), IdentityZone.getUaa().getId());
+        long past = System.currentTimeMillis() - 3600 * 1000;
+        auditService.logAll(Arrays.asList(
+            new AuditEvent(UserAuthenticationFailure, "1", authDetails, "joe", past, IdentityZone.getUaa().getId()),
+            new AuditEvent(UserAuthenticationSuccess, "1", authDetails, "joe", past + 1, IdentityZone.getUaa().getId()),
+            new AuditEvent(UserAuthenticationFailure, "1", authDetails, "joe", past + 2, IdentityZone.getUaa().getId()),
+            new AuditEvent(UserAuthenticationFailure, "1", authDetails, "joe", past + 3, "test-zone"),
+            new AuditEvent(ClientAuthenticationFailure, "client", authDetails, "testman", past + 4, IdentityZone.getUaa().getId())
+        ));
+        List<AuditEvent> events = auditService.find("1", 0, IdentityZone.getUaa().getId());
+        assertEquals(1, events.size());
+        assertEquals(past + 2, events.get(0).getTime());
+        assertEquals(1, auditService.find("1", 0, "test-zone").size());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from sec_audit where principal_id='client'", Integer.class), is(0));
+        jdbcTemplate.update("DELETE FROM sec_audit WHERE identity_zone_id='test-zone'");
+    }
+
     @Test
     public void findMethodOnlyReturnsEventsWithinRequestedPeriod() {
         long now = System.currentTimeMillis();
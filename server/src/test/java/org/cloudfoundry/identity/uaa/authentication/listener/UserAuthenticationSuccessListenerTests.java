@@ -4,6 +4,7 @@ import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.event.UserAuthenticationSuccessEvent;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
 import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.jdbc.AsyncLastLogonTimeUpdater;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserPrototype;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
@@ -117,4 +118,25 @@ public class UserAuthenticationSuccessListenerTests {
         verify(authentication).setLastLoginSuccessTime(123456789L);
     }
 
+    @Test
+    public void lastLogonIsWrittenBehindWhenEnabled() {
+        String userId = "userId";
+        String zoneId = IdentityZoneHolder.get().getId();
+        AsyncLastLogonTimeUpdater updater = mock(AsyncLastLogonTimeUpdater.class);
+        when(updater.isEnabled()).thenReturn(true);
+        when(updater.getPendingLastLogonTime(userId, zoneId)).thenReturn(987654321L);
+        listener.setLastLogonTimeUpdater(updater);
+        UserAuthenticationSuccessEvent event = getEvent(new UaaUserPrototype()
+            .withId(userId)
+            .withEmail("test@test.org")
+            .withUsername("testUser")
+            .withLastLogonSuccess(123456789L));
+
+        listener.onApplicationEvent(event);
+
+        verify(updater).updateLastLogonTime(userId, zoneId);
+        verify(scimUserProvisioning, never()).updateLastLogonTime(anyString(), anyString());
+        verify((UaaAuthentication) event.getAuthentication()).setLastLoginSuccessTime(987654321L);
+    }
+
 }
@@ -33,6 +33,8 @@ import org.cloudfoundry.identity.uaa.user.UaaAuthority;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.cloudfoundry.identity.uaa.user.UaaUserPrototype;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingExecutor;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.junit.Before;
 import org.junit.Rule;
@@ -191,6 +193,22 @@ public class AuthzAuthenticationManagerTests {
         verify(publisher).publishEvent(isA(UserAuthenticationSuccessEvent.class));
     }
 
+    @Test
+    public void rejectedPasswordHashIsNotAnAuthenticationFailure() {
+        PasswordHashingExecutor hashingExecutor = new PasswordHashingExecutor();
+        hashingExecutor.setEnabled(true);
+        hashingExecutor.setMaxPendingPerZone(0);
+        mgr.setHashingExecutor(hashingExecutor);
+        when(db.retrieveUserByName("auser", OriginKeys.UAA)).thenReturn(user);
+        try {
+            mgr.authenticate(createAuthRequest("auser", "password"));
+            fail();
+        } catch (PasswordHashingRejectedException expected) {
+            assertEquals(429, expected.getStatus());
+        }
+        verify(publisher, times(0)).publishEvent(any(ApplicationEvent.class));
+    }
+
     @Test
     public void invalidPasswordPublishesAuthenticationFailureEvent() {
         when(db.retrieveUserByName("auser", OriginKeys.UAA)).thenReturn(user);
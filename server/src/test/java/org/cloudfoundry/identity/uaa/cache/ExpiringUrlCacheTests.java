@@ -16,24 +16,40 @@
 package org.cloudfoundry.identity.uaa.cache;
 
 import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -55,14 +71,19 @@ public class ExpiringUrlCacheTests {
         when(ticker.getCurrentTimeMillis()).thenAnswer(e -> System.currentTimeMillis());
         cache = new ExpiringUrlCache(EXPIRING_TIME_MILLIS, ticker, 2);
         template = mock(RestTemplate.class);
-        when(template.getForObject(any(URI.class), any())).thenReturn(content, new byte[1024]);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenReturn(ok(content), ok(new byte[1024]));
         uri = "http://localhost:8080/uaa/.well-known/openid-configuration";
     }
 
+    @After
+    public void tearDown() {
+        cache.destroy();
+    }
+
     @Test
     public void correct_method_invoked_on_rest_template() throws URISyntaxException {
         cache.getUrlContent(uri, template);
-        verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(1)).exchange(argThat(isGet(uri)), same(byte[].class));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -74,16 +95,17 @@ public class ExpiringUrlCacheTests {
     @Test
     public void rest_client_exception_returns_null() {
         template = mock(RestTemplate.class);
-        when(template.getForObject(any(URI.class), any())).thenThrow(new RestClientException("mock"));
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenThrow(new RestClientException("mock"));
         assertNull(cache.getUrlContent(uri, template));
         assertEquals(0, cache.size());
+        assertEquals(1, cache.getFetchFailureCount());
     }
 
     @Test
     public void calling_twice_uses_cache() throws Exception {
         byte[] c1 = cache.getUrlContent(uri, template);
         byte[] c2 = cache.getUrlContent(uri, template);
-        verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(1)).exchange(argThat(isGet(uri)), same(byte[].class));
         assertSame(c1, c2);
         assertEquals(1, cache.size());
     }
@@ -91,12 +113,161 @@ public class ExpiringUrlCacheTests {
     @Test
     public void entry_expires_on_time() throws Exception {
         when(ticker.getCurrentTimeMillis()).thenReturn(System.currentTimeMillis(), System.currentTimeMillis() + EXPIRING_TIME_MILLIS + 10000);
+        cache.setMaxStaleMillis(0);
         byte[] c1 = cache.getUrlContent(uri, template);
         byte[] c2 = cache.getUrlContent(uri, template);
-        verify(template, times(2)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+        verify(template, times(2)).exchange(argThat(isGet(uri)), same(byte[].class));
         assertNotSame(c1, c2);
     }
 
+    @Test
+    public void expired_content_is_served_while_refresh_fails() throws Exception {
+        long now = System.currentTimeMillis();
+        when(ticker.getCurrentTimeMillis()).thenReturn(now, now + EXPIRING_TIME_MILLIS + 10000);
+        cache.setMaxStaleMillis(60000);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenReturn(ok(content)).thenThrow(new RestClientException("mock"));
+        byte[] c1 = cache.getUrlContent(uri, template);
+        byte[] c2 = cache.getUrlContent(uri, template);
+        assertSame(c1, c2);
+        assertEquals(1, cache.getStaleCount());
+        waitFor(() -> cache.getFetchFailureCount() == 1);
+        assertSame(c1, cache.getUrlContent(uri, template));
+        verify(template, times(2)).exchange(any(RequestEntity.class), same(byte[].class));
+        assertEquals(10000, cache.getMaxStaleness());
+    }
+
+    @Test
+    public void expired_content_is_served_without_waiting_for_the_refresh() throws Exception {
+        long now = System.currentTimeMillis();
+        when(ticker.getCurrentTimeMillis()).thenReturn(now, now + EXPIRING_TIME_MILLIS + 10000);
+        byte[] refreshed = new byte[1024];
+        CountDownLatch release = new CountDownLatch(1);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenReturn(ok(content)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return ok(refreshed);
+        });
+        assertSame(content, cache.getUrlContent(uri, template));
+        assertSame(content, cache.getUrlContent(uri, template));
+        assertSame(content, cache.getUrlContent(uri, template));
+        assertEquals(2, cache.getStaleCount());
+
+        release.countDown();
+        waitFor(() -> cache.getUrlContent(uri, template) == refreshed);
+        verify(template, times(2)).exchange(any(RequestEntity.class), same(byte[].class));
+    }
+
+    @Test
+    public void failed_fetches_back_off() throws Exception {
+        AtomicLong now = new AtomicLong(System.currentTimeMillis());
+        when(ticker.getCurrentTimeMillis()).thenAnswer(e -> now.get());
+        cache.setFailureBackoffMillis(10000);
+        cache.setMaxFailureBackoffMillis(15000);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenThrow(new RestClientException("mock"));
+
+        assertNull(cache.getUrlContent(uri, template));
+        assertNull(cache.getUrlContent(uri, template));
+        verify(template, times(1)).exchange(any(RequestEntity.class), same(byte[].class));
+        assertEquals(1, cache.getBackedOffCount());
+
+        now.addAndGet(10000);
+        assertNull(cache.getUrlContent(uri, template));
+        verify(template, times(2)).exchange(any(RequestEntity.class), same(byte[].class));
+
+        now.addAndGet(10000);
+        assertNull(cache.getUrlContent(uri, template));
+        verify(template, times(2)).exchange(any(RequestEntity.class), same(byte[].class));
+
+        now.addAndGet(5000);
+        assertNull(cache.getUrlContent(uri, template));
+        verify(template, times(3)).exchange(any(RequestEntity.class), same(byte[].class));
+        assertEquals(2, cache.getBackedOffCount());
+    }
+
+    @Test
+    public void content_past_max_staleness_is_not_served() throws Exception {
+        long now = System.currentTimeMillis();
+        when(ticker.getCurrentTimeMillis()).thenReturn(now, now + EXPIRING_TIME_MILLIS + 10000);
+        cache.setMaxStaleMillis(5000);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenReturn(ok(content)).thenThrow(new RestClientException("mock"));
+        cache.getUrlContent(uri, template);
+        assertNull(cache.getUrlContent(uri, template));
+    }
+
+    @Test
+    public void expired_content_is_revalidated_with_conditional_get() throws Exception {
+        long now = System.currentTimeMillis();
+        when(ticker.getCurrentTimeMillis()).thenReturn(now, now + EXPIRING_TIME_MILLIS + 10000);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"v1\"");
+        headers.setLastModified(now - 1000);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenReturn(
+            new ResponseEntity<>(content, headers, HttpStatus.OK),
+            new ResponseEntity<>(HttpStatus.NOT_MODIFIED)
+        );
+        byte[] c1 = cache.getUrlContent(uri, template);
+        byte[] c2 = cache.getUrlContent(uri, template);
+        assertSame(c1, c2);
+        waitFor(() -> cache.getNotModifiedCount() == 1);
+
+        ArgumentCaptor<RequestEntity> requests = ArgumentCaptor.forClass(RequestEntity.class);
+        verify(template, times(2)).exchange(requests.capture(), same(byte[].class));
+        HttpHeaders sent = requests.getAllValues().get(1).getHeaders();
+        assertEquals(Arrays.asList("\"v1\""), sent.getIfNoneMatch());
+        assertEquals((now - 1000) / 1000, sent.getIfModifiedSince() / 1000);
+        assertTrue(requests.getAllValues().get(0).getHeaders().getIfNoneMatch().isEmpty());
+    }
+
+    @Test
+    public void content_about_to_expire_is_refreshed_in_the_background() throws Exception {
+        long now = System.currentTimeMillis();
+        when(ticker.getCurrentTimeMillis()).thenReturn(now, now + EXPIRING_TIME_MILLIS - 1000);
+        cache.setRefreshAheadMillis(5000);
+        byte[] c1 = cache.getUrlContent(uri, template);
+        byte[] c2 = cache.getUrlContent(uri, template);
+        assertSame(c1, c2);
+        verify(template, timeout(5000).times(2)).exchange(argThat(isGet(uri)), same(byte[].class));
+    }
+
+    @Test
+    public void concurrent_misses_share_one_fetch() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(template.exchange(any(RequestEntity.class), same(byte[].class))).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return ok(content);
+        });
+        List<Thread> threads = new ArrayList<>();
+        List<byte[]> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                byte[] result = cache.getUrlContent(uri, template);
+                synchronized (results) {
+                    results.add(result);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getCoalescedCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        verify(template, times(1)).exchange(any(RequestEntity.class), same(byte[].class));
+        assertEquals(4, results.size());
+        for (byte[] result : results) {
+            assertSame(content, result);
+        }
+        assertEquals(3, cache.getCoalescedCount());
+    }
+
 
     @Test
     public void test_google_returns_same_array() {
@@ -121,17 +292,32 @@ public class ExpiringUrlCacheTests {
         byte[] c2 = new byte[1024];
         byte[] c3 = new byte[1024];
         template = mock(RestTemplate.class);
-        when(template.getForObject(eq(new URI(uri1)), any())).thenReturn(c1);
-        when(template.getForObject(eq(new URI(uri2)), any())).thenReturn(c2);
-        when(template.getForObject(eq(new URI(uri3)), any())).thenReturn(c3);
+        when(template.exchange(argThat(isGet(uri1)), same(byte[].class))).thenReturn(ok(c1));
+        when(template.exchange(argThat(isGet(uri2)), same(byte[].class))).thenReturn(ok(c2));
+        when(template.exchange(argThat(isGet(uri3)), same(byte[].class))).thenReturn(ok(c3));
         for (String uri : Arrays.asList(uri1, uri1, uri2, uri2, uri3, uri3)) {
             cache.getUrlContent(uri, template);
         }
         for (String uri : Arrays.asList(uri1, uri2, uri3)) {
-            verify(template, times(1)).getForObject(eq(new URI(uri)), same((new byte[0]).getClass()));
+            verify(template, times(1)).exchange(argThat(isGet(uri)), same(byte[].class));
         }
         assertEquals(2, cache.size());
     }
 
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static ResponseEntity<byte[]> ok(byte[] body) {
+        return new ResponseEntity<>(body, HttpStatus.OK);
+    }
+
+    private static ArgumentMatcher<RequestEntity> isGet(String uri) {
+        return request -> request != null && HttpMethod.GET.equals(request.getMethod()) && uri.equals(request.getUrl().toString());
+    }
 
 }
@@ -15,6 +15,9 @@
 
 package org.cloudfoundry.identity.uaa.metrics;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +29,7 @@ import org.cloudfoundry.identity.uaa.util.TimeServiceImpl;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
@@ -253,6 +257,23 @@ public class UaaMetricsFilterTests {
         );
     }
 
+    @Test
+    public void url_groups_can_be_reloaded() throws Exception {
+        File file = File.createTempFile("url-groups", ".yml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "- pattern: /some/**\n  limit: 1000\n  category: API\n  group: /some\n".getBytes(StandardCharsets.UTF_8));
+        filter.setUrlGroupsResource(new FileSystemResource(file));
+        setRequestData("/some/path");
+        assertEquals("/some", filter.getUriGroup(request).getGroup());
+
+        Files.write(file.toPath(), "- pattern: /some/path\n  limit: 1000\n  category: API\n  group: /path\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("/some", filter.getUriGroup(request).getGroup());
+        filter.reloadUrlGroups();
+        assertEquals("/path", filter.getUriGroup(request).getGroup());
+        setRequestData("/other");
+        assertEquals(FALLBACK.getGroup(), filter.getUriGroup(request).getGroup());
+    }
+
     @Test
     public void validate_matcher() throws Exception {
         //validates that patterns that end with /** still match at parent level
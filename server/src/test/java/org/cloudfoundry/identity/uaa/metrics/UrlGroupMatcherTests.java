@@ -0,0 +1,88 @@
+/*
+ * ****************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ * ****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UrlGroupMatcherTests {
+
+    @Test
+    public void matches_like_ant_path_request_matchers() throws Exception {
+        List<UrlGroup> groups = new UaaMetricsFilter().getUrlGroups();
+        UrlGroupMatcher matcher = new UrlGroupMatcher(groups);
+        List<String> paths = Arrays.asList(
+            "/", "//", "", "/authenticate", "/authenticate/", "/Codes/abc", "/codes",
+            "/oauth/clients", "/oauth/clients/", "/oauth/clients/id/secret", "/oauth/clients/id/secret/x",
+            "/oauth/clients/id/meta", "/oauth/clients/tx/secret", "/oauth/clients/tx/modify", "/oauth/clients/restricted",
+            "/Groups", "/Groups/", "/Groups/id/members", "/Groups/id/members/other", "/Groups/External/list", "/Groups/id",
+            "/oauth/token", "/oauth/token/list/user/id", "/oauth/token/revoke/id", "/oauth/token/.well-known/openid-configuration",
+            "/.well-known/openid-configuration", "/Users/id/verify", "/ids/Users", "/healthz", "/login", "/login.do",
+            "/login/callback/origin", "/error", "/error404", "/errors/page", "/error/", "/vendor/font.css", "/resources/oss/logo.png",
+            "/saml/idp/initiate", "/saml/SSO/alias/uaa", "/some/path", "/userinfo", "/token_keys", "/unknown/path/"
+        );
+        for (String path : paths) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setPathInfo(path);
+            UrlGroup expected = null;
+            for (UrlGroup group : groups) {
+                if (new AntPathRequestMatcher(group.getPattern()).matches(request)) {
+                    expected = group;
+                    break;
+                }
+            }
+            assertSame("Testing URL: " + path, expected, matcher.match(path));
+        }
+    }
+
+    @Test
+    public void first_matching_group_wins() {
+        UrlGroup wildcard = group("/api/*/items/**");
+        UrlGroup literal = group("/api/v1/items");
+        UrlGroup all = group("/**");
+        UrlGroupMatcher matcher = new UrlGroupMatcher(Arrays.asList(wildcard, literal, all));
+        assertSame(wildcard, matcher.match("/api/v1/items"));
+        assertSame(all, matcher.match("/api/v1"));
+
+        matcher = new UrlGroupMatcher(Arrays.asList(literal, wildcard));
+        assertSame(literal, matcher.match("/api/v1/items"));
+        assertSame(wildcard, matcher.match("/api/v2/items/3"));
+        assertNull(matcher.match("/api/v2/other"));
+    }
+
+    @Test
+    public void patterns_outside_the_trie_are_evaluated() {
+        UrlGroup nested = group("/api/**/items");
+        UrlGroup variable = group("/users/{id}");
+        UrlGroupMatcher matcher = new UrlGroupMatcher(Arrays.asList(nested, variable));
+        assertSame(nested, matcher.match("/api/a/b/items"));
+        assertSame(variable, matcher.match("/users/123"));
+        assertNull(matcher.match("/users/123/roles"));
+        assertEquals(2, matcher.getGroups().size());
+    }
+
+    private static UrlGroup group(String pattern) {
+        return new UrlGroup().setPattern(pattern).setGroup(pattern).setCategory("Test").setLimit(1000);
+    }
+}
@@ -642,6 +642,61 @@ public class UaaTokenServicesTests {
         tokenServices.loadAuthentication(accessToken3.getValue());
     }
 
+    @Test
+    public void validated_token_cache_is_used_until_client_is_evicted() {
+        ValidatedTokenCache cache = new ValidatedTokenCache();
+        cache.setEnabled(true);
+        tokenServices.setValidatedTokenCache(cache);
+        tokenSupport.defaultClient.setClientSecret(SECRET);
+
+        AuthorizationRequest authorizationRequest = new AuthorizationRequest(CLIENT_ID,tokenSupport.requestedAuthScopes);
+        authorizationRequest.setResourceIds(new HashSet<>(tokenSupport.resourceIds));
+        Map<String, String> azParameters = new HashMap<>(authorizationRequest.getRequestParameters());
+        azParameters.put(GRANT_TYPE, PASSWORD);
+        authorizationRequest.setRequestParameters(azParameters);
+        OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest.createOAuth2Request(), tokenSupport.defaultUserAuthentication);
+        OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+
+        tokenServices.loadAuthentication(accessToken.getValue());
+        assertEquals(1, cache.size());
+
+        //changed without an event, the cached validation is still used
+        tokenSupport.defaultClient.setClientSecret("newsecret");
+        assertNotNull(tokenServices.loadAuthentication(accessToken.getValue()).getUserAuthentication());
+
+        cache.evictClient(CLIENT_ID);
+        try {
+            tokenServices.loadAuthentication(accessToken.getValue());
+            fail("Token should fail to validate on the revocation signature");
+        } catch (InvalidTokenException e) {
+            assertTrue(e.getMessage().contains("revocable signature mismatch"));
+        }
+    }
+
+    @Test
+    public void validated_token_cache_still_checks_revocable_token_store() {
+        ValidatedTokenCache cache = new ValidatedTokenCache();
+        cache.setEnabled(true);
+        tokenServices.setValidatedTokenCache(cache);
+
+        AuthorizationRequest authorizationRequest = new AuthorizationRequest(CLIENT_ID,tokenSupport.requestedAuthScopes);
+        authorizationRequest.setResourceIds(new HashSet<>(tokenSupport.resourceIds));
+        Map<String, String> azParameters = new HashMap<>(authorizationRequest.getRequestParameters());
+        azParameters.put(GRANT_TYPE, PASSWORD);
+        azParameters.put(REQUEST_TOKEN_FORMAT, TokenConstants.OPAQUE);
+        authorizationRequest.setRequestParameters(azParameters);
+        OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest.createOAuth2Request(), tokenSupport.defaultUserAuthentication);
+        OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+        String accessTokenValue = tokenProvisioning.retrieve(accessToken.getValue(), IdentityZoneHolder.get().getId()).getValue();
+
+        tokenServices.loadAuthentication(accessTokenValue);
+        assertEquals(1, cache.size());
+
+        tokenSupport.tokens.remove(accessToken.getValue());
+        expectedEx.expect(TokenRevokedException.class);
+        tokenServices.loadAuthentication(accessTokenValue);
+    }
+
     @Test
     public void testCreateRevocableAccessTokenPasswordGrant() {
         OAuth2AccessToken accessToken = performPasswordGrant();
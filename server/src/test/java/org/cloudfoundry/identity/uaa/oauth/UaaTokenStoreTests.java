@@ -14,12 +14,14 @@
 
 package org.cloudfoundry.identity.uaa.oauth;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.oauth.UaaTokenStore;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.junit.Before;
@@ -48,6 +50,7 @@ import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Timestamp;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -61,6 +64,8 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -265,6 +270,114 @@ public class UaaTokenStoreTests extends JdbcTestBase {
         assertTrue(code.isExpired());
     }
 
+    @Test
+    public void serialization_leaves_out_empty_values() throws Exception {
+        Map<String, Object> data = JsonUtils.readValue(store.serializeOauth2Authentication(clientAuthentication), new TypeReference<Map<String, Object>>() {});
+        assertEquals(UaaTokenStore.CURRENT_SERIALIZATION_VERSION, data.get(UaaTokenStore.SERIALIZATION_VERSION));
+        assertFalse(data.containsKey(UaaTokenStore.OAUTH2_REQUEST_REDIRECT_URI));
+        assertFalse(data.containsKey(UaaTokenStore.OAUTH2_REQUEST_RESOURCE_IDS));
+
+        OAuth2Authentication authentication = store.deserializeOauth2Authentication(store.serializeOauth2Authentication(clientAuthentication));
+        assertEquals(clientAuthentication.getOAuth2Request().getClientId(), authentication.getOAuth2Request().getClientId());
+        assertTrue(authentication.getOAuth2Request().getResourceIds().isEmpty());
+        assertNull(authentication.getOAuth2Request().getRedirectUri());
+        assertEquals(clientAuthentication.getOAuth2Request().getScope(), authentication.getOAuth2Request().getScope());
+    }
+
+    @Test
+    public void serialization_nests_the_user_as_json() throws Exception {
+        Map<String, Object> data = JsonUtils.readValue(store.serializeOauth2Authentication(uaaAuthentication), new TypeReference<Map<String, Object>>() {});
+        assertTrue(data.get(UaaTokenStore.USER_AUTHENTICATION_UAA_AUTHENTICATION) instanceof Map);
+        assertEquals(principal, store.deserializeOauth2Authentication(store.serializeOauth2Authentication(uaaAuthentication)).getUserAuthentication().getPrincipal());
+
+        data = JsonUtils.readValue(store.serializeOauth2Authentication(usernamePasswordAuthentication), new TypeReference<Map<String, Object>>() {});
+        assertTrue(data.get(UaaTokenStore.USER_AUTHENTICATION_UAA_PRINCIPAL) instanceof Map);
+        OAuth2Authentication authentication = store.deserializeOauth2Authentication(store.serializeOauth2Authentication(usernamePasswordAuthentication));
+        assertEquals(principal, authentication.getUserAuthentication().getPrincipal());
+        assertEquals(usernamePasswordAuthentication.getUserAuthentication().getAuthorities(), authentication.getUserAuthentication().getAuthorities());
+    }
+
+    @Test
+    public void version_1_writes_every_value() throws Exception {
+        store.setSerializationVersion(1);
+        Map<String, Object> data = JsonUtils.readValue(store.serializeOauth2Authentication(clientAuthentication), new TypeReference<Map<String, Object>>() {});
+        assertFalse(data.containsKey(UaaTokenStore.SERIALIZATION_VERSION));
+        for (String key : Arrays.asList(
+            UaaTokenStore.OAUTH2_REQUEST_PARAMETERS,
+            UaaTokenStore.OAUTH2_REQUEST_AUTHORITIES,
+            UaaTokenStore.OAUTH2_REQUEST_SCOPE,
+            UaaTokenStore.OAUTH2_REQUEST_RESOURCE_IDS,
+            UaaTokenStore.OAUTH2_REQUEST_REDIRECT_URI,
+            UaaTokenStore.OAUTH2_REQUEST_RESPONSE_TYPES)) {
+            assertTrue(key, data.containsKey(key));
+        }
+        assertEquals(Collections.emptyList(), data.get(UaaTokenStore.OAUTH2_REQUEST_RESOURCE_IDS));
+
+        data = JsonUtils.readValue(store.serializeOauth2Authentication(uaaAuthentication), new TypeReference<Map<String, Object>>() {});
+        assertTrue(data.get(UaaTokenStore.USER_AUTHENTICATION_UAA_AUTHENTICATION) instanceof String);
+        assertEquals(principal, store.deserializeOauth2Authentication(store.serializeOauth2Authentication(uaaAuthentication)).getUserAuthentication().getPrincipal());
+    }
+
+    @Test(expected = InvalidGrantException.class)
+    public void codes_of_an_unknown_version_are_rejected() throws Exception {
+        Map<String, Object> data = JsonUtils.readValue(store.serializeOauth2Authentication(clientAuthentication), new TypeReference<Map<String, Object>>() {});
+        data.put(UaaTokenStore.SERIALIZATION_VERSION, UaaTokenStore.CURRENT_SERIALIZATION_VERSION + 1);
+        store.deserializeOauth2Authentication(JsonUtils.writeValueAsBytes(data));
+    }
+
+    @Test
+    public void in_memory_codes_are_consumed_once() throws Exception {
+        store.setInMemory(true);
+        String code = store.createAuthorizationCode(uaaAuthentication);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
+        assertNotNull(store.consumeAuthorizationCode(code));
+        try {
+            store.consumeAuthorizationCode(code);
+            fail();
+        } catch (InvalidGrantException e) {
+        }
+    }
+
+    @Test
+    public void in_memory_codes_are_consumed_as_from_the_database() throws Exception {
+        OAuth2Authentication fromDatabase = store.consumeAuthorizationCode(store.createAuthorizationCode(uaaAuthentication));
+        store.setInMemory(true);
+        OAuth2Authentication fromMemory = store.consumeAuthorizationCode(store.createAuthorizationCode(uaaAuthentication));
+        assertNotSame(uaaAuthentication, fromMemory);
+        assertEquals(fromDatabase.getOAuth2Request(), fromMemory.getOAuth2Request());
+        assertEquals(JsonUtils.writeValueAsString(fromDatabase.getUserAuthentication()), JsonUtils.writeValueAsString(fromMemory.getUserAuthentication()));
+    }
+
+    @Test(expected = InvalidGrantException.class)
+    public void in_memory_codes_expire() throws Exception {
+        store = new UaaTokenStore(dataSource, 1);
+        store.setInMemory(true);
+        String code = store.createAuthorizationCode(clientAuthentication);
+        Thread.sleep(10);
+        store.consumeAuthorizationCode(code);
+    }
+
+    @Test
+    public void expired_codes_are_cleaned_up_in_the_background() throws Exception {
+        store.setCleanupIntervalMillis(60000);
+        store.afterPropertiesSet();
+        try {
+            String code = store.createAuthorizationCode(clientAuthentication);
+            store.createAuthorizationCode(clientAuthentication);
+            jdbcTemplate.update("UPDATE oauth_code SET expiresat = ?", System.currentTimeMillis() - 60000);
+            try {
+                store.consumeAuthorizationCode(code);
+                fail();
+            } catch (InvalidGrantException e) {
+            }
+            assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(1));
+            store.expireCodes();
+            assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
+        } finally {
+            store.destroy();
+        }
+    }
+
     @Test
     public void testCleanUpUnusedOldTokens_MySQL_In_Another_Timezone() throws Exception {
         //only run tests for MySQL for now.
@@ -0,0 +1,154 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.client.event.ClientUpdateEvent;
+import org.cloudfoundry.identity.uaa.oauth.jwt.CommonSigner;
+import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.util.MockTimeService;
+import org.cloudfoundry.identity.uaa.util.TokenValidation;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.USER_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class ValidatedTokenCacheTests {
+
+    private MockTimeService timeService;
+    private ValidatedTokenCache cache;
+
+    @Before
+    public void setUp() {
+        timeService = new MockTimeService();
+        cache = new ValidatedTokenCache();
+        cache.setTimeService(timeService);
+        cache.setEnabled(true);
+    }
+
+    @Test
+    public void disabled_cache_stores_nothing() {
+        cache.setEnabled(false);
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        assertNull(cache.get("uaa", "token"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void entries_are_scoped_to_zone() {
+        TokenValidation validation = validation("client", "user", expiresInSeconds(300));
+        cache.put("uaa", "token", validation, null);
+        assertSame(validation, cache.get("uaa", "token").getValidation());
+        assertNull(cache.get("other-zone", "token"));
+    }
+
+    @Test
+    public void entries_expire_after_configured_expiry() {
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        timeService.addAndGet((cache.getExpiryInSeconds() + 1) * 1000l);
+        assertNull(cache.get("uaa", "token"));
+    }
+
+    @Test
+    public void entries_never_outlive_the_token() {
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(5)), null);
+        assertNotNull(cache.get("uaa", "token"));
+        timeService.addAndGet(6000);
+        assertNull(cache.get("uaa", "token"));
+    }
+
+    @Test
+    public void client_events_evict_client_tokens() {
+        cache.put("uaa", "token1", validation("client1", "user", expiresInSeconds(300)), null);
+        cache.put("uaa", "token2", validation("client2", "user", expiresInSeconds(300)), null);
+        cache.onApplicationEvent(new ClientUpdateEvent(new BaseClientDetails("client1", null, null, null, null), mock(Authentication.class)));
+        assertNull(cache.get("uaa", "token1"));
+        assertNotNull(cache.get("uaa", "token2"));
+    }
+
+    @Test
+    public void user_events_evict_user_tokens() {
+        cache.put("uaa", "token1", validation("client", "user1", expiresInSeconds(300)), null);
+        cache.put("uaa", "token2", validation("client", "user2", expiresInSeconds(300)), null);
+        cache.onApplicationEvent(UserModifiedEvent.userModified("user1", "username"));
+        assertNull(cache.get("uaa", "token1"));
+        assertNotNull(cache.get("uaa", "token2"));
+    }
+
+    @Test
+    public void zone_deletion_evicts_zone_tokens() {
+        IdentityZone zone = new IdentityZone();
+        zone.setId("other-zone");
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.put("other-zone", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.onApplicationEvent(new EntityDeletedEvent<>(zone, null));
+        assertNull(cache.get("other-zone", "token"));
+        assertNotNull(cache.get("uaa", "token"));
+    }
+
+    @Test
+    public void group_membership_changes_evict_zone_tokens() {
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.put("other-zone", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.membershipChanged("other-zone");
+        assertNull(cache.get("other-zone", "token"));
+        assertNotNull(cache.get("uaa", "token"));
+    }
+
+    @Test
+    public void group_events_evict_zone_tokens() {
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.onApplicationEvent(GroupModifiedEvent.groupModified("group-id", "group", new String[0]));
+        assertNull(cache.get("uaa", "token"));
+
+        ScimGroup group = new ScimGroup("group-id", "group", "other-zone");
+        cache.put("uaa", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.put("other-zone", "token", validation("client", "user", expiresInSeconds(300)), null);
+        cache.onApplicationEvent(new EntityDeletedEvent<>(group, null));
+        assertNull(cache.get("other-zone", "token"));
+        assertNotNull(cache.get("uaa", "token"));
+    }
+
+    private long expiresInSeconds(int seconds) {
+        return timeService.getCurrentTimeMillis() / 1000 + seconds;
+    }
+
+    private TokenValidation validation(String clientId, String userId, long exp) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CID, clientId);
+        claims.put(USER_ID, userId);
+        claims.put(EXP, exp);
+        String token = JwtHelper.encode(JsonUtils.writeValueAsString(claims), new CommonSigner("testKey", "secret")).getEncoded();
+        return TokenValidation.validate(token);
+    }
+}
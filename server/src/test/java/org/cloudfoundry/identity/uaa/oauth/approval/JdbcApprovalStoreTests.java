@@ -33,9 +33,11 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.APPROVED;
 import static org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus.DENIED;
@@ -125,6 +127,17 @@ public class JdbcApprovalStoreTests extends JdbcTestBase {
         IdentityZoneHolder.clear();
     }
 
+    @Test
+    public void can_get_approvals_for_several_users() {
+        String zoneId = IdentityZoneHolder.get().getId();
+        Map<String, List<Approval>> approvals = dao.getApprovalsForUsers(Arrays.asList("u1", "u2", "u3"), zoneId);
+        assertEquals(Arrays.asList("u1", "u2", "u3"), new ArrayList<>(approvals.keySet()));
+        assertEquals(2, approvals.get("u1").size());
+        assertEquals(1, approvals.get("u2").size());
+        assertEquals(0, approvals.get("u3").size());
+        assertEquals(0, dao.getApprovalsForUsers(Arrays.asList("u1", "u2"), otherZone.getId()).get("u1").size());
+    }
+
     @Test
     public void delete_zone_deletes_approvals() throws Exception {
         String zoneId = IdentityZoneHolder.getUaaZone().getId();
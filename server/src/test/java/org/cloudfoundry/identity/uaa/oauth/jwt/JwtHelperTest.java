@@ -1,8 +1,19 @@
 package org.cloudfoundry.identity.uaa.oauth.jwt;
 
 import org.junit.Test;
+import org.springframework.security.jwt.codec.Codecs;
+import org.springframework.security.jwt.crypto.sign.InvalidSignatureException;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class JwtHelperTest {
 
@@ -16,4 +27,95 @@ public class JwtHelperTest {
         assertEquals("testKid", jwt.getHeader().getKid());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void encoded_token_is_decoded_and_verified() {
+        Signer signer = new CommonSigner("testKid", "symmetricKey");
+        String claims = "{\"sub\":\"marissa\",\"name\":\"M\u00e4rissa\"}";
+        Jwt jwt = JwtHelper.encode(claims, signer);
+        String token = jwt.getEncoded();
+        assertSame(token, jwt.getEncoded());
+
+        Jwt decoded = JwtHelper.decodeAndVerify(token, new MacSigner("symmetricKey"));
+        assertEquals(claims, decoded.getClaims());
+        assertSame(token, decoded.getEncoded());
+        assertArrayEquals(jwt.bytes(), decoded.bytes());
+        assertEquals("HS256", decoded.getHeader().getAlg());
+        assertEquals("JWT", decoded.getHeader().getTyp());
+    }
+
+    @Test
+    public void tampered_claims_fail_verification() {
+        String token = JwtHelper.encode("{\"sub\":\"marissa\"}", new CommonSigner("testKid", "symmetricKey")).getEncoded();
+        String[] segments = token.split("\\.");
+        String tampered = segments[0] + "." + Codecs.utf8Decode(Codecs.b64UrlEncode("{\"sub\":\"admin\"}")) + "." + segments[2];
+        try {
+            JwtHelper.decodeAndVerify(tampered, new MacSigner("symmetricKey"));
+            fail();
+        } catch (InvalidSignatureException e) {
+        }
+    }
+
+    @Test
+    public void claims_are_a_typed_view() {
+        String claims = "{\"scope\":[\"openid\",\"uaa.user\"],\"aud\":\"cf\",\"exp\":1508328000,\"cid\":\"cf\",\"user_id\":\"1234\"}";
+        JwtClaims claimSet = JwtHelper.encode(claims, new CommonSigner(null, "symmetricKey")).getClaimSet();
+        assertEquals(Arrays.asList("openid", "uaa.user"), claimSet.getScope());
+        assertEquals(Collections.singletonList("cf"), claimSet.getAud());
+        assertEquals(Long.valueOf(1508328000L), claimSet.getExp());
+        assertEquals("cf", claimSet.getCid());
+        assertEquals("1234", claimSet.getUserId());
+        assertSame(claimSet.asMap(), claimSet.asMap());
+
+        JwtClaims empty = JwtHelper.encode(" ", new CommonSigner(null, "symmetricKey")).getClaimSet();
+        assertEquals(0, empty.asMap().size());
+        assertEquals(Collections.emptyList(), empty.getScope());
+        assertNull(empty.getExp());
+    }
+
+    @Test
+    public void header_values_with_separators_and_escapes_are_parsed() {
+        String header = " { \"alg\" : \"HS256\", \"kid\":\"key,with:separators \\\"quoted\\\" \\u00e9\", \"x5c\":[\"a\",\"b\"], \"crit\":{\"b64\":false},\"typ\":\"JWT\" } ";
+        HeaderParameters parameters = JwtHeaderHelper.parseParams(Codecs.utf8Encode(header));
+        assertEquals("HS256", parameters.getAlg());
+        assertEquals("key,with:separators \"quoted\" \u00e9", parameters.getKid());
+    }
+
+    @Test
+    public void invalid_headers_are_rejected() {
+        for (String header : Arrays.asList("{\"alg\":\"HS256\",\"alg\":\"none\"}", "{\"alg\":\"HS256\"", "{\"alg\" \"HS256\"}", "[]", "{\"alg\":\"HS256\",\"typ\":\"JWE\"}", "{}")) {
+            try {
+                JwtHeaderHelper.parseParams(Codecs.utf8Encode(header));
+                fail(header);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void base64url_matches_the_jwt_codecs() {
+        Random random = new Random(0);
+        for (int length = 1; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            byte[] encoded = new byte[Base64Url.encodedLength(length) + 2];
+            int end = Base64Url.encode(bytes, encoded, 2);
+            String expected = Codecs.utf8Decode(Codecs.b64UrlEncode(bytes));
+            assertEquals(expected, new String(encoded, 2, end - 2));
+            assertArrayEquals(bytes, Base64Url.decode("." + expected + ".", 1, expected.length() + 1));
+        }
+        assertEquals(0, Base64Url.encode(new byte[0], new byte[0], 0));
+        assertArrayEquals(new byte[0], Base64Url.decode("", 0, 0));
+        assertArrayEquals(new byte[] {(byte) 0xfb}, Base64Url.decode("-w==", 0, 4));
+    }
+
+    @Test
+    public void invalid_base64url_is_rejected() {
+        for (String value : Arrays.asList("a", "ab+c", "ab/c", "abc\u00e9")) {
+            try {
+                Base64Url.decode(value, 0, value.length());
+                fail(value);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 import org.springframework.util.StringUtils;
 
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,8 @@ import java.util.Map;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -96,7 +99,49 @@ public class KeyInfoTests {
         assertEquals(KeyInfo.getActiveKey().getSigningKey(), "testLegacyKey");
     }
 
-    private void configureDefaultZoneKeys(Map<String,String> keys) {
+    @Test
+    public void testKeysAreReusedWhileZoneIsUnchanged() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, "testkey"));
+
+        KeyInfo key = KeyInfo.getKey(keyId);
+        assertSame(key, KeyInfo.getKey(keyId));
+        assertSame(key, KeyInfo.getActiveKey());
+    }
+
+    @Test
+    public void testKeysAreRebuiltWhenTokenPolicyKeysChange() {
+        String keyId = generator.generate();
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, "testkey"));
+        KeyInfo key = KeyInfo.getKey(keyId);
+
+        configureDefaultZoneKeys(Collections.singletonMap(keyId, "otherkey"));
+        KeyInfo changed = KeyInfo.getKey(keyId);
+        assertNotSame(key, changed);
+        assertEquals("otherkey", changed.getSigningKey());
+    }
+
+    @Test
+    public void testKeysAreRebuiltWhenZoneIsModified() {
+        String keyId = generator.generate();
+        IdentityZone zone = configureDefaultZoneKeys(Collections.singletonMap(keyId, "testkey"));
+        KeyInfo key = KeyInfo.getKey(keyId);
+
+        zone.setLastModified(new Date(zone.getLastModified().getTime() + 1000));
+        assertNotSame(key, KeyInfo.getKey(keyId));
+    }
+
+    @Test
+    public void testEvictKeys() {
+        String keyId = generator.generate();
+        IdentityZone zone = configureDefaultZoneKeys(Collections.singletonMap(keyId, "testkey"));
+        KeyInfo key = KeyInfo.getKey(keyId);
+
+        KeyInfo.evictKeys(zone.getId());
+        assertNotSame(key, KeyInfo.getKey(keyId));
+    }
+
+    private IdentityZone configureDefaultZoneKeys(Map<String,String> keys) {
         IdentityZoneHolder.clear();
         IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
         IdentityZoneHolder.setProvisioning(provisioning);
@@ -107,5 +152,6 @@ public class KeyInfoTests {
         config.setTokenPolicy(tokenPolicy);
         zone.setConfig(config);
         when(provisioning.retrieve("uaa")).thenReturn(zone);
+        return zone;
     }
 }
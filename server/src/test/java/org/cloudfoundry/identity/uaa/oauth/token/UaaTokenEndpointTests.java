@@ -15,15 +15,27 @@
 
 package org.cloudfoundry.identity.uaa.oauth.token;
 
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.password.ResourceOwnerPasswordTokenGranter;
+import org.springframework.security.oauth2.provider.request.DefaultOAuth2RequestFactory;
+import org.springframework.security.oauth2.provider.token.AuthorizationServerTokenServices;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 
 import javax.servlet.http.HttpServletRequest;
@@ -42,10 +54,15 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.http.HttpMethod.GET;
 import static org.springframework.http.HttpMethod.POST;
 import static org.springframework.http.HttpStatus.NOT_ACCEPTABLE;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
 public class UaaTokenEndpointTests {
@@ -132,4 +149,33 @@ public class UaaTokenEndpointTests {
         assertEquals(NOT_ACCEPTABLE, result.getStatusCode());
     }
 
+    @Test
+    public void rejected_password_grant_returns_status_and_retry_after() throws Exception {
+        BaseClientDetails client = new BaseClientDetails("client", null, "openid", "password", null);
+        ClientDetailsService clientDetailsService = mock(ClientDetailsService.class);
+        when(clientDetailsService.loadClientByClientId("client")).thenReturn(client);
+        AuthenticationManager authenticationManager = mock(AuthenticationManager.class);
+        when(authenticationManager.authenticate(any())).thenThrow(new PasswordHashingRejectedException("Too many password hashes", 429, 2));
+        AuthorizationServerTokenServices tokenServices = mock(AuthorizationServerTokenServices.class);
+        DefaultOAuth2RequestFactory requestFactory = new DefaultOAuth2RequestFactory(clientDetailsService);
+
+        UaaTokenEndpoint endpoint = new UaaTokenEndpoint();
+        endpoint.setClientDetailsService(clientDetailsService);
+        endpoint.setOAuth2RequestFactory(requestFactory);
+        endpoint.setTokenGranter(new ResourceOwnerPasswordTokenGranter(authenticationManager, tokenServices, clientDetailsService, requestFactory));
+        endpoint.afterPropertiesSet();
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(endpoint).build();
+
+        Authentication principal = new UsernamePasswordAuthenticationToken("client", null, AuthorityUtils.createAuthorityList("uaa.none"));
+        mockMvc.perform(post("/oauth/token")
+                            .principal(principal)
+                            .param("grant_type", "password")
+                            .param("username", "marissa")
+                            .param("password", "koala"))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().string("Retry-After", "2"))
+            .andExpect(jsonPath("$.error").value("temporarily_unavailable"));
+        verifyZeroInteractions(tokenServices);
+    }
+
 }
\ No newline at end of file
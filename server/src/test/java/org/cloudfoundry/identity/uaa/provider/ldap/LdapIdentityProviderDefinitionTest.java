@@ -294,7 +294,10 @@ public class LdapIdentityProviderDefinitionTest {
             "    searchSubtree: true\n" +
             "    groupSearchFilter: member={0}\n" +
             "    maxSearchDepth: 30\n" +
-            "    autoAdd: true";
+            "    cacheTtlMillis: 5000\n" +
+            "    autoAdd: true\n" +
+            "  pool:\n" +
+            "    maxIdle: 4";
         LdapIdentityProviderDefinition def = LdapUtils.fromConfig(getLdapConfig(config));
 
         assertEquals("ldap://localhost:10389/",def.getBaseUrl());
@@ -315,6 +318,8 @@ public class LdapIdentityProviderDefinitionTest {
         assertEquals("ldap/ldap-groups-map-to-scopes.xml", def.getLdapGroupFile());
         assertTrue(def.isGroupSearchSubTree());
         assertEquals(30, def.getMaxGroupSearchDepth());
+        assertEquals(5000, (int) def.getGroupSearchCacheTtlMillis());
+        assertEquals(4, (int) def.getConnectionPoolMaxIdle());
         assertTrue(def.isAutoAddGroups());
         assertNull(def.getGroupRoleAttribute());
 
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.ldap;
+
+import org.cloudfoundry.identity.uaa.util.MockTimeService;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.core.support.BaseLdapPathContextSource;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PooledLdapContextSourceTests {
+
+    private BaseLdapPathContextSource target;
+    private PooledLdapContextSource pool;
+    private MockTimeService timeService;
+    private List<LdapContext> created;
+
+    @Before
+    public void setUp() {
+        created = new ArrayList<>();
+        target = mock(BaseLdapPathContextSource.class);
+        when(target.getReadOnlyContext()).thenAnswer(invocation -> {
+            LdapContext context = mock(LdapContext.class);
+            created.add(context);
+            return context;
+        });
+        timeService = new MockTimeService();
+        pool = new PooledLdapContextSource(target);
+        pool.setTimeService(timeService);
+        pool.setMaxIdle(2);
+        pool.setValidationIntervalMillis(1000);
+        pool.setMaxIdleTimeMillis(10000);
+    }
+
+    @Test
+    public void closed_contexts_are_reused() throws Exception {
+        DirContext first = pool.getReadOnlyContext();
+        assertTrue(first instanceof LdapContext);
+        first.close();
+        first.close();
+        DirContext second = pool.getReadOnlyContext();
+        assertNotSame(first, second);
+        second.getAttributes("cn=test");
+
+        assertEquals(1, created.size());
+        verify(created.get(0)).getAttributes("cn=test");
+        verify(created.get(0), never()).close();
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void closed_proxy_can_not_be_used() throws Exception {
+        DirContext context = pool.getReadOnlyContext();
+        context.close();
+        try {
+            context.getAttributes("cn=test");
+            fail();
+        } catch (IllegalStateException e) {
+            verify(created.get(0), never()).getAttributes(anyString());
+        }
+    }
+
+    @Test
+    public void at_most_max_idle_contexts_are_kept() throws Exception {
+        DirContext one = pool.getReadOnlyContext();
+        DirContext two = pool.getReadOnlyContext();
+        DirContext three = pool.getReadOnlyContext();
+        one.close();
+        two.close();
+        three.close();
+
+        assertEquals(2, pool.getIdleCount());
+        verify(created.get(2)).close();
+    }
+
+    @Test
+    public void idle_contexts_are_validated() throws Exception {
+        pool.getReadOnlyContext().close();
+        timeService.addAndGet(500);
+        pool.getReadOnlyContext().close();
+        verify(created.get(0), never()).search(anyString(), anyString(), any(SearchControls.class));
+
+        timeService.addAndGet(1000);
+        when(created.get(0).search(anyString(), anyString(), any(SearchControls.class))).thenThrow(new CommunicationException("connection closed"));
+        pool.getReadOnlyContext();
+        assertEquals(2, created.size());
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void valid_contexts_are_reused_after_validation() throws Exception {
+        pool.getReadOnlyContext().close();
+        timeService.addAndGet(1000);
+        when(created.get(0).search(anyString(), anyString(), any(SearchControls.class))).thenReturn(mock(NamingEnumeration.class));
+        pool.getReadOnlyContext();
+        assertEquals(1, created.size());
+    }
+
+    @Test
+    public void expired_contexts_are_closed() throws Exception {
+        pool.getReadOnlyContext().close();
+        timeService.addAndGet(10000);
+        pool.getReadOnlyContext();
+        assertEquals(2, created.size());
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void broken_contexts_are_not_reused() throws Exception {
+        DirContext context = pool.getReadOnlyContext();
+        when(created.get(0).getAttributes(anyString())).thenThrow(new CommunicationException("connection reset"));
+        try {
+            context.getAttributes("cn=test");
+            fail();
+        } catch (CommunicationException e) {
+            context.close();
+        }
+        assertEquals(0, pool.getIdleCount());
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void user_contexts_are_not_pooled() throws Exception {
+        DirContext user = mock(LdapContext.class);
+        when(target.getContext("cn=user", "secret")).thenReturn(user);
+        assertSame(user, pool.getContext("cn=user", "secret"));
+    }
+
+    @Test
+    public void destroy_closes_idle_contexts() throws Exception {
+        DirContext context = pool.getReadOnlyContext();
+        pool.getReadOnlyContext().close();
+        pool.destroy();
+        verify(created.get(1)).close();
+
+        context.close();
+        verify(created.get(0), times(1)).close();
+        assertEquals(0, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.ldap.extension;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class NestedLdapAuthoritiesPopulatorTests {
+
+    private Map<String, List<String>> memberOf;
+    private Map<String, AtomicInteger> searches;
+    private CountDownLatch latch;
+    private NestedLdapAuthoritiesPopulator populator;
+
+    @Before
+    public void setUp() {
+        memberOf = new HashMap<>();
+        memberOf.put("uid=marissa", Arrays.asList("cn=developers", "cn=admins"));
+        memberOf.put("cn=developers", Collections.singletonList("cn=engineering"));
+        memberOf.put("cn=admins", Collections.singletonList("cn=engineering"));
+        memberOf.put("cn=engineering", Collections.singletonList("cn=developers"));
+        searches = new ConcurrentHashMap<>();
+        populator = new NestedLdapAuthoritiesPopulator(mock(ContextSource.class), "ou=groups") {
+            @Override
+            protected SpringSecurityLdapTemplate getLdapTemplate() {
+                return new SpringSecurityLdapTemplate(mock(ContextSource.class)) {
+                    @Override
+                    public Set<Map<String, String[]>> searchForMultipleAttributeValues(String base, String filter, Object[] params, String[] attributeNames) {
+                        String dn = (String) params[0];
+                        searches.computeIfAbsent(dn, k -> new AtomicInteger()).incrementAndGet();
+                        if (latch != null && ("cn=developers".equals(dn) || "cn=admins".equals(dn))) {
+                            latch.countDown();
+                            try {
+                                assertTrue("searches of one level run in parallel", latch.await(5, TimeUnit.SECONDS));
+                            } catch (InterruptedException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        return memberOf.getOrDefault(dn, Collections.emptyList()).stream().map(group -> {
+                            Map<String, String[]> record = new HashMap<>();
+                            record.put(SpringSecurityLdapTemplate.DN_KEY, new String[] {group});
+                            record.put("cn", new String[] {group.substring(3)});
+                            return record;
+                        }).collect(Collectors.toSet());
+                    }
+                };
+            }
+        };
+        populator.setGroupRoleAttribute("cn");
+        populator.setRolePrefix("");
+        populator.setConvertToUpperCase(false);
+        populator.setAttributeNames(new HashSet<>(Collections.singletonList("cn")));
+    }
+
+    @Test
+    public void nested_groups_are_searched_once() {
+        Set<String> roles = roles(populator.getGroupMembershipRoles("uid=marissa", "marissa"));
+        assertEquals(new HashSet<>(Arrays.asList("developers", "admins", "engineering")), roles);
+        assertEquals(1, searches.get("cn=engineering").get());
+        assertEquals(1, searches.get("cn=developers").get());
+    }
+
+    @Test
+    public void searches_of_one_level_run_in_parallel() {
+        latch = new CountDownLatch(2);
+        populator.getGroupMembershipRoles("uid=marissa", "marissa");
+        assertEquals(0, latch.getCount());
+    }
+
+    @Test
+    public void max_depth_is_honored() {
+        populator.setMaxSearchDepth(1);
+        Set<String> roles = roles(populator.getGroupMembershipRoles("uid=marissa", "marissa"));
+        assertEquals(new HashSet<>(Arrays.asList("developers", "admins")), roles);
+        assertNull(searches.get("cn=developers"));
+    }
+
+    @Test
+    public void results_are_cached_per_user() {
+        Set<GrantedAuthority> first = populator.getGroupMembershipRoles("uid=marissa", "marissa");
+        first.clear();
+        assertEquals(3, populator.getGroupMembershipRoles("uid=marissa", "marissa").size());
+        assertEquals(1, searches.get("uid=marissa").get());
+
+        populator.getGroupMembershipRoles("cn=admins", "admins");
+        assertEquals(2, searches.get("cn=admins").get());
+    }
+
+    @Test
+    public void cache_can_be_disabled() {
+        populator.setCacheTtlMillis(0);
+        populator.getGroupMembershipRoles("uid=marissa", "marissa");
+        populator.getGroupMembershipRoles("uid=marissa", "marissa");
+        assertEquals(2, searches.get("uid=marissa").get());
+    }
+
+    private static Set<String> roles(Set<GrantedAuthority> authorities) {
+        return authorities.stream().map(GrantedAuthority::getAuthority).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.oauth;
+
+import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKey;
+import org.cloudfoundry.identity.uaa.oauth.jwk.JsonWebKeySet;
+import org.cloudfoundry.identity.uaa.util.MockTimeService;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TokenKeyCacheTests {
+
+    private TokenKeyCache cache;
+    private MockTimeService timeService;
+    private AtomicInteger fetches;
+    private String kid;
+    private long maxAge;
+
+    @Before
+    public void setUp() {
+        timeService = new MockTimeService();
+        cache = new TokenKeyCache();
+        cache.setTimeService(timeService);
+        cache.setDefaultTtlMillis(60000);
+        cache.setMinRefreshIntervalMillis(10000);
+        fetches = new AtomicInteger();
+        kid = "key-1";
+        maxAge = -1;
+    }
+
+    @Test
+    public void keys_are_reused_until_they_expire() {
+        TokenKeyCache.Keys first = cache.getKeys("provider", "key-1", loader());
+        assertSame(first, cache.getKeys("provider", "key-1", loader()));
+        assertEquals(1, fetches.get());
+        assertEquals(1, cache.getHitCount());
+
+        timeService.addAndGet(60000);
+        assertNotSame(first, cache.getKeys("provider", "key-1", loader()));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void cache_control_max_age_is_honored() {
+        maxAge = TokenKeyCache.getMaxAgeMillis("public, max-age=120");
+        cache.getKeys("provider", null, loader());
+        timeService.addAndGet(100000);
+        cache.getKeys("provider", null, loader());
+        assertEquals(1, fetches.get());
+        timeService.addAndGet(20000);
+        cache.getKeys("provider", null, loader());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void max_age_is_parsed() {
+        assertEquals(3600000, TokenKeyCache.getMaxAgeMillis("max-age=3600"));
+        assertEquals(60000, TokenKeyCache.getMaxAgeMillis("public, s-maxage=30, max-age=60"));
+        assertEquals(0, TokenKeyCache.getMaxAgeMillis("no-cache, max-age=60"));
+        assertEquals(-1, TokenKeyCache.getMaxAgeMillis("public"));
+        assertEquals(-1, TokenKeyCache.getMaxAgeMillis(null));
+    }
+
+    @Test
+    public void unknown_key_id_is_fetched_at_most_once_per_interval() {
+        cache.getKeys("provider", "key-1", loader());
+        kid = "key-2";
+        cache.getKeys("provider", "key-3", loader());
+        assertEquals(1, fetches.get());
+
+        timeService.addAndGet(10000);
+        TokenKeyCache.Keys keys = cache.getKeys("provider", "key-2", loader());
+        assertEquals(2, fetches.get());
+        assertSame(keys, cache.getKeys("provider", "key-2", loader()));
+    }
+
+    @Test
+    public void refresh_after_failed_signature_is_rate_limited() {
+        cache.getKeys("provider", "key-1", loader());
+        assertNull(cache.refreshKeys("provider", loader()));
+        timeService.addAndGet(10000);
+        cache.refreshKeys("provider", loader());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void previous_keys_are_used_when_refresh_fails() {
+        TokenKeyCache.Keys first = cache.getKeys("provider", "key-1", loader());
+        timeService.addAndGet(60000);
+        Supplier<TokenKeyCache.TokenKeys> failing = () -> {
+            fetches.incrementAndGet();
+            throw new ResourceAccessException("unavailable");
+        };
+        TokenKeyCache.Keys keys = cache.getKeys("provider", "key-1", failing);
+        assertSame(first.getVerifier(), keys.getVerifier());
+        assertEquals(1, cache.getFailureCount());
+        cache.getKeys("provider", "key-1", failing);
+        assertEquals(2, fetches.get());
+    }
+
+    @Test(expected = ResourceAccessException.class)
+    public void failure_without_previous_keys_is_thrown() {
+        cache.getKeys("provider", "key-1", () -> {
+            throw new ResourceAccessException("unavailable");
+        });
+    }
+
+    @Test
+    public void verifiers_are_reused_per_owner() {
+        Object owner = new Object();
+        AtomicInteger built = new AtomicInteger();
+        Supplier<JsonWebKeySet<JsonWebKey>> keySet = () -> {
+            built.incrementAndGet();
+            return keySet("key-1");
+        };
+        assertSame(cache.getVerifier(owner, keySet), cache.getVerifier(owner, keySet));
+        assertEquals(1, built.get());
+        cache.getVerifier(new Object(), keySet);
+        assertEquals(2, built.get());
+    }
+
+    private Supplier<TokenKeyCache.TokenKeys> loader() {
+        return () -> {
+            fetches.incrementAndGet();
+            return new TokenKeyCache.TokenKeys(keySet(kid), maxAge);
+        };
+    }
+
+    private static JsonWebKeySet<JsonWebKey> keySet(String kid) {
+        Map<String, Object> key = new HashMap<>();
+        key.put("kty", "MAC");
+        key.put("kid", kid);
+        key.put("value", "secret");
+        return new JsonWebKeySet<>(Collections.singletonList(new JsonWebKey(key)));
+    }
+}
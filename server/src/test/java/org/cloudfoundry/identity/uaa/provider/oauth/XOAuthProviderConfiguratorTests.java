@@ -55,6 +55,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -304,7 +305,7 @@ public class XOAuthProviderConfiguratorTests {
         assertNotSame(config, overlay);
         assertEquals(config, overlay);
         verify(cache).getUrlContent(eq(discoveryUrl), any());
-        verify(factory).getRestTemplate(eq(true));
+        verify(factory).getRestTemplate(eq(true), isNull(), isNull());
     }
 
     @Test
@@ -338,7 +339,7 @@ public class XOAuthProviderConfiguratorTests {
         assertEquals(new URL("https://www.googleapis.com/oauth2/v3/certs"), overlay.getTokenKeyUrl());
 
         verify(cache).getUrlContent(any(), any());
-        verify(factory).getRestTemplate(eq(false));
+        verify(factory).getRestTemplate(eq(false), isNull(), isNull());
     }
 
 
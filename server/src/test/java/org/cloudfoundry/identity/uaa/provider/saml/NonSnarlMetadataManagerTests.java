@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NonSnarlMetadataManagerTests {
+
+    @BeforeClass
+    public static void initializeOpenSAML() throws Exception {
+        if (!org.apache.xml.security.Init.isInitialized()) {
+            DefaultBootstrap.bootstrap();
+        }
+    }
+
+    private NonSnarlMetadataManager manager;
+    private IdentityProviderProvisioning provisioning;
+    private IdentityZone zone = IdentityZone.getUaa();
+    private IdentityProvider<SamlIdentityProviderDefinition> okta;
+    private IdentityProvider<SamlIdentityProviderDefinition> other;
+
+    @Before
+    public void setUp() throws Exception {
+        provisioning = mock(IdentityProviderProvisioning.class);
+        SamlIdentityProviderConfigurator configurator = new SamlIdentityProviderConfigurator();
+        configurator.setParserPool(new BasicParserPool());
+        configurator.setIdentityProviderProvisioning(provisioning);
+        manager = new NonSnarlMetadataManager(configurator);
+
+        okta = provider("okta-id", "okta", "http://www.okta.com/okta");
+        other = provider("other-id", "other", "http://www.okta.com/other");
+        when(provisioning.retrieveActive(zone.getId())).thenReturn(Arrays.asList(okta, other));
+    }
+
+    @Test
+    public void providers_are_indexed_by_entity_id() throws Exception {
+        NonSnarlMetadataManager.ZoneProviders providers = manager.getZoneProviders(zone);
+        assertEquals(2, providers.getDelegates().size());
+        assertSame(providers.getDelegates().get(1), providers.getDelegate("http://www.okta.com/other"));
+        assertNull(providers.getDelegate("http://www.okta.com/unknown"));
+        assertEquals(2, providers.getIdpEntityIDs().size());
+        assertTrue(providers.getIdpEntityIDs().contains("http://www.okta.com/okta"));
+    }
+
+    @Test
+    public void unchanged_providers_are_not_parsed_again() throws Exception {
+        NonSnarlMetadataManager.ZoneProviders first = manager.getZoneProviders(zone);
+        assertSame(first, manager.getZoneProviders(zone));
+    }
+
+    @Test
+    public void modified_provider_is_parsed_again() throws Exception {
+        NonSnarlMetadataManager.ZoneProviders first = manager.getZoneProviders(zone);
+        okta.setLastModified(new Date(okta.getLastModified().getTime() + 1000));
+        okta.getConfig().setMetaDataLocation(String.format(SamlIdentityProviderConfiguratorTests.xmlWithoutID, "http://www.okta.com/renamed"));
+
+        NonSnarlMetadataManager.ZoneProviders second = manager.getZoneProviders(zone);
+        assertNotSame(first, second);
+        assertNotSame(first.getDelegates().get(0), second.getDelegates().get(0));
+        assertSame(first.getDelegates().get(1), second.getDelegates().get(1));
+        assertNull(second.getDelegate("http://www.okta.com/okta"));
+        assertSame(second.getDelegates().get(0), second.getDelegate("http://www.okta.com/renamed"));
+    }
+
+    @Test
+    public void removed_provider_is_dropped() throws Exception {
+        manager.getZoneProviders(zone);
+        when(provisioning.retrieveActive(zone.getId())).thenReturn(Collections.singletonList(other));
+        NonSnarlMetadataManager.ZoneProviders providers = manager.getZoneProviders(zone);
+        assertEquals(1, providers.getDelegates().size());
+        assertNull(providers.getDelegate("http://www.okta.com/okta"));
+    }
+
+    @Test
+    public void provider_events_evict_the_zone() throws Exception {
+        NonSnarlMetadataManager.ZoneProviders first = manager.getZoneProviders(zone);
+        manager.onApplicationEvent(IdentityProviderModifiedEvent.identityProviderModified(okta));
+        NonSnarlMetadataManager.ZoneProviders second = manager.getZoneProviders(zone);
+        assertNotSame(first, second);
+        ExtendedMetadataDelegate delegate = second.getDelegates().get(0);
+        assertNotSame(first.getDelegates().get(0), delegate);
+
+        manager.onApplicationEvent(new EntityDeletedEvent<>(zone, null));
+        assertNotSame(delegate, manager.getZoneProviders(zone).getDelegates().get(0));
+    }
+
+    private IdentityProvider<SamlIdentityProviderDefinition> provider(String id, String alias, String entityId) {
+        SamlIdentityProviderDefinition definition = new SamlIdentityProviderDefinition()
+            .setMetaDataLocation(String.format(SamlIdentityProviderConfiguratorTests.xmlWithoutID, entityId))
+            .setIdpEntityAlias(alias)
+            .setNameID("sample-nameID")
+            .setMetadataTrustCheck(false)
+            .setZoneId(zone.getId());
+        IdentityProvider<SamlIdentityProviderDefinition> provider = new IdentityProvider<>();
+        provider.setId(id);
+        provider.setOriginKey(alias);
+        provider.setType(OriginKeys.SAML);
+        provider.setIdentityZoneId(zone.getId());
+        provider.setLastModified(new Date(1000));
+        provider.setConfig(definition);
+        return provider;
+    }
+}
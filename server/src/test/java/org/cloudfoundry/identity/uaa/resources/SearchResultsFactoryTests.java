@@ -0,0 +1,117 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.resources;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import org.cloudfoundry.identity.uaa.scim.ScimCore;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
+import org.cloudfoundry.identity.uaa.scim.ScimMeta;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SearchResultsFactoryTests {
+
+    private static final String[] ATTRIBUTES = "id,userName,emails".split(",");
+
+    @Test
+    public void users_are_projected_as_from_json() {
+        Map<String, String> attributeMap = new HashMap<>();
+        attributeMap.put("^emails\\.", "emails[*].");
+        attributeMap.put("familyName", "name.familyName");
+        attributeMap.put("givenName", "name.givenName");
+        AttributeNameMapper mapper = new SimpleAttributeNameMapper(attributeMap);
+
+        List<ScimUser> users = Arrays.asList(user("user-1", "joe@test.org", "joe@other.org"), user("user-2"));
+        assertProjectedAsFromJson(users, ATTRIBUTES, mapper);
+        assertProjectedAsFromJson(users, "id,emails.value,givenName,meta.created,lastLogonTime,passwordLastModified".split(","), mapper);
+    }
+
+    @Test
+    public void groups_are_projected_as_from_json() {
+        ScimGroup group = new ScimGroup("group-1", "scim.read", "uaa");
+        group.setDescription("Read users");
+        group.setMembers(Arrays.asList(new ScimGroupMember("user-1"), new ScimGroupMember("group-2", ScimGroupMember.Type.GROUP)));
+        group.setMeta(new ScimMeta(new Date(1000), new Date(2000), 3));
+        List<ScimGroup> groups = Arrays.asList(group, new ScimGroup("group-2", "scim.write", "uaa"));
+
+        AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.emptyMap());
+        assertProjectedAsFromJson(groups, ATTRIBUTES, mapper);
+        assertProjectedAsFromJson(groups, "id,displayName,members,meta.version".split(","), mapper);
+    }
+
+    @Test
+    public void clients_are_projected_as_from_json() {
+        BaseClientDetails client = new BaseClientDetails("client-1", "none", "openid,scim.read", "authorization_code,refresh_token", "uaa.resource", "http://localhost/callback");
+        client.setAccessTokenValiditySeconds(3600);
+        client.addAdditionalInformation("name", "Client One");
+        List<BaseClientDetails> clients = Arrays.asList(client, new BaseClientDetails("client-2", null, null, "client_credentials", null));
+
+        AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.emptyMap());
+        assertProjectedAsFromJson(clients, ATTRIBUTES, mapper);
+        assertProjectedAsFromJson(clients, "client_id,scope,access_token_validity,name".split(","), mapper);
+    }
+
+    private static ScimUser user(String id, String... emails) {
+        ScimUser user = new ScimUser(id, id + "-name", "Joe", "User");
+        for (String email : emails) {
+            user.addEmail(email);
+        }
+        user.setMeta(new ScimMeta(new Date(1000), new Date(2000), 1));
+        user.setPasswordLastModified(new Date(3000));
+        user.setLastLogonTime(4000L);
+        return user;
+    }
+
+    private static <T> void assertProjectedAsFromJson(List<T> input, String[] attributes, AttributeNameMapper mapper) {
+        SearchResults<Map<String, Object>> results = SearchResultsFactory.buildSearchResultFrom(
+            input, 1, input.size(), input.size(), attributes, mapper, Arrays.asList(ScimCore.SCHEMAS));
+        assertEquals(
+            JsonUtils.readTree(JsonUtils.writeValueAsString(projectFromJson(input, attributes, mapper))),
+            JsonUtils.readTree(JsonUtils.writeValueAsString(results.getResources()))
+        );
+    }
+
+    // projects the objects the way buildSearchResultFrom did before it converted them to a tree
+    private static <T> Collection<Map<String, Object>> projectFromJson(List<T> input, String[] attributes, AttributeNameMapper mapper) {
+        Collection<Map<String, Object>> results = new ArrayList<>();
+        for (T object : input) {
+            String serializedObject = JsonUtils.writeValueAsString(object);
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String attribute : attributes) {
+                try {
+                    map.put(attribute, JsonPath.compile("$." + mapper.mapToInternal(attribute)).read(serializedObject));
+                } catch (PathNotFoundException e) {
+                    map.put(attribute, null);
+                }
+            }
+            results.add(map);
+        }
+        return results;
+    }
+}
@@ -2,6 +2,7 @@ package org.cloudfoundry.identity.uaa.resources.jdbc;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class JdbcSqlAdapterTests {
@@ -24,4 +25,13 @@ public class JdbcSqlAdapterTests {
         generatedSql = sqlServerLimitAdapter.getLimitSql(originSql, 1, 1);
         assertTrue(generatedSql.equalsIgnoreCase("select * from table1 ORDER BY 1 OFFSET 1 ROWS FETCH NEXT 1 ROWS ONLY;"));
     }
+
+    @Test
+    public void testFirstRowsLimit() throws Exception {
+        String originSql = "select id,created from users where (id > :id) ORDER BY created ASC, id ASC";
+        assertEquals(originSql + " limit 10", new DefaultLimitSqlAdapter().getLimitSql(originSql, 10));
+        assertEquals("select * from (" + originSql + ") where rownum <= 10", new OracleLimitSqlAdapter().getLimitSql(originSql, 10));
+        assertEquals("select TOP 10 id,created from users where (id > :id) ORDER BY created ASC, id ASC", new SQLServerLimitSqlAdapter().getLimitSql(originSql, 10));
+        assertEquals("select distinct TOP 10 id from users", new SQLServerLimitSqlAdapter().getLimitSql("select distinct id from users", 10));
+    }
 }
\ No newline at end of file
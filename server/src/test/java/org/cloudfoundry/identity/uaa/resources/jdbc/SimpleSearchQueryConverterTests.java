@@ -16,6 +16,7 @@
 package org.cloudfoundry.identity.uaa.resources.jdbc;
 
 import com.unboundid.scim.sdk.InvalidResourceException;
+import com.unboundid.scim.sdk.SCIMException;
 import com.unboundid.scim.sdk.SCIMFilter;
 import org.junit.Before;
 import org.junit.Rule;
@@ -32,6 +33,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 public class SimpleSearchQueryConverterTests {
@@ -146,6 +148,69 @@ public class SimpleSearchQueryConverterTests {
         }
     }
 
+    @Test
+    public void same_shape_gives_same_sql() throws Exception {
+        SearchQueryConverter.ProcessedFilter first = converter.convert("username eq \"joe\" and identity_zone_id eq \"uaa\"", "created", true);
+        SearchQueryConverter.ProcessedFilter second = converter.convert("username eq \"marissa\" and identity_zone_id eq \"zone\"", "created", true);
+        assertEquals(first.getSql(), second.getSql());
+        assertEquals(SimpleSearchQueryConverter.PARAMETER_PREFIX, first.getParamPrefix());
+        assertEquals("joe", first.getParams().get("__value_0"));
+        assertEquals("marissa", second.getParams().get("__value_0"));
+        assertEquals("zone", second.getParams().get("__value_1"));
+    }
+
+    @Test
+    public void filters_of_the_same_shape_are_parsed_once() throws Exception {
+        SimpleSearchQueryConverter.clearFilterTemplates();
+        converter.convert("username eq \"joe\" and active eq true", null, true);
+        converter.convert("username eq \"marissa\" and active eq true", null, true);
+        assertEquals(1, SimpleSearchQueryConverter.getFilterTemplateCount());
+        converter.convert("username eq \"joe\" and active eq false", null, true);
+        assertEquals(2, SimpleSearchQueryConverter.getFilterTemplateCount());
+        converter.convert("username eq \"jo\\\"e\"", null, true);
+        converter.convert("username eq 'joe'", null, true);
+        assertEquals(2, SimpleSearchQueryConverter.getFilterTemplateCount());
+    }
+
+    @Test
+    public void cached_filters_convert_like_parsed_filters() throws Exception {
+        SimpleSearchQueryConverter parsing = new SimpleSearchQueryConverter() {
+            @Override
+            protected SCIMFilter cachedScimFilter(String filter) throws SCIMException {
+                return scimFilter(filter);
+            }
+        };
+        for (String filter : Arrays.asList(
+            "username eq \"joe\"",
+            "userName eq \"O'Brien\" and (emails.value co \"@example.com\" or phoneNumbers.value sw \"+1\")",
+            "meta.lastModified gt \"2017-10-18T12:00:00.000Z\"and version ge 2",
+            "password eq \"secret\" or active eq true",
+            "id pr and (verified eq false)",
+            "username eq \"a\\\"b\"",
+            "username eq 'joe' and origin eq \"uaa\"",
+            "username eq \"(\" and origin eq \")\""
+        )) {
+            SearchQueryConverter.ProcessedFilter expected = parsing.convert(filter, "username", false);
+            for (int i = 0; i < 2; i++) {
+                SearchQueryConverter.ProcessedFilter actual = converter.convert(filter, "username", false);
+                assertEquals(filter, expected.getSql(), actual.getSql());
+                assertEquals(filter, expected.getParams(), actual.getParams());
+            }
+        }
+    }
+
+    @Test
+    public void invalid_cached_filter() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                converter.convert("unknown eq \"value\"", null, true);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("Invalid filter attributes:unknown"));
+            }
+        }
+    }
+
     public void printFilterAttributes(SCIMFilter filter, AtomicInteger pos) {
         if (filter.getFilterAttribute() != null) {
             String name = filter.getFilterAttribute().getAttributeName();
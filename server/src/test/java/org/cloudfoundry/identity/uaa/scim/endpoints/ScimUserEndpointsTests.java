@@ -24,6 +24,7 @@ import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
@@ -102,6 +103,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
@@ -692,7 +694,9 @@ public class ScimUserEndpointsTests {
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(1)).getGroupsWithMembers(anyCollectionOf(String.class), eq(false), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(1)).getGroupsWithMembers(anyCollectionOf(String.class), eq(true), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, never()).getGroupsWithMember(anyString(), anyBoolean(), anyString());
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -703,7 +707,9 @@ public class ScimUserEndpointsTests {
         endpoints.setScimGroupMembershipManager(mockgroupMembershipManager);
 
         endpoints.findUsers("groups", "id pr", null, "ascending", 1, 100);
-        verify(mockgroupMembershipManager, atLeastOnce()).getGroupsWithMember(anyString(), anyBoolean(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(1)).getGroupsWithMembers(anyCollectionOf(String.class), eq(false), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, times(1)).getGroupsWithMembers(anyCollectionOf(String.class), eq(true), eq(IdentityZoneHolder.get().getId()));
+        verify(mockgroupMembershipManager, never()).getGroupsWithMember(anyString(), anyBoolean(), anyString());
 
         endpoints.setScimGroupMembershipManager(mm);
     }
@@ -725,7 +731,8 @@ public class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, times(1)).getApprovalsForUsers(anyCollectionOf(String.class), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, never()).getApprovalsForUser(anyString(), anyString());
 
         endpoints.setApprovalStore(am);
     }
@@ -736,11 +743,42 @@ public class ScimUserEndpointsTests {
         endpoints.setApprovalStore(mockApprovalStore);
 
         endpoints.findUsers("approvals", "id pr", null, "ascending", 1, 100);
-        verify(mockApprovalStore, atLeastOnce()).getApprovalsForUser(anyString(), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, times(1)).getApprovalsForUsers(anyCollectionOf(String.class), eq(IdentityZoneHolder.get().getId()));
+        verify(mockApprovalStore, never()).getApprovalsForUser(anyString(), anyString());
 
         endpoints.setApprovalStore(am);
     }
 
+    @Test
+    public void testFindUsersWithKeysetPagination() throws Exception {
+        SearchResults<?> all = endpoints.findUsers("id", "id pr", "created", "ascending", 1, 100);
+        Set<Object> ids = new HashSet<>();
+        SearchResults<?> page = endpoints.findUsers("id", "id pr", "created", "ascending", 1, 1, true, null);
+        assertEquals(all.getTotalResults(), page.getTotalResults());
+        int pages = 1;
+        ids.add(((Map<String, Object>) page.getResources().get(0)).get("id"));
+        while (page.getContinuationToken() != null) {
+            page = endpoints.findUsers("id", "id pr", "created", "ascending", 1, 1, false, page.getContinuationToken());
+            assertEquals(KeysetPage.UNKNOWN_TOTAL_RESULTS, page.getTotalResults());
+            ids.add(((Map<String, Object>) page.getResources().get(0)).get("id"));
+            pages++;
+        }
+        assertEquals(all.getTotalResults(), pages);
+        assertEquals(all.getTotalResults(), ids.size());
+        assertNull(all.getContinuationToken());
+    }
+
+    @Test
+    public void testFindUsersWithKeysetPaginationNotSupported() throws Exception {
+        endpoints.setScimUserProvisioning(mock(ScimUserProvisioning.class));
+        try {
+            endpoints.findUsers("id", "id pr", "created", "ascending", 1, 1, true, null);
+            fail();
+        } catch (ScimException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+    }
+
     @Test
     public void testFindUsersApprovalsNotSyncedIfNotIncluded() throws Exception {
         ApprovalStore mockApprovalStore = mock(ApprovalStore.class);
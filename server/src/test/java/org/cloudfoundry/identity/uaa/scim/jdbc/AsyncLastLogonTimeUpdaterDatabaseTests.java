@@ -0,0 +1,104 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.scim.jdbc;
+
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning.UPDATE_LAST_LOGON_TIME_SQL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncLastLogonTimeUpdaterDatabaseTests extends JdbcTestBase {
+
+    private TimeService timeService;
+    private AsyncLastLogonTimeUpdater updater;
+    private String userId;
+
+    @Before
+    public void setUpUpdater() {
+        timeService = mock(TimeService.class);
+        updater = new AsyncLastLogonTimeUpdater(jdbcTemplate);
+        updater.setTimeService(timeService);
+        updater.setEnabled(true);
+        updater.setFlushIntervalMillis(60 * 1000);
+        userId = UUID.randomUUID().toString();
+        jdbcTemplate.update("insert into users (id, username, password, email, givenName, familyName, identity_zone_id) values (?,?,?,?,?,?,?)",
+                            userId, userId, "password", userId + "@test.org", "given", "family", "uaa");
+    }
+
+    @After
+    public void destroyUpdater() {
+        updater.destroy();
+    }
+
+    @Test
+    public void buffered_logons_are_written_to_the_user() {
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L, 2000L);
+        updater.updateLastLogonTime(userId, "uaa");
+        updater.flush();
+        assertLogonTimes(1000L, null);
+
+        updater.updateLastLogonTime(userId, "uaa");
+        updater.flush();
+        assertLogonTimes(2000L, 1000L);
+    }
+
+    @Test
+    public void older_buffered_logons_do_not_replace_newer_ones() {
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L, 3000L);
+        updater.updateLastLogonTime(userId, "uaa");
+        // e.g. a password reset between the logon and the flush
+        jdbcTemplate.update(UPDATE_LAST_LOGON_TIME_SQL, 2000L, userId, "uaa");
+
+        updater.flush();
+        assertLogonTimes(2000L, null);
+
+        updater.updateLastLogonTime(userId, "uaa");
+        updater.flush();
+        assertLogonTimes(3000L, 2000L);
+    }
+
+    @Test
+    public void older_overflowed_logons_do_not_replace_newer_ones() {
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+        updater.setMaxPendingUsers(0);
+        jdbcTemplate.update(UPDATE_LAST_LOGON_TIME_SQL, 2000L, userId, "uaa");
+
+        updater.updateLastLogonTime(userId, "uaa");
+        assertEquals(1, updater.getOverflowedLogonCount());
+        assertLogonTimes(2000L, null);
+    }
+
+    private void assertLogonTimes(Long lastLogonTime, Long previousLogonTime) {
+        Map<String, Object> row = jdbcTemplate.queryForMap("select last_logon_success_time, previous_logon_success_time from users where id = ?", userId);
+        assertEquals(lastLogonTime, toLong(row.get("last_logon_success_time")));
+        if (previousLogonTime == null) {
+            assertNull(row.get("previous_logon_success_time"));
+        } else {
+            assertEquals(previousLogonTime, toLong(row.get("previous_logon_success_time")));
+        }
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.scim.jdbc;
+
+import org.cloudfoundry.identity.uaa.util.TimeService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.cloudfoundry.identity.uaa.scim.jdbc.AsyncLastLogonTimeUpdater.UPDATE_NEWER_LAST_LOGON_TIME_SQL;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncLastLogonTimeUpdaterTests {
+
+    private JdbcTemplate jdbcTemplate;
+    private TimeService timeService;
+    private AsyncLastLogonTimeUpdater updater;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        timeService = mock(TimeService.class);
+        updater = new AsyncLastLogonTimeUpdater(jdbcTemplate);
+        updater.setTimeService(timeService);
+        updater.setEnabled(true);
+        updater.setFlushIntervalMillis(60 * 1000);
+    }
+
+    @After
+    public void tearDown() {
+        updater.destroy();
+    }
+
+    @Test
+    public void logons_are_coalesced_per_user() {
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L, 2000L, 3000L);
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.updateLastLogonTime("user1", "other-zone");
+        assertEquals(2, updater.getPendingUserCount());
+        assertEquals(1, updater.getCoalescedLogonCount());
+        assertEquals(2000L, (long) updater.getPendingLastLogonTime("user1", "uaa"));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+
+        updater.flush();
+
+        ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(UPDATE_NEWER_LAST_LOGON_TIME_SQL), batch.capture());
+        assertEquals(2, batch.getValue().size());
+        for (Object args : batch.getValue()) {
+            Object[] values = (Object[]) args;
+            if ("uaa".equals(values[2])) {
+                assertArrayEquals(new Object[] {2000L, "user1", "uaa", 2000L}, values);
+            } else {
+                assertArrayEquals(new Object[] {3000L, "user1", "other-zone", 3000L}, values);
+            }
+        }
+        assertEquals(0, updater.getPendingUserCount());
+        assertNull(updater.getPendingLastLogonTime("user1", "uaa"));
+        assertEquals(3, updater.getRecordedLogonCount());
+        assertEquals(2, updater.getWrittenUpdateCount());
+    }
+
+    @Test
+    public void updates_are_written_in_batches() {
+        updater.setBatchSize(2);
+        for (int i = 0; i < 5; i++) {
+            updater.updateLastLogonTime("user" + i, "uaa");
+        }
+        updater.flush();
+        verify(jdbcTemplate, times(3)).batchUpdate(eq(UPDATE_NEWER_LAST_LOGON_TIME_SQL), anyListOf(Object[].class));
+        assertEquals(3, updater.getFlushCount());
+        assertEquals(5, updater.getWrittenUpdateCount());
+    }
+
+    @Test
+    public void logons_beyond_max_pending_users_are_written_synchronously() {
+        when(timeService.getCurrentTimeMillis()).thenReturn(1000L);
+        updater.setMaxPendingUsers(1);
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.updateLastLogonTime("user2", "uaa");
+        verify(jdbcTemplate).update(UPDATE_NEWER_LAST_LOGON_TIME_SQL, 1000L, "user2", "uaa", 1000L);
+        // the overflow doesn't wake the writer, user1 stays buffered until the next flush
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+        assertEquals(1, updater.getPendingUserCount());
+        assertEquals(1, updater.getOverflowedLogonCount());
+    }
+
+    @Test
+    public void failed_batches_are_counted() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class))).thenThrow(new DataAccessResourceFailureException("down"));
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.flush();
+        assertEquals(1, updater.getFailedUpdateCount());
+        assertEquals(0, updater.getWrittenUpdateCount());
+        assertEquals(0, updater.getPendingUserCount());
+    }
+
+    @Test
+    public void writer_flushes_in_the_background() {
+        updater.setFlushIntervalMillis(10);
+        updater.updateLastLogonTime("user1", "uaa");
+        verify(jdbcTemplate, timeout(5000)).batchUpdate(eq(UPDATE_NEWER_LAST_LOGON_TIME_SQL), anyListOf(Object[].class));
+    }
+
+    @Test
+    public void pending_logons_are_written_on_destroy() {
+        updater.updateLastLogonTime("user1", "uaa");
+        updater.destroy();
+        verify(jdbcTemplate).batchUpdate(eq(UPDATE_NEWER_LAST_LOGON_TIME_SQL), anyListOf(Object[].class));
+        assertEquals(0, updater.getPendingUserCount());
+    }
+}
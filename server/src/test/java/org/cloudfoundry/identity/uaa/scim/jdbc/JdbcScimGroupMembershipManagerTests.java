@@ -36,10 +36,12 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -269,6 +271,34 @@ public class JdbcScimGroupMembershipManagerTests extends JdbcTestBase {
         assertEquals(3, groups.size());
     }
 
+    @Test
+    public void canGetGroupsForMembersInOneBatch() {
+        addMembers();
+        addMember("g3", "g1", "GROUP", OriginKeys.UAA);
+        List<String> memberIds = Arrays.asList("m1", "m2", "m3", "g1", "g2", "unknown");
+        String zoneId = IdentityZoneHolder.get().getId();
+
+        for (boolean transitive : Arrays.asList(false, true)) {
+            Map<String, Set<ScimGroup>> groups = dao.getGroupsWithMembers(memberIds, transitive, zoneId);
+            assertEquals(memberIds, new ArrayList<>(groups.keySet()));
+            for (String memberId : memberIds) {
+                assertEquals(memberId + (transitive ? " transitive" : ""), dao.getGroupsWithMember(memberId, transitive, zoneId), groups.get(memberId));
+            }
+        }
+    }
+
+    @Test
+    public void canGetGroupsForMembersEvenWhenCycleExistsInGroupHierarchy() {
+        addMember("g1", "m3", "USER", "READER");
+        addMember("g1", "g2", "GROUP", "READER");
+        addMember("g2", "g3", "GROUP", "READER");
+        addMember("g3", "g1", "GROUP", "READER");
+
+        Map<String, Set<ScimGroup>> groups = dao.getGroupsWithMembers(Arrays.asList("m3", "g3"), true, IdentityZoneHolder.get().getId());
+        assertEquals(4, groups.get("m3").size());
+        assertEquals(3, groups.get("g3").size());
+    }
+
     private void addMembers(String origin) {
         addMember("g1", "m3", "USER", origin);
         addMember("g1", "g2", "GROUP",origin);
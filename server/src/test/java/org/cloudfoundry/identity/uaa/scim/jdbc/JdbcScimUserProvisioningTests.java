@@ -16,6 +16,7 @@ import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.resources.KeysetPage;
 import org.cloudfoundry.identity.uaa.resources.SimpleAttributeNameMapper;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
@@ -45,15 +46,19 @@ import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.LOGIN_SERVER;
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.UAA;
@@ -956,6 +961,59 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
         assertEquals(2 + existingUserCount, db.query("username pr", "emails.value", true, IdentityZoneHolder.get().getId()).size());
     }
 
+    @Test
+    public void canPageThroughUsersWithContinuationTokens() {
+        for (int i = 0; i < 5; i++) {
+            createUserForDelete();
+        }
+        String zoneId = IdentityZoneHolder.get().getId();
+        List<ScimUser> expected = db.query("username pr", "created", true, zoneId);
+        for (String sortBy : Arrays.asList("created", "userName", "id")) {
+            for (boolean ascending : Arrays.asList(true, false)) {
+                List<String> all = db.query("username pr", sortBy, ascending, zoneId).stream().map(ScimUser::getId).collect(Collectors.toList());
+                List<String> paged = new ArrayList<>();
+                KeysetPage<ScimUser> page = db.query("username pr", sortBy, ascending, zoneId, null, 2);
+                assertEquals(expected.size(), page.getTotalResults());
+                paged.addAll(page.getResources().stream().map(ScimUser::getId).collect(Collectors.toList()));
+                while (page.getContinuationToken() != null) {
+                    page = db.query("username pr", sortBy, ascending, zoneId, page.getContinuationToken(), 2);
+                    assertEquals(KeysetPage.UNKNOWN_TOTAL_RESULTS, page.getTotalResults());
+                    paged.addAll(page.getResources().stream().map(ScimUser::getId).collect(Collectors.toList()));
+                }
+                // rows with equal sort keys may come back in any order without the id tie breaker
+                assertEquals(sortBy + " " + ascending, all.size(), paged.size());
+                assertEquals(sortBy + " " + ascending, new HashSet<>(all), new HashSet<>(paged));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPageWithContinuationTokenForDifferentSortOrder() {
+        String token = db.query("username pr", "created", true, IdentityZoneHolder.get().getId(), null, 1).getContinuationToken();
+        db.query("username pr", "created", false, IdentityZoneHolder.get().getId(), token, 1);
+    }
+
+    @Test
+    public void totalResultsAreNotTakenFromContinuationToken() {
+        createUserForDelete();
+        createUserForDelete();
+        String zoneId = IdentityZoneHolder.get().getId();
+        KeysetPage<ScimUser> first = db.query("username pr", "created", true, zoneId, null, 1);
+        String json = new String(Base64.getUrlDecoder().decode(first.getContinuationToken()), StandardCharsets.UTF_8);
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(json.replaceFirst("\\{", "{\"n\":1000,").getBytes(StandardCharsets.UTF_8));
+        assertEquals(KeysetPage.UNKNOWN_TOTAL_RESULTS, db.query("username pr", "created", true, zoneId, forged, 1).getTotalResults());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPageWithInvalidContinuationToken() {
+        db.query("username pr", "created", true, IdentityZoneHolder.get().getId(), "not-a-token", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPageByNullableSortField() {
+        db.query("username pr", "givenName", true, IdentityZoneHolder.get().getId(), null, 1);
+    }
+
     @Test
     public void canRetrieveUsersWithFilterBooleanAnd() {
         assertEquals(2, db.query("username pr and emails.value co \".com\"", IdentityZoneHolder.get().getId()).size());
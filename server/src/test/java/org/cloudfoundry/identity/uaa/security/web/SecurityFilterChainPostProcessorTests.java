@@ -18,7 +18,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import org.junit.After;
 import org.junit.Before;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingRejectedException;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.web.SecurityFilterChain;
 
 public class SecurityFilterChainPostProcessorTests {
@@ -123,6 +126,18 @@ public class SecurityFilterChainPostProcessorTests {
         testClassPlacementFilter(AfterFilter.class, count);
     }
 
+    @Test
+    public void rejected_password_hashes_are_sent_with_retry_after() throws Exception {
+        processor.postProcessAfterInitialization(fc, "");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fc.getFilters().get(0).doFilter(new MockHttpServletRequest(), response, (req, res) -> {
+            throw new PasswordHashingRejectedException("Too many concurrent logins. Retry later.", 429, 2);
+        });
+        assertEquals(429, response.getStatus());
+        assertEquals("2", response.getHeader("Retry-After"));
+        assertEquals("Too many concurrent logins. Retry later.", response.getErrorMessage());
+    }
+
     public static class TestFilter1 implements Filter {
 
         @Override public void init(FilterConfig filterConfig) throws ServletException {}
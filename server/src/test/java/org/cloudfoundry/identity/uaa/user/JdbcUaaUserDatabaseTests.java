@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.user;
 
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
 import org.cloudfoundry.identity.uaa.test.TestUtils;
 import org.cloudfoundry.identity.uaa.util.TimeService;
@@ -25,6 +26,7 @@ import org.junit.Test;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -36,6 +38,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -52,6 +55,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -112,6 +116,7 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         template = new JdbcTemplate(dataSource);
 
         db = new JdbcUaaUserDatabase(template, timeService);
+        db.setPlatform(webApplicationContext.getBean("platform", String.class));
 
         TestUtils.assertNoSuchUser(template, "id", JOE_ID);
         TestUtils.assertNoSuchUser(template, "id", MABEL_ID);
@@ -293,7 +298,7 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         JdbcTemplate spy = Mockito.spy(jdbcTemplate);
         db.setJdbcTemplate(spy);
         UaaUser joe = db.retrieveUserByName("joe", OriginKeys.UAA);
-        verify(spy, times(2)).queryForList(anyString(), Matchers.<String>anyVararg());
+        verify(spy, times(isMySQL() ? 2 : 1)).query(anyString(), any(RowCallbackHandler.class), Matchers.<Object>anyVararg());
         assertTrue("authorities does not contain uaa.user",
                 joe.getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
         assertTrue("authorities does not contain additional",
@@ -330,6 +335,87 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         evaluateNestedJoe();
     }
 
+    @Test
+    public void nested_authorities_are_resolved_by_every_strategy() {
+        String directId = new RandomValueStringGenerator().generate();
+        String indirectId = new RandomValueStringGenerator().generate();
+        jdbcTemplate.update(ADD_GROUP_SQL, directId, "direct", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_GROUP_SQL, indirectId, "indirect", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_MEMBER_SQL, indirectId, directId, "GROUP", "MEMBER");
+        jdbcTemplate.update(ADD_MEMBER_SQL, directId, JOE_ID, "USER", "MEMBER");
+        jdbcTemplate.update(ADD_MEMBER_SQL, directId, indirectId, "GROUP", "MEMBER");
+
+        evaluateNestedJoe();
+
+        db.setPlatform(null);
+        evaluateNestedJoe();
+
+        GroupClosureCache cache = new GroupClosureCache();
+        cache.setEnabled(true);
+        db.setGroupClosureCache(cache);
+        evaluateNestedJoe();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void groups_in_a_cycle_are_expanded_once() {
+        String zoneId = IdentityZoneHolder.get().getId();
+        String[] ids = new String[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new RandomValueStringGenerator().generate();
+            jdbcTemplate.update(ADD_GROUP_SQL, ids[i], "cycle" + i, zoneId);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < ids.length; j++) {
+                if (i != j) {
+                    jdbcTemplate.update(ADD_MEMBER_SQL, ids[i], ids[j], "GROUP", "MEMBER");
+                }
+            }
+        }
+        jdbcTemplate.update(ADD_MEMBER_SQL, ids[0], JOE_ID, "USER", "MEMBER");
+
+        JdbcTemplate spy = Mockito.spy(jdbcTemplate);
+        db.setJdbcTemplate(spy);
+        Map<String, String> groups = db.getGroups(JOE_ID, zoneId);
+        assertEquals(3, groups.size());
+        assertThat(groups.values(), containsInAnyOrder("cycle0", "cycle1", "cycle2"));
+        verify(spy, times(isMySQL() ? 3 : 1)).query(anyString(), any(RowCallbackHandler.class), Matchers.<Object>anyVararg());
+
+        db.setJdbcTemplate(jdbcTemplate);
+        db.setPlatform(null);
+        assertEquals(groups, db.getGroups(JOE_ID, zoneId));
+
+        GroupClosureCache cache = new GroupClosureCache();
+        cache.setEnabled(true);
+        db.setGroupClosureCache(cache);
+        assertEquals(groups, db.getGroups(JOE_ID, zoneId));
+    }
+
+    @Test
+    public void group_closure_cache_is_evicted_when_groups_are_nested() {
+        GroupClosureCache cache = new GroupClosureCache();
+        cache.setEnabled(true);
+        db.setGroupClosureCache(cache);
+        String directId = new RandomValueStringGenerator().generate();
+        String indirectId = new RandomValueStringGenerator().generate();
+        jdbcTemplate.update(ADD_GROUP_SQL, directId, "direct", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_GROUP_SQL, indirectId, "indirect", IdentityZoneHolder.get().getId());
+        jdbcTemplate.update(ADD_MEMBER_SQL, directId, JOE_ID, "USER", "MEMBER");
+
+        assertFalse(db.retrieveUserByName("joe", OriginKeys.UAA).getAuthorities().contains(new SimpleGrantedAuthority("indirect")));
+
+        jdbcTemplate.update(ADD_MEMBER_SQL, indirectId, directId, "GROUP", "MEMBER");
+        cache.memberAdded(indirectId, new ScimGroupMember(directId, ScimGroupMember.Type.USER), IdentityZoneHolder.get().getId());
+        assertFalse(db.retrieveUserByName("joe", OriginKeys.UAA).getAuthorities().contains(new SimpleGrantedAuthority("indirect")));
+
+        cache.memberAdded(indirectId, new ScimGroupMember(directId, ScimGroupMember.Type.GROUP), IdentityZoneHolder.get().getId());
+        evaluateNestedJoe();
+
+        jdbcTemplate.update("delete from group_membership where group_id=? and member_id=?", indirectId, directId);
+        cache.groupMemberRemoved(indirectId, directId, IdentityZoneHolder.get().getId());
+        assertFalse(db.retrieveUserByName("joe", OriginKeys.UAA).getAuthorities().contains(new SimpleGrantedAuthority("indirect")));
+    }
+
     protected void evaluateNestedJoe() {
         UaaUser joe;
         joe = db.retrieveUserByName("joe", OriginKeys.UAA);
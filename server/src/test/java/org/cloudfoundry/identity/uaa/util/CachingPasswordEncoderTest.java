@@ -26,6 +26,7 @@ import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 public class CachingPasswordEncoderTest  {
 
@@ -190,4 +191,28 @@ public class CachingPasswordEncoderTest  {
         assertEquals(0, cachingPasswordEncoder.getNumberOfKeys());
         System.out.println("CachingPasswordEncoder[disabled] - Bcrypt Time:"+((double)bcryptTime / 1000000000.0) + " sec. Cache Time:"+((double)cacheTime / 1000000000.0)+" sec.");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCachedMatchesDoNotWaitForTheHashingExecutor() throws Exception {
+        PasswordHashingExecutor hashingExecutor = new PasswordHashingExecutor();
+        hashingExecutor.setEnabled(true);
+        cachingPasswordEncoder.setHashingExecutor(hashingExecutor);
+        try {
+            String encoded = cachingPasswordEncoder.encode(password);
+            assertTrue(cachingPasswordEncoder.matches(password, encoded));
+            assertEquals(1, hashingExecutor.getCompletedHashCount());
+
+            hashingExecutor.setQueueSize(-hashingExecutor.getThreads());
+            assertTrue(cachingPasswordEncoder.matches(password, encoded));
+            assertEquals(1, hashingExecutor.getCompletedHashCount());
+            try {
+                cachingPasswordEncoder.matches("wrong" + password, encoded);
+                fail();
+            } catch (PasswordHashingRejectedException e) {
+                assertEquals(1, hashingExecutor.getRejectedHashCount());
+            }
+        } finally {
+            hashingExecutor.destroy();
+        }
+    }
+}
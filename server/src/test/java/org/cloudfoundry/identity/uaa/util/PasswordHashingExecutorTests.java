@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2017] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.util;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasswordHashingExecutorTests {
+
+    private PasswordHashingExecutor hashingExecutor;
+    private ExecutorService callers;
+    private CountDownLatch started;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        hashingExecutor = new PasswordHashingExecutor();
+        hashingExecutor.setEnabled(true);
+        hashingExecutor.setThreads(1);
+        hashingExecutor.setQueueSize(1);
+        hashingExecutor.setMaxPendingPerZone(2);
+        hashingExecutor.setRetryAfterSeconds(3);
+        callers = Executors.newCachedThreadPool();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        callers.shutdown();
+        callers.awaitTermination(5, TimeUnit.SECONDS);
+        hashingExecutor.destroy();
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    public void disabled_executor_hashes_on_the_calling_thread() {
+        hashingExecutor.setEnabled(false);
+        assertEquals(Thread.currentThread().getName(), hashingExecutor.execute(() -> Thread.currentThread().getName()));
+        assertEquals(0, hashingExecutor.getCompletedHashCount());
+    }
+
+    @Test
+    public void hashes_run_on_the_hashing_threads() {
+        String thread = hashingExecutor.execute(() -> Thread.currentThread().getName());
+        assertTrue(thread.startsWith("uaa-password-hashing-"));
+        assertEquals(1, hashingExecutor.getCompletedHashCount());
+        assertEquals(0, hashingExecutor.getPendingHashCount());
+    }
+
+    @Test
+    public void hash_failures_are_rethrown() {
+        try {
+            hashingExecutor.execute(() -> {
+                throw new IllegalArgumentException("Invalid salt");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid salt", e.getMessage());
+        }
+        assertEquals(0, hashingExecutor.getPendingHashCount());
+    }
+
+    @Test
+    public void hashes_beyond_the_queue_are_rejected() throws Exception {
+        hashingExecutor.setMaxPendingPerZone(10);
+        Future<?> running = callers.submit(() -> hashingExecutor.execute(this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<?> queued = callers.submit(() -> hashingExecutor.execute(() -> true));
+        waitForPending(2);
+
+        try {
+            hashingExecutor.execute(() -> true);
+            fail();
+        } catch (PasswordHashingRejectedException e) {
+            assertEquals(503, e.getStatus());
+            assertEquals(3, e.getRetryAfterSeconds());
+        }
+        assertEquals(1, hashingExecutor.getRejectedHashCount());
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(0, hashingExecutor.getPendingHashCount());
+    }
+
+    @Test
+    public void a_zone_can_only_take_its_share() throws Exception {
+        hashingExecutor.setQueueSize(10);
+        hashingExecutor.setMaxPendingPerZone(1);
+        Future<?> running = callers.submit(() -> hashingExecutor.execute(this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            hashingExecutor.execute(() -> true);
+            fail();
+        } catch (PasswordHashingRejectedException e) {
+            assertEquals(429, e.getStatus());
+        }
+        assertEquals(1, hashingExecutor.getZoneRejectedHashCount());
+
+        IdentityZone other = new IdentityZone();
+        other.setId("other-zone");
+        Future<Boolean> otherZone = callers.submit(() -> {
+            IdentityZoneHolder.set(other);
+            return hashingExecutor.execute(() -> true);
+        });
+        waitForPending(2);
+        assertFalse(otherZone.isDone());
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        assertTrue(otherZone.get(5, TimeUnit.SECONDS));
+    }
+
+    private boolean block() throws InterruptedException {
+        started.countDown();
+        return release.await(5, TimeUnit.SECONDS);
+    }
+
+    private void waitForPending(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hashingExecutor.getPendingHashCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, hashingExecutor.getPendingHashCount());
+    }
+}
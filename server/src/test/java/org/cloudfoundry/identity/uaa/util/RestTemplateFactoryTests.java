@@ -15,18 +15,120 @@
 
 package org.cloudfoundry.identity.uaa.util;
 
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.http.client.config.RequestConfig;
+import org.cloudfoundry.identity.uaa.test.network.NetworkTestUtils;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.springframework.http.HttpStatus.OK;
 
 public class RestTemplateFactoryTests {
 
+    private RestTemplateFactory factory;
+    private HttpsServer httpsServer;
+    private String httpsUrl;
+
+    @Before
+    public void setup() throws Exception {
+        factory = new RestTemplateFactory();
+        int sslPort = 23448;
+        HttpHeaders headers = new HttpHeaders();
+        File keystore = NetworkTestUtils.getKeystore(new Date(), 10);
+        httpsServer = NetworkTestUtils.startHttpsServer(sslPort, keystore, NetworkTestUtils.keyPass, new NetworkTestUtils.SimpleHttpResponseHandler(200, headers, "OK"));
+        httpsUrl = "https://localhost:" + sslPort + "/";
+    }
+
+    @After
+    public void teardown() throws Exception {
+        factory.destroy();
+        httpsServer.stop(0);
+    }
+
     @Test
     public void getRestTemplate_sslValidation() {
-        //TODO
+        RestTemplate restTemplate = factory.getRestTemplate(false);
+        try {
+            restTemplate.getForEntity(httpsUrl, String.class);
+            fail("We should not reach this step if the above URL is using a self signed certificate");
+        } catch (RestClientException e) {
+            assertEquals(SSLHandshakeException.class, e.getCause().getClass());
+        }
     }
 
     @Test
     public void getRestTemplate_noSslValidation() {
-        //TODO
+        RestTemplate restTemplate = factory.getRestTemplate(true);
+        assertEquals(OK, restTemplate.getForEntity(httpsUrl, String.class).getStatusCode());
+    }
+
+    @Test
+    public void templates_are_reused() {
+        RestTemplate template = factory.getRestTemplate(true);
+        assertSame(template, factory.getRestTemplate(true));
+        assertSame(template, factory.getRestTemplate(true, null, factory.getReadTimeoutMillis()));
+        assertNotSame(template, factory.getRestTemplate(false));
+        assertNotSame(template, factory.getRestTemplate(true, 1000, 2000));
+        assertSame(factory.getRestTemplate(true, 1000, 2000), factory.getRestTemplate(true, 1000, 2000));
     }
 
+    @Test
+    public void timeouts_are_applied() {
+        HttpComponentsClientHttpRequestFactory requestFactory = (HttpComponentsClientHttpRequestFactory) factory.getRestTemplate(false, 1000, 2000).getRequestFactory();
+        RequestConfig config = (RequestConfig) ReflectionTestUtils.getField(requestFactory, "requestConfig");
+        assertEquals(1000, config.getConnectTimeout());
+        assertEquals(2000, config.getSocketTimeout());
+    }
+
+    @Test
+    public void cookies_are_not_shared_between_requests() throws Exception {
+        List<String> cookies = new ArrayList<>();
+        HttpServer httpServer = NetworkTestUtils.startHttpServer(23449, exchange -> {
+            synchronized (cookies) {
+                cookies.addAll(exchange.getRequestHeaders().getOrDefault("Cookie", Collections.emptyList()));
+            }
+            exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=upstream-session; Path=/");
+            exchange.sendResponseHeaders(200, 0);
+            exchange.close();
+        });
+        try {
+            RestTemplate restTemplate = factory.getRestTemplate(false);
+            assertEquals(OK, restTemplate.getForEntity("http://localhost:23449/", String.class).getStatusCode());
+            assertEquals(OK, restTemplate.getForEntity("http://localhost:23449/", String.class).getStatusCode());
+            assertEquals(Collections.emptyList(), cookies);
+        } finally {
+            httpServer.stop(0);
+        }
+    }
+
+    @Test
+    public void connections_are_kept_alive() {
+        RestTemplate restTemplate = factory.getRestTemplate(true);
+        assertEquals(OK, restTemplate.getForEntity(httpsUrl, String.class).getStatusCode());
+        assertEquals(OK, restTemplate.getForEntity(httpsUrl, String.class).getStatusCode());
+        assertEquals(0, factory.getLeasedConnections());
+        assertEquals(0, factory.getPendingConnections());
+        assertEquals(1, factory.getAvailableConnections());
+
+        assertEquals(OK, factory.getRestTemplate(true, 1000, 2000).getForEntity(httpsUrl, String.class).getStatusCode());
+        assertEquals(1, factory.getAvailableConnections());
+    }
 }
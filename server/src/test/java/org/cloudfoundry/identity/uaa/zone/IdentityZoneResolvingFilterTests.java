@@ -14,10 +14,15 @@
  */
 package org.cloudfoundry.identity.uaa.zone;
 
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.MockTimeService;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.security.core.Authentication;
 import org.springframework.mock.web.MockFilterChain;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -29,11 +34,16 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class IdentityZoneResolvingFilterTests extends JdbcTestBase {
 
@@ -144,4 +154,95 @@ public class IdentityZoneResolvingFilterTests extends JdbcTestBase {
         Mockito.verifyZeroInteractions(chain);
     }
 
+    @Test
+    public void resolved_zones_are_cached() throws Exception {
+        IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
+        IdentityZone zone = MultitenancyFixture.identityZone("cached-id", "cached");
+        when(provisioning.retrieveBySubdomain("cached")).thenReturn(zone);
+        MockTimeService timeService = new MockTimeService();
+        IdentityZoneResolvingFilter filter = cachingFilter(provisioning, timeService);
+
+        assertEquals(HttpServletResponse.SC_OK, doFilter(filter, "cached.uaa.mycf.com").getStatus());
+        assertEquals(HttpServletResponse.SC_OK, doFilter(filter, "cached.uaa.mycf.com").getStatus());
+        verify(provisioning, times(1)).retrieveBySubdomain("cached");
+        assertEquals(1, filter.getCacheHits());
+        assertEquals(1, filter.getCacheMisses());
+
+        timeService.addAndGet((filter.getCacheExpiryInSeconds() + 1) * 1000l);
+        doFilter(filter, "cached.uaa.mycf.com");
+        verify(provisioning, times(2)).retrieveBySubdomain("cached");
+    }
+
+    @Test
+    public void unknown_subdomains_are_negatively_cached() throws Exception {
+        IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
+        when(provisioning.retrieveBySubdomain("unknown")).thenThrow(new EmptyResultDataAccessException(1));
+        IdentityZoneResolvingFilter filter = cachingFilter(provisioning, new MockTimeService());
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, doFilter(filter, "unknown.uaa.mycf.com").getStatus());
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, doFilter(filter, "unknown.uaa.mycf.com").getStatus());
+        verify(provisioning, times(1)).retrieveBySubdomain("unknown");
+    }
+
+    @Test
+    public void lookup_errors_are_not_cached() throws Exception {
+        IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
+        when(provisioning.retrieveBySubdomain("broken")).thenThrow(new RuntimeException("db down"));
+        IdentityZoneResolvingFilter filter = cachingFilter(provisioning, new MockTimeService());
+
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, doFilter(filter, "broken.uaa.mycf.com").getStatus());
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, doFilter(filter, "broken.uaa.mycf.com").getStatus());
+        verify(provisioning, times(2)).retrieveBySubdomain("broken");
+        assertEquals(0, filter.getCacheSize());
+    }
+
+    @Test
+    public void zone_events_evict_cached_zone() throws Exception {
+        IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
+        IdentityZone zone = MultitenancyFixture.identityZone("evicted-id", "evicted");
+        when(provisioning.retrieveBySubdomain("evicted")).thenReturn(zone);
+        when(provisioning.retrieveBySubdomain("renamed")).thenThrow(new EmptyResultDataAccessException(1));
+        IdentityZoneResolvingFilter filter = cachingFilter(provisioning, new MockTimeService());
+
+        doFilter(filter, "evicted.uaa.mycf.com");
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, doFilter(filter, "renamed.uaa.mycf.com").getStatus());
+        assertEquals(2, filter.getCacheSize());
+
+        IdentityZone renamed = MultitenancyFixture.identityZone("evicted-id", "renamed");
+        filter.onApplicationEvent(new IdentityZoneModifiedEvent(renamed, mock(Authentication.class), null));
+        assertEquals(0, filter.getCacheSize());
+
+        doFilter(filter, "evicted.uaa.mycf.com");
+        assertEquals(1, filter.getCacheSize());
+        filter.onApplicationEvent(new EntityDeletedEvent<>(zone, mock(Authentication.class)));
+        assertEquals(0, filter.getCacheSize());
+    }
+
+    @Test
+    public void zero_expiry_disables_cache() throws Exception {
+        IdentityZoneProvisioning provisioning = mock(IdentityZoneProvisioning.class);
+        when(provisioning.retrieveBySubdomain("uncached")).thenReturn(MultitenancyFixture.identityZone("uncached-id", "uncached"));
+        IdentityZoneResolvingFilter filter = cachingFilter(provisioning, new MockTimeService());
+        filter.setCacheExpiryInSeconds(0);
+
+        doFilter(filter, "uncached.uaa.mycf.com");
+        doFilter(filter, "uncached.uaa.mycf.com");
+        verify(provisioning, times(2)).retrieveBySubdomain("uncached");
+    }
+
+    private IdentityZoneResolvingFilter cachingFilter(IdentityZoneProvisioning provisioning, MockTimeService timeService) {
+        IdentityZoneResolvingFilter filter = new IdentityZoneResolvingFilter();
+        filter.setIdentityZoneProvisioning(provisioning);
+        filter.setTimeService(timeService);
+        filter.setAdditionalInternalHostnames(Collections.singleton("uaa.mycf.com"));
+        return filter;
+    }
+
+    private MockHttpServletResponse doFilter(IdentityZoneResolvingFilter filter, String hostname) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServerName(hostname);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
 }
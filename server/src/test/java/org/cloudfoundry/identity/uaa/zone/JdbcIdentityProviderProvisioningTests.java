@@ -8,6 +8,7 @@ import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdpAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.provider.PasswordPolicy;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
@@ -18,6 +19,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -26,8 +28,10 @@ import static org.cloudfoundry.identity.uaa.constants.OriginKeys.UAA;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
 
@@ -294,4 +298,84 @@ public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
         IdentityProvider idp1 = db.create(idp, identityZoneId1);
         db.retrieveByOrigin(idp1.getOriginKey(), identityZone2.getId());
     }
+
+    @Test
+    public void cached_providers_are_reused_until_modified() {
+        db.setCacheEnabled(true);
+        String zoneId = generator.generate();
+        String originKey = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider<UaaIdentityProviderDefinition> idp = MultitenancyFixture.identityProvider(originKey, zoneId);
+        idp.setConfig(new UaaIdentityProviderDefinition(new PasswordPolicy(6, 20, 1, 1, 1, 0, 6), null));
+        idp = db.create(idp, zoneId);
+        assertEquals(1, db.retrieveActive(zoneId).size());
+        assertEquals(1, db.getCacheSize());
+
+        jdbcTemplate.update("update identity_provider set name=? where id=?", "changed", idp.getId());
+        assertEquals(originKey + " name", db.retrieveByOrigin(originKey, zoneId).getName());
+
+        idp.setName("updated");
+        db.update(idp, zoneId);
+        assertEquals("updated", db.retrieve(idp.getId(), zoneId).getName());
+        assertEquals(6, ((UaaIdentityProviderDefinition) db.retrieveByOrigin(originKey, zoneId).getConfig()).getPasswordPolicy().getMinLength());
+
+        db.onApplicationEvent(new EntityDeletedEvent<>(idp, null));
+        assertEquals(0, db.retrieveAll(false, zoneId).size());
+        try {
+            db.retrieveByOrigin(originKey, zoneId);
+            fail();
+        } catch (EmptyResultDataAccessException expected) {
+        }
+    }
+
+    @Test
+    public void cached_providers_are_returned_as_copies() {
+        db.setCacheEnabled(true);
+        String zoneId = generator.generate();
+        String originKey = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider<LdapIdentityProviderDefinition> idp = MultitenancyFixture.identityProvider(originKey, zoneId);
+        LdapIdentityProviderDefinition definition = new LdapIdentityProviderDefinition();
+        definition.setBaseUrl("ldap://localhost:389/");
+        definition.setBindPassword("secret");
+        idp.setConfig(definition);
+        idp = db.create(idp, zoneId);
+
+        IdentityProvider<LdapIdentityProviderDefinition> loaded = db.retrieve(idp.getId(), zoneId);
+        loaded.getConfig().setBindPassword(null);
+        loaded.setName("changed");
+        IdentityProvider<LdapIdentityProviderDefinition> reloaded = db.retrieveByOrigin(originKey, zoneId);
+        assertEquals(OriginKeys.LDAP, reloaded.getType());
+        assertEquals("secret", reloaded.getConfig().getBindPassword());
+        assertEquals("ldap://localhost:389/", reloaded.getConfig().getBaseUrl());
+        assertEquals(originKey + " name", reloaded.getName());
+        assertEquals(idp.getId(), db.retrieveActive(zoneId).get(0).getId());
+    }
+
+    @Test
+    public void cache_version_invalidates_other_nodes() {
+        JdbcIdentityProviderProvisioning node1 = new JdbcIdentityProviderProvisioning(jdbcTemplate);
+        JdbcIdentityProviderProvisioning node2 = new JdbcIdentityProviderProvisioning(jdbcTemplate);
+        for (JdbcIdentityProviderProvisioning node : Arrays.asList(node1, node2)) {
+            node.setCacheEnabled(true);
+            node.setVersionCheckIntervalInMillis(0);
+        }
+        String zoneId = generator.generate();
+        String originKey = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = node1.create(MultitenancyFixture.identityProvider(originKey, zoneId), zoneId);
+        assertTrue(node2.retrieveByOrigin(originKey, zoneId).isActive());
+
+        idp.setActive(false);
+        node1.update(idp, zoneId);
+        assertFalse(node2.retrieveByOrigin(originKey, zoneId).isActive());
+        assertEquals(0, node2.retrieveActive(zoneId).size());
+    }
+
+    @Test
+    public void cache_is_not_used_when_disabled() {
+        String zoneId = generator.generate();
+        String originKey = RandomStringUtils.randomAlphabetic(6);
+        IdentityProvider idp = db.create(MultitenancyFixture.identityProvider(originKey, zoneId), zoneId);
+        jdbcTemplate.update("update identity_provider set name=? where id=?", "changed", idp.getId());
+        assertEquals("changed", db.retrieveByOrigin(originKey, zoneId).getName());
+        assertEquals(0, db.getCacheSize());
+    }
 }
@@ -739,6 +739,72 @@ public class MultitenantJdbcClientDetailsServiceTests extends JdbcTestBase {
         assertNull(service.getCreatedByForClientAndZone(client2, OriginKeys.UAA));
     }
 
+    @Test
+    public void cached_client_is_reused_until_modified() throws Exception {
+        service.setCacheEnabled(true);
+        String clientId = generate.generate();
+        BaseClientDetails client = new BaseClientDetails(clientId, null, "openid", "client_credentials", null);
+        service.addClientDetails(client);
+
+        assertThat(service.loadClientByClientId(clientId).getScope(), containsInAnyOrder("openid"));
+        jdbcTemplate.update("update oauth_client_details set scope=? where client_id=?", "openid,other", clientId);
+        assertThat(service.loadClientByClientId(clientId).getScope(), containsInAnyOrder("openid"));
+
+        client.setScope(Arrays.asList("openid", "uaa.user"));
+        service.updateClientDetails(client);
+        assertThat(service.loadClientByClientId(clientId).getScope(), containsInAnyOrder("openid", "uaa.user"));
+
+        service.removeClientDetails(clientId);
+        expectedEx.expect(NoSuchClientException.class);
+        service.loadClientByClientId(clientId);
+    }
+
+    @Test
+    public void cached_client_is_scoped_to_zone_and_returned_as_copy() throws Exception {
+        service.setCacheEnabled(true);
+        String clientId = generate.generate();
+        service.addClientDetails(new BaseClientDetails(clientId, null, "openid", "client_credentials", null));
+
+        BaseClientDetails loaded = (BaseClientDetails) service.loadClientByClientId(clientId);
+        loaded.addAdditionalInformation("name", "changed");
+        loaded.setScope(Arrays.asList("changed"));
+        ClientDetails reloaded = service.loadClientByClientId(clientId);
+        assertNull(reloaded.getAdditionalInformation().get("name"));
+        assertThat(reloaded.getScope(), containsInAnyOrder("openid"));
+        assertEquals(loaded.getAutoApproveScopes(), ((BaseClientDetails) reloaded).getAutoApproveScopes());
+
+        expectedEx.expect(NoSuchClientException.class);
+        service.loadClientByClientId(clientId, otherIdentityZone.getId());
+    }
+
+    @Test
+    public void cache_version_invalidates_other_nodes() throws Exception {
+        MultitenantJdbcClientDetailsService node1 = new MultitenantJdbcClientDetailsService(jdbcTemplate);
+        MultitenantJdbcClientDetailsService node2 = new MultitenantJdbcClientDetailsService(jdbcTemplate);
+        for (MultitenantJdbcClientDetailsService node : Arrays.asList(node1, node2)) {
+            node.setCacheEnabled(true);
+            node.setVersionCheckIntervalInMillis(0);
+        }
+        String clientId = generate.generate();
+        BaseClientDetails client = new BaseClientDetails(clientId, null, "openid", "client_credentials", null);
+        client.setClientSecret("secret");
+        node1.addClientDetails(client);
+        assertEquals("secret", node2.loadClientByClientId(clientId).getClientSecret());
+
+        node1.updateClientSecret(clientId, "newSecret");
+        assertEquals("newSecret", node2.loadClientByClientId(clientId).getClientSecret());
+    }
+
+    @Test
+    public void cache_is_not_used_when_disabled() throws Exception {
+        String clientId = generate.generate();
+        service.addClientDetails(new BaseClientDetails(clientId, null, "openid", "client_credentials", null));
+        service.loadClientByClientId(clientId);
+        jdbcTemplate.update("update oauth_client_details set scope=? where client_id=?", "other", clientId);
+        assertThat(service.loadClientByClientId(clientId).getScope(), containsInAnyOrder("other"));
+        assertEquals(0, service.getCacheSize());
+    }
+
     private Authentication authenticateAsUserAndReturnOldAuth(String userId) {
         Authentication authentication = new OAuth2Authentication(new AuthorizationRequest("client",
             Arrays.asList("read")).createOAuth2Request(), UaaAuthenticationTestFactory.getAuthentication(userId, "joe",
@@ -14,8 +14,11 @@ package org.cloudfoundry.identity.uaa.login;
 
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.cloudfoundry.identity.uaa.account.ResetPasswordController;
+import org.cloudfoundry.identity.uaa.audit.AsyncAuditService;
+import org.cloudfoundry.identity.uaa.audit.InMemoryFailedLoginCountingAuditService;
 import org.cloudfoundry.identity.uaa.authentication.manager.AuthzAuthenticationManager;
 import org.cloudfoundry.identity.uaa.authentication.manager.PeriodLockoutPolicy;
+import org.cloudfoundry.identity.uaa.cache.ExpiringUrlCache;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.home.HomeController;
 import org.cloudfoundry.identity.uaa.impl.config.IdentityZoneConfigurationBootstrap;
@@ -27,6 +30,7 @@ import org.cloudfoundry.identity.uaa.metrics.UaaMetricsFilter;
 import org.cloudfoundry.identity.uaa.mock.oauth.CheckDefaultAuthoritiesMvcMockTests;
 import org.cloudfoundry.identity.uaa.oauth.CheckTokenEndpoint;
 import org.cloudfoundry.identity.uaa.oauth.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.oauth.ValidatedTokenCache;
 import org.cloudfoundry.identity.uaa.oauth.UaaTokenStore;
 import org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants;
 import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenEndpoint;
@@ -40,8 +44,11 @@ import org.cloudfoundry.identity.uaa.provider.OIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.PasswordPolicy;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
+import org.cloudfoundry.identity.uaa.provider.oauth.TokenKeyCache;
+import org.cloudfoundry.identity.uaa.provider.oauth.XOAuthAuthenticationManager;
 import org.cloudfoundry.identity.uaa.provider.saml.BootstrapSamlIdentityProviderConfigurator;
 import org.cloudfoundry.identity.uaa.provider.saml.LoginSamlEntryPoint;
+import org.cloudfoundry.identity.uaa.provider.saml.SamlIdentityProviderConfigurator;
 import org.cloudfoundry.identity.uaa.provider.saml.SamlSessionStorageFactory;
 import org.cloudfoundry.identity.uaa.provider.saml.ZoneAwareMetadataGenerator;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
@@ -49,12 +56,16 @@ import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.jdbc.AsyncLastLogonTimeUpdater;
 import org.cloudfoundry.identity.uaa.security.web.CorsFilter;
 import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.cloudfoundry.identity.uaa.user.GroupClosureCache;
 import org.cloudfoundry.identity.uaa.user.JdbcUaaUserDatabase;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.util.CachingPasswordEncoder;
+import org.cloudfoundry.identity.uaa.util.PasswordHashingExecutor;
 import org.cloudfoundry.identity.uaa.util.PredicateMatcher;
+import org.cloudfoundry.identity.uaa.util.RestTemplateFactory;
 import org.cloudfoundry.identity.uaa.web.HeaderFilter;
 import org.cloudfoundry.identity.uaa.web.LimitedModeUaaFilter;
 import org.cloudfoundry.identity.uaa.web.UaaSessionCookieConfig;
@@ -66,6 +77,7 @@ import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneProvisioning;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneResolvingFilter;
 import org.cloudfoundry.identity.uaa.zone.Links;
+import org.cloudfoundry.identity.uaa.zone.MultitenantJdbcClientDetailsService;
 import org.cloudfoundry.identity.uaa.zone.SamlConfig;
 import org.cloudfoundry.identity.uaa.zone.TokenPolicy;
 import org.flywaydb.core.Flyway;
@@ -203,6 +215,7 @@ public class BootstrapTests {
 
         UaaMetricsFilter metricsFilter = context.getBean(UaaMetricsFilter.class);
         assertTrue(metricsFilter.isEnabled());
+        assertEquals(10000, metricsFilter.getMaxCachedUris());
 
         LimitedModeUaaFilter limitedModeUaaFilter = context.getBean(LimitedModeUaaFilter.class);
         assertFalse(limitedModeUaaFilter.isEnabled());
@@ -317,10 +330,78 @@ public class BootstrapTests {
         IdentityZoneResolvingFilter filter = context.getBean(IdentityZoneResolvingFilter.class);
         Set<String> defaultHostnames = new HashSet<>(Arrays.asList("localhost"));
         assertEquals(filter.getDefaultZoneHostnames(), defaultHostnames);
+        assertEquals(5, filter.getCacheExpiryInSeconds());
+        assertEquals(5, filter.getNegativeCacheExpiryInSeconds());
+        assertEquals(10000, filter.getCacheMaxEntries());
+
+        MultitenantJdbcClientDetailsService clientDetailsService = context.getBean("jdbcClientDetailsService", MultitenantJdbcClientDetailsService.class);
+        assertFalse(clientDetailsService.isCacheEnabled());
+        assertEquals(60, clientDetailsService.getCacheExpiryInSeconds());
+        assertEquals(10000, clientDetailsService.getCacheMaxEntries());
+        assertEquals(-1, clientDetailsService.getVersionCheckIntervalInMillis());
+
+        JdbcIdentityProviderProvisioning identityProviderProvisioning = context.getBean("identityProviderProvisioning", JdbcIdentityProviderProvisioning.class);
+        assertFalse(identityProviderProvisioning.isCacheEnabled());
+        assertEquals(60, identityProviderProvisioning.getCacheExpiryInSeconds());
+        assertEquals(1000, identityProviderProvisioning.getCacheMaxEntries());
+        assertEquals(-1, identityProviderProvisioning.getVersionCheckIntervalInMillis());
+
+        GroupClosureCache groupClosureCache = context.getBean(GroupClosureCache.class);
+        assertFalse(groupClosureCache.isEnabled());
+        assertEquals(60, groupClosureCache.getExpiryInSeconds());
+        assertEquals(1000, groupClosureCache.getMaxZones());
+        assertNull(context.getBean(InMemoryFailedLoginCountingAuditService.class).getPersister());
+        AsyncAuditService asyncAuditService = context.getBean(AsyncAuditService.class);
+        assertFalse(asyncAuditService.isEnabled());
+        assertSame(context.getBean("jdbcAuditService"), asyncAuditService.getDelegate());
+        assertSame(asyncAuditService, ReflectionTestUtils.getField(context.getBean("globalUserLoginPolicy"), "auditService"));
+        assertEquals(AsyncAuditService.OverflowPolicy.BLOCK, asyncAuditService.getOverflowPolicy());
+        AsyncLastLogonTimeUpdater lastLogonTimeUpdater = context.getBean(AsyncLastLogonTimeUpdater.class);
+        assertFalse(lastLogonTimeUpdater.isEnabled());
+        assertEquals(1000, lastLogonTimeUpdater.getFlushIntervalMillis());
+        assertEquals(100, lastLogonTimeUpdater.getBatchSize());
+        assertEquals(10000, lastLogonTimeUpdater.getMaxPendingUsers());
+        PasswordHashingExecutor passwordHashingExecutor = context.getBean(PasswordHashingExecutor.class);
+        assertFalse(passwordHashingExecutor.isEnabled());
+        assertEquals(Runtime.getRuntime().availableProcessors(), passwordHashingExecutor.getThreads());
+        assertEquals(100, passwordHashingExecutor.getQueueSize());
+        assertEquals(50, passwordHashingExecutor.getMaxPendingPerZone());
+        assertEquals(1, passwordHashingExecutor.getRetryAfterSeconds());
+        assertSame(passwordHashingExecutor, context.getBean(CachingPasswordEncoder.class).getHashingExecutor());
+        assertSame(passwordHashingExecutor, context.getBean("uaaUserDatabaseAuthenticationManager", AuthzAuthenticationManager.class).getHashingExecutor());
+
+        ExpiringUrlCache urlCache = context.getBean("urlCache", ExpiringUrlCache.class);
+        assertEquals(600000, urlCache.getExpiringTimeMillis());
+        assertEquals(10000, urlCache.getMaxEntries());
+        assertEquals(86400000, urlCache.getMaxStaleMillis());
+        assertEquals(60000, urlCache.getRefreshAheadMillis());
+        assertEquals(10000, urlCache.getFailureBackoffMillis());
+        assertEquals(600000, urlCache.getMaxFailureBackoffMillis());
+
+        TokenKeyCache tokenKeyCache = context.getBean(TokenKeyCache.class);
+        assertSame(tokenKeyCache, context.getBean(XOAuthAuthenticationManager.class).getTokenKeyCache());
+        assertEquals(300000, tokenKeyCache.getDefaultTtlMillis());
+        assertEquals(86400000, tokenKeyCache.getMaxTtlMillis());
+        assertEquals(10000, tokenKeyCache.getMinRefreshIntervalMillis());
+        assertEquals(1000, tokenKeyCache.getMaxEntries());
+
+        RestTemplateFactory restTemplateFactory = context.getBean(RestTemplateFactory.class);
+        assertSame(restTemplateFactory, context.getBean("metaDataProviders", SamlIdentityProviderConfigurator.class).getRestTemplateFactory());
+        assertEquals(200, restTemplateFactory.getMaxConnections());
+        assertEquals(20, restTemplateFactory.getMaxConnectionsPerRoute());
+        assertEquals(60000, restTemplateFactory.getKeepAliveMillis());
+        assertEquals(10000, restTemplateFactory.getConnectTimeoutMillis());
+        assertEquals(30000, restTemplateFactory.getReadTimeoutMillis());
+        assertEquals(context.getBean("platform"), context.getBean(JdbcUaaUserDatabase.class).getPlatform());
 
 
 
         assertSame(UaaTokenStore.class, context.getBean(AuthorizationCodeServices.class).getClass());
+        UaaTokenStore tokenStore = context.getBean(UaaTokenStore.class);
+        assertFalse(tokenStore.isInMemory());
+        assertEquals(100000, tokenStore.getMaxInMemoryCodes());
+        assertEquals(300000, tokenStore.getCleanupIntervalMillis());
+        assertEquals(UaaTokenStore.CURRENT_SERIALIZATION_VERSION, tokenStore.getSerializationVersion());
 
         IdentityZoneProvisioning zoneProvisioning = context.getBean(IdentityZoneProvisioning.class);
         IdentityZoneConfiguration zoneConfiguration = zoneProvisioning.retrieve(IdentityZone.getUaa().getId()).getConfig();
@@ -394,6 +475,7 @@ public class BootstrapTests {
         UaaTokenServices uaaTokenServices = context.getBean("tokenServices",UaaTokenServices.class);
         Assert.assertThat(uaaTokenServices.getTokenPolicy().getAccessTokenValidity(), equalTo(60 * 60 * 12));
         Assert.assertThat(uaaTokenServices.getTokenPolicy().getRefreshTokenValidity(), equalTo(60 * 60 * 24 * 30));
+        assertFalse(uaaTokenServices.getValidatedTokenCache().isEnabled());
 
         List<Prompt> prompts = (List<Prompt>) context.getBean("prompts");
         assertNotNull(prompts);
@@ -453,6 +535,7 @@ public class BootstrapTests {
 
         UaaMetricsFilter metricsFilter = context.getBean(UaaMetricsFilter.class);
         assertFalse(metricsFilter.isEnabled());
+        assertEquals(500, metricsFilter.getMaxCachedUris());
 
         LimitedModeUaaFilter limitedModeUaaFilter = context.getBean(LimitedModeUaaFilter.class);
         assertTrue(limitedModeUaaFilter.isEnabled());
@@ -591,6 +674,11 @@ public class BootstrapTests {
 
         assertThat(context.getBean(UaaTokenServices.class).getExcludedClaims(), containsInAnyOrder(ClaimConstants.AUTHORITIES));
 
+        ValidatedTokenCache validatedTokenCache = context.getBean(UaaTokenServices.class).getValidatedTokenCache();
+        assertTrue(validatedTokenCache.isEnabled());
+        assertEquals(10, validatedTokenCache.getExpiryInSeconds());
+        assertEquals(500, validatedTokenCache.getMaxEntries());
+
         CorsFilter corsFilter = context.getBean(CorsFilter.class);
 
         for (CorsConfiguration configuration : Arrays.asList(corsFilter.getXhrConfiguration(), corsFilter.getDefaultConfiguration())) {
@@ -735,6 +823,78 @@ public class BootstrapTests {
 
         IdentityZoneResolvingFilter filter = context.getBean(IdentityZoneResolvingFilter.class);
         assertThat(filter.getDefaultZoneHostnames(), containsInAnyOrder(uaa, login, "localhost", "host1.domain.com", "host2", "test3.localhost", "test4.localhost"));
+        assertEquals(30, filter.getCacheExpiryInSeconds());
+        assertEquals(3, filter.getNegativeCacheExpiryInSeconds());
+        assertEquals(200, filter.getCacheMaxEntries());
+
+        MultitenantJdbcClientDetailsService clientDetailsService = context.getBean("jdbcClientDetailsService", MultitenantJdbcClientDetailsService.class);
+        assertTrue(clientDetailsService.isCacheEnabled());
+        assertEquals(20, clientDetailsService.getCacheExpiryInSeconds());
+        assertEquals(300, clientDetailsService.getCacheMaxEntries());
+        assertEquals(1000, clientDetailsService.getVersionCheckIntervalInMillis());
+
+        JdbcIdentityProviderProvisioning identityProviderProvisioning = context.getBean("identityProviderProvisioning", JdbcIdentityProviderProvisioning.class);
+        assertTrue(identityProviderProvisioning.isCacheEnabled());
+        assertEquals(30, identityProviderProvisioning.getCacheExpiryInSeconds());
+        assertEquals(100, identityProviderProvisioning.getCacheMaxEntries());
+        assertEquals(2000, identityProviderProvisioning.getVersionCheckIntervalInMillis());
+
+        GroupClosureCache groupClosureCache = context.getBean(GroupClosureCache.class);
+        assertTrue(groupClosureCache.isEnabled());
+        assertEquals(45, groupClosureCache.getExpiryInSeconds());
+        assertEquals(50, groupClosureCache.getMaxZones());
+        InMemoryFailedLoginCountingAuditService failureCounter = context.getBean(InMemoryFailedLoginCountingAuditService.class);
+        assertSame(context.getBean("jdbcAuditService"), failureCounter.getPersister());
+        AsyncAuditService asyncAuditService = context.getBean(AsyncAuditService.class);
+        assertSame(failureCounter, asyncAuditService.getDelegate());
+        assertTrue(asyncAuditService.isEnabled());
+        assertEquals(500, asyncAuditService.getBufferSize());
+        assertEquals(50, asyncAuditService.getBatchSize());
+        assertEquals(100, asyncAuditService.getFlushIntervalMillis());
+        assertEquals(AsyncAuditService.OverflowPolicy.SPILL, asyncAuditService.getOverflowPolicy());
+        assertEquals(300, asyncAuditService.getBlockTimeoutMillis());
+        assertEquals("/tmp/uaa-audit-spill.log", asyncAuditService.getSpillFile());
+
+        ExpiringUrlCache urlCache = context.getBean("urlCache", ExpiringUrlCache.class);
+        assertEquals(300000, urlCache.getExpiringTimeMillis());
+        assertEquals(500, urlCache.getMaxEntries());
+        assertEquals(3600000, urlCache.getMaxStaleMillis());
+        assertEquals(30000, urlCache.getRefreshAheadMillis());
+        assertEquals(5000, urlCache.getFailureBackoffMillis());
+        assertEquals(120000, urlCache.getMaxFailureBackoffMillis());
+
+        TokenKeyCache tokenKeyCache = context.getBean(TokenKeyCache.class);
+        assertEquals(120000, tokenKeyCache.getDefaultTtlMillis());
+        assertEquals(3600000, tokenKeyCache.getMaxTtlMillis());
+        assertEquals(5000, tokenKeyCache.getMinRefreshIntervalMillis());
+        assertEquals(100, tokenKeyCache.getMaxEntries());
+
+        RestTemplateFactory restTemplateFactory = context.getBean(RestTemplateFactory.class);
+        assertEquals(100, restTemplateFactory.getMaxConnections());
+        assertEquals(10, restTemplateFactory.getMaxConnectionsPerRoute());
+        assertEquals(30000, restTemplateFactory.getKeepAliveMillis());
+        assertEquals(5000, restTemplateFactory.getConnectTimeoutMillis());
+        assertEquals(15000, restTemplateFactory.getReadTimeoutMillis());
+
+        UaaTokenStore tokenStore = context.getBean(UaaTokenStore.class);
+        assertTrue(tokenStore.isInMemory());
+        assertEquals(5000, tokenStore.getMaxInMemoryCodes());
+        assertEquals(120000, tokenStore.getCleanupIntervalMillis());
+        assertEquals(1, tokenStore.getSerializationVersion());
+        assertEquals(500, failureCounter.getFlushIntervalMillis());
+        assertEquals(5000, failureCounter.getRefreshIntervalMillis());
+        assertEquals(2000, failureCounter.getMaxPendingEvents());
+        AsyncLastLogonTimeUpdater lastLogonTimeUpdater = context.getBean(AsyncLastLogonTimeUpdater.class);
+        assertTrue(lastLogonTimeUpdater.isEnabled());
+        assertEquals(250, lastLogonTimeUpdater.getFlushIntervalMillis());
+        assertEquals(20, lastLogonTimeUpdater.getBatchSize());
+        assertEquals(500, lastLogonTimeUpdater.getMaxPendingUsers());
+        PasswordHashingExecutor passwordHashingExecutor = context.getBean(PasswordHashingExecutor.class);
+        assertTrue(passwordHashingExecutor.isEnabled());
+        assertEquals(3, passwordHashingExecutor.getThreads());
+        assertEquals(40, passwordHashingExecutor.getQueueSize());
+        assertEquals(10, passwordHashingExecutor.getMaxPendingPerZone());
+        assertEquals(5, passwordHashingExecutor.getRetryAfterSeconds());
         DataSource ds = context.getBean(DataSource.class);
         assertEquals(50, ds.getMaxActive());
         assertEquals(3, ds.getMinIdle());
@@ -850,6 +1010,8 @@ public class BootstrapTests {
         assertTrue(ldapConfig.isGroupSearchSubTree());
         assertEquals("(member={0})", ldapConfig.getGroupSearchFilter());
         assertEquals(11, ldapConfig.getMaxGroupSearchDepth());
+        assertEquals(5000, (int) ldapConfig.getGroupSearchCacheTtlMillis());
+        assertEquals(4, (int) ldapConfig.getConnectionPoolMaxIdle());
         assertTrue(ldapConfig.isAutoAddGroups());
 
 